@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.build;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Generates the emoji name table that is read by
+ * de.kswmd.whatsapptool.text.EmojiTable from the checked in
+ * src/build/resources/emoji/emoji-names.txt, so the table only changes with
+ * that file and doesn't depend on the JDK or the network. It is executed by
+ * the maven profile emoji-table as single file source program, so it must
+ * not depend on any other class of the project.
+ *
+ * Every line of the input is "code points in hex ; name", lines starting with
+ * '#' are comments. The names are normalized like EmojiTable.normalize, a
+ * normalized name must not be defined twice.
+ *
+ * Format of the table (big endian):
+ * <pre>
+ * int    magic 'EMJ2'
+ * int    number of entries
+ * entry* sorted by name:
+ *   byte   length of the prefix shared with the previous name
+ *   byte   length of the suffix
+ *   byte[] suffix (ASCII)
+ *   byte   number of code points
+ *   3 byte per code point
+ * </pre>
+ *
+ * @author Kai Denzel
+ */
+public final class EmojiTableGenerator {
+
+    public static final int MAGIC = 0x454D4A32;
+
+    private EmojiTableGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: EmojiTableGenerator <emoji-names.txt> <output file>");
+            System.exit(1);
+        }
+        Map<String, int[]> table = readTable(Paths.get(args[0]));
+        Path output = Paths.get(args[1]);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        try (OutputStream os = Files.newOutputStream(output)) {
+            write(table, os);
+        }
+        System.out.println("Generated emoji table with " + table.size() + " entries: " + output.toAbsolutePath());
+    }
+
+    static Map<String, int[]> readTable(Path input) throws IOException {
+        Map<String, int[]> table = new TreeMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int separator = line.indexOf(';');
+                if (separator == -1) {
+                    throw new IOException(input + ":" + lineNumber + ": missing ';'");
+                }
+                String[] hex = line.substring(0, separator).trim().split("\\s+");
+                if (hex.length > 255) {
+                    throw new IOException(input + ":" + lineNumber + ": too many code points");
+                }
+                int[] codePoints = new int[hex.length];
+                for (int i = 0; i < hex.length; i++) {
+                    codePoints[i] = Integer.parseInt(hex[i], 16);
+                    if (!Character.isValidCodePoint(codePoints[i])) {
+                        throw new IOException(input + ":" + lineNumber + ": invalid code point " + hex[i]);
+                    }
+                }
+                String name = normalize(line.substring(separator + 1));
+                if (name.isEmpty() || name.length() > 255) {
+                    throw new IOException(input + ":" + lineNumber + ": invalid name");
+                }
+                if (table.putIfAbsent(name, codePoints) != null) {
+                    throw new IOException(input + ":" + lineNumber + ": " + name + " is already defined");
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Same as EmojiTable.normalize.
+     */
+    static String normalize(String name) {
+        String stripped = Normalizer.normalize(name.trim(), Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+        return stripped.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]+", "_");
+    }
+
+    static void write(Map<String, int[]> table, OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        out.writeInt(table.size());
+        byte[] previous = new byte[0];
+        for (Map.Entry<String, int[]> entry : table.entrySet()) {
+            byte[] name = entry.getKey().getBytes(StandardCharsets.US_ASCII);
+            int shared = 0;
+            int max = Math.min(Math.min(previous.length, name.length), 255);
+            while (shared < max && previous[shared] == name[shared]) {
+                shared++;
+            }
+            out.writeByte(shared);
+            out.writeByte(name.length - shared);
+            out.write(name, shared, name.length - shared);
+            out.writeByte(entry.getValue().length);
+            for (int codePoint : entry.getValue()) {
+                out.writeByte(codePoint >>> 16);
+                out.writeByte(codePoint >>> 8);
+                out.writeByte(codePoint);
+            }
+            previous = name;
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool;
+
+import de.kswmd.whatsapptool.contacts.UnreadEvent;
+import de.kswmd.whatsapptool.selenium.ScriptResources;
+import de.kswmd.whatsapptool.send.OutboundQueue;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.json.Json;
+
+/**
+ * Stream of unread message changes of the chat list. A MutationObserver in the
+ * page records the changes into a buffer, which is drained in batches and
+ * published to the subscribers. Draining is one small script call and doesn't
+ * query the DOM, so the interval can be short.
+ * <p>
+ * The driver isn't thread safe, so the drain runs with the consumer of the
+ * {@link OutboundQueue} between two messages. The thread of the stream only
+ * submits a drain per interval and waits for it.
+ *
+ * @author Kai Denzel
+ */
+public class UnreadMessageStream {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final Json JSON = new Json();
+
+    public static final Duration DEFAULT_DRAIN_INTERVAL = Duration.ofMillis(250);
+
+    private final JavascriptExecutor executor;
+    private final Supplier<OutboundQueue> queue;
+    private final Duration drainInterval;
+    private final List<Consumer<UnreadEvent>> subscribers = new CopyOnWriteArrayList<>();
+    /**
+     * The last known unread chats by title.
+     */
+    private final Map<String, UnreadEvent> unreadChats = new ConcurrentHashMap<>();
+
+    private volatile Thread worker;
+    private volatile boolean installed;
+
+    public UnreadMessageStream(WhatsAppWebClient client) {
+        this(client, DEFAULT_DRAIN_INTERVAL);
+    }
+
+    public UnreadMessageStream(WhatsAppWebClient client, Duration drainInterval) {
+        this((JavascriptExecutor) client.getDriver(), client::getOutboundQueue, drainInterval);
+    }
+
+    UnreadMessageStream(JavascriptExecutor executor, Supplier<OutboundQueue> queue, Duration drainInterval) {
+        this.executor = executor;
+        this.queue = queue;
+        this.drainInterval = drainInterval;
+    }
+
+    /**
+     * Adds a subscriber which is called from the consumer thread of the
+     * outbound queue for every event.
+     *
+     * @param subscriber
+     */
+    public void subscribe(Consumer<UnreadEvent> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(Consumer<UnreadEvent> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Starts draining if not already running.
+     */
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        installed = false;
+        worker = new Thread(this::run, "unread-message-stream");
+        worker.setDaemon(true);
+        worker.start();
+        LOGGER.debug("Started unread message stream with drain interval " + drainInterval.toMillis() + "ms.");
+    }
+
+    /**
+     * Stops draining. The observer stays in the page and is reused on
+     * the next start.
+     */
+    public synchronized void stop() {
+        Thread t = worker;
+        worker = null;
+        if (t != null) {
+            t.interrupt();
+            LOGGER.debug("Stopped unread message stream.");
+        }
+    }
+
+    public boolean isRunning() {
+        Thread t = worker;
+        return t != null && t.isAlive();
+    }
+
+    /**
+     * @return the chats with unread messages as known by the stream
+     */
+    public Collection<UnreadEvent> getUnreadChats() {
+        return Collections.unmodifiableCollection(new ArrayList<>(unreadChats.values()));
+    }
+
+    private void run() {
+        while (worker == Thread.currentThread()) {
+            try {
+                queue.get().runInBrowser(this::drainQuietly).get();
+            } catch (ExecutionException | CancellationException ex) {
+                //the queue is shut down, try again with the next interval
+                LOGGER.trace("Couldn't drain unread messages.", ex);
+            } catch (InterruptedException ex) {
+                LOGGER.trace("Unread message stream interrupted.", ex);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                Thread.sleep(drainInterval.toMillis());
+            } catch (InterruptedException ex) {
+                LOGGER.trace("Unread message stream interrupted.", ex);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Void drainQuietly() {
+        try {
+            drain();
+        } catch (WebDriverException | UncheckedIOException | ClassCastException ex) {
+            LOGGER.trace("Couldn't drain unread messages.", ex);
+            installed = false;
+        }
+        return null;
+    }
+
+    /**
+     * Takes the recorded events out of the page and publishes them. Installs
+     * the observer if it is missing.
+     */
+    void drain() {
+        if (!installed) {
+            installed = Boolean.TRUE.equals(executor.executeScript(ScriptResources.get(ScriptResources.UNREAD_OBSERVER)));
+            if (!installed) {
+                return;
+            }
+            unreadChats.clear();
+            LOGGER.debug("Installed unread message observer.");
+        }
+        Object json = executor.executeScript(ScriptResources.get(ScriptResources.UNREAD_DRAIN));
+        if (json == null) {
+            installed = false;
+            return;
+        }
+        publish(parseEvents((String) json));
+    }
+
+    void publish(List<UnreadEvent> events) {
+        for (UnreadEvent event : events) {
+            if (event.getUnreadMessages() > 0) {
+                unreadChats.put(event.getTitle(), event);
+            } else {
+                unreadChats.remove(event.getTitle());
+            }
+            for (Consumer<UnreadEvent> subscriber : subscribers) {
+                try {
+                    subscriber.accept(event);
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Subscriber failed for " + event, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the JSON array returned by the drain script to UnreadEvents.
+     *
+     * @param json the JSON array
+     * @return the events in the recorded order
+     */
+    static List<UnreadEvent> parseEvents(String json) {
+        List<Map<String, Object>> items = JSON.toType(json, Json.LIST_OF_MAPS_TYPE);
+        List<UnreadEvent> events = new ArrayList<>(items.size());
+        for (Map<String, Object> item : items) {
+            events.add(new UnreadEvent(
+                    (String) item.get("title"),
+                    (String) item.get("testId"),
+                    toInt(item.get("unread")),
+                    toInt(item.get("delta")),
+                    toLong(item.get("timestamp"))
+            ));
+        }
+        return events;
+    }
+
+    private static int toInt(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+}
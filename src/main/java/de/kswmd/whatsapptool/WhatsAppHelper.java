@@ -25,15 +25,26 @@ package de.kswmd.whatsapptool;
 
 import de.kswmd.whatsapptool.cli.Console;
 import de.kswmd.whatsapptool.contacts.ChatListBean;
+import de.kswmd.whatsapptool.contacts.ContactResolution;
+import de.kswmd.whatsapptool.contacts.ContactResolutionCache;
+import de.kswmd.whatsapptool.contacts.InvalidNumberCache;
 import static de.kswmd.whatsapptool.contacts.ChatListBean.Type.CONTACT;
 import de.kswmd.whatsapptool.contacts.Message;
+import de.kswmd.whatsapptool.selenium.ScriptResources;
+import de.kswmd.whatsapptool.send.OutboundQueue;
+import de.kswmd.whatsapptool.text.EmojiTable;
+import de.kswmd.whatsapptool.text.TextSource;
 import de.kswmd.whatsapptool.utils.ChronoConstants;
 import de.kswmd.whatsapptool.utils.ProgressBar;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.regex.Pattern;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openqa.selenium.By;
@@ -41,7 +52,10 @@ import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.Keys;
 import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WrapsDriver;
+import org.openqa.selenium.json.Json;
 
 /**
  *
@@ -51,6 +65,8 @@ public class WhatsAppHelper {
 
     private static final Logger LOGGER = LogManager.getLogger();
 
+    private static final Json JSON = new Json();
+
     /**
      * Shift enter sequence if you want to put a new line to the chatbox inside
      * the same message block.
@@ -82,6 +98,15 @@ public class WhatsAppHelper {
      */
     public static final int MAX_TEXTBOX_CHAR_SIZE = 65536;
 
+    /**
+     * Matches the text of the popup WhatsApp Web shows if the phone number of
+     * the send url is not on WhatsApp, e.g. "Phone number shared via url is
+     * invalid.", in the languages of WhatsApp Web.
+     */
+    public static final Pattern INVALID_NUMBER_POPUP = Pattern.compile(
+            "invalid|ungültig|inválid|invalide|non valid|no es válid|não é válid",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+
     /**
      * Because the chromedriver only supports BMP Characters this is a solution
      * to send emojis to the whatsapp web frontend. It requires a char sequence
@@ -89,6 +114,9 @@ public class WhatsAppHelper {
      * be performed by the WhatsAppWebClient class itself in the appendText
      * Method. This is the reason for filtering emojis before being sent so the
      * popup dialog can appear.
+     *
+     * Only used in the KEYS text input mode. The names also work as aliases
+     * for the complete emoji table, see {@link EmojiTable}.
      */
     public enum Emoji {
         ROFL(":floor", "🤣"),
@@ -124,20 +152,112 @@ public class WhatsAppHelper {
 
     }
 
+    /**
+     * Returns the emoji for the name. The predefined emojis of {@link Emoji}
+     * are checked first, then the unicode names of the {@link EmojiTable}.
+     *
+     * @param name the name of the emoji, e.g. ROFL or FACE_WITH_TEARS_OF_JOY
+     * @return the emoji as String
+     */
+    public static Optional<String> getEmojiStringRepresentation(String name) {
+        if (name == null) {
+            return Optional.empty();
+        }
+        String normalizedName = EmojiTable.normalize(name);
+        try {
+            return Optional.of(Emoji.valueOf(normalizedName).getEmojiStringRepresentation());
+        } catch (IllegalArgumentException ex) {
+            LOGGER.trace("No predefined emoji " + normalizedName, ex);
+        }
+        return EmojiTable.lookup(normalizedName);
+    }
+
     public static String getAttributesOfElement(WebDriver driver, WebElement element) {
         JavascriptExecutor executor = (JavascriptExecutor) driver;
         Object elementAttributes = executor.executeScript("var items = {}; for (index = 0; index < arguments[0].attributes.length; ++index) { items[arguments[0].attributes[index].name] = arguments[0].attributes[index].value }; return items;", element);
         return elementAttributes.toString();
     }
 
+    /**
+     * Parses the rendered chat list to ChatListBeans sorted by their position.
+     * The whole list is read with one injected script (see
+     * {@link #generateFromSnapshot(WebElement)}). If that fails, the list is
+     * parsed element by element as fallback.
+     *
+     * @param chatList the chat list element
+     * @return the sorted list of beans
+     */
     public static List<ChatListBean> generateFromWebElement(WebElement chatList) {
+        try {
+            return generateFromSnapshot(chatList);
+        } catch (WebDriverException | UncheckedIOException | ClassCastException ex) {
+            LOGGER.debug("Couldn't take snapshot of chat list, parse it element by element...", ex);
+        }
+        return generateFromListItems(chatList);
+    }
+
+    /**
+     * Reads the whole chat list in a single executeScript call. The script
+     * returns a JSON array with the raw values of all list items.
+     *
+     * @param chatList the chat list element
+     * @return the sorted list of beans
+     */
+    public static List<ChatListBean> generateFromSnapshot(WebElement chatList) {
+        if (!(chatList instanceof WrapsDriver)) {
+            throw new WebDriverException("Element doesn't provide its driver, snapshot not possible.");
+        }
+        JavascriptExecutor executor = (JavascriptExecutor) ((WrapsDriver) chatList).getWrappedDriver();
+        Object json = executor.executeScript(ScriptResources.get(ScriptResources.CHATLIST_SNAPSHOT), chatList);
+        return generateFromSnapshotJson((String) json);
+    }
+
+    /**
+     * Maps the JSON array returned by the chat list snapshot script to
+     * ChatListBeans.
+     *
+     * @param json the JSON array
+     * @return the sorted list of beans
+     */
+    public static List<ChatListBean> generateFromSnapshotJson(String json) {
+        List<Map<String, Object>> items = JSON.toType(json, Json.LIST_OF_MAPS_TYPE);
+        List<ChatListBean> list = new ArrayList<>(items.size());
+        for (Map<String, Object> item : items) {
+            try {
+                ChatListBean bean = new ChatListBean(ChatListBean.Type.valueOf((String) item.get("type")));
+                bean.setTitle((String) item.get("title"));
+                if (bean.getType() != ChatListBean.Type.HEADER) {
+                    bean.setTime((String) item.get("time"));
+                    String lastMessageStatus = (String) item.get("lastMessage");
+                    bean.setLastMessage(lastMessageStatus == null ? null : lastMessageStatus.replaceAll("\n", ""));
+                    bean.setUnreadMessages(parseUnreadMessages((String) item.get("unread")));
+                }
+                bean.setListItemTestId((String) item.get("testId"));
+                setSort(bean, (String) item.get("style"));
+                list.add(bean);
+            } catch (Exception ex) {
+                LOGGER.trace("Couldn't map snapshot item to Object...", ex);
+            }
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * Parses the chat list element by element. Every findElement, getText and
+     * getAttribute is a request to the webdriver, so this is a lot slower than
+     * {@link #generateFromSnapshot(WebElement)}.
+     *
+     * @param chatList the chat list element
+     * @return the sorted list of beans
+     */
+    public static List<ChatListBean> generateFromListItems(WebElement chatList) {
         List<WebElement> listItems = chatList.findElements(By.xpath(".//div[contains(@data-testid,'list-item-')]"));
         List<ChatListBean> list = new ArrayList<>(listItems.size());
         for (WebElement listItem : listItems) {
             try {
                 ChatListBean bean = null;
                 String sort = listItem.getAttribute("style");
-                sort = sort.replaceAll("^.*translateY[(](.*)px[)].*$", "$1");
                 //Check if list-item is a header element
                 try {
                     WebElement header = listItem.findElement(By.xpath(".//div[@data-testid='section-header']"));
@@ -174,11 +294,9 @@ public class WhatsAppHelper {
                     int unreadMessages = 0;
                     try {
                         WebElement unreadCountSpan = listItem.findElement(By.xpath(".//span[@data-testid='icon-unread-count']"));
-                        unreadMessages = Integer.parseInt(unreadCountSpan.getText());
+                        unreadMessages = parseUnreadMessages(unreadCountSpan.getText());
                     } catch (NoSuchElementException ex) {
                         LOGGER.trace("Element span unread count not found...", ex);
-                    } catch (NumberFormatException ex) {
-                        LOGGER.trace("The text value of span element was not an integer...", ex);
                     }
 
                     bean.setTitle(title.getText());
@@ -187,11 +305,7 @@ public class WhatsAppHelper {
                     bean.setUnreadMessages(unreadMessages);
                 }
                 bean.setListItemTestId(listItem.getAttribute("data-testid"));
-                try {
-                    bean.setSort(Integer.parseInt(sort));
-                } catch (NumberFormatException ex) {
-                    LOGGER.trace("Sort value invalid...", ex);
-                }
+                setSort(bean, sort);
                 list.add(bean);
             } catch (Exception ex) {
                 LOGGER.trace("Couldn't parse List-Item to Object...", ex);
@@ -206,9 +320,60 @@ public class WhatsAppHelper {
     }
 
     /**
-     * Used for sending messages in concurrent situations like jobs with many
-     * quartz triggers.It is a static synchronized method allowing only one
-     * thread at a time sending messages
+     * Parses the chat list with both strategies and returns a summary of the
+     * average duration of each strategy and if the results are equal.
+     *
+     * @param chatList the chat list element
+     * @param rounds how often each strategy is executed
+     * @return the summary
+     */
+    public static String compareChatListStrategies(WebElement chatList, int rounds) {
+        long snapshotNanos = 0;
+        long listItemsNanos = 0;
+        List<ChatListBean> snapshot = null;
+        List<ChatListBean> listItems = null;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            snapshot = generateFromSnapshot(chatList);
+            snapshotNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            listItems = generateFromListItems(chatList);
+            listItemsNanos += System.nanoTime() - start;
+        }
+        boolean equal = String.valueOf(snapshot).equals(String.valueOf(listItems));
+        return String.format("Snapshot:     %8.2f ms avg for %d items%n"
+                + "Per element:  %8.2f ms avg for %d items%n"
+                + "Rounds: %d, equal results: %s",
+                snapshotNanos / 1e6 / rounds, snapshot == null ? 0 : snapshot.size(),
+                listItemsNanos / 1e6 / rounds, listItems == null ? 0 : listItems.size(),
+                rounds, equal);
+    }
+
+    private static void setSort(ChatListBean bean, String style) {
+        try {
+            bean.setSort(Integer.parseInt(String.valueOf(style).replaceAll("^.*translateY[(](.*)px[)].*$", "$1")));
+        } catch (NumberFormatException ex) {
+            LOGGER.trace("Sort value invalid...", ex);
+        }
+    }
+
+    private static int parseUnreadMessages(String unreadCount) {
+        if (unreadCount == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(unreadCount);
+        } catch (NumberFormatException ex) {
+            LOGGER.trace("The text value of span element was not an integer...", ex);
+        }
+        return 0;
+    }
+
+    /**
+     * Sends the message with the browser and blocks until it is sent. Not
+     * synchronized, use {@link OutboundQueue#submit(String, String)} of
+     * {@link WhatsAppWebClient#getOutboundQueue()} so only the consumer thread
+     * of the queue uses the browser.
      *
      * @param m
      * @param client
@@ -221,9 +386,10 @@ public class WhatsAppHelper {
     }
 
     /**
-     * Used for sending messages in concurrent situations like jobs with many
-     * quartz triggers.It is a static synchronized method allowing only one
-     * thread at a time sending messages
+     * Sends the message with the browser and blocks until it is sent. Not
+     * synchronized, use {@link OutboundQueue#submit(String, String)} of
+     * {@link WhatsAppWebClient#getOutboundQueue()} so only the consumer thread
+     * of the queue uses the browser.
      *
      * @param identifier
      * @param content
@@ -232,93 +398,219 @@ public class WhatsAppHelper {
      * @throws PopUpDialogAvailableException
      * @throws de.kswmd.whatsapptool.NotAPhoneNumberException
      */
-    public static synchronized void sendMessage(final String identifier, final String content, final WhatsAppWebClient client) throws TimeoutWhatsAppWebException, PopUpDialogAvailableException, NotAPhoneNumberException {
+    public static void sendMessage(final String identifier, final String content, final WhatsAppWebClient client) throws TimeoutWhatsAppWebException, PopUpDialogAvailableException, NotAPhoneNumberException {
+        openChat(identifier, client);
+        sendToOpenChat(content, client);
+    }
+
+    /**
+     * Opens the chat of the identifier. Uses the resolution of the
+     * {@link ContactResolutionCache} of the client if available, otherwise the
+     * contacts are searched first and the chat is opened via the phone number
+     * if the identifier isn't a contact. After this method returns the
+     * conversation text box is available and
+     * {@link #sendToOpenChat(String, WhatsAppWebClient)} can be called for
+     * every message to this identifier.
+     *
+     * @param identifier the contact name or phone number
+     * @param client
+     * @throws TimeoutWhatsAppWebException if the chat couldn't be opened
+     * @throws PopUpDialogAvailableException if WhatsApp shows a popup instead
+     * of the chat, e.g. for an invalid phone number
+     * @throws InvalidPhoneNumberException if the phone number is known to be
+     * not on WhatsApp
+     * @throws NotAPhoneNumberException if the identifier is neither a contact
+     * nor a phone number
+     */
+    public static void openChat(final String identifier, final WhatsAppWebClient client) throws TimeoutWhatsAppWebException, PopUpDialogAvailableException, NotAPhoneNumberException {
+        if (identifier.matches("^[+0-9]+")) {
+            Optional<String> reason = client.getInvalidNumberCache().getReason(identifier);
+            if (reason.isPresent()) {
+                throw new InvalidPhoneNumberException("The phone number '" + identifier + "' is not on WhatsApp: " + reason.get());
+            }
+        }
+        final ContactResolutionCache cache = client.getContactResolutionCache();
+        Optional<ContactResolution> cached = cache.get(identifier);
+        if (cached.isPresent()) {
+            try {
+                LOGGER.debug("Open chat with cached " + cached.get());
+                openResolvedChat(cached.get(), client);
+                return;
+            } catch (TimeoutWhatsAppWebException ex) {
+                LOGGER.debug("Couldn't open chat with cached resolution of " + identifier + ", resolve again.", ex);
+                cache.invalidate(identifier);
+            } catch (PopUpDialogAvailableException ex) {
+                cache.invalidate(identifier);
+                throw ex;
+            }
+        }
         long startTime = System.currentTimeMillis();
-        final float totalInSeconds = 20;
         final long total = 100;
-        final float factor = total / totalInSeconds;
-        Console.writeLine("Start sending Message process.");
+        Console.writeLine("Open chat of " + identifier + ".");
         final long curserPosition = Console.writeAtEnd("");
-        boolean notInContactList;
+        ProgressBar.printProgress(startTime, total, 0, curserPosition);
+        ContactResolution resolution;
+        try {
+            resolution = resolveContact(identifier, client);
+        } finally {
+            ProgressBar.printProgress(startTime, total, 70, curserPosition);
+            Console.writeLine();
+        }
+        openResolvedChat(resolution, client);
+        cache.put(resolution);
+    }
+
+    /**
+     * Finds out if the identifier is a contact by searching it in the chat
+     * list. Doesn't open the chat.
+     *
+     * @param identifier the contact name or phone number
+     * @param client
+     * @return the resolution
+     * @throws NotAPhoneNumberException if the identifier is neither a contact
+     * nor a phone number
+     */
+    public static ContactResolution resolveContact(final String identifier, final WhatsAppWebClient client) throws NotAPhoneNumberException {
         try {
-            ProgressBar.printProgress(startTime, total, 0, curserPosition);
             client.search(identifier, ChronoConstants.DURATION_OF_5_SECONDS);
-            ProgressBar.printProgress(startTime, total, Math.round(5 * factor), curserPosition);
             client.waitForTimeOut(ChronoConstants.DURATION_OF_1_SECOND);
-            ProgressBar.printProgress(startTime, total, Math.round(6 * factor), curserPosition);
             WebElement chatList = client.getChatList(ChronoConstants.DURATION_OF_1_SECOND);
-            ProgressBar.printProgress(startTime, total, Math.round(7 * factor), curserPosition);
             Optional<ChatListBean> optionalChatListBean = WhatsAppHelper
                     .generateFromWebElement(chatList)
                     .stream()
                     .filter(cbl -> cbl.getType().equals(CONTACT))
                     .findFirst();
-            notInContactList = optionalChatListBean.isEmpty();
-            if (optionalChatListBean.isPresent()) {
-                ChatListBean clb = optionalChatListBean.get();
-                if (clb.getTitle().equals(identifier)) {
-                    client.clickElement(By.xpath("//span[@dir='auto' and @title='"
-                            + clb.getTitle()
-                            + "']/ancestor::div[contains(@data-testid,'list-item')]"),
-                            ChronoConstants.DURATION_OF_1_SECOND
-                    );
-                } else {
-                    notInContactList = true;
-                }
+            if (optionalChatListBean.isPresent() && optionalChatListBean.get().getTitle().equals(identifier)) {
+                return ContactResolution.contact(identifier, optionalChatListBean.get().getTitle());
             }
         } catch (TimeoutWhatsAppWebException ex) {
             LOGGER.trace("Error", ex);
-            notInContactList = true;
         }
-        ProgressBar.printProgress(startTime, total, Math.round(8 * factor), curserPosition);
-        Console.writeLine();
-        String contentWithEnter = content + Keys.ENTER.toString();
-        if (notInContactList) {
-            if (!identifier.matches("^[+0-9]+")) {
-                throw new NotAPhoneNumberException("The identifier '" + identifier + "' was neither found in your contacts nor is it a valid phone number.");
-            }
-            client.open(identifier);
+        if (!identifier.matches("^[+0-9]+")) {
+            throw new NotAPhoneNumberException("The identifier '" + identifier + "' was neither found in your contacts nor is it a valid phone number.");
+        }
+        return ContactResolution.phone(identifier, identifier);
+    }
+
+    /**
+     * Opens the chat of the resolution. A contact is clicked directly if it is
+     * shown in the chat list, otherwise it is searched by its title. A phone
+     * number is opened via the send url.
+     *
+     * @param resolution
+     * @param client
+     * @throws TimeoutWhatsAppWebException if the chat couldn't be opened
+     * @throws PopUpDialogAvailableException if WhatsApp shows a popup instead
+     * of the chat
+     */
+    private static void openResolvedChat(final ContactResolution resolution, final WhatsAppWebClient client) throws TimeoutWhatsAppWebException, PopUpDialogAvailableException {
+        if (resolution.getKind() == ContactResolution.Kind.CONTACT) {
+            By listItem = By.xpath("//span[@dir='auto' and @title='"
+                    + resolution.getTitle()
+                    + "']/ancestor::div[contains(@data-testid,'list-item')]");
             try {
-                //Get textbox and wait 10 Seconds for timeout
-                client.getElement(WhatsAppWebClient.XPATH_DIV_CHAT_TEXTBOX, ChronoConstants.DURATION_OF_10_SECONDS);
-                /**
-                 * After textbox is found, wait half a second because of the
-                 * "Begin chat" dialog to disappear. Important if the content
-                 * starts with an emoji. The "begin chat" dialog will prevent
-                 * the emoji dialog to appear.
-                 */
-                client.waitForTimeOut(ChronoConstants.DURATION_OF_500_MILLIS);
-                //then set text.
-                client.setText(contentWithEnter);
+                client.clickElement(listItem, Duration.ZERO);
             } catch (TimeoutWhatsAppWebException ex) {
-                LOGGER.trace("No Textbox found", ex);
+                LOGGER.trace("Contact not shown in the chat list, search it.", ex);
+                client.search(resolution.getTitle(), ChronoConstants.DURATION_OF_5_SECONDS);
+                client.clickElement(listItem, ChronoConstants.DURATION_OF_2_SECONDS);
+            }
+            client.getConversationTextField(ChronoConstants.DURATION_OF_5_SECONDS);
+            return;
+        }
+        client.open(resolution.getPhone());
+        try {
+            //Get textbox and wait 10 Seconds for timeout
+            client.getElement(WhatsAppWebClient.XPATH_DIV_CHAT_TEXTBOX, ChronoConstants.DURATION_OF_10_SECONDS);
+            /**
+             * After textbox is found, wait half a second because of the "Begin
+             * chat" dialog to disappear. Important if the content starts with
+             * an emoji. The "begin chat" dialog will prevent the emoji dialog
+             * to appear.
+             */
+            client.waitForTimeOut(ChronoConstants.DURATION_OF_500_MILLIS);
+        } catch (TimeoutWhatsAppWebException ex) {
+            LOGGER.trace("No Textbox found", ex);
+            try {
                 handlePossiblePopUpDialog(client);
+            } catch (PopUpDialogAvailableException popUp) {
+                if (isInvalidNumberPopUp(popUp.getMessage())) {
+                    client.getInvalidNumberCache().add(resolution.getPhone(), popUp.getMessage());
+                } else {
+                    LOGGER.warn("Popup while opening the chat of " + resolution.getPhone()
+                            + " isn't the invalid number dialog, the number isn't cached: " + popUp.getMessage());
+                }
+                throw popUp;
             }
-        } else {
-            client.setText(contentWithEnter, ChronoConstants.DURATION_OF_10_SECONDS);
+            throw ex;
         }
-        ProgressBar.printProgress(startTime, total, Math.round(19 * factor), curserPosition);
-        client.waitForTimeOut(ChronoConstants.DURATION_OF_500_MILLIS);
-        ProgressBar.printProgress(startTime, total, total, curserPosition);
-        Console.writeLine();
     }
 
-    public static String makeBlocksIfNecessary(String textFieldContent, String origText) {
-        int fullSize = textFieldContent.length() + origText.length();
-        if (WhatsAppHelper.MAX_TEXTBOX_CHAR_SIZE <= fullSize) {
-            StringBuilder sb = new StringBuilder(origText);
-            int index = 0;
-            int textFieldContentLength = textFieldContent.length();
-            while (index < sb.length()) {
-                int spaceLeftForBlock = Math.min(sb.length(), index + WhatsAppHelper.MAX_TEXTBOX_CHAR_SIZE - textFieldContentLength);
-                sb.insert(Math.min(index + spaceLeftForBlock, sb.length()), '\n');
-                index = spaceLeftForBlock + 1;
-                //set textfield content to 0 because it is only relevant for the first Block.
-                textFieldContentLength = 0;
+    /**
+     * Opens the chat of the phone number to find out if it is on WhatsApp.
+     * Invalid numbers are added to the {@link InvalidNumberCache}, valid ones
+     * to the {@link ContactResolutionCache} of the client.
+     *
+     * @param phone the phone number
+     * @param client
+     * @return the text of the popup if the number is not on WhatsApp
+     * @throws TimeoutWhatsAppWebException if neither the chat nor a popup
+     * appeared
+     * @throws PopUpDialogAvailableException if another popup than the invalid
+     * number dialog appeared
+     */
+    public static Optional<String> probePhoneNumber(final String phone, final WhatsAppWebClient client) throws TimeoutWhatsAppWebException, PopUpDialogAvailableException {
+        ContactResolution resolution = ContactResolution.phone(phone, phone);
+        try {
+            openResolvedChat(resolution, client);
+        } catch (PopUpDialogAvailableException ex) {
+            if (!isInvalidNumberPopUp(ex.getMessage())) {
+                throw ex;
             }
-            return sb.toString();
+            return Optional.of(ex.getMessage());
         }
-        return origText;
+        client.getContactResolutionCache().put(resolution);
+        return Optional.empty();
+    }
+
+    /**
+     * Types the content into the conversation text box of the chat opened by
+     * {@link #openChat(String, WhatsAppWebClient)} and sends it.
+     *
+     * @param content the parsed content
+     * @param client
+     * @throws TimeoutWhatsAppWebException if the conversation text box isn't
+     * available
+     */
+    public static void sendToOpenChat(final String content, final WhatsAppWebClient client) throws TimeoutWhatsAppWebException {
+        Console.writeLine("Start sending Message process.");
+        client.setText(content + Keys.ENTER.toString(), ChronoConstants.DURATION_OF_10_SECONDS);
+        client.waitForConversationTextBoxEmpty(ChronoConstants.DURATION_OF_500_MILLIS);
+    }
+
+    /**
+     * Streams the content into the conversation text box of the chat opened
+     * by {@link #openChat(String, WhatsAppWebClient)} and sends it.
+     *
+     * @param content the content, \n is translated for the text box
+     * @param client
+     * @throws TimeoutWhatsAppWebException if the conversation text box isn't
+     * available
+     */
+    public static void sendToOpenChat(final TextSource content, final WhatsAppWebClient client) throws TimeoutWhatsAppWebException {
+        Console.writeLine("Start sending Message process.");
+        client.setText(content, ChronoConstants.DURATION_OF_10_SECONDS);
+        client.appendText(Keys.ENTER.toString());
+        client.waitForConversationTextBoxEmpty(ChronoConstants.DURATION_OF_500_MILLIS);
+    }
+
+    /**
+     * @param text the text of a popup
+     * @return true if it is the popup of a phone number that is not on
+     * WhatsApp, see {@link #INVALID_NUMBER_POPUP}
+     */
+    public static boolean isInvalidNumberPopUp(String text) {
+        return text != null && INVALID_NUMBER_POPUP.matcher(text).find();
     }
 
     private static void handlePossiblePopUpDialog(final WhatsAppWebClient client) throws PopUpDialogAvailableException {
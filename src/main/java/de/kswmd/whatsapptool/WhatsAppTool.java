@@ -24,11 +24,23 @@
 package de.kswmd.whatsapptool;
 
 import de.kswmd.whatsapptool.cli.CLI;
+import de.kswmd.whatsapptool.contacts.InvalidNumberCache;
 import de.kswmd.whatsapptool.quartz.ScheduleManager;
 import de.kswmd.whatsapptool.selenium.WebDriverFactory;
 import de.kswmd.whatsapptool.selenium.WebDriverFactory.Browser;
+import de.kswmd.whatsapptool.send.CircuitBreaker;
+import de.kswmd.whatsapptool.send.DeadLetterStore;
+import de.kswmd.whatsapptool.send.OutboundQueue;
+import de.kswmd.whatsapptool.send.OutboxJournal;
+import de.kswmd.whatsapptool.send.RecipientPrefetcher;
+import de.kswmd.whatsapptool.text.IncludeCache;
+import de.kswmd.whatsapptool.text.MessageParser;
 import static de.kswmd.whatsapptool.selenium.WebDriverFactory.Browser.CHROMIUM;
+import de.kswmd.whatsapptool.utils.ChronoConstants;
 import de.kswmd.whatsapptool.utils.PathResolver;
+import de.kswmd.whatsapptool.utils.Settings;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import org.apache.logging.log4j.Level;
@@ -98,7 +110,41 @@ public class WhatsAppTool {
         WebDriver driver = webDriverFactory.createWebDriver(browser);
         try {
             scheduleManager.start();
-            WhatsAppWebClient client = new WhatsAppWebClient(driver);
+            scheduleManager.setSpreadWindow(Settings.getInstance().getScheduleSpreadWindow());
+            scheduleManager.setBackend(Settings.getInstance().getSchedulerBackend());
+            MessageParser.DEFAULT_PARSER.setIncludeCache(new IncludeCache(Settings.getInstance().getIncludeMaxBytes(), IncludeCache.DEFAULT_MAX_ENTRIES));
+            MessageParser.DEFAULT_PARSER.setMaxAttachDepth(Settings.getInstance().getAttachMaxDepth());
+            WhatsAppWebClient client = new WhatsAppWebClient(driver, Settings.getInstance().getUnreadDrainInterval());
+            client.setTextInputMode(Settings.getInstance().getTextInputMode());
+            client.setOutboundQueue(new OutboundQueue(client,
+                    Settings.getInstance().getOutboundQueueCapacity(),
+                    Settings.getInstance().getOutboundQueueBackpressure(),
+                    Settings.getInstance().getOutboundQueueFairnessWindow()));
+            if (Settings.getInstance().isOutboxJournal()) {
+                try {
+                    client.getOutboundQueue().setJournal(OutboxJournal.open(Settings.getInstance().getOutboxJournalFile(),
+                            Settings.getInstance().getOutboxSyncInterval(), OutboxJournal.DEFAULT_RETENTION, OutboxJournal.DEFAULT_COMPACTION_THRESHOLD));
+                } catch (IOException ex) {
+                    LOGGER.error("Couldn't open the outbox journal, messages are not recorded.", ex);
+                }
+            }
+            client.getOutboundQueue().setRetryPolicy(Settings.getInstance().getRetryPolicy());
+            int breakerThreshold = Settings.getInstance().getCircuitBreakerThreshold();
+            if (breakerThreshold > 0) {
+                client.getOutboundQueue().setCircuitBreaker(new CircuitBreaker(breakerThreshold,
+                        Settings.getInstance().getCircuitBreakerOpenDuration(), CircuitBreaker.DEFAULT_MAX_OPEN_DURATION));
+            }
+            client.getOutboundQueue().setRateLimiter(Settings.getInstance().getRateLimiter());
+            client.getOutboundQueue().setDeadLetters(DeadLetterStore.load(
+                    Settings.getInstance().getDeadLettersFile(), DeadLetterStore.DEFAULT_MAX_SIZE));
+            client.getContactResolutionCache().setTimeToLive(Settings.getInstance().getContactCacheTimeToLive());
+            client.setInvalidNumberCache(InvalidNumberCache.load(
+                    Settings.getInstance().getInvalidNumbersFile(),
+                    Settings.getInstance().getInvalidNumberTimeToLive()));
+            Duration prefetchHorizon = Settings.getInstance().getPrefetchHorizon();
+            if (!prefetchHorizon.isZero()) {
+                client.getOutboundQueue().setIdleTask(new RecipientPrefetcher(client, prefetchHorizon), RecipientPrefetcher.DEFAULT_IDLE_DELAY);
+            }
             scheduleManager.scheduleMaintenanceJob(client);
             scheduleManager.pauseAllJobs();
             LOGGER.trace("This is a trace message.");
@@ -108,6 +154,10 @@ public class WhatsAppTool {
             LOGGER.error("This is an error message.");
             CLI cli = new CLI(client);
             cli.start();
+            client.getOutboundQueue().shutdown(ChronoConstants.DURATION_OF_30_SECONDS);
+            if (client.getOutboundQueue().getJournal() != null) {
+                client.getOutboundQueue().getJournal().close();
+            }
         } catch (Exception ex) {
             LOGGER.fatal("The App crashed...", ex);
         } finally {
@@ -27,12 +27,20 @@ import static de.kswmd.whatsapptool.WhatsAppHelper.EMOJI_END_SEQUENCE;
 import static de.kswmd.whatsapptool.WhatsAppHelper.EMOJI_START_SEQUENCE;
 import de.kswmd.whatsapptool.WhatsAppHelper.Emoji;
 import de.kswmd.whatsapptool.cli.Console;
+import de.kswmd.whatsapptool.contacts.ContactResolutionCache;
+import de.kswmd.whatsapptool.contacts.InvalidNumberCache;
+import de.kswmd.whatsapptool.selenium.ScriptResources;
+import de.kswmd.whatsapptool.send.OutboundQueue;
+import de.kswmd.whatsapptool.text.TextSource;
 import de.kswmd.whatsapptool.utils.ProgressBar;
+import java.io.UncheckedIOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.logging.log4j.LogManager;
@@ -43,6 +51,7 @@ import org.openqa.selenium.Keys;
 import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.WebDriverWait;
@@ -53,6 +62,20 @@ import org.openqa.selenium.support.ui.WebDriverWait;
  */
 public class WhatsAppWebClient {
 
+    /**
+     * How text is put into the conversation text box.
+     */
+    public enum TextInputMode {
+        /**
+         * Types the text with sendKeys in chunks of 1024 characters.
+         */
+        KEYS,
+        /**
+         * Inserts every block of text with one script call as input events.
+         */
+        INJECT
+    }
+
     private static final Logger LOGGER = LogManager.getLogger();
 
     public static final String WHATSAPP_WEB_URI = "web.whatsapp.com";
@@ -72,35 +95,64 @@ public class WhatsAppWebClient {
 
     private static final By XPATH_RELATIVE_SPAN_DIV_CHAT_TEXTBOX_TEXT = By.xpath("./p/span");
 
+    /**
+     * Max characters inserted with one script call in INJECT mode. Keeps the
+     * payload of a single webdriver request small.
+     */
+    private static final int INJECT_BUFFER_SIZE = 16384;
+
     private final WebDriver driver;
 
+    private volatile TextInputMode textInputMode = TextInputMode.INJECT;
+
+    private final UnreadMessageStream unreadMessageStream;
+
+    private volatile OutboundQueue outboundQueue;
+
+    private final ContactResolutionCache contactResolutionCache = new ContactResolutionCache();
+
+    private volatile InvalidNumberCache invalidNumberCache = new InvalidNumberCache();
+
+    /**
+     * Counts the calls that may change the open chat.
+     */
+    private final AtomicLong navigationCount = new AtomicLong();
+
     /**
      * The secret pattern to filter out emojis from the message. Should be
      * impossible to guess by the user so the user has to go the way with the
      * message parser.
      */
-    private final Pattern emojiPattern = Pattern.compile(EMOJI_START_SEQUENCE + "([A-Z_]+?)" + EMOJI_END_SEQUENCE);
+    private final Pattern emojiPattern = Pattern.compile(EMOJI_START_SEQUENCE + "([A-Z0-9_]+?)" + EMOJI_END_SEQUENCE);
     /**
      * Looks if the String ends with a word character.
      */
     private final Pattern stringEndingPattern = Pattern.compile(".*[\\w]$", Pattern.DOTALL);
 
     public WhatsAppWebClient(WebDriver driver) {
+        this(driver, UnreadMessageStream.DEFAULT_DRAIN_INTERVAL);
+    }
+
+    public WhatsAppWebClient(WebDriver driver, Duration unreadDrainInterval) {
         this.driver = driver;
+        this.unreadMessageStream = new UnreadMessageStream(this, unreadDrainInterval);
     }
 
     public void open() {
+        navigationCount.incrementAndGet();
         driver.get("https://" + WHATSAPP_WEB_URI);
         acceptAlert();
     }
 
     public void open(String phone) {
+        navigationCount.incrementAndGet();
         driver.get("https://" + WHATSAPP_WEB_URI + "/send?"
                 + "phone=" + URLEncoder.encode(phone, StandardCharsets.UTF_8));
         acceptAlert();
     }
 
     public void openWithText(String phone, String text) {
+        navigationCount.incrementAndGet();
         driver.get("https://" + WHATSAPP_WEB_URI + "/send?"
                 + "phone=" + URLEncoder.encode(phone, StandardCharsets.UTF_8)
                 + "&text=" + URLEncoder.encode(text, StandardCharsets.UTF_8));
@@ -108,6 +160,7 @@ public class WhatsAppWebClient {
     }
 
     public void refresh() {
+        navigationCount.incrementAndGet();
         driver.navigate().refresh();
     }
 
@@ -140,7 +193,9 @@ public class WhatsAppWebClient {
     /**
      * This method is used for appending Text to the conversation text box if
      * shown. It also filters the Text for inserted Emojis performed by the
-     * MessageParser class.
+     * MessageParser class. In INJECT mode the emojis are inserted directly
+     * with the text, in KEYS mode the predefined emojis are selected with the
+     * emoji popup of WhatsApp Web.
      *
      * @param text
      * @param timeout
@@ -148,12 +203,78 @@ public class WhatsAppWebClient {
      */
     public void appendText(String text, Duration timeout) throws TimeoutWhatsAppWebException {
         WebElement textField = getConversationTextField(timeout);
+        final TypingState state = new TypingState(
+                Console.writeLine("Start appending Text."),
+                System.currentTimeMillis(),
+                text.length()
+        );
+        appendChunk(text, textField, state);
+        Console.writeLine("");
+    }
+
+    /**
+     * Appends the text to the conversation textbox while it is emitted, so
+     * only one segment of the text is copied at a time. Line breaks are
+     * translated by the source, depending on the text input mode. A segment
+     * that ends inside an emoji sequence of the MessageParser or a shift
+     * enter chord is held back until the next segment completes it.
+     *
+     * @param source
+     * @param timeout
+     * @throws TimeoutWhatsAppWebException
+     */
+    public void appendText(TextSource source, Duration timeout) throws TimeoutWhatsAppWebException {
+        WebElement textField = getConversationTextField(timeout);
+        final TypingState state = new TypingState(
+                Console.writeLine("Start appending Text."),
+                System.currentTimeMillis(),
+                Math.max(1, source.lengthHint())
+        );
+        final StringBuilder carry = new StringBuilder();
+        final String lineBreak = textInputMode == TextInputMode.INJECT ? null : WhatsAppHelper.SHIFT_ENTER;
+        source.emit(TextSource.DEFAULT_SEGMENT_SIZE, lineBreak, segment -> {
+            carry.append(segment);
+            int end = completeLength(carry);
+            if (end > 0) {
+                String chunk = carry.substring(0, end);
+                carry.delete(0, end);
+                appendChunk(chunk, textField, state);
+            }
+        });
+        appendChunk(carry.toString(), textField, state);
+        Console.writeLine("");
+    }
+
+    /**
+     * @param text
+     * @return the length of the text without an incomplete emoji sequence or
+     * shift enter chord at the end
+     */
+    static int completeLength(CharSequence text) {
+        String s = text.toString();
+        int emojiStart = s.lastIndexOf(EMOJI_START_SEQUENCE);
+        if (emojiStart >= 0 && s.indexOf(EMOJI_END_SEQUENCE, emojiStart + EMOJI_START_SEQUENCE.length()) < 0) {
+            return emojiStart;
+        }
+        int length = s.length();
+        for (String sequence : new String[]{EMOJI_START_SEQUENCE, WhatsAppHelper.SHIFT_ENTER}) {
+            for (int k = Math.min(sequence.length() - 1, length); k > 0; k--) {
+                if (s.regionMatches(length - k, sequence, 0, k)) {
+                    return length - k;
+                }
+            }
+        }
+        return length;
+    }
+
+    private void appendChunk(String text, WebElement textField, TypingState state) {
         //Replace every Tab because Tab will lose the focus for the textbox.
         text = text.replaceAll("\t", "");
-        final long curserPosition = Console.writeLine("Start appending Text.");
-        final long startTime = System.currentTimeMillis();
-        final int total = text.length();
-        int progress = 0;
+        if (textInputMode == TextInputMode.INJECT) {
+            text = replaceEmojis(text);
+        }
+        final int offset = state.progress;
+        state.total = Math.max(state.total, offset + text.length());
         //##########start ugly hack for sending emojis###########################
         int index = 0;
         Matcher matcher = emojiPattern.matcher(text);
@@ -162,16 +283,16 @@ public class WhatsAppWebClient {
             //Get the String before the next emoji
             String sub = text.substring(index, start);
             //Send them in junks
-            sendInJunks(sub, textField, startTime, curserPosition, total, progress);
-            //If the string ends with a word character, we have to insert a space.
-            if (stringEndingPattern.matcher(sub).matches()) {
-                textField.sendKeys(Keys.SPACE);
-            }
+            write(sub, textField, state);
             //Get the emoji
             String emojiValue = matcher.group(1);
             try {
                 //Load the emoji
                 Emoji emoji = Emoji.valueOf(emojiValue);
+                //If the string ends with a word character, we have to insert a space.
+                if (stringEndingPattern.matcher(sub).matches()) {
+                    textField.sendKeys(Keys.SPACE);
+                }
                 //Calculate the free space from the chatbox
                 int textFieldSize = textField.getText().length();
                 int freeSpaceInCurrentBlock = WhatsAppHelper.MAX_TEXTBOX_CHAR_SIZE - textFieldSize;
@@ -179,12 +300,8 @@ public class WhatsAppWebClient {
                 if (freeSpaceInCurrentBlock < emoji.getSequence().length()) {
                     textField.sendKeys(Keys.ENTER);
                 }
-                //print the emoji sequence
-                textField.sendKeys(emoji.getSequence());
-                //wait 10 millis before sending enter.
-                long ts = System.currentTimeMillis() + 10;
-                while (ts < System.currentTimeMillis());
-                textField.sendKeys(Keys.ENTER);
+                //print the emoji sequence and select it with enter.
+                textField.sendKeys(emoji.getSequence(), Keys.ENTER);
                 //select first available variant of emoji if it pops up.
                 try {
                     WebElement firstEmojiVariant = getElement(XPATH_LI_EMOJI_VARIANT, Duration.ZERO);
@@ -193,20 +310,70 @@ public class WhatsAppWebClient {
                     LOGGER.trace("No emoji variant popup found for emoji.");
                 }
             } catch (IllegalArgumentException ex) {
-                LOGGER.fatal("How is this even possible?"
-                        + " This should never be shown to the user because the match sequence is unknown."
-                        + " Invalid emoji " + emojiValue, ex);
-                textField.sendKeys(ex.getMessage());
+                //Not one of the predefined emojis, the popup can't be used.
+                Optional<String> emoji = WhatsAppHelper.getEmojiStringRepresentation(emojiValue);
+                if (emoji.isPresent()) {
+                    injectText(emoji.get(), textField, state);
+                } else {
+                    LOGGER.fatal("How is this even possible?"
+                            + " This should never be shown to the user because the match sequence is unknown."
+                            + " Invalid emoji " + emojiValue, ex);
+                    textField.sendKeys(ex.getMessage());
+                }
             }
             index = matcher.end();
-            progress = index;
-            ProgressBar.printProgress(startTime, total, progress, curserPosition);
+            state.progress = offset + index;
+            state.printProgress();
         }
         //##########end ugly hack for sending emojis###########################
         //Send the rest of the string or if no emoji available send the text.
-        sendInJunks(text.substring(index, text.length()),
-                textField, startTime, curserPosition, total, progress);
-        Console.writeLine("");
+        write(text.substring(index, text.length()), textField, state);
+    }
+
+    /**
+     * Replaces the emoji sequences of the MessageParser with the emojis, so
+     * they can be inserted together with the text.
+     *
+     * @param text
+     * @return
+     */
+    private String replaceEmojis(String text) {
+        Matcher matcher = emojiPattern.matcher(text);
+        if (!matcher.find()) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        int index = 0;
+        do {
+            sb.append(text, index, matcher.start());
+            String emojiValue = matcher.group(1);
+            Optional<String> emoji = WhatsAppHelper.getEmojiStringRepresentation(emojiValue);
+            if (emoji.isPresent()) {
+                sb.append(emoji.get());
+            } else {
+                LOGGER.fatal("How is this even possible?"
+                        + " This should never be shown to the user because the match sequence is unknown."
+                        + " Invalid emoji " + emojiValue);
+            }
+            index = matcher.end();
+        } while (matcher.find());
+        sb.append(text, index, text.length());
+        return sb.toString();
+    }
+
+    /**
+     * Writes the text to the textbox depending on the text input mode.
+     *
+     * @param text
+     * @param textField
+     * @param state
+     */
+    private void write(String text, WebElement textField, TypingState state) {
+        if (textInputMode == TextInputMode.INJECT) {
+            injectText(text, textField, state);
+        } else {
+            sendInJunks(text, textField, state);
+        }
     }
 
     /**
@@ -215,12 +382,9 @@ public class WhatsAppWebClient {
      *
      * @param text
      * @param textField
-     * @param startTime
-     * @param curserPosition
-     * @param total
-     * @param progress
+     * @param state
      */
-    private void sendInJunks(String text, WebElement textField, long startTime, long curserPosition, int total, int progress) {
+    private void sendInJunks(String text, WebElement textField, TypingState state) {
         final int junkBufferSize = 1024;
         int index = 0;
         while (index < text.length()) {
@@ -233,12 +397,108 @@ public class WhatsAppWebClient {
             index = index + junkLength;
             if (freeSpaceInCurrentBlock == 0) {
                 textField.sendKeys(Keys.ENTER);
+                textFieldSize = 0;
             }
             textField.sendKeys(junk);
-            progress += junkLength;
-            ProgressBar.printProgress(startTime, total, progress, curserPosition);
+            state.filled = textFieldSize + junkLength;
+            state.progress += junkLength;
+            state.printProgress();
+        }
+
+    }
+
+    /**
+     * Inserts the text with one script call per block instead of typing it.
+     * The length of the current block is counted here, so the textbox doesn't
+     * have to be read before every chunk. Shift enter sequences become line
+     * breaks inside the block, enter and every other key is still sent as key
+     * stroke. If the block is full, enter is pressed like in
+     * {@link #sendInJunks(String, WebElement, TypingState)}.
+     *
+     * @param text
+     * @param textField
+     * @param state
+     */
+    private void injectText(String text, WebElement textField, TypingState state) {
+        final String shiftEnter = WhatsAppHelper.SHIFT_ENTER;
+        final char enter = Keys.ENTER.charAt(0);
+        StringBuilder block = new StringBuilder(Math.min(text.length(), INJECT_BUFFER_SIZE));
+        int index = 0;
+        while (index < text.length()) {
+            char c = text.charAt(index);
+            boolean lineBreak = text.startsWith(shiftEnter, index);
+            int length = lineBreak ? shiftEnter.length() : 1;
+            if (lineBreak || !isKey(c)) {
+                if (state.filled >= WhatsAppHelper.MAX_TEXTBOX_CHAR_SIZE) {
+                    insertText(block, textField, state);
+                    textField.sendKeys(Keys.ENTER);
+                    state.filled = 0;
+                }
+                block.append(lineBreak ? '\n' : c);
+                state.filled++;
+                state.pending += length;
+                if (block.length() >= INJECT_BUFFER_SIZE) {
+                    insertText(block, textField, state);
+                }
+            } else {
+                insertText(block, textField, state);
+                textField.sendKeys(String.valueOf(c));
+                if (c == enter) {
+                    state.filled = 0;
+                }
+                state.progress += length;
+                state.printProgress();
+            }
+            index += length;
         }
+        insertText(block, textField, state);
+    }
 
+    /**
+     * Inserts the buffered block with the insert text script and clears the
+     * buffer. If the script fails only the part of the block it didn't insert
+     * is typed with sendKeys, the inserted part is the length of the textbox
+     * minus the filled length before the block.
+     *
+     * @param block
+     * @param textField
+     * @param state
+     */
+    private void insertText(StringBuilder block, WebElement textField, TypingState state) {
+        if (block.length() == 0) {
+            return;
+        }
+        try {
+            ((JavascriptExecutor) driver).executeScript(ScriptResources.get(ScriptResources.INSERT_TEXT), textField, block.toString());
+        } catch (WebDriverException | UncheckedIOException ex) {
+            int before = state.filled - block.length();
+            int inserted = Math.max(0, Math.min(block.length(), textField.getText().length() - before));
+            LOGGER.debug("Couldn't insert text with script after " + inserted + " of " + block.length()
+                    + " chars, type the rest instead...", ex);
+            textField.sendKeys(block.substring(inserted).replace("\n", WhatsAppHelper.SHIFT_ENTER));
+        }
+        block.setLength(0);
+        state.progress += state.pending;
+        state.pending = 0;
+        state.printProgress();
+    }
+
+    /**
+     * Checks if the character is one of the special keys of the webdriver.
+     *
+     * @param c
+     * @return
+     */
+    private static boolean isKey(char c) {
+        return c >= '\uE000' && c <= '\uE05D';
+    }
+
+    public TextInputMode getTextInputMode() {
+        return textInputMode;
+    }
+
+    public void setTextInputMode(TextInputMode textInputMode) {
+        this.textInputMode = textInputMode;
     }
 
     public void appendText(String text) throws TimeoutWhatsAppWebException {
@@ -256,11 +516,19 @@ public class WhatsAppWebClient {
         appendText(text);
     }
 
+    public void setText(TextSource source, Duration timeout) throws TimeoutWhatsAppWebException {
+        WebElement textField = getConversationTextField(timeout);
+        textField.sendKeys(Keys.CONTROL + "a");
+        textField.sendKeys(Keys.DELETE);
+        appendText(source, Duration.ZERO);
+    }
+
     public void search(String text) throws TimeoutWhatsAppWebException {
         search(text, Duration.ZERO);
     }
 
     public void search(String text, Duration timeout) throws TimeoutWhatsAppWebException {
+        navigationCount.incrementAndGet();
         WebElement textField = getSearchTextBox(timeout);
         textField.sendKeys(Keys.CONTROL + "a");
         textField.sendKeys(Keys.DELETE);
@@ -324,10 +592,12 @@ public class WhatsAppWebClient {
     }
 
     public void clickElement(By by) throws TimeoutWhatsAppWebException {
+        navigationCount.incrementAndGet();
         getElement(by, Duration.ZERO).click();
     }
 
     public void clickElement(By by, Duration timeout) throws TimeoutWhatsAppWebException {
+        navigationCount.incrementAndGet();
         getElement(by, timeout).click();
     }
 
@@ -351,6 +621,7 @@ public class WhatsAppWebClient {
             WebElement span = getElement(XPATH_SPAN_UNDREAD_COUNT, Duration.ZERO);
             WebElement listItem = span.findElement(XPATH_ANCESTOR_DIV_LIST_ITEM);
             LOGGER.trace(WhatsAppHelper.getAttributesOfElement(driver, listItem));
+            navigationCount.incrementAndGet();
             listItem.click();
             return true;
         } catch (TimeoutWhatsAppWebException ex) {
@@ -359,6 +630,58 @@ public class WhatsAppWebClient {
         return false;
     }
 
+    /**
+     * Returns the queue for sending messages. A queue with default capacity
+     * and backpressure is created if none was set.
+     *
+     * @return the outbound queue
+     */
+    public OutboundQueue getOutboundQueue() {
+        OutboundQueue queue = outboundQueue;
+        if (queue == null) {
+            synchronized (this) {
+                queue = outboundQueue;
+                if (queue == null) {
+                    queue = new OutboundQueue(this);
+                    outboundQueue = queue;
+                }
+            }
+        }
+        return queue;
+    }
+
+    public synchronized void setOutboundQueue(OutboundQueue outboundQueue) {
+        this.outboundQueue = outboundQueue;
+    }
+
+    /**
+     * @return the cache for the resolved contacts used to open chats
+     */
+    public ContactResolutionCache getContactResolutionCache() {
+        return contactResolutionCache;
+    }
+
+    /**
+     * @return the phone numbers which are known to be not on WhatsApp
+     */
+    public InvalidNumberCache getInvalidNumberCache() {
+        return invalidNumberCache;
+    }
+
+    public void setInvalidNumberCache(InvalidNumberCache invalidNumberCache) {
+        this.invalidNumberCache = invalidNumberCache;
+    }
+
+    /**
+     * The event driven alternative to {@link #getSpansWithUnreadNotification()}.
+     * The stream has to be started before it publishes events.
+     *
+     * @return the stream of unread message changes
+     */
+    public UnreadMessageStream getUnreadMessageStream() {
+        return unreadMessageStream;
+    }
+
     public List<WebElement> getSpansWithUnreadNotification() {
         try {
             return getElements(XPATH_SPAN_UNDREAD_COUNT, Duration.ZERO);
@@ -411,6 +734,24 @@ public class WhatsAppWebClient {
         return getElement(XPATH_PROGRESS_STARTUP, timeout);
     }
 
+    /**
+     * Waits until the conversation text box is empty because the message
+     * typed last was sent, so the next step doesn't wait longer than needed.
+     *
+     * @param timeout the longest wait
+     * @return true if the text box is empty
+     */
+    public boolean waitForConversationTextBoxEmpty(Duration timeout) {
+        try {
+            return new WebDriverWait(driver, timeout)
+                    .pollingEvery(Duration.ofMillis(50))
+                    .until(d -> d.findElements(XPATH_DIV_CHAT_TEXTBOX).stream().allMatch(e -> e.getText().isEmpty()));
+        } catch (TimeoutException ex) {
+            LOGGER.trace("Conversation text box not empty after " + timeout.toMillis() + "ms", ex);
+            return false;
+        }
+    }
+
     public void waitForTimeOut(long seconds) {
         waitForTimeOut(Duration.ofSeconds(seconds));
     }
@@ -437,6 +778,17 @@ public class WhatsAppWebClient {
         return driver;
     }
 
+    /**
+     * The count changes with every call of this client that may open another
+     * chat, like open, search or clicking an element. Used to check if the
+     * chat opened last is still the open one.
+     *
+     * @return the navigation count
+     */
+    public long getNavigationCount() {
+        return navigationCount.get();
+    }
+
     public boolean isAlertPresent() {
         boolean foundAlert;
         WebDriverWait wait = new WebDriverWait(driver, Duration.ZERO);
@@ -459,4 +811,36 @@ public class WhatsAppWebClient {
             driver.switchTo().alert().accept();
         }
     }
+
+    /**
+     * Progress of appending one text to the textbox.
+     */
+    private static final class TypingState {
+
+        private final long curserPosition;
+        private final long startTime;
+        private int total;
+        /**
+         * Characters of the text that are already in the textbox.
+         */
+        private int progress;
+        /**
+         * Characters of the text that are buffered but not in the textbox yet.
+         */
+        private int pending;
+        /**
+         * Characters in the current block of the textbox.
+         */
+        private int filled;
+
+        private TypingState(long curserPosition, long startTime, int total) {
+            this.curserPosition = curserPosition;
+            this.startTime = startTime;
+            this.total = total;
+        }
+
+        private void printProgress() {
+            ProgressBar.printProgress(startTime, total, progress, curserPosition);
+        }
+    }
 }
@@ -26,10 +26,12 @@ package de.kswmd.whatsapptool.cli;
 import de.kswmd.whatsapptool.TimeoutWhatsAppWebException;
 import de.kswmd.whatsapptool.WhatsAppWebClient;
 import de.kswmd.whatsapptool.contacts.MessageFileDatabase;
+import de.kswmd.whatsapptool.quartz.NotificationsWatcher;
 import de.kswmd.whatsapptool.utils.ChronoConstants;
 import de.kswmd.whatsapptool.utils.ProgressBar;
 import de.kswmd.whatsapptool.utils.Settings;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.temporal.ChronoUnit;
 import java.util.Optional;
 import java.util.Set;
@@ -81,23 +83,34 @@ public class CLI {
         commands.add(new CommandOpen(client));
         commands.add(new CommandSetText(client));
         commands.add(new CommandSendMessage(client));
+        commands.add(new CommandShowQueue(client));
+        commands.add(new CommandDeadLetters(client));
+        commands.add(new CommandVerifyNumbers(client));
+        commands.add(new CommandImportCampaign());
         commands.add(new CommandShowText(client));
         commands.add(new CommandCheckLogin(client));
         commands.add(new CommandPauseJob());
-        commands.add(new CommandResumeJob());
+        commands.add(new CommandResumeJob(client));
         commands.add(new CommandShowInfoHeader(client));
         commands.add(new CommandClickNotification(client));
         commands.add(new CommandShowNotifications(client));
+        commands.add(new CommandWatchNotifications(client));
         commands.add(new CommandPrintChatList(client));
         commands.add(new CommandCheckForUpdate(client));
         commands.add(new CommandUpdate(client));
         commands.add(new CommandClear());
         commands.add(new CommandRefresh(client));
         commands.add(new CommandPrintDOM(client));
+        MessageFileDatabase messageDatabase = MessageFileDatabase.create(Settings.getInstance().getNotificationsXMLFile());
+        messageDatabase.setSnapshotEnabled(Settings.getInstance().isNotificationsSnapshot());
         commands.add(new CommandReloadNotifications(
-                MessageFileDatabase.create(Settings.getInstance().getNotificationsXMLFile()),
-                client
+                messageDatabase,
+                client,
+                Settings.getInstance().isNotificationsAutoReload()
+                ? new NotificationsWatcher(messageDatabase, Paths.get(Settings.getInstance().getNotificationsXMLFile()), client)
+                : null
         ));
+        commands.add(new CommandPlanLoad(messageDatabase));
         commands.add(new CommandSearchContacts(client));
         Console.initLineReader(
                 commands
@@ -44,6 +44,7 @@ public abstract class Command implements Comparable<Command> {
     public static final String COMMAND_SHOW_INFO_HEADER = "show_info_header";
     public static final String COMMAND_CLICK_NOTIFICATION = "click_notification";
     public static final String COMMAND_SHOW_NOTIFICATIONS = "show_notifications";
+    public static final String COMMAND_WATCH_NOTIFICATIONS = "watch_notifications";
     public static final String COMMAND_PRINT_CHATLIST = "print_chatlist";
     public static final String COMMAND_CHECK_UPDATE = "check_update";
     public static final String COMMAND_UPDATE = "update";
@@ -53,6 +54,11 @@ public abstract class Command implements Comparable<Command> {
     public static final String COMMAND_SEARCH_CONTACTS = "search";
     public static final String COMMAND_PRINT_DOM = "print_dom";
     public static final String COMMAND_SEND_MESSAGE = "send_message";
+    public static final String COMMAND_SHOW_QUEUE = "show_queue";
+    public static final String COMMAND_VERIFY_NUMBERS = "verify_numbers";
+    public static final String COMMAND_IMPORT_CAMPAIGN = "import_campaign";
+    public static final String COMMAND_DEAD_LETTERS = "dead_letters";
+    public static final String COMMAND_PLAN_LOAD = "plan_load";
 
     private final String command;
     private final String description;
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.cli;
+
+import de.kswmd.whatsapptool.WhatsAppWebClient;
+import de.kswmd.whatsapptool.send.DeadLetterStore;
+import de.kswmd.whatsapptool.send.OutboundQueue;
+import de.kswmd.whatsapptool.text.TextSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Lists the messages which failed for good, queues them again or removes
+ * them. A message queued again keeps its idempotency key.
+ *
+ * @author Kai Denzel
+ */
+public class CommandDeadLetters extends Command {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final String RETRY = "retry";
+    private static final String CLEAR = "clear";
+    private static final String ALL = "all";
+
+    private final WhatsAppWebClient client;
+
+    public CommandDeadLetters(WhatsAppWebClient client) {
+        super(COMMAND_DEAD_LETTERS, "Lists the messages which couldn't be sent. [retry ${key}|retry all|clear]");
+        this.client = client;
+    }
+
+    @Override
+    public Optional<Object> execute(Object parameters) {
+        OutboundQueue queue = client.getOutboundQueue();
+        DeadLetterStore store = queue.getDeadLetters();
+        if (store == null) {
+            LOGGER.info("There is no dead letter store.");
+            return Optional.empty();
+        }
+        String[] params = StringUtils.split(StringUtils.trimToEmpty(String.valueOf(parameters)));
+        if (params.length == 0) {
+            List<DeadLetterStore.DeadLetter> letters = store.getLetters();
+            letters.forEach(letter -> Console.writeLine(letter.toString()));
+            Console.writeLine(store.toString());
+            return Optional.of(letters.size());
+        }
+        if (CLEAR.equalsIgnoreCase(params[0])) {
+            int removed = store.clear().size();
+            Console.writeLine("Removed " + removed + " dead letters.");
+            return Optional.of(removed);
+        }
+        if (!RETRY.equalsIgnoreCase(params[0]) || params.length < 2) {
+            LOGGER.info("Unknown parameters, use retry ${key}, retry all or clear.");
+            return Optional.empty();
+        }
+        List<DeadLetterStore.DeadLetter> retry = new ArrayList<>();
+        if (ALL.equalsIgnoreCase(params[1])) {
+            retry.addAll(store.clear());
+        } else {
+            store.remove(params[1]).ifPresent(retry::add);
+        }
+        if (retry.isEmpty()) {
+            LOGGER.info("No dead letter " + params[1] + ".");
+            return Optional.empty();
+        }
+        int queued = 0;
+        for (DeadLetterStore.DeadLetter letter : retry) {
+            Optional<TextSource> content = letter.toSource();
+            if (content.isEmpty()) {
+                LOGGER.warn("The content of dead letter " + letter.getKey() + " was too large to be kept, it can't be sent again.");
+                continue;
+            }
+            queue.submit(letter.getKey(), letter.getIdentifier(), content.get())
+                    .thenAccept(r -> LOGGER.info("Dead letter " + letter.getKey() + ": " + r));
+            queued++;
+        }
+        Console.writeLine("Queued " + queued + " dead letters again.");
+        return Optional.of(queued);
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.cli;
+
+import de.kswmd.whatsapptool.contacts.CampaignImporter;
+import de.kswmd.whatsapptool.utils.Settings;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Imports a campaign file, see {@link CampaignImporter}. If the notifications
+ * are a directory the campaign is written into it, otherwise next to the
+ * input so the notifications.xml isn't replaced.
+ *
+ * @author Kai Denzel
+ */
+public class CommandImportCampaign extends Command {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public CommandImportCampaign() {
+        super(COMMAND_IMPORT_CAMPAIGN, "Imports the messages of a CSV or NDJSON file (identifier, cron, template, variables). ${input file} [${output xml}]");
+    }
+
+    @Override
+    public Optional<Object> execute(Object parameters) {
+        String[] params = StringUtils.split(StringUtils.trimToEmpty(String.valueOf(parameters)));
+        if (params.length == 0) {
+            LOGGER.info("Missing input file.");
+            return Optional.empty();
+        }
+        Path input = Paths.get(params[0]);
+        if (!Files.isRegularFile(input)) {
+            LOGGER.info("Input file " + input + " not found.");
+            return Optional.empty();
+        }
+        String name = input.getFileName().toString();
+        String baseName = name.lastIndexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : name;
+        Path notifications = Paths.get(Settings.getInstance().getNotificationsXMLFile());
+        Path output;
+        if (params.length > 1) {
+            output = Paths.get(params[1]);
+        } else if (Files.isDirectory(notifications)) {
+            output = notifications.resolve(baseName + ".xml");
+        } else {
+            output = input.resolveSibling(baseName + ".xml");
+        }
+        Path rejects = input.resolveSibling(name + ".rejects.csv");
+        try {
+            Console.writeLine("Import " + input + " into " + output + ", rejected rows are written to " + rejects);
+            //an identifier in two shards would stop every reload of the directory
+            Path parent = output.toAbsolutePath().normalize().getParent();
+            Map<String, Path> existing = Files.isDirectory(notifications) && parent.equals(notifications.toAbsolutePath().normalize())
+                    ? CampaignImporter.identifiersOfShards(parent, output)
+                    : Collections.emptyMap();
+            CampaignImporter.Result result = new CampaignImporter().importFile(input, output, rejects, existing);
+            Console.writeLine("Finished, " + result);
+            if (result.getImported() > 0 && !output.toAbsolutePath().startsWith(notifications.toAbsolutePath())) {
+                Console.writeLine("Move " + output + " into a notifications directory to schedule the messages.");
+            }
+            return Optional.of(result);
+        } catch (IOException ex) {
+            LOGGER.error("Couldn't import " + input, ex);
+        }
+        return Optional.empty();
+    }
+
+}
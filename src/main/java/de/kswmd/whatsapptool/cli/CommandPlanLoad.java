@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.cli;
+
+import de.kswmd.whatsapptool.contacts.MessageDatabase;
+import de.kswmd.whatsapptool.quartz.LoadPlan;
+import de.kswmd.whatsapptool.quartz.ScheduleManager;
+import de.kswmd.whatsapptool.utils.Settings;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Prints the busiest minutes of the notifications and how late their messages
+ * are sent at the global rate. A spread window can be given to see its effect
+ * before it is set.
+ *
+ * @author Kai Denzel
+ */
+public class CommandPlanLoad extends Command {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final Duration DEFAULT_HORIZON = Duration.ofHours(24);
+    private static final int BUSIEST_MINUTES = 10;
+
+    private final MessageDatabase messageDatabase;
+
+    public CommandPlanLoad(MessageDatabase messageDatabase) {
+        super(COMMAND_PLAN_LOAD, "Prints the messages per minute of the next hours and the estimated lateness. [${hours} [${spread window, e.g. PT15M}]]");
+        this.messageDatabase = messageDatabase;
+    }
+
+    @Override
+    public Optional<Object> execute(Object parameters) {
+        String[] params = StringUtils.split(StringUtils.trimToEmpty(String.valueOf(parameters)));
+        Duration horizon = DEFAULT_HORIZON;
+        Duration window = ScheduleManager.getInstance().getSpreadWindow();
+        try {
+            if (params.length > 0) {
+                horizon = Duration.ofHours(Long.parseLong(params[0]));
+            }
+            if (params.length > 1) {
+                window = Duration.parse(params[1]);
+            }
+        } catch (NumberFormatException | DateTimeParseException ex) {
+            LOGGER.info("Unknown parameters, use ${hours} and an ISO-8601 duration like PT15M.");
+            return Optional.empty();
+        }
+        LoadPlan plan;
+        try {
+            synchronized (messageDatabase) {
+                if (messageDatabase.getEntities().isEmpty()) {
+                    messageDatabase.loadEntities();
+                }
+                plan = LoadPlan.compute(messageDatabase.getEntities(), new Date(), horizon, window,
+                        Settings.getInstance().getGlobalRatePerMinute());
+            }
+        } catch (Exception ex) {
+            LOGGER.error("Couldn't load the notifications.", ex);
+            return Optional.empty();
+        }
+        for (Map.Entry<Date, Integer> minute : plan.getBusiestMinutes(BUSIEST_MINUTES)) {
+            Console.writeLine(SimpleDateFormat.getDateTimeInstance().format(minute.getKey()) + ": " + minute.getValue());
+        }
+        Console.writeLine("Spread window " + window + ", " + plan);
+        return Optional.of(plan);
+    }
+
+}
@@ -31,6 +31,7 @@ import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 import java.util.logging.Level;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openqa.selenium.WebElement;
@@ -43,18 +44,31 @@ public class CommandPrintChatList extends Command {
 
     private static final Logger LOGGER = LogManager.getLogger();
 
+    private static final String PARAMETER_BENCHMARK = "benchmark";
+
     private final WhatsAppWebClient client;
 
     public CommandPrintChatList(WhatsAppWebClient client) {
-        super(COMMAND_PRINT_CHATLIST, "Prints the current chatlist to the console.");
+        super(COMMAND_PRINT_CHATLIST, "Prints the current chatlist to the console. With parameter benchmark ${rounds} it compares the snapshot with the per element parsing.");
         this.client = client;
     }
 
     @Override
     public Optional<Object> execute(Object parameters) {
+        String p = StringUtils.trimToEmpty(String.valueOf(parameters));
         try {
             WebElement chatList = client.getChatList();
             client.waitForTimeOut(Duration.ofMillis(500));
+            if (p.startsWith(PARAMETER_BENCHMARK)) {
+                int rounds = 5;
+                try {
+                    rounds = Math.max(1, Integer.parseInt(p.substring(PARAMETER_BENCHMARK.length()).trim()));
+                } catch (NumberFormatException ex) {
+                    LOGGER.trace("No valid number of rounds, use default " + rounds, ex);
+                }
+                Console.writeLine(WhatsAppHelper.compareChatListStrategies(chatList, rounds));
+                return Optional.empty();
+            }
             List<ChatListBean> list = WhatsAppHelper.generateFromWebElement(chatList);
             StringBuilder sb = new StringBuilder();
             list.forEach(c -> {
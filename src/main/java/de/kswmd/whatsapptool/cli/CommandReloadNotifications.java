@@ -25,7 +25,9 @@ package de.kswmd.whatsapptool.cli;
 
 import de.kswmd.whatsapptool.WhatsAppWebClient;
 import de.kswmd.whatsapptool.contacts.MessageDatabase;
+import de.kswmd.whatsapptool.quartz.NotificationsWatcher;
 import de.kswmd.whatsapptool.quartz.ScheduleManager;
+import de.kswmd.whatsapptool.quartz.ScheduleUpdate;
 import java.util.Optional;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -39,21 +41,39 @@ public class CommandReloadNotifications extends Command {
     private static final Logger LOGGER = LogManager.getLogger();
     private final MessageDatabase messageDatabase;
     private final WhatsAppWebClient client;
+    private final NotificationsWatcher watcher;
 
     public CommandReloadNotifications(final MessageDatabase messageDatabase, final WhatsAppWebClient client) {
-        super(COMMAND_RELOAD_NOTIFICATIONS_JOB, "Reloads the notifications.xml with all its Triggers.");
+        this(messageDatabase, client, null);
+    }
+
+    /**
+     * @param messageDatabase
+     * @param client
+     * @param watcher started after the first reload to reload the file when
+     * it changes, may be null
+     */
+    public CommandReloadNotifications(final MessageDatabase messageDatabase, final WhatsAppWebClient client, final NotificationsWatcher watcher) {
+        super(COMMAND_RELOAD_NOTIFICATIONS_JOB, "Reloads the notifications.xml and reschedules the changed Triggers.");
         this.messageDatabase = messageDatabase;
         this.client = client;
+        this.watcher = watcher;
     }
 
     @Override
     public Optional<Object> execute(Object parameters) {
         ScheduleManager manager = ScheduleManager.getInstance();
         try {
-            messageDatabase.loadEntities();
-            manager.scheduleMessagesJob(messageDatabase.getEntities(), client);
+            ScheduleUpdate update;
+            synchronized (messageDatabase) {
+                messageDatabase.loadEntities();
+                update = manager.updateMessagesJob(messageDatabase.getEntities(), client);
+            }
             manager.resumeAllJobs();
-            LOGGER.info("Successfully scheduled the jobs.");
+            LOGGER.info("Successfully scheduled the jobs. " + update);
+            if (watcher != null) {
+                watcher.start();
+            }
         } catch (Exception ex) {
             LOGGER.error("Couldn't create CronJob for notifications.", ex);
         }
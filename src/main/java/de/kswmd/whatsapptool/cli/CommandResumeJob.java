@@ -23,6 +23,7 @@
  */
 package de.kswmd.whatsapptool.cli;
 
+import de.kswmd.whatsapptool.WhatsAppWebClient;
 import de.kswmd.whatsapptool.quartz.ScheduleManager;
 import java.util.Optional;
 
@@ -32,13 +33,27 @@ import java.util.Optional;
  */
 public class CommandResumeJob extends Command {
 
+    private final WhatsAppWebClient client;
+
     public CommandResumeJob() {
+        this(null);
+    }
+
+    /**
+     * @param client the messages of its outbox journal are replayed on the
+     * first resume, or null
+     */
+    public CommandResumeJob(WhatsAppWebClient client) {
         super(COMMAND_RESUME_JOB, "Resumes the quartz job for automatically sending Messages.");
+        this.client = client;
     }
 
     @Override
     public Optional<Object> execute(Object parameters) {
         ScheduleManager.getInstance().resumeAllJobs();
+        if (client != null) {
+            client.getOutboundQueue().replayJournal();
+        }
         return Optional.empty();
     }
 
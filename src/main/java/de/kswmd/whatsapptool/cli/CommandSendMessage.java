@@ -23,10 +23,14 @@
  */
 package de.kswmd.whatsapptool.cli;
 
-import de.kswmd.whatsapptool.WhatsAppHelper;
 import de.kswmd.whatsapptool.WhatsAppWebClient;
+import de.kswmd.whatsapptool.send.Lane;
+import de.kswmd.whatsapptool.send.SendResult;
 import de.kswmd.whatsapptool.text.MessageParser;
+import de.kswmd.whatsapptool.text.RenderContext;
+import de.kswmd.whatsapptool.text.TextSource;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -52,13 +56,17 @@ public class CommandSendMessage extends Command {
         if (firstSpace != -1) {
             String identifier = params.substring(0, firstSpace);
             try {
-                String message = MessageParser.DEFAULT_PARSER.format(
-                        params.substring(firstSpace + 1)
-                ).replaceAll("\n", WhatsAppHelper.SHIFT_ENTER);
-                WhatsAppHelper.sendMessage(identifier,
-                        message,
-                        client);
-                LOGGER.info("Successfully sent message to " + identifier);
+                TextSource message = MessageParser.DEFAULT_PARSER.source(
+                        params.substring(firstSpace + 1), RenderContext.now());
+                CompletableFuture<SendResult> result = client.getOutboundQueue().submit(null, identifier, message, Lane.INTERACTIVE, null);
+                result.thenAccept(r -> {
+                    if (r.isSent()) {
+                        LOGGER.info("Successfully sent message to " + identifier + ". " + r);
+                    } else {
+                        LOGGER.error("Couldn't send message. " + r, r.getError().orElse(null));
+                    }
+                });
+                return Optional.of(result);
             } catch (Exception ex) {
                 LOGGER.error("Couldn't send message.", ex);
             }
@@ -23,7 +23,9 @@
  */
 package de.kswmd.whatsapptool.cli;
 
+import de.kswmd.whatsapptool.UnreadMessageStream;
 import de.kswmd.whatsapptool.WhatsAppWebClient;
+import de.kswmd.whatsapptool.contacts.UnreadEvent;
 import java.util.List;
 import java.util.Optional;
 import org.openqa.selenium.By;
@@ -44,6 +46,14 @@ public class CommandShowNotifications extends Command {
 
     @Override
     public Optional<Object> execute(Object parameters) {
+        UnreadMessageStream stream = client.getUnreadMessageStream();
+        if (stream.isRunning()) {
+            //The observer already knows the unread chats, no need to query the DOM.
+            for (UnreadEvent event : stream.getUnreadChats()) {
+                Console.writeLine(event.getTitle() + " (" + event.getUnreadMessages() + ")");
+            }
+            return Optional.empty();
+        }
         List<WebElement> spans = client.getSpansWithUnreadNotification();
         for (WebElement span : spans) {
             WebElement listItem = span.findElement(By.xpath("./ancestor::div[contains(@data-testid,'list-item-')]"));
@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.cli;
+
+import de.kswmd.whatsapptool.WhatsAppWebClient;
+import de.kswmd.whatsapptool.quartz.ScheduleManager;
+import de.kswmd.whatsapptool.send.OutboundQueue;
+import de.kswmd.whatsapptool.text.MessageParser;
+import java.util.Optional;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class CommandShowQueue extends Command {
+
+    private final WhatsAppWebClient client;
+
+    public CommandShowQueue(WhatsAppWebClient client) {
+        super(COMMAND_SHOW_QUEUE, "Shows the number of waiting messages and the statistics of the outbound queue and the caches.");
+        this.client = client;
+    }
+
+    @Override
+    public Optional<Object> execute(Object parameters) {
+        OutboundQueue queue = client.getOutboundQueue();
+        Console.writeLine(queue.toString());
+        Console.writeLine(client.getContactResolutionCache().toString());
+        Console.writeLine(client.getInvalidNumberCache().toString());
+        Console.writeLine(MessageParser.DEFAULT_PARSER.getIncludeCache().toString());
+        if (queue.getJournal() != null) {
+            Console.writeLine(queue.getJournal().toString());
+        }
+        if (queue.getRateLimiter() != null) {
+            Console.writeLine(queue.getRateLimiter().toString());
+        }
+        if (queue.getCircuitBreaker() != null) {
+            Console.writeLine(queue.getCircuitBreaker().toString());
+        }
+        if (queue.getDeadLetters() != null) {
+            Console.writeLine(queue.getDeadLetters().toString());
+        }
+        if (ScheduleManager.getInstance().getMessageWheel() != null) {
+            Console.writeLine(ScheduleManager.getInstance().getMessageWheel().toString());
+        }
+        return Optional.of(queue.size());
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.cli;
+
+import de.kswmd.whatsapptool.WhatsAppWebClient;
+import de.kswmd.whatsapptool.contacts.NumberVerifier;
+import de.kswmd.whatsapptool.contacts.NumberVerifier.Status;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class CommandVerifyNumbers extends Command {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final WhatsAppWebClient client;
+
+    public CommandVerifyNumbers(WhatsAppWebClient client) {
+        super(COMMAND_VERIFY_NUMBERS, "Checks if the phone numbers of a file are on WhatsApp. ${input file} [${output file}]");
+        this.client = client;
+    }
+
+    @Override
+    public Optional<Object> execute(Object parameters) {
+        String[] params = StringUtils.split(StringUtils.trimToEmpty(String.valueOf(parameters)));
+        if (params.length == 0) {
+            LOGGER.info("Missing input file.");
+            return Optional.empty();
+        }
+        Path input = Paths.get(params[0]);
+        if (!Files.isRegularFile(input)) {
+            LOGGER.info("Input file " + input + " not found.");
+            return Optional.empty();
+        }
+        Path output = params.length > 1 ? Paths.get(params[1]) : Paths.get(params[0] + ".verified.csv");
+        try {
+            Console.writeLine("Verify numbers of " + input + ", results are written to " + output);
+            Map<Status, Integer> counts = new NumberVerifier(client).verify(input, output);
+            Console.writeLine("Finished " + counts);
+            return Optional.of(counts);
+        } catch (IOException ex) {
+            LOGGER.error("Couldn't verify numbers.", ex);
+        }
+        return Optional.empty();
+    }
+
+}
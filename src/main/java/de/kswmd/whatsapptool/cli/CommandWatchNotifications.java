@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.cli;
+
+import de.kswmd.whatsapptool.UnreadMessageStream;
+import de.kswmd.whatsapptool.WhatsAppWebClient;
+import de.kswmd.whatsapptool.contacts.UnreadEvent;
+import java.util.Optional;
+import java.util.function.Consumer;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class CommandWatchNotifications extends Command {
+
+    private static final String PARAMETER_OFF = "off";
+
+    private final WhatsAppWebClient client;
+
+    private final Consumer<UnreadEvent> printer = event -> {
+        if (event.isIncoming()) {
+            Console.writeLine("New message from " + event.getTitle() + " (" + event.getUnreadMessages() + " unread)");
+        }
+    };
+
+    public CommandWatchNotifications(WhatsAppWebClient client) {
+        super(COMMAND_WATCH_NOTIFICATIONS, "Prints incoming messages as soon as the chat list shows them. With parameter off it stops watching.");
+        this.client = client;
+    }
+
+    @Override
+    public Optional<Object> execute(Object parameters) {
+        String p = StringUtils.trimToEmpty(String.valueOf(parameters));
+        UnreadMessageStream stream = client.getUnreadMessageStream();
+        if (PARAMETER_OFF.equalsIgnoreCase(p)) {
+            stream.unsubscribe(printer);
+            stream.stop();
+            Console.writeLine("Stopped watching notifications.");
+            return Optional.of(false);
+        }
+        stream.unsubscribe(printer);
+        stream.subscribe(printer);
+        stream.start();
+        Console.writeLine("Watching notifications.");
+        return Optional.of(true);
+    }
+
+}
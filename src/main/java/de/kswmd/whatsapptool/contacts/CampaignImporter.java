@@ -0,0 +1,581 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.contacts;
+
+import de.kswmd.whatsapptool.send.Lane;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.json.JsonException;
+import org.openqa.selenium.json.JsonInput;
+import org.openqa.selenium.json.JsonType;
+import org.quartz.CronExpression;
+
+/**
+ * Imports a campaign from a CSV or NDJSON file into a notifications file,
+ * for example a shard of a notifications directory. The rows are read and
+ * written one by one, only the identifiers are kept to detect duplicates.
+ * <p>
+ * CSV: the header is identifier, cron, template followed by the names of the
+ * variables, separated by ',' or ';'. Fields can be quoted with '"'.<br>
+ * NDJSON: one object per line with the fields identifier, cron, template and
+ * an optional object variables.
+ * <p>
+ * [var:name] in the template is replaced by the variable of the row. A row is
+ * rejected if the cron expression is invalid, a phone number is malformed, a
+ * variable is missing or the identifier was already imported by a row that
+ * isn't directly before or is defined in another shard of the notifications
+ * directory.
+ * The rejected rows are written to the reject file as
+ * line;reason;record.
+ * <p>
+ * The messages are put into the {@link Lane#BULK} lane, so they don't delay
+ * other messages.
+ *
+ * @author Kai Denzel
+ */
+public class CampaignImporter {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final String FIELD_IDENTIFIER = "identifier";
+    public static final String FIELD_CRON = "cron";
+    public static final String FIELD_TEMPLATE = "template";
+    public static final String FIELD_VARIABLES = "variables";
+
+    private static final Pattern NUMBER_LIKE = Pattern.compile("^\\+?[0-9][0-9 ()/\\-]*$");
+    private static final Pattern VARIABLE = Pattern.compile("\\[var:([^\\]\\r\\n]+)\\]");
+
+    public enum Format {
+        CSV,
+        NDJSON;
+
+        /**
+         * @param file the input
+         * @return NDJSON for *.ndjson, *.jsonl and *.json, otherwise CSV
+         */
+        public static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            return name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json") ? NDJSON : CSV;
+        }
+    }
+
+    public static final class Result {
+
+        private int imported;
+        private int rejected;
+        private int entities;
+
+        public int getImported() {
+            return imported;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        public int getEntities() {
+            return entities;
+        }
+
+        @Override
+        public String toString() {
+            return "imported " + imported + " messages for " + entities + " identifiers, rejected " + rejected + " rows";
+        }
+    }
+
+    /**
+     * A parsed row or the reason why it is rejected.
+     */
+    private static final class Row {
+
+        private final int line;
+        private final String record;
+        private String identifier;
+        private String cron;
+        private String template;
+        private Map<String, String> variables;
+        private String error;
+
+        private Row(int line, String record) {
+            this.line = line;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Imports the input into the output. The output is written to a temporary
+     * file first and replaces the old output only if at least one row was
+     * imported.
+     *
+     * @param input the campaign
+     * @param output the notifications file
+     * @param rejects the file for the rejected rows, overwritten if it exists
+     * @return the counts
+     * @throws IOException if reading or writing fails
+     */
+    public Result importFile(Path input, Path output, Path rejects) throws IOException {
+        return importFile(input, output, rejects, Collections.emptyMap());
+    }
+
+    /**
+     * Imports the input into the output like
+     * {@link #importFile(Path, Path, Path)}, but rejects the rows whose
+     * identifier is already defined in another file, see
+     * {@link #identifiersOfShards(Path, Path)}.
+     *
+     * @param input the campaign
+     * @param output the notifications file
+     * @param rejects the file for the rejected rows, overwritten if it exists
+     * @param existing the identifiers of the other files and the file that
+     * defines them
+     * @return the counts
+     * @throws IOException if reading or writing fails
+     */
+    public Result importFile(Path input, Path output, Path rejects, Map<String, Path> existing) throws IOException {
+        Result result = new Result();
+        Path tmp = Files.createTempFile(output.toAbsolutePath().getParent(), output.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+                    BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+                    BufferedWriter rejectWriter = Files.newBufferedWriter(rejects, StandardCharsets.UTF_8)) {
+                rejectWriter.write("#line;reason;record");
+                rejectWriter.newLine();
+                RowReader rows = Format.of(input) == Format.NDJSON ? new JsonRowReader(reader) : new CsvRowReader(reader);
+                write(rows, out, rejectWriter, existing, result);
+            } catch (XMLStreamException ex) {
+                throw new IOException("Couldn't write " + output, ex);
+            }
+            if (result.imported == 0) {
+                LOGGER.warn("No row of " + input + " could be imported, " + output + " is left unchanged.");
+                return result;
+            }
+            try {
+                Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        LOGGER.info("Imported " + input + " into " + output + ": " + result);
+        return result;
+    }
+
+    /**
+     * Collects the identifiers of the shards of a notifications directory.
+     * The directory can't be loaded if an identifier is defined in more than
+     * one shard, so an import into the directory must not define them again.
+     *
+     * @param directory the notifications directory
+     * @param output the shard that is going to be replaced by the import, it
+     * is skipped
+     * @return the identifiers and the shard that defines them
+     * @throws IOException if a shard can't be read or isn't well formed
+     */
+    public static Map<String, Path> identifiersOfShards(Path directory, Path output) throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list
+                    .filter(f -> f.getFileName().toString().endsWith(MessageFileDatabase.XML_SUFFIX) && Files.isRegularFile(f))
+                    .filter(f -> !f.toAbsolutePath().normalize().equals(output.toAbsolutePath().normalize()))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        Map<String, Path> identifiers = new HashMap<>();
+        for (Path file : files) {
+            try (InputStream in = Files.newInputStream(file)) {
+                XMLStreamReader reader = factory.createXMLStreamReader(in);
+                try {
+                    while (reader.hasNext()) {
+                        if (reader.next() == XMLStreamConstants.START_ELEMENT && "identifier".equals(reader.getLocalName())) {
+                            identifiers.putIfAbsent(reader.getElementText().trim(), file);
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (XMLStreamException ex) {
+                throw new IOException("Couldn't read the identifiers of " + file, ex);
+            }
+        }
+        return identifiers;
+    }
+
+    private void write(RowReader rows, Writer out, BufferedWriter rejects, Map<String, Path> existing, Result result) throws IOException, XMLStreamException {
+        XMLStreamWriter xml = XMLOutputFactory.newFactory().createXMLStreamWriter(out);
+        xml.writeStartDocument("UTF-8", "1.0");
+        xml.writeCharacters("\n");
+        xml.writeStartElement("contacts");
+        Map<String, Integer> firstLines = new HashMap<>();
+        String current = null;
+        Row row;
+        while ((row = rows.next()) != null) {
+            if (row.error == null) {
+                validate(row);
+            }
+            if (row.error == null && existing.containsKey(row.identifier)) {
+                row.error = "identifier already defined in " + existing.get(row.identifier).getFileName();
+            }
+            if (row.error == null && !row.identifier.equals(current)) {
+                Integer first = firstLines.putIfAbsent(row.identifier, row.line);
+                if (first != null) {
+                    row.error = "identifier already imported in line " + first + ", sort the rows by identifier";
+                }
+            }
+            if (row.error != null) {
+                result.rejected++;
+                rejects.write(row.line + ";" + row.error.replaceAll("[;\\r\\n]+", " ") + ";" + row.record.replaceAll("[\\r\\n]+", " "));
+                rejects.newLine();
+                continue;
+            }
+            if (!row.identifier.equals(current)) {
+                if (current != null) {
+                    xml.writeCharacters("\n    ");
+                    xml.writeEndElement();
+                }
+                current = row.identifier;
+                result.entities++;
+                xml.writeCharacters("\n    ");
+                xml.writeStartElement("entity");
+                writeElement(xml, "\n        ", "identifier", row.identifier);
+            }
+            xml.writeCharacters("\n        ");
+            xml.writeStartElement("message");
+            xml.writeAttribute("lane", Lane.BULK.name().toLowerCase(Locale.ROOT));
+            writeElement(xml, "\n            ", "cronExpression", row.cron);
+            writeElement(xml, "\n            ", "content", row.template);
+            xml.writeCharacters("\n        ");
+            xml.writeEndElement();
+            result.imported++;
+        }
+        if (current != null) {
+            xml.writeCharacters("\n    ");
+            xml.writeEndElement();
+        }
+        xml.writeCharacters("\n");
+        xml.writeEndElement();
+        xml.writeCharacters("\n");
+        xml.writeEndDocument();
+        xml.flush();
+    }
+
+    private static void writeElement(XMLStreamWriter xml, String indent, String name, String value) throws XMLStreamException {
+        xml.writeCharacters(indent);
+        xml.writeStartElement(name);
+        xml.writeCharacters(value);
+        xml.writeEndElement();
+    }
+
+    /**
+     * Checks the fields and replaces the variables of the template.
+     */
+    private static void validate(Row row) {
+        if (row.identifier == null || row.identifier.isBlank()) {
+            row.error = "missing " + FIELD_IDENTIFIER;
+            return;
+        }
+        row.identifier = row.identifier.trim();
+        if (isNumberLike(row.identifier)) {
+            if (!NumberVerifier.isPhoneNumber(row.identifier)) {
+                row.error = "'" + row.identifier + "' is not a phone number";
+                return;
+            }
+            row.identifier = InvalidNumberCache.normalize(row.identifier);
+        }
+        if (row.cron == null || row.cron.isBlank()) {
+            row.error = "missing " + FIELD_CRON;
+            return;
+        }
+        row.cron = row.cron.trim();
+        try {
+            new CronExpression(row.cron);
+        } catch (ParseException ex) {
+            row.error = "invalid cron expression '" + row.cron + "': " + ex.getMessage();
+            return;
+        }
+        if (row.template == null || row.template.isEmpty()) {
+            row.error = "missing " + FIELD_TEMPLATE;
+            return;
+        }
+        Matcher matcher = VARIABLE.matcher(row.template);
+        StringBuilder sb = new StringBuilder(row.template.length());
+        while (matcher.find()) {
+            String value = row.variables.get(matcher.group(1));
+            if (value == null) {
+                row.error = "missing variable '" + matcher.group(1) + "'";
+                return;
+            }
+            matcher.appendReplacement(sb, "");
+            escape(value, sb);
+        }
+        matcher.appendTail(sb);
+        row.template = sb.toString();
+    }
+
+    /**
+     * @return true if the identifier consists of the characters of a phone
+     * number, otherwise it is a name
+     */
+    private static boolean isNumberLike(String identifier) {
+        return NUMBER_LIKE.matcher(identifier).matches();
+    }
+
+    /**
+     * Escapes the characters the message parser interprets, so a value is
+     * always inserted literally.
+     */
+    private static void escape(String value, StringBuilder sb) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"' || c == '[' || c == ']') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+    }
+
+    private interface RowReader {
+
+        /**
+         * @return the next row or null at the end
+         */
+        Row next() throws IOException;
+    }
+
+    private static final class CsvRowReader implements RowReader {
+
+        private final BufferedReader reader;
+        private final List<String> header = new ArrayList<>();
+        private char separator;
+        private int line;
+
+        private CsvRowReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Row next() throws IOException {
+            if (separator == 0 && !readHeader()) {
+                return null;
+            }
+            String first;
+            do {
+                first = reader.readLine();
+                line++;
+                if (first == null) {
+                    return null;
+                }
+            } while (first.isBlank() || first.startsWith("#"));
+            int start = line;
+            StringBuilder record = new StringBuilder(first);
+            List<String> fields = new ArrayList<>(header.size());
+            boolean complete = split(first, record, fields);
+            Row row = new Row(start, record.toString());
+            if (!complete) {
+                row.error = "unterminated quote";
+                return row;
+            }
+            Map<String, String> values = new HashMap<>();
+            for (int i = 0; i < header.size() && i < fields.size(); i++) {
+                values.put(header.get(i), fields.get(i));
+            }
+            row.identifier = values.remove(FIELD_IDENTIFIER);
+            row.cron = values.remove(FIELD_CRON);
+            row.template = values.remove(FIELD_TEMPLATE);
+            row.variables = values;
+            return row;
+        }
+
+        private boolean readHeader() throws IOException {
+            String first;
+            do {
+                first = reader.readLine();
+                line++;
+                if (first == null) {
+                    return false;
+                }
+            } while (first.isBlank());
+            String trimmed = first.startsWith("#") ? first.substring(1) : first;
+            separator = trimmed.indexOf(';') != -1 ? ';' : ',';
+            List<String> names = new ArrayList<>();
+            split(trimmed, new StringBuilder(), names);
+            for (String name : names) {
+                header.add(name.trim());
+            }
+            return true;
+        }
+
+        /**
+         * Splits the record into the fields, a quoted field may continue on
+         * the next lines.
+         *
+         * @return false if a quote isn't closed at the end of the file
+         */
+        private boolean split(String first, StringBuilder record, List<String> fields) throws IOException {
+            StringBuilder field = new StringBuilder();
+            String current = first;
+            boolean quoted = false;
+            int i = 0;
+            while (true) {
+                if (i >= current.length()) {
+                    if (!quoted) {
+                        fields.add(field.toString());
+                        return true;
+                    }
+                    current = reader.readLine();
+                    if (current == null) {
+                        return false;
+                    }
+                    line++;
+                    record.append('\n').append(current);
+                    field.append('\n');
+                    i = 0;
+                    continue;
+                }
+                char c = current.charAt(i++);
+                if (quoted) {
+                    if (c == '"') {
+                        if (i < current.length() && current.charAt(i) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"' && field.toString().isBlank()) {
+                    field.setLength(0);
+                    quoted = true;
+                } else if (c == separator) {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+        }
+    }
+
+    private static final class JsonRowReader implements RowReader {
+
+        private static final Json JSON = new Json();
+
+        private final BufferedReader reader;
+        private int line;
+
+        private JsonRowReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Row next() throws IOException {
+            String text;
+            do {
+                text = reader.readLine();
+                line++;
+                if (text == null) {
+                    return null;
+                }
+            } while (text.isBlank());
+            Row row = new Row(line, text);
+            try (JsonInput input = JSON.newInput(new StringReader(text))) {
+                if (input.peek() != JsonType.START_MAP) {
+                    row.error = "invalid json, the line is not an object";
+                    return row;
+                }
+                Map<String, Object> object = input.read(Json.MAP_TYPE);
+                if (input.peek() != JsonType.END) {
+                    row.error = "invalid json, unexpected text after the object";
+                    return row;
+                }
+                row.identifier = string(object.remove(FIELD_IDENTIFIER));
+                row.cron = string(object.remove(FIELD_CRON));
+                row.template = string(object.remove(FIELD_TEMPLATE));
+                row.variables = new HashMap<>();
+                Object variables = object.remove(FIELD_VARIABLES);
+                if (variables instanceof Map) {
+                    for (Map.Entry<?, ?> e : ((Map<?, ?>) variables).entrySet()) {
+                        row.variables.put(String.valueOf(e.getKey()), string(e.getValue()));
+                    }
+                } else if (variables != null) {
+                    row.error = FIELD_VARIABLES + " is not an object";
+                }
+            } catch (JsonException ex) {
+                //the message of selenium continues with its build info
+                row.error = "invalid json: " + String.valueOf(ex.getMessage()).split("\\R", 2)[0];
+            }
+            return row;
+        }
+
+        /**
+         * @return the value as text, the elements of an array separated by
+         * commas, null for an object
+         */
+        private static String string(Object value) {
+            if (value instanceof Collection) {
+                StringJoiner joiner = new StringJoiner(", ");
+                for (Object element : (Collection<?>) value) {
+                    joiner.add(String.valueOf(string(element)));
+                }
+                return joiner.toString();
+            }
+            return value == null || value instanceof Map ? null : value.toString();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.contacts;
+
+import java.time.Instant;
+
+/**
+ * How an identifier was resolved in WhatsApp Web. Either as a contact with
+ * the title shown in the chat list or as a phone number which is opened via
+ * the send url.
+ *
+ * @author Kai Denzel
+ */
+public final class ContactResolution {
+
+    public enum Kind {
+        CONTACT,
+        PHONE
+    }
+
+    private final String identifier;
+    private final Kind kind;
+    private final String title;
+    private final String phone;
+    private final Instant resolved;
+
+    private ContactResolution(String identifier, Kind kind, String title, String phone, Instant resolved) {
+        this.identifier = identifier;
+        this.kind = kind;
+        this.title = title;
+        this.phone = phone;
+        this.resolved = resolved;
+    }
+
+    public static ContactResolution contact(String identifier, String title) {
+        return new ContactResolution(identifier, Kind.CONTACT, title, null, Instant.now());
+    }
+
+    public static ContactResolution phone(String identifier, String phone) {
+        return new ContactResolution(identifier, Kind.PHONE, null, phone, Instant.now());
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the exact title of the list item, null for a phone number
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return the phone number for the send url, null for a contact
+     */
+    public String getPhone() {
+        return phone;
+    }
+
+    public Instant getResolved() {
+        return resolved;
+    }
+
+    @Override
+    public String toString() {
+        return "ContactResolution{" + "identifier=" + identifier + ", kind=" + kind
+                + (kind == Kind.CONTACT ? ", title=" + title : ", phone=" + phone)
+                + ", resolved=" + resolved + '}';
+    }
+
+}
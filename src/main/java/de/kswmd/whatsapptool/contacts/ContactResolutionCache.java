@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.contacts;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Caches how identifiers were resolved, so opening the chat of a known
+ * recipient doesn't need to search and parse the chat list again. Entries
+ * expire after the time to live and are invalidated if opening the chat with
+ * them fails.
+ *
+ * @author Kai Denzel
+ */
+public class ContactResolutionCache {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofHours(24);
+
+    private final Map<String, ContactResolution> resolutions = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile Duration timeToLive;
+
+    public ContactResolutionCache() {
+        this(DEFAULT_TIME_TO_LIVE);
+    }
+
+    public ContactResolutionCache(Duration timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @param identifier the contact name or phone number
+     * @return the resolution if known and not expired
+     */
+    public Optional<ContactResolution> get(String identifier) {
+        ContactResolution resolution = resolutions.get(identifier);
+        if (resolution != null && isExpired(resolution, Instant.now())) {
+            resolutions.remove(identifier, resolution);
+            resolution = null;
+        }
+        if (resolution == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        return Optional.of(resolution);
+    }
+
+    /**
+     * @param identifier the contact name or phone number
+     * @param horizon the time the resolution still has to be valid
+     * @return true if there is a resolution which doesn't expire within the
+     * horizon
+     */
+    public boolean isResolved(String identifier, Duration horizon) {
+        ContactResolution resolution = resolutions.get(identifier);
+        return resolution != null && !isExpired(resolution, Instant.now().plus(horizon));
+    }
+
+    public void put(ContactResolution resolution) {
+        LOGGER.debug("Cache " + resolution);
+        resolutions.put(resolution.getIdentifier(), resolution);
+    }
+
+    public void invalidate(String identifier) {
+        if (resolutions.remove(identifier) != null) {
+            LOGGER.debug("Invalidated resolution of " + identifier);
+        }
+    }
+
+    public void clear() {
+        resolutions.clear();
+    }
+
+    private boolean isExpired(ContactResolution resolution, Instant now) {
+        return resolution.getResolved().plus(timeToLive).isBefore(now);
+    }
+
+    public Duration getTimeToLive() {
+        return timeToLive;
+    }
+
+    public void setTimeToLive(Duration timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public int size() {
+        return resolutions.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ContactResolutionCache{" + "size=" + size() + ", hits=" + hits + ", misses=" + misses
+                + ", timeToLive=" + timeToLive + '}';
+    }
+
+}
@@ -63,6 +63,16 @@ public class Entity {
         if (messages == null) {
             messages = new ArrayList<>();
         }
+        if (message.getKey() == null) {
+            String cron = message.getCronExpression() == null ? null : message.getCronExpressionString();
+            int same = 0;
+            for (Message m : messages) {
+                if (m.getCronExpression() != null && m.getCronExpressionString().equals(cron)) {
+                    same++;
+                }
+            }
+            message.setKey(identifier + "#" + cron + "#" + same);
+        }
         messages.add(message);
     }
 
@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.contacts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Phone numbers which are confirmed to be not on WhatsApp, because opening
+ * their chat showed a popup. Recurring messages to such a number fail
+ * immediately instead of waiting for the popup every time. The entries expire
+ * after the time to live and are stored in a properties file if a file is
+ * given.
+ *
+ * @author Kai Denzel
+ */
+public class InvalidNumberCache {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofDays(7);
+
+    private static final char SEPARATOR = ';';
+
+    private static final class Entry {
+
+        private final Instant confirmed;
+        private final String reason;
+
+        private Entry(Instant confirmed, String reason) {
+            this.confirmed = confirmed;
+            this.reason = reason;
+        }
+    }
+
+    private final Map<String, Entry> numbers = new ConcurrentHashMap<>();
+    private final Path file;
+    private volatile Duration timeToLive;
+
+    /**
+     * Creates a cache which is only kept in memory.
+     */
+    public InvalidNumberCache() {
+        this(null, DEFAULT_TIME_TO_LIVE);
+    }
+
+    private InvalidNumberCache(Path file, Duration timeToLive) {
+        this.file = file;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Loads the cache from the file. A missing file results in an empty cache
+     * which creates the file on the first change.
+     *
+     * @param file the properties file
+     * @param timeToLive how long a number stays invalid
+     * @return the cache
+     */
+    public static InvalidNumberCache load(Path file, Duration timeToLive) {
+        InvalidNumberCache cache = new InvalidNumberCache(file, timeToLive);
+        if (Files.isRegularFile(file)) {
+            Properties properties = new Properties();
+            try (InputStream input = Files.newInputStream(file)) {
+                properties.load(input);
+            } catch (IOException ex) {
+                LOGGER.warn("Could not load invalid numbers from " + file);
+                LOGGER.trace("Error loading invalid numbers", ex);
+            }
+            Instant now = Instant.now();
+            for (String number : properties.stringPropertyNames()) {
+                String value = properties.getProperty(number);
+                int separator = value.indexOf(SEPARATOR);
+                try {
+                    long millis = Long.parseLong(separator == -1 ? value : value.substring(0, separator));
+                    Entry entry = new Entry(Instant.ofEpochMilli(millis), separator == -1 ? "" : value.substring(separator + 1));
+                    if (!cache.isExpired(entry, now)) {
+                        cache.numbers.put(number, entry);
+                    }
+                } catch (NumberFormatException ex) {
+                    LOGGER.trace("Invalid entry for " + number, ex);
+                }
+            }
+            LOGGER.debug("Loaded " + cache.size() + " invalid numbers from " + file);
+        }
+        return cache;
+    }
+
+    /**
+     * Removes everything but digits and the leading plus.
+     *
+     * @param number
+     * @return the normalized number
+     */
+    public static String normalize(String number) {
+        String trimmed = number.trim();
+        String digits = trimmed.replaceAll("[^0-9]", "");
+        return trimmed.startsWith("+") ? "+" + digits : digits;
+    }
+
+    /**
+     * @param number the phone number
+     * @return the popup text if the number is known to be invalid
+     */
+    public Optional<String> getReason(String number) {
+        String key = normalize(number);
+        Entry entry = numbers.get(key);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (isExpired(entry, Instant.now())) {
+            remove(key);
+            return Optional.empty();
+        }
+        return Optional.of(entry.reason);
+    }
+
+    public boolean isInvalid(String number) {
+        return getReason(number).isPresent();
+    }
+
+    /**
+     * Marks the number as invalid.
+     *
+     * @param number the phone number
+     * @param reason the text of the popup
+     */
+    public void add(String number, String reason) {
+        String key = normalize(number);
+        numbers.put(key, new Entry(Instant.now(), reason == null ? "" : reason.replaceAll("\\s+", " ").trim()));
+        LOGGER.info("Marked " + key + " as not on WhatsApp.");
+        save();
+    }
+
+    /**
+     * Removes the number, e.g. after a message was sent successfully.
+     *
+     * @param number the phone number
+     */
+    public void remove(String number) {
+        if (numbers.remove(normalize(number)) != null) {
+            save();
+        }
+    }
+
+    private boolean isExpired(Entry entry, Instant now) {
+        return entry.confirmed.plus(timeToLive).isBefore(now);
+    }
+
+    private synchronized void save() {
+        if (file == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        numbers.forEach((number, entry) -> properties.setProperty(number, entry.confirmed.toEpochMilli() + "" + SEPARATOR + entry.reason));
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (OutputStream output = Files.newOutputStream(file)) {
+                properties.store(output, "Phone numbers which are not on WhatsApp. number=confirmed millis;popup text");
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Failed to write invalid numbers to " + file, ex);
+        }
+    }
+
+    public Duration getTimeToLive() {
+        return timeToLive;
+    }
+
+    public void setTimeToLive(Duration timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public int size() {
+        return numbers.size();
+    }
+
+    @Override
+    public String toString() {
+        return "InvalidNumberCache{" + "size=" + size() + ", timeToLive=" + timeToLive
+                + (file != null ? ", file=" + file : "") + '}';
+    }
+
+}
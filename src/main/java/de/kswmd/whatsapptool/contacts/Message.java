@@ -23,7 +23,10 @@
  */
 package de.kswmd.whatsapptool.contacts;
 
+import de.kswmd.whatsapptool.send.Lane;
 import java.text.ParseException;
+import java.time.Duration;
+import java.util.Objects;
 import org.quartz.CronExpression;
 
 /**
@@ -38,6 +41,10 @@ public final class Message {
     private CronExpression cronExpression;
     private String content;
     private Entity entity;
+    private String key;
+    private Lane lane;
+    private Duration expiresAfter;
+    private Duration spreadWindow;
 
     public Message() {
     }
@@ -59,6 +66,16 @@ public final class Message {
         this.cronExpression = new CronExpression(cronExpression);
     }
 
+    /**
+     * The expression may be shared with other messages of the same schedule,
+     * so it must not be modified afterwards.
+     *
+     * @param cronExpression the parsed expression
+     */
+    public void setCronExpression(CronExpression cronExpression) {
+        this.cronExpression = cronExpression;
+    }
+
     public String getContent() {
         return content;
     }
@@ -75,6 +92,75 @@ public final class Message {
         return entity;
     }
 
+    /**
+     * The key identifies the message across reloads of the notifications. It
+     * consists of the identifier, the cron expression and the number of
+     * messages with the same cron expression before this one, so editing the
+     * content or adding other messages doesn't change it.
+     *
+     * @return the key, assigned by {@link Entity#addMessage(Message)}
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return the lane of the queue, null for the default lane
+     */
+    public Lane getLane() {
+        return lane;
+    }
+
+    public void setLane(Lane lane) {
+        this.lane = lane;
+    }
+
+    /**
+     * @return how long after its fire time the message is still sent, null if
+     * it doesn't expire
+     */
+    public Duration getExpiresAfter() {
+        return expiresAfter;
+    }
+
+    public void setExpiresAfter(Duration expiresAfter) {
+        this.expiresAfter = expiresAfter;
+    }
+
+    /**
+     * Messages with the same cron expression are spread over this window
+     * after their fire time, each one by an offset derived from its key.
+     *
+     * @return the window, null for the default window of the
+     * {@link de.kswmd.whatsapptool.quartz.ScheduleManager}
+     */
+    public Duration getSpreadWindow() {
+        return spreadWindow;
+    }
+
+    public void setSpreadWindow(Duration spreadWindow) {
+        this.spreadWindow = spreadWindow;
+    }
+
+    /**
+     * @param other
+     * @return true if the other message has the same cron expression,
+     * content, lane, expiry and spread window
+     */
+    public boolean isSameAs(Message other) {
+        return other != null
+                && Objects.equals(cronExpression == null ? null : getCronExpressionString(),
+                        other.cronExpression == null ? null : other.getCronExpressionString())
+                && Objects.equals(content, other.content)
+                && lane == other.lane
+                && Objects.equals(expiresAfter, other.expiresAfter)
+                && Objects.equals(spreadWindow, other.spreadWindow);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
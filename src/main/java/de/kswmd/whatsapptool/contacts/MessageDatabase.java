@@ -23,6 +23,7 @@
  */
 package de.kswmd.whatsapptool.contacts;
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -35,4 +36,30 @@ public interface MessageDatabase {
 
     public List<Entity> getEntities();
 
+    /**
+     * @param identifier the name or phonenumber
+     * @return the entity or null
+     */
+    public Entity getEntity(String identifier);
+
+    /**
+     * @param identifier the name or phonenumber
+     * @return the messages of the entity, empty if there is no such entity
+     */
+    public List<Message> getMessages(String identifier);
+
+    /**
+     * @param key see {@link Message#getKey()}
+     * @return the message or null
+     */
+    public Message getMessage(String key);
+
+    /**
+     * @param from inclusive
+     * @param to exclusive
+     * @return the messages that fire in the window ordered by their next fire
+     * time
+     */
+    public List<Message> getMessagesFiringBetween(Date from, Date to);
+
 }
@@ -23,36 +23,59 @@
  */
 package de.kswmd.whatsapptool.contacts;
 
+import de.kswmd.whatsapptool.send.Lane;
 import de.kswmd.whatsapptool.utils.PathResolver;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 /**
- * The source is a XML-File
+ * The source is a XML-File. The file is read with StAX, the schema validator
+ * pulls the events through a delegate that builds the entities and messages
+ * on the way, so the file is validated and loaded in one pass without a DOM.
+ * If the snapshot is enabled, a binary copy of the loaded entities is kept
+ * next to the file and used instead as long as the file is unchanged.
+ * <p>
+ * The path can also be a directory, then every *.xml file in it is a shard
+ * of the notifications. Only the changed shards are parsed again, in parallel
+ * on the common fork join pool, and an identifier must not be defined in
+ * more than one shard.
  *
  * @author Kai Denzel
  */
@@ -61,17 +84,30 @@ public final class MessageFileDatabase implements MessageDatabase {
     private static final Logger LOGGER = LogManager.getLogger();
 
     public static final String EXAMPLE_NAME = "notifications.example.xml";
+    public static final String SCHEMA_NAME = "notifications.xsd";
+
+    private static volatile Schema schema;
+
+    public static final String XML_SUFFIX = ".xml";
+
+    private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY = ThreadLocal.withInitial(() -> {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    });
 
     private final File xmlFile;
-    private final DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-    private final DocumentBuilder builder;
-    private final XPath xPath = XPathFactory.newInstance().newXPath();
-    private final List<Entity> entities = new ArrayList<>();
+    /**
+     * The last loaded shards of a directory, guarded by this.
+     */
+    private Map<Path, Shard> shards = Collections.emptyMap();
+    private volatile MessageIndex index = MessageIndex.EMPTY;
+    private volatile boolean snapshotEnabled;
 
     private MessageFileDatabase(String filePath) throws SAXException, IOException, ParserConfigurationException {
         createExampleFile(PathResolver.getConfigDir().toString());
         this.xmlFile = new File(filePath);
-        builder = builderFactory.newDocumentBuilder();
     }
 
     public static MessageFileDatabase create(String filePath) throws SAXException, IOException, ParserConfigurationException {
@@ -89,13 +125,28 @@ public final class MessageFileDatabase implements MessageDatabase {
         return false;
     }
 
+    /**
+     * @return the compiled schema, it is thread safe and created only once
+     * @throws SAXException if the schema is invalid
+     */
+    static Schema getSchema() throws SAXException {
+        Schema s = schema;
+        if (s == null) {
+            synchronized (MessageFileDatabase.class) {
+                s = schema;
+                if (s == null) {
+                    SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                    s = factory.newSchema(MessageFileDatabase.class.getResource("/" + SCHEMA_NAME));
+                    schema = s;
+                }
+            }
+        }
+        return s;
+    }
+
     public void validateXMLSchema(File f) throws SAXException, IOException {
-        SchemaFactory factory
-                = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        Schema schema = factory.newSchema(getClass().getResource("/notifications.xsd"));
-        Validator validator = schema.newValidator();
+        Validator validator = getSchema().newValidator();
         validator.validate(new StreamSource(f));
-
     }
 
     public void validateXMLSchema(String xmlPath) throws SAXException, IOException {
@@ -104,32 +155,360 @@ public final class MessageFileDatabase implements MessageDatabase {
 
     @Override
     public List<Entity> getEntities() {
-        return entities;
+        return index.getEntities();
+    }
+
+    @Override
+    public Entity getEntity(String identifier) {
+        return index.getEntity(identifier);
+    }
+
+    @Override
+    public List<Message> getMessages(String identifier) {
+        return index.getMessages(identifier);
     }
 
     @Override
-    public void loadEntities() throws SAXException, IOException, XPathExpressionException, ParseException {
-        entities.clear();
-        validateXMLSchema(xmlFile);
-        try (FileInputStream fileIS = new FileInputStream(this.xmlFile)) {
-            Document xmlDocument = builder.parse(fileIS);
-            NodeList entityNodes = (NodeList) xPath.compile("/contacts/entity").evaluate(xmlDocument, XPathConstants.NODESET);
-            for (int i = 0; i < entityNodes.getLength(); i++) {
-                Entity entity = new Entity();
-                Node entityNode = entityNodes.item(i);
-                String id = (String) xPath.compile("./identifier").evaluate(entityNode, XPathConstants.STRING);
-                entity.setIdentifier(id);
-                NodeList messageNodes = (NodeList) xPath.compile("./message").evaluate(entityNode, XPathConstants.NODESET);
-                for (int j = 0; j < messageNodes.getLength(); j++) {
-                    Node messageNode = messageNodes.item(j);
-                    Message message = new Message();
-                    String cronExpression = (String) xPath.compile("./cronExpression").evaluate(messageNode, XPathConstants.STRING);
-                    message.setCronExpression(cronExpression);
-                    message.setContent((String) xPath.compile("./content").evaluate(messageNode, XPathConstants.STRING));
-                    message.setEntity(entity);
-                    entity.addMessage(message);
+    public Message getMessage(String key) {
+        return index.getMessage(key);
+    }
+
+    @Override
+    public List<Message> getMessagesFiringBetween(Date from, Date to) {
+        return index.getMessagesFiringBetween(from, to);
+    }
+
+    public boolean isSnapshotEnabled() {
+        return snapshotEnabled;
+    }
+
+    /**
+     * @param snapshotEnabled true to read and write the binary snapshot next
+     * to the xml file
+     */
+    public void setSnapshotEnabled(boolean snapshotEnabled) {
+        this.snapshotEnabled = snapshotEnabled;
+    }
+
+    public MessageIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Loads the entities from the file or the shards of the directory and
+     * replaces the index. If a file is invalid the entities and index of the
+     * last load are kept.
+     *
+     * @throws SAXException if a file doesn't match the schema
+     * @throws IOException if a file can't be read
+     * @throws ParseException if a cron expression is invalid or an identifier
+     * is defined in more than one shard
+     * @throws XMLStreamException if a file isn't well formed
+     */
+    @Override
+    public synchronized void loadEntities() throws SAXException, IOException, ParseException, XMLStreamException {
+        long start = System.currentTimeMillis();
+        String loadedFrom;
+        List<Entity> loaded;
+        MessageInterner interner = new MessageInterner(index.getEntities());
+        if (xmlFile.isDirectory()) {
+            loaded = loadDirectory(xmlFile.toPath(), interner);
+            loadedFrom = xmlFile + " (" + shards.size() + " files)";
+        } else {
+            loaded = loadFile(xmlFile.toPath(), interner);
+            loadedFrom = xmlFile.toString();
+        }
+        index = new MessageIndex(loaded);
+        LOGGER.debug("Loaded " + index.getEntities().size() + " entities with " + index.getMessageCount() + " messages from " + loadedFrom + " in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    /**
+     * Parses the changed shards in parallel and merges them with the
+     * unchanged ones in the order of their file names. A shard counts as
+     * unchanged as long as its modification time and size are the same.
+     */
+    private List<Entity> loadDirectory(Path directory, MessageInterner interner) throws SAXException, IOException, ParseException, XMLStreamException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list
+                    .filter(f -> f.getFileName().toString().endsWith(XML_SUFFIX) && Files.isRegularFile(f))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        Map<Path, Shard> current = new LinkedHashMap<>();
+        List<Callable<Shard>> tasks = new ArrayList<>();
+        for (Path file : files) {
+            Shard shard = shards.get(file);
+            if (shard != null && shard.isUnchanged()) {
+                current.put(file, shard);
+            } else {
+                current.put(file, null);
+                tasks.add(() -> loadShard(file, interner));
+            }
+        }
+        Exception error = null;
+        List<Future<Shard>> results = tasks.size() == 1
+                ? List.of(ForkJoinPool.commonPool().submit(tasks.get(0)))
+                : ForkJoinPool.commonPool().invokeAll(tasks);
+        for (Future<Shard> result : results) {
+            try {
+                Shard shard = result.get();
+                current.put(shard.file, shard);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while loading " + directory);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                //the pool wraps checked exceptions of callables, and again when rethrown in another thread
+                while (cause != null && cause.getClass() == RuntimeException.class && cause.getCause() instanceof Exception) {
+                    cause = cause.getCause();
                 }
-                entities.add(entity);
+                if (error == null) {
+                    error = cause instanceof Exception ? (Exception) cause : ex;
+                }
+            }
+        }
+        //the parsed shards are kept, so only the invalid ones are parsed again
+        current.values().removeIf(shard -> shard == null);
+        shards = current;
+        if (error != null) {
+            rethrow(error);
+        }
+        Map<String, Path> owners = new HashMap<>();
+        List<Entity> merged = new ArrayList<>();
+        for (Shard shard : current.values()) {
+            for (Entity e : shard.entities) {
+                Path owner = owners.putIfAbsent(e.getIdentifier(), shard.file);
+                if (owner != null) {
+                    throw new ParseException("The identifier '" + e.getIdentifier() + "' of " + shard.file + " is already defined in " + owner, 0);
+                }
+                merged.add(e);
+            }
+        }
+        return merged;
+    }
+
+    private Shard loadShard(Path file, MessageInterner interner) throws SAXException, IOException, ParseException, XMLStreamException {
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        long size = Files.size(file);
+        return new Shard(file, modified, size, loadFile(file, interner));
+    }
+
+    /**
+     * Reads the snapshot of the file if enabled and up to date, otherwise
+     * parses the file and writes the snapshot.
+     */
+    private List<Entity> loadFile(Path xml, MessageInterner interner) throws SAXException, IOException, ParseException, XMLStreamException {
+        MessageSnapshot.Stamp stamp = snapshotEnabled ? MessageSnapshot.Stamp.of(xml) : null;
+        List<Entity> loaded = stamp == null ? null : MessageSnapshot.read(MessageSnapshot.pathOf(xml), stamp, interner);
+        if (loaded != null) {
+            LOGGER.trace("Loaded the snapshot of " + xml);
+            return loaded;
+        }
+        try (InputStream in = Files.newInputStream(xml)) {
+            loaded = load(in, xml.toUri().toString(), interner);
+        }
+        if (stamp != null) {
+            try {
+                MessageSnapshot.write(MessageSnapshot.pathOf(xml), stamp, loaded);
+            } catch (IOException ex) {
+                LOGGER.warn("Can't write the snapshot of " + xml, ex);
+            }
+        }
+        return loaded;
+    }
+
+    private static void rethrow(Exception ex) throws SAXException, IOException, ParseException, XMLStreamException {
+        if (ex instanceof SAXException) {
+            throw (SAXException) ex;
+        } else if (ex instanceof IOException) {
+            throw (IOException) ex;
+        } else if (ex instanceof ParseException) {
+            throw (ParseException) ex;
+        } else if (ex instanceof XMLStreamException) {
+            throw (XMLStreamException) ex;
+        } else if (ex instanceof RuntimeException) {
+            throw (RuntimeException) ex;
+        }
+        throw new IOException(ex);
+    }
+
+    /**
+     * Validates and parses the stream in one pass.
+     *
+     * @param in the xml
+     * @param systemId the location of the xml for error messages
+     * @return the entities
+     * @throws SAXException if the xml doesn't match the schema
+     * @throws IOException if the xml can't be read
+     * @throws ParseException if a cron expression is invalid
+     * @throws XMLStreamException if the xml isn't well formed
+     */
+    List<Entity> load(InputStream in, String systemId) throws SAXException, IOException, ParseException, XMLStreamException {
+        return load(in, systemId, new MessageInterner());
+    }
+
+    private List<Entity> load(InputStream in, String systemId, MessageInterner interner) throws SAXException, IOException, ParseException, XMLStreamException {
+        XMLStreamReader reader = INPUT_FACTORY.get().createXMLStreamReader(systemId, in);
+        EntityReader entityReader = new EntityReader(reader, interner);
+        try {
+            getSchema().newValidator().validate(new StAXSource(entityReader));
+        } catch (SAXException ex) {
+            //the validator only keeps the message of the exceptions of the reader
+            if (entityReader.error != null) {
+                throw entityReader.error;
+            }
+            throw ex;
+        } finally {
+            reader.close();
+        }
+        return entityReader.entities;
+    }
+
+    /**
+     * The entities of one file of a directory.
+     */
+    private static final class Shard {
+
+        private final Path file;
+        private final long modified;
+        private final long size;
+        private final List<Entity> entities;
+
+        private Shard(Path file, long modified, long size, List<Entity> entities) {
+            this.file = file;
+            this.modified = modified;
+            this.size = size;
+            this.entities = entities;
+        }
+
+        private boolean isUnchanged() {
+            try {
+                return Files.getLastModifiedTime(file).toMillis() == modified && Files.size(file) == size;
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Builds the entities from the events the validator reads.
+     */
+    private static final class EntityReader extends StreamReaderDelegate {
+
+        private final List<Entity> entities = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private final MessageInterner interner;
+        private boolean capture;
+        private Entity entity;
+        private Message message;
+        private ParseException error;
+
+        private EntityReader(XMLStreamReader reader, MessageInterner interner) {
+            super(reader);
+            this.interner = interner;
+        }
+
+        @Override
+        public int next() throws XMLStreamException {
+            int event = super.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    startElement(getLocalName());
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (capture) {
+                        text.append(getTextCharacters(), getTextStart(), getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement(getLocalName());
+                    break;
+                default:
+                    break;
+            }
+            return event;
+        }
+
+        private void startElement(String name) throws XMLStreamException {
+            switch (name) {
+                case "entity":
+                    entity = new Entity();
+                    break;
+                case "message":
+                    message = new Message();
+                    String lane = getAttributeValue(null, "lane");
+                    String expiresAfter = getAttributeValue(null, "expiresAfter");
+                    String spreadWindow = getAttributeValue(null, "spreadWindow");
+                    try {
+                        if (lane != null) {
+                            message.setLane(Lane.of(lane));
+                        }
+                        if (expiresAfter != null) {
+                            message.setExpiresAfter(Duration.parse(expiresAfter));
+                        }
+                        if (spreadWindow != null) {
+                            message.setSpreadWindow(Duration.parse(spreadWindow));
+                        }
+                    } catch (IllegalArgumentException | DateTimeParseException ex) {
+                        throw new XMLStreamException("Invalid lane '" + lane + "', expiry '" + expiresAfter
+                                + "' or spread window '" + spreadWindow + "'", getLocation(), ex);
+                    }
+                    break;
+                case "identifier":
+                case "cronExpression":
+                case "content":
+                    text.setLength(0);
+                    capture = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void endElement(String name) throws XMLStreamException {
+            capture = false;
+            switch (name) {
+                case "entity":
+                    if (entity != null) {
+                        if (entity.getMessages() instanceof ArrayList) {
+                            ((ArrayList<Message>) entity.getMessages()).trimToSize();
+                        }
+                        entities.add(entity);
+                        entity = null;
+                    }
+                    break;
+                case "message":
+                    if (entity != null && message != null) {
+                        message.setEntity(entity);
+                        entity.addMessage(message);
+                    }
+                    message = null;
+                    break;
+                case "identifier":
+                    if (entity != null) {
+                        entity.setIdentifier(text.toString());
+                    }
+                    break;
+                case "cronExpression":
+                    if (message != null) {
+                        try {
+                            message.setCronExpression(interner.cronExpression(text.toString()));
+                        } catch (ParseException ex) {
+                            error = ex;
+                            throw new XMLStreamException("Invalid cron expression '" + text + "'", getLocation(), ex);
+                        }
+                    }
+                    break;
+                case "content":
+                    if (message != null) {
+                        message.setContent(interner.intern(text.toString()));
+                    }
+                    break;
+                default:
+                    break;
             }
         }
     }
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.contacts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Immutable lookups over a list of entities: a hash index by identifier, a
+ * hash index by the key of the messages and a sorted index of the next fire
+ * times. The fire time index is advanced on demand, messages whose fire time
+ * has passed are moved to their next fire time when a later window is
+ * queried.
+ *
+ * @author Kai Denzel
+ */
+public final class MessageIndex {
+
+    public static final MessageIndex EMPTY = new MessageIndex(Collections.emptyList(), new Date());
+
+    private final List<Entity> entities;
+    private final Map<String, Entity> byIdentifier;
+    private final Map<String, Message> byKey;
+    private final TreeMap<Long, List<Message>> byFireTime = new TreeMap<>();
+    /**
+     * All fire times before the cursor have been advanced.
+     */
+    private long cursor;
+
+    public MessageIndex(List<Entity> entities) {
+        this(entities, new Date());
+    }
+
+    /**
+     * @param entities the entities
+     * @param now the first fire times are the next after this date
+     */
+    public MessageIndex(List<Entity> entities, Date now) {
+        this.entities = Collections.unmodifiableList(new ArrayList<>(entities));
+        Map<String, Entity> identifiers = new HashMap<>(entities.size() * 4 / 3 + 1);
+        Map<String, Message> keys = new HashMap<>();
+        cursor = now.getTime();
+        for (Entity e : entities) {
+            identifiers.put(e.getIdentifier(), e);
+            if (e.getMessages() == null) {
+                continue;
+            }
+            for (Message m : e.getMessages()) {
+                if (m.getKey() != null) {
+                    keys.put(m.getKey(), m);
+                }
+                put(m, m.getCronExpression() == null ? null : m.getCronExpression().getNextValidTimeAfter(now));
+            }
+        }
+        this.byIdentifier = Collections.unmodifiableMap(identifiers);
+        this.byKey = Collections.unmodifiableMap(keys);
+    }
+
+    public List<Entity> getEntities() {
+        return entities;
+    }
+
+    /**
+     * @param identifier the name or phonenumber
+     * @return the entity or null
+     */
+    public Entity getEntity(String identifier) {
+        return byIdentifier.get(identifier);
+    }
+
+    /**
+     * @param identifier the name or phonenumber
+     * @return the messages of the entity, empty if there is no such entity
+     */
+    public List<Message> getMessages(String identifier) {
+        Entity e = byIdentifier.get(identifier);
+        return e == null || e.getMessages() == null ? Collections.emptyList() : Collections.unmodifiableList(e.getMessages());
+    }
+
+    /**
+     * @param key see {@link Message#getKey()}
+     * @return the message or null
+     */
+    public Message getMessage(String key) {
+        return byKey.get(key);
+    }
+
+    public int getMessageCount() {
+        return byKey.size();
+    }
+
+    /**
+     * Looks up the messages that fire in the window. A message that fires
+     * more than once in the window is only contained once, at its first fire
+     * time.
+     *
+     * @param from inclusive
+     * @param to exclusive
+     * @return the messages ordered by their next fire time at or after from
+     */
+    public synchronized List<Message> getMessagesFiringBetween(Date from, Date to) {
+        List<Message> result = new ArrayList<>();
+        if (!from.before(to)) {
+            return result;
+        }
+        if (from.getTime() < cursor) {
+            //the index only knows the future, the past is computed
+            return scan(from, to);
+        }
+        advance(from.getTime());
+        for (List<Message> messages : byFireTime.subMap(from.getTime(), true, to.getTime(), false).values()) {
+            result.addAll(messages);
+        }
+        return result;
+    }
+
+    /**
+     * Moves the messages that fire before the given time to their next fire
+     * time at or after it.
+     */
+    private void advance(long time) {
+        if (time <= cursor) {
+            return;
+        }
+        NavigableMap<Long, List<Message>> passed = byFireTime.headMap(time, false);
+        List<Message> moved = new ArrayList<>();
+        for (Iterator<List<Message>> it = passed.values().iterator(); it.hasNext();) {
+            moved.addAll(it.next());
+            it.remove();
+        }
+        Date after = new Date(time - 1);
+        for (Message m : moved) {
+            put(m, m.getCronExpression().getNextValidTimeAfter(after));
+        }
+        cursor = time;
+    }
+
+    private List<Message> scan(Date from, Date to) {
+        TreeMap<Long, List<Message>> sorted = new TreeMap<>();
+        Date after = new Date(from.getTime() - 1);
+        for (Message m : byKey.values()) {
+            Date next = m.getCronExpression() == null ? null : m.getCronExpression().getNextValidTimeAfter(after);
+            if (next != null && next.before(to)) {
+                sorted.computeIfAbsent(next.getTime(), t -> new ArrayList<>(1)).add(m);
+            }
+        }
+        List<Message> result = new ArrayList<>();
+        sorted.values().forEach(result::addAll);
+        return result;
+    }
+
+    private void put(Message m, Date next) {
+        if (next != null) {
+            byFireTime.computeIfAbsent(next.getTime(), t -> new ArrayList<>(1)).add(m);
+        }
+    }
+}
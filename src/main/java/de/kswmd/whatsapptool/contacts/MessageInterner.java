@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.contacts;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.quartz.CronExpression;
+
+/**
+ * Shares equal strings and cron expressions between the messages of a load.
+ * Campaigns send the same content on the same schedule to many entities, so
+ * every distinct content is kept once and every distinct cron expression is
+ * parsed once. It is thread safe, the shards of a directory are loaded in
+ * parallel with the same interner.
+ *
+ * @author Kai Denzel
+ */
+final class MessageInterner {
+
+    private final Map<String, String> strings = new ConcurrentHashMap<>();
+    private final Map<String, CronExpression> cronExpressions = new ConcurrentHashMap<>();
+
+    MessageInterner() {
+    }
+
+    /**
+     * @param entities the entities of the last load, so the reloaded messages
+     * share the instances of the unchanged ones
+     */
+    MessageInterner(List<Entity> entities) {
+        for (Entity e : entities) {
+            if (e.getMessages() == null) {
+                continue;
+            }
+            for (Message m : e.getMessages()) {
+                if (m.getContent() != null) {
+                    strings.putIfAbsent(m.getContent(), m.getContent());
+                }
+                if (m.getCronExpression() != null) {
+                    cronExpressions.putIfAbsent(m.getCronExpressionString(), m.getCronExpression());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param s the string
+     * @return the first equal string or s itself
+     */
+    String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        String existing = strings.putIfAbsent(s, s);
+        return existing == null ? s : existing;
+    }
+
+    /**
+     * @param cronExpression the expression
+     * @return the shared parsed expression, it must not be modified
+     * @throws ParseException if the expression is invalid
+     */
+    CronExpression cronExpression(String cronExpression) throws ParseException {
+        CronExpression expression = cronExpressions.get(cronExpression);
+        if (expression == null) {
+            expression = new CronExpression(cronExpression);
+            CronExpression existing = cronExpressions.putIfAbsent(cronExpression, expression);
+            if (existing != null) {
+                expression = existing;
+            }
+        }
+        return expression;
+    }
+
+    int size() {
+        return strings.size() + cronExpressions.size();
+    }
+}
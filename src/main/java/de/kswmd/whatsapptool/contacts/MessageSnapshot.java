@@ -0,0 +1,297 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.contacts;
+
+import de.kswmd.whatsapptool.send.Lane;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A binary copy of the loaded notifications, so the xml hasn't to be
+ * validated and parsed again as long as it is unchanged. All strings are
+ * stored once in a table and referenced by their index, so every distinct
+ * cron expression is parsed only once on read.
+ *
+ * <pre>
+ * int magic, int version
+ * long xml modification time, long xml size, long xml checksum
+ * int strings, (int length, utf-8 bytes)*
+ * int entities, (int identifier, int messages, (int cron, int content, int lane, int expiry, int spread)*)*
+ * long checksum of everything before
+ * </pre>
+ *
+ * @author Kai Denzel
+ */
+final class MessageSnapshot {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    static final String SUFFIX = ".snapshot";
+    static final int MAGIC = 0x57415453;
+    static final int VERSION = 3;
+    /**
+     * The ints per message.
+     */
+    private static final int MESSAGE_LENGTH = 5;
+    private static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 8;
+
+    private MessageSnapshot() {
+    }
+
+    /**
+     * @param xmlFile the notifications
+     * @return the path of the snapshot next to the xml file
+     */
+    static Path pathOf(Path xmlFile) {
+        return xmlFile.resolveSibling(xmlFile.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and moves it over the old one,
+     * so a reader never sees a partial snapshot.
+     *
+     * @param snapshot the target
+     * @param stamp the state of the xml the entities were loaded from
+     * @param entities the entities
+     * @throws IOException if the snapshot can't be written
+     */
+    static void write(Path snapshot, Stamp stamp, List<Entity> entities) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[][] references = new int[entities.size()][];
+        for (int i = 0; i < entities.size(); i++) {
+            Entity e = entities.get(i);
+            List<Message> messages = e.getMessages() == null ? List.of() : e.getMessages();
+            int[] refs = new int[1 + messages.size() * MESSAGE_LENGTH];
+            refs[0] = id(e.getIdentifier(), ids, strings);
+            for (int j = 0; j < messages.size(); j++) {
+                Message m = messages.get(j);
+                int offset = 1 + j * MESSAGE_LENGTH;
+                refs[offset] = id(m.getCronExpression() == null ? null : m.getCronExpressionString(), ids, strings);
+                refs[offset + 1] = id(m.getContent(), ids, strings);
+                refs[offset + 2] = m.getLane() == null ? -1 : m.getLane().ordinal();
+                refs[offset + 3] = id(m.getExpiresAfter() == null ? null : m.getExpiresAfter().toString(), ids, strings);
+                refs[offset + 4] = id(m.getSpreadWindow() == null ? null : m.getSpreadWindow().toString(), ids, strings);
+            }
+            references[i] = refs;
+        }
+        Path tmp = Files.createTempFile(snapshot.toAbsolutePath().getParent(), snapshot.getFileName().toString(), ".tmp");
+        try {
+            CRC32C checksum = new CRC32C();
+            try (OutputStream file = Files.newOutputStream(tmp)) {
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), checksum));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(stamp.modified);
+                out.writeLong(stamp.size);
+                out.writeLong(stamp.checksum);
+                out.writeInt(strings.size());
+                for (String s : strings) {
+                    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                out.writeInt(references.length);
+                for (int[] refs : references) {
+                    out.writeInt(refs[0]);
+                    out.writeInt((refs.length - 1) / MESSAGE_LENGTH);
+                    for (int j = 1; j < refs.length; j++) {
+                        out.writeInt(refs[j]);
+                    }
+                }
+                out.flush();
+                new DataOutputStream(file).writeLong(checksum.getValue());
+            }
+            try {
+                Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Reads the snapshot if it belongs to the given state of the xml.
+     *
+     * @param snapshot the snapshot
+     * @param stamp the current state of the xml
+     * @param interner shares the strings and cron expressions with the other
+     * loaded files
+     * @return the entities or null if there is no valid snapshot for the xml
+     */
+    static List<Entity> read(Path snapshot, Stamp stamp, MessageInterner interner) {
+        if (!Files.isRegularFile(snapshot)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LENGTH + 8 || size > Integer.MAX_VALUE) {
+                LOGGER.warn("Ignore snapshot " + snapshot + " with invalid size " + size);
+                return null;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                LOGGER.info("Ignore snapshot " + snapshot + " of another version.");
+                return null;
+            }
+            if (buffer.getLong() != stamp.modified || buffer.getLong() != stamp.size || buffer.getLong() != stamp.checksum) {
+                LOGGER.debug("Snapshot " + snapshot + " is outdated.");
+                return null;
+            }
+            CRC32C checksum = new CRC32C();
+            checksum.update(buffer.duplicate().position(0).limit((int) size - 8));
+            if (buffer.getLong((int) size - 8) != checksum.getValue()) {
+                LOGGER.warn("Ignore corrupt snapshot " + snapshot);
+                return null;
+            }
+            return decode(buffer, interner);
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | DateTimeParseException | ParseException ex) {
+            LOGGER.warn("Can't read snapshot " + snapshot, ex);
+            return null;
+        }
+    }
+
+    private static List<Entity> decode(ByteBuffer buffer, MessageInterner interner) throws ParseException {
+        String[] strings = new String[buffer.getInt()];
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < strings.length; i++) {
+            int length = buffer.getInt();
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            buffer.get(bytes, 0, length);
+            strings[i] = interner.intern(new String(bytes, 0, length, StandardCharsets.UTF_8));
+        }
+        Lane[] lanes = Lane.values();
+        Map<String, Duration> durations = new HashMap<>();
+        int count = buffer.getInt();
+        List<Entity> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Entity e = new Entity(string(strings, buffer.getInt()));
+            int messages = buffer.getInt();
+            e.setMessages(new ArrayList<>(messages));
+            for (int j = 0; j < messages; j++) {
+                Message m = new Message();
+                int cron = buffer.getInt();
+                if (cron >= 0) {
+                    m.setCronExpression(interner.cronExpression(strings[cron]));
+                }
+                m.setContent(string(strings, buffer.getInt()));
+                int lane = buffer.getInt();
+                if (lane >= 0) {
+                    m.setLane(lanes[lane]);
+                }
+                String expiry = string(strings, buffer.getInt());
+                if (expiry != null) {
+                    m.setExpiresAfter(durations.computeIfAbsent(expiry, Duration::parse));
+                }
+                String spread = string(strings, buffer.getInt());
+                if (spread != null) {
+                    m.setSpreadWindow(durations.computeIfAbsent(spread, Duration::parse));
+                }
+                m.setEntity(e);
+                e.addMessage(m);
+            }
+            entities.add(e);
+        }
+        return entities;
+    }
+
+    private static String string(String[] strings, int id) {
+        return id < 0 ? null : strings[id];
+    }
+
+    private static int id(String s, Map<String, Integer> ids, List<String> strings) {
+        if (s == null) {
+            return -1;
+        }
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = strings.size();
+            ids.put(s, id);
+            strings.add(s);
+        }
+        return id;
+    }
+
+    /**
+     * The state of the xml file a snapshot belongs to.
+     */
+    static final class Stamp {
+
+        private final long modified;
+        private final long size;
+        private final long checksum;
+
+        private Stamp(long modified, long size, long checksum) {
+            this.modified = modified;
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        /**
+         * Checksums the whole file, the modification time alone isn't
+         * reliable on every file system.
+         *
+         * @param xmlFile the notifications
+         * @return the current state of the file
+         * @throws IOException if the file can't be read
+         */
+        static Stamp of(Path xmlFile) throws IOException {
+            try (FileChannel channel = FileChannel.open(xmlFile, StandardOpenOption.READ)) {
+                long modified = Files.getLastModifiedTime(xmlFile).toMillis();
+                long size = channel.size();
+                CRC32C checksum = new CRC32C();
+                for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+                    checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Integer.MAX_VALUE, size - position)));
+                }
+                return new Stamp(modified, size, checksum.getValue());
+            }
+        }
+    }
+}
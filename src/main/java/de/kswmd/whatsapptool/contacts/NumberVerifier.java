@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.contacts;
+
+import de.kswmd.whatsapptool.WhatsAppHelper;
+import de.kswmd.whatsapptool.WhatsAppWebClient;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Checks a file of phone numbers if they are on WhatsApp. The numbers known by
+ * the caches of the client are written first, then the unknown numbers are
+ * opened one after another in the browser. Every result is written as soon as
+ * it is known, so there is one result line per input line. Neither the input
+ * nor the results are kept in memory, only which lines are still unknown.
+ * <p>
+ * Input: one number per line, further columns separated by ';' or ',' and
+ * lines starting with '#' are ignored. Output: number;status;source;detail
+ *
+ * @author Kai Denzel
+ */
+public class NumberVerifier {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public enum Status {
+        VALID,
+        INVALID,
+        NOT_A_NUMBER,
+        UNKNOWN
+    }
+
+    public enum Source {
+        CACHE,
+        FORMAT,
+        PROBE
+    }
+
+    private static final Pattern PHONE_NUMBER = Pattern.compile("^\\+?[0-9]{6,15}$");
+    private static final Duration PROBE_TIMEOUT = Duration.ofMinutes(1);
+
+    private final WhatsAppWebClient client;
+
+    public NumberVerifier(WhatsAppWebClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @param input the file with the numbers
+     * @param output the file for the results, overwritten if it exists
+     * @return the number of results per status
+     * @throws IOException if reading or writing fails
+     */
+    public Map<Status, Integer> verify(Path input, Path output) throws IOException {
+        Map<Status, Integer> counts = new EnumMap<>(Status.class);
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("#number;status;source;detail");
+            writer.newLine();
+            //the lines without a result, a number can be on more than one line
+            BitSet unknown = new BitSet();
+            try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+                String line;
+                for (int index = 0; (line = reader.readLine()) != null; index++) {
+                    String number = parseNumber(line);
+                    if (number != null && !verifyOffline(number, writer, counts)) {
+                        unknown.set(index);
+                    }
+                }
+            }
+            writer.flush();
+            LOGGER.info("Verified " + counts.values().stream().mapToInt(Integer::intValue).sum()
+                    + " numbers offline, probing " + unknown.cardinality() + " numbers.");
+            if (!unknown.isEmpty()) {
+                try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+                    String line;
+                    for (int index = 0; (line = reader.readLine()) != null; index++) {
+                        if (unknown.get(index)) {
+                            //a repeated number is in the cache once its first line was probed
+                            String number = parseNumber(line);
+                            if (!verifyOffline(number, writer, counts)) {
+                                probe(number, writer, counts);
+                            }
+                            writer.flush();
+                        }
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static String parseNumber(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        int separator = trimmed.indexOf(';') != -1 ? trimmed.indexOf(';') : trimmed.indexOf(',');
+        String number = separator != -1 ? trimmed.substring(0, separator) : trimmed;
+        return number.isBlank() ? null : number.trim();
+    }
+
+    static boolean isPhoneNumber(String number) {
+        return PHONE_NUMBER.matcher(InvalidNumberCache.normalize(number)).matches();
+    }
+
+    /**
+     * @return true if the result was written
+     */
+    private boolean verifyOffline(String number, BufferedWriter writer, Map<Status, Integer> counts) throws IOException {
+        if (!isPhoneNumber(number)) {
+            write(writer, counts, number, Status.NOT_A_NUMBER, Source.FORMAT, "");
+            return true;
+        }
+        String normalized = InvalidNumberCache.normalize(number);
+        Optional<String> reason = client.getInvalidNumberCache().getReason(normalized);
+        if (reason.isPresent()) {
+            write(writer, counts, normalized, Status.INVALID, Source.CACHE, reason.get());
+            return true;
+        }
+        if (client.getContactResolutionCache().get(normalized).isPresent()) {
+            write(writer, counts, normalized, Status.VALID, Source.CACHE, "");
+            return true;
+        }
+        return false;
+    }
+
+    private void probe(String number, BufferedWriter writer, Map<Status, Integer> counts) throws IOException {
+        String normalized = InvalidNumberCache.normalize(number);
+        try {
+            Optional<String> reason = client.getOutboundQueue()
+                    .runInBrowser(() -> WhatsAppHelper.probePhoneNumber(normalized, client))
+                    .get(PROBE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            if (reason.isPresent()) {
+                write(writer, counts, normalized, Status.INVALID, Source.PROBE, reason.get());
+            } else {
+                write(writer, counts, normalized, Status.VALID, Source.PROBE, "");
+            }
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            LOGGER.debug("Probe of " + normalized + " failed.", cause);
+            write(writer, counts, normalized, Status.UNKNOWN, Source.PROBE, String.valueOf(cause.getMessage()));
+        } catch (TimeoutException ex) {
+            LOGGER.debug("Probe of " + normalized + " timed out.", ex);
+            write(writer, counts, normalized, Status.UNKNOWN, Source.PROBE, "timeout");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while probing " + normalized, ex);
+        }
+    }
+
+    private static void write(BufferedWriter writer, Map<Status, Integer> counts, String number, Status status, Source source, String detail) throws IOException {
+        counts.merge(status, 1, Integer::sum);
+        writer.write(number + ";" + status + ";" + source + ";" + detail.replaceAll("[;\\r\\n]+", " "));
+        writer.newLine();
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.contacts;
+
+import java.util.Objects;
+
+/**
+ * A change of the unread counter of one chat in the chat list, recorded by the
+ * observer in the browser.
+ *
+ * @author Kai Denzel
+ */
+public final class UnreadEvent {
+
+    private final String title;
+    private final String listItemTestId;
+    private final int unreadMessages;
+    private final int delta;
+    private final long timestamp;
+
+    public UnreadEvent(String title, String listItemTestId, int unreadMessages, int delta, long timestamp) {
+        this.title = title;
+        this.listItemTestId = listItemTestId;
+        this.unreadMessages = unreadMessages;
+        this.delta = delta;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return the title of the chat
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return the data-testid of the list item at the time of the change
+     */
+    public String getListItemTestId() {
+        return listItemTestId;
+    }
+
+    /**
+     * @return the unread messages after the change, 0 if the chat was read
+     */
+    public int getUnreadMessages() {
+        return unreadMessages;
+    }
+
+    /**
+     * @return the difference to the last known unread messages, negative if
+     * messages were read
+     */
+    public int getDelta() {
+        return delta;
+    }
+
+    /**
+     * @return the time of the change in the browser in epoch millis
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return true if new messages arrived
+     */
+    public boolean isIncoming() {
+        return delta > 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(title, listItemTestId, unreadMessages, delta, timestamp);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final UnreadEvent other = (UnreadEvent) obj;
+        return unreadMessages == other.unreadMessages
+                && delta == other.delta
+                && timestamp == other.timestamp
+                && Objects.equals(title, other.title)
+                && Objects.equals(listItemTestId, other.listItemTestId);
+    }
+
+    @Override
+    public String toString() {
+        return "UnreadEvent{" + "title=" + title + ", listItemTestId=" + listItemTestId
+                + ", unreadMessages=" + unreadMessages + ", delta=" + delta + ", timestamp=" + timestamp + '}';
+    }
+
+}
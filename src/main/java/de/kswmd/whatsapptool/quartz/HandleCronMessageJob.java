@@ -24,17 +24,27 @@
 package de.kswmd.whatsapptool.quartz;
 
 import de.kswmd.whatsapptool.WhatsAppWebClient;
-import de.kswmd.whatsapptool.WhatsAppHelper;
 import de.kswmd.whatsapptool.contacts.Message;
+import de.kswmd.whatsapptool.send.Lane;
 import de.kswmd.whatsapptool.text.MessageParser;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.quartz.DisallowConcurrentExecution;
 import org.quartz.Job;
+import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
+import org.quartz.ObjectAlreadyExistsException;
+import org.quartz.SchedulerException;
 
 /**
+ * Queues the message of the firing trigger. A message with a spread window
+ * isn't queued at its fire time, a one-shot trigger fires it again at its
+ * offset within the window instead, so the messages of a busy cron
+ * expression don't queue up at once.
  *
  * @author Kai Denzel
  */
@@ -45,20 +55,82 @@ public class HandleCronMessageJob implements Job {
 
     public static final String KEY_MESSAGE = "message";
     public static final String KEY_WHATSAPP_CLIENT = "whatsapp_client";
+    /**
+     * The fire time of the cron trigger, set on the trigger of a spread
+     * message.
+     */
+    public static final String KEY_FIRE_TIME = "fire_time";
 
     @Override
     public void execute(JobExecutionContext jec) throws JobExecutionException {
-        Message m = (Message) jec.getTrigger().getJobDataMap().get(KEY_MESSAGE);
+        JobDataMap triggerData = jec.getTrigger().getJobDataMap();
+        Message m = (Message) triggerData.get(KEY_MESSAGE);
+        if (!triggerData.containsKey(KEY_FIRE_TIME) && spread(jec, m)) {
+            return;
+        }
         WhatsAppWebClient client = (WhatsAppWebClient) jec.getJobDetail().getJobDataMap().get(KEY_WHATSAPP_CLIENT);
+        long fireTime = triggerData.containsKey(KEY_FIRE_TIME) ? triggerData.getLong(KEY_FIRE_TIME) : jec.getScheduledFireTime().getTime();
+        queue(client, m, fireTime, jec.getScheduledFireTime());
+    }
+
+    /**
+     * Submits the message to the outbound queue of the client.
+     *
+     * @param client
+     * @param m the message
+     * @param fireTime the fire time of the cron expression, part of the
+     * idempotency key
+     * @param sendTime the fire time plus the spread offset, the expiry counts
+     * from here
+     */
+    static void queue(WhatsAppWebClient client, Message m, long fireTime, Date sendTime) {
         long ts = System.currentTimeMillis();
+        //the same firing of the same message is sent only once
+        String key = m.getKey() + "@" + fireTime;
+        Lane lane = m.getLane() != null ? m.getLane() : Lane.SCHEDULED;
+        Instant expires = m.getExpiresAfter() != null ? sendTime.toInstant().plus(m.getExpiresAfter()) : null;
         try {
-            LOGGER.info("Start sending message to " + m.getEntity().getIdentifier() + ": " + m.getContent());
-            String content = MessageParser.DEFAULT_PARSER.format(m).replaceAll("\n", WhatsAppHelper.SHIFT_ENTER);
-            WhatsAppHelper.sendMessage(m.getEntity().getIdentifier(), content, client);
-            LOGGER.info("Successfully sent message. " + (System.currentTimeMillis() - ts) + "ms:\n" + m);
+            LOGGER.info("Queue message to " + m.getEntity().getIdentifier() + ": " + m.getContent());
+            //submitted on the calling thread, so the messages of a burst keep
+            //their order and a full queue holds up the scheduler
+            client.getOutboundQueue().submit(key, m.getEntity().getIdentifier(), MessageParser.DEFAULT_PARSER.prepare(m), lane, expires)
+                    .whenComplete((r, ex) -> {
+                        if (ex != null) {
+                            LOGGER.error("Job execution failed. " + (System.currentTimeMillis() - ts) + "ms:\n" + m + "\n", ex);
+                        } else if (r.isSent()) {
+                            LOGGER.info("Successfully sent message. " + (System.currentTimeMillis() - ts) + "ms " + r + ":\n" + m);
+                        } else {
+                            LOGGER.error("Job execution failed. " + (System.currentTimeMillis() - ts) + "ms " + r + ":\n" + m + "\n", r.getError().orElse(null));
+                        }
+                    });
         } catch (Exception ex) {
             LOGGER.error("Job execution failed. " + (System.currentTimeMillis() - ts) + "ms:\n" + m + "\n", ex);
         }
     }
 
+    /**
+     * Schedules the message at its offset within the spread window.
+     *
+     * @return true if the message is sent later
+     */
+    private static boolean spread(JobExecutionContext jec, Message m) {
+        Duration offset = ScheduleManager.getSpreadOffset(m, ScheduleManager.getInstance().getSpreadWindow());
+        if (offset.isZero()) {
+            return false;
+        }
+        Date fireTime = jec.getScheduledFireTime();
+        Date sendTime = Date.from(fireTime.toInstant().plus(offset));
+        try {
+            jec.getScheduler().scheduleJob(ScheduleManager.createSpreadTrigger(m, fireTime, sendTime));
+            LOGGER.debug("Spread message to " + m.getEntity().getIdentifier() + " by " + offset + ".");
+        } catch (ObjectAlreadyExistsException ex) {
+            LOGGER.debug("Message " + m.getKey() + " is already spread.");
+        } catch (SchedulerException ex) {
+            //better late than never
+            LOGGER.error("Couldn't spread message " + m.getKey() + ", it is sent now.", ex);
+            return false;
+        }
+        return true;
+    }
+
 }
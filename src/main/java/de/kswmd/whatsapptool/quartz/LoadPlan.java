@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.quartz;
+
+import de.kswmd.whatsapptool.contacts.Entity;
+import de.kswmd.whatsapptool.contacts.Message;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.quartz.CronExpression;
+
+/**
+ * The number of messages queued per minute within a horizon. Every firing of
+ * a message counts in the minute it is queued, that is its fire time plus its
+ * spread offset. With the rate of the queue the plan estimates how late the
+ * messages of the busiest minutes are sent, the queue works off the backlog
+ * minute by minute.
+ *
+ * @author Kai Denzel
+ */
+public final class LoadPlan {
+
+    private static final long MINUTE = 60_000;
+
+    private final SortedMap<Date, Integer> load;
+    private final int messages;
+    private final int ratePerMinute;
+    private final Date peakMinute;
+    private final int peakLoad;
+    private final Duration maxLateness;
+
+    private LoadPlan(SortedMap<Date, Integer> load, int messages, int ratePerMinute, Duration maxLateness) {
+        this.load = Collections.unmodifiableSortedMap(load);
+        this.messages = messages;
+        this.ratePerMinute = ratePerMinute;
+        this.maxLateness = maxLateness;
+        Date peak = null;
+        int max = 0;
+        for (Map.Entry<Date, Integer> entry : load.entrySet()) {
+            if (entry.getValue() > max) {
+                peak = entry.getKey();
+                max = entry.getValue();
+            }
+        }
+        this.peakMinute = peak;
+        this.peakLoad = max;
+    }
+
+    /**
+     * Computes the load of the messages firing after from and until the end
+     * of the horizon.
+     *
+     * @param entities the entities with their messages
+     * @param from the start of the horizon, exclusive
+     * @param horizon the length of the horizon
+     * @param defaultWindow the spread window of messages without an own
+     * window
+     * @param ratePerMinute the messages the queue sends per minute, zero if
+     * unlimited
+     * @return the plan
+     */
+    public static LoadPlan compute(List<Entity> entities, Date from, Duration horizon, Duration defaultWindow, int ratePerMinute) {
+        long end = from.getTime() + horizon.toMillis();
+        TreeMap<Date, Integer> load = new TreeMap<>();
+        int messages = 0;
+        for (Entity e : entities) {
+            for (Message m : e.getMessages()) {
+                CronExpression cron = m.getCronExpression();
+                if (cron == null) {
+                    continue;
+                }
+                long offset = ScheduleManager.getSpreadOffset(m, defaultWindow).toMillis();
+                for (Date next = cron.getNextValidTimeAfter(from); next != null && next.getTime() <= end; next = cron.getNextValidTimeAfter(next)) {
+                    long queued = next.getTime() + offset;
+                    load.merge(new Date(queued - Math.floorMod(queued, MINUTE)), 1, Integer::sum);
+                    messages++;
+                }
+            }
+        }
+        return new LoadPlan(load, messages, ratePerMinute, ratePerMinute > 0 ? getMaxLateness(load, ratePerMinute) : Duration.ZERO);
+    }
+
+    /**
+     * The last message of a minute is sent when the backlog of the previous
+     * minutes and the messages of the minute are worked off.
+     */
+    private static Duration getMaxLateness(SortedMap<Date, Integer> load, int ratePerMinute) {
+        long backlog = 0;
+        long previous = Long.MIN_VALUE;
+        long max = 0;
+        for (Map.Entry<Date, Integer> entry : load.entrySet()) {
+            long minute = entry.getKey().getTime();
+            if (previous != Long.MIN_VALUE) {
+                //the minutes without messages work off the backlog, too
+                long idle = (minute - previous) / MINUTE - 1;
+                backlog = Math.max(0, backlog - idle * ratePerMinute);
+            }
+            backlog += entry.getValue();
+            max = Math.max(max, backlog * MINUTE / ratePerMinute);
+            backlog = Math.max(0, backlog - ratePerMinute);
+            previous = minute;
+        }
+        return Duration.ofMillis(max);
+    }
+
+    /**
+     * @return the number of messages queued per minute, only minutes with
+     * messages are contained
+     */
+    public SortedMap<Date, Integer> getLoad() {
+        return load;
+    }
+
+    /**
+     * @param limit the maximum number of minutes
+     * @return the minutes with the most messages, the busiest first
+     */
+    public List<Map.Entry<Date, Integer>> getBusiestMinutes(int limit) {
+        return load.entrySet().stream()
+                .sorted(Map.Entry.<Date, Integer>comparingByValue().reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the number of firings within the horizon
+     */
+    public int getMessages() {
+        return messages;
+    }
+
+    public int getRatePerMinute() {
+        return ratePerMinute;
+    }
+
+    /**
+     * @return the busiest minute, null if no message fires
+     */
+    public Date getPeakMinute() {
+        return peakMinute;
+    }
+
+    public int getPeakLoad() {
+        return peakLoad;
+    }
+
+    /**
+     * @return the estimated time until the last message of the worst minute
+     * is sent, zero if the rate is unlimited
+     */
+    public Duration getMaxLateness() {
+        return maxLateness;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadPlan{" + "messages=" + messages
+                + ", minutes=" + load.size()
+                + ", peak=" + peakLoad + (peakMinute != null ? " at " + SimpleDateFormat.getDateTimeInstance().format(peakMinute) : "")
+                + ", rate=" + (ratePerMinute > 0 ? ratePerMinute + "/min" : "unlimited")
+                + ", maxLateness=" + maxLateness + '}';
+    }
+}
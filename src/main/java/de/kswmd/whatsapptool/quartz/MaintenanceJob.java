@@ -23,14 +23,17 @@
  */
 package de.kswmd.whatsapptool.quartz;
 
-import de.kswmd.whatsapptool.WhatsAppHelper;
 import de.kswmd.whatsapptool.WhatsAppHelper.Emoji;
 import de.kswmd.whatsapptool.WhatsAppWebClient;
+import de.kswmd.whatsapptool.send.Lane;
 import de.kswmd.whatsapptool.text.MessageParser;
+import de.kswmd.whatsapptool.text.RenderContext;
 import de.kswmd.whatsapptool.utils.FormatterConstants;
 import de.kswmd.whatsapptool.utils.Settings;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -51,6 +54,11 @@ public class MaintenanceJob implements Job {
     
     final static String WHATSAPP_CLIENT = "whatsappclient";
     
+    /**
+     * The report is replaced by the one of the next day.
+     */
+    private static final Duration REPORT_EXPIRY = Duration.ofDays(1);
+    
     public MaintenanceJob() {
         //LOGGER.info("Constructor called...");
     }
@@ -70,32 +78,38 @@ public class MaintenanceJob implements Job {
             } catch (UnknownHostException ex) {
                 LOGGER.trace("Hostname not found...", ex);
             }
-            sb.append(WhatsAppHelper.SHIFT_ENTER)
+            sb.append('\n')
                     .append("Hostname: ")
                     .append(hostname)
-                    .append(WhatsAppHelper.SHIFT_ENTER)
+                    .append('\n')
                     .append("Status OK ")
-                    .append(WhatsAppHelper.SHIFT_ENTER)
-                    .append(WhatsAppHelper.SHIFT_ENTER)
+                    .append('\n')
+                    .append('\n')
                     .append("Test emojis:");
             for (Emoji emoji : Emoji.values()) {
-                sb.append(WhatsAppHelper.SHIFT_ENTER)
+                sb.append('\n')
                         .append("[emoji:")
                         .append(emoji).append("]");
             }
-            sb.append(WhatsAppHelper.SHIFT_ENTER)
+            sb.append('\n')
                     .append("Show status of chronjobs if available.")
-                    .append(WhatsAppHelper.SHIFT_ENTER);
+                    .append('\n');
             LocalDateTime yesterday = now.minusDays(1);
             String fileToRead = yesterday.format(FormatterConstants.DATE_FORMAT_YYYY_MM)
                     + "/app-" + yesterday.format(FormatterConstants.DATE_FORMAT_MM_dd_YYYY)
                     + ".message-job-status-log.txt";
             sb.append("[file:logs/").append(fileToRead).append("]");
             try {
-                LOGGER.info("Start sending status report.");
+                LOGGER.info("Queue status report.");
                 //String content = sb.toString();
-                WhatsAppHelper.sendMessage(adminPhoneNumber, MessageParser.DEFAULT_PARSER.format(sb.toString()).replaceAll("\n", WhatsAppHelper.SHIFT_ENTER), client);
-                LOGGER.info("Successfully sent status report.");
+                client.getOutboundQueue().submit(null, adminPhoneNumber, MessageParser.DEFAULT_PARSER.source(sb.toString(), RenderContext.of(now)),
+                        Lane.SCHEDULED, Instant.now().plus(REPORT_EXPIRY)).thenAccept(r -> {
+                    if (r.isSent()) {
+                        LOGGER.info("Successfully sent status report. " + r);
+                    } else {
+                        LOGGER.error("Job execution failed... \n" + adminPhoneNumber + "\n" + r, r.getError().orElse(null));
+                    }
+                });
             } catch (Exception ex) {
                 LOGGER.error("Job execution failed... \n" + adminPhoneNumber + "\n", ex);
             }
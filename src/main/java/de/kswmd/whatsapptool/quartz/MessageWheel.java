@@ -0,0 +1,264 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.quartz;
+
+import de.kswmd.whatsapptool.contacts.Entity;
+import de.kswmd.whatsapptool.contacts.Message;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Schedules the messages on a {@link TimingWheel} instead of one Quartz
+ * trigger per message. Only the next firing of every message is in the
+ * wheel, its send time is computed once from the cron expression and the
+ * spread offset. The messages due in the same tick are dispatched as one
+ * batch, the next firing is computed when a message is dispatched.
+ *
+ * <p>
+ * A changed or removed message isn't searched in the wheel, its entry is
+ * skipped when it comes due.
+ *
+ * @author Kai Denzel
+ */
+public final class MessageWheel {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final Duration DEFAULT_TICK = Duration.ofSeconds(1);
+    /**
+     * 64^4 ticks, half a year with the default tick.
+     */
+    private static final int LEVELS = 4;
+    /**
+     * A firing missed by more than this while the wheel didn't advance is
+     * sent once, like a misfired Quartz trigger.
+     */
+    private static final long MISFIRE_THRESHOLD = 60_000;
+
+    private final TimingWheel<Firing> wheel;
+    private final Duration spreadWindow;
+    private final Consumer<List<Firing>> dispatcher;
+    /**
+     * The current firing of every message by its key.
+     */
+    private final Map<String, Firing> scheduled = new HashMap<>();
+    private long dispatched;
+    private long batches;
+    private int maxBatch;
+
+    /**
+     * @param tick the resolution of the wheel
+     * @param spreadWindow the spread window of messages without an own window
+     * @param now the current time in milliseconds
+     * @param dispatcher receives the due messages, outside of the lock of the
+     * wheel
+     */
+    public MessageWheel(Duration tick, Duration spreadWindow, long now, Consumer<List<Firing>> dispatcher) {
+        this.wheel = new TimingWheel<>(tick, LEVELS, now);
+        this.spreadWindow = spreadWindow;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Brings the wheel in line with the entities, see
+     * {@link ScheduleManager#updateMessagesJob(java.util.List, de.kswmd.whatsapptool.WhatsAppWebClient)}.
+     * Unchanged messages keep their next firing.
+     *
+     * @param entities the new entities
+     * @return the changes
+     */
+    public synchronized ScheduleUpdate update(List<Entity> entities) {
+        Map<String, Message> wanted = new LinkedHashMap<>();
+        for (Entity e : entities) {
+            for (Message m : e.getMessages()) {
+                wanted.put(m.getKey(), m);
+            }
+        }
+        int added = 0;
+        int updated = 0;
+        int unchanged = 0;
+        for (Message m : wanted.values()) {
+            Firing old = scheduled.get(m.getKey());
+            if (old == null) {
+                added++;
+            } else if (m.isSameAs(old.message)) {
+                unchanged++;
+                continue;
+            } else {
+                updated++;
+            }
+            schedule(m, wheel.getTime(), wheel.getTime());
+        }
+        int removed = 0;
+        for (Iterator<String> it = scheduled.keySet().iterator(); it.hasNext();) {
+            if (!wanted.containsKey(it.next())) {
+                it.remove();
+                removed++;
+            }
+        }
+        return new ScheduleUpdate(added, updated, removed, unchanged);
+    }
+
+    /**
+     * Puts the next firing of the message after the time into the wheel.
+     */
+    private void schedule(Message m, long after, long now) {
+        long offset = ScheduleManager.getSpreadOffset(m, spreadWindow).toMillis();
+        Date next = m.getCronExpression().getNextValidTimeAfter(new Date(after));
+        if (next != null && next.getTime() + offset < now - MISFIRE_THRESHOLD) {
+            next = m.getCronExpression().getNextValidTimeAfter(new Date(now - offset));
+        }
+        if (next == null) {
+            scheduled.remove(m.getKey());
+            return;
+        }
+        Firing firing = new Firing(m, next.getTime(), next.getTime() + offset);
+        scheduled.put(m.getKey(), firing);
+        wheel.add(firing.sendTime, firing);
+    }
+
+    /**
+     * Advances the wheel to the time and dispatches the due messages as one
+     * batch.
+     *
+     * @param now the current time in milliseconds
+     * @return the number of dispatched messages
+     */
+    public int advance(long now) {
+        List<Firing> batch;
+        synchronized (this) {
+            List<Firing> due = wheel.advance(now);
+            batch = new ArrayList<>(due.size());
+            for (Firing firing : due) {
+                if (scheduled.get(firing.message.getKey()) != firing) {
+                    //changed or removed since
+                    continue;
+                }
+                batch.add(firing);
+                schedule(firing.message, firing.fireTime, now);
+            }
+            if (!batch.isEmpty()) {
+                dispatched += batch.size();
+                batches++;
+                maxBatch = Math.max(maxBatch, batch.size());
+            }
+        }
+        if (!batch.isEmpty()) {
+            LOGGER.debug("Dispatch " + batch.size() + " messages.");
+            dispatcher.accept(batch);
+        }
+        return batch.size();
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @param horizon
+     * @return the recipients of the messages sent within the horizon, ordered
+     * by their send time
+     */
+    public synchronized Set<String> getUpcomingRecipients(long now, Duration horizon) {
+        long end = now + horizon.toMillis();
+        List<Firing> upcoming = new ArrayList<>();
+        for (Firing firing : scheduled.values()) {
+            if (firing.sendTime <= end) {
+                upcoming.add(firing);
+            }
+        }
+        upcoming.sort(Comparator.comparingLong(f -> f.sendTime));
+        Set<String> recipients = new LinkedHashSet<>();
+        for (Firing firing : upcoming) {
+            if (firing.message.getEntity() != null) {
+                recipients.add(firing.message.getEntity().getIdentifier());
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * @return the number of scheduled messages
+     */
+    public synchronized int size() {
+        return scheduled.size();
+    }
+
+    public Duration getTick() {
+        return wheel.getTick();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MessageWheel{" + "messages=" + scheduled.size()
+                + ", entries=" + wheel.size()
+                + ", tick=" + wheel.getTick()
+                + ", dispatched=" + dispatched
+                + ", batches=" + batches
+                + ", maxBatch=" + maxBatch + '}';
+    }
+
+    /**
+     * The next firing of a message.
+     */
+    public static final class Firing {
+
+        private final Message message;
+        private final long fireTime;
+        private final long sendTime;
+
+        private Firing(Message message, long fireTime, long sendTime) {
+            this.message = message;
+            this.fireTime = fireTime;
+            this.sendTime = sendTime;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        /**
+         * @return the fire time of the cron expression in milliseconds
+         */
+        public long getFireTime() {
+            return fireTime;
+        }
+
+        /**
+         * @return the fire time plus the spread offset in milliseconds
+         */
+        public long getSendTime() {
+            return sendTime;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.quartz;
+
+import de.kswmd.whatsapptool.WhatsAppWebClient;
+import de.kswmd.whatsapptool.contacts.MessageDatabase;
+import de.kswmd.whatsapptool.contacts.MessageFileDatabase;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Watches the notifications file, or the *.xml files of a notifications
+ * directory, and reloads them when they change. Only the
+ * triggers of changed messages are rescheduled, see
+ * {@link ScheduleManager#updateMessagesJob(java.util.List, WhatsAppWebClient)}.
+ * Editors often write a file in several steps, so the reload waits until the
+ * file didn't change for the debounce time.
+ *
+ * @author Kai Denzel
+ */
+public class NotificationsWatcher {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final Duration DEFAULT_DEBOUNCE = Duration.ofSeconds(1);
+
+    private final MessageDatabase messageDatabase;
+    private final Path file;
+    private final WhatsAppWebClient client;
+    private final Duration debounce;
+
+    private WatchService watchService;
+    private Thread worker;
+
+    public NotificationsWatcher(MessageDatabase messageDatabase, Path file, WhatsAppWebClient client) {
+        this(messageDatabase, file, client, DEFAULT_DEBOUNCE);
+    }
+
+    public NotificationsWatcher(MessageDatabase messageDatabase, Path file, WhatsAppWebClient client, Duration debounce) {
+        this.messageDatabase = messageDatabase;
+        this.file = file.toAbsolutePath();
+        this.client = client;
+        this.debounce = debounce;
+    }
+
+    /**
+     * Starts watching, does nothing if already started.
+     *
+     * @throws IOException if the directory can't be watched
+     */
+    public synchronized void start() throws IOException {
+        if (worker != null) {
+            return;
+        }
+        watchService = file.getFileSystem().newWatchService();
+        directory().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        worker = new Thread(this::watch, "notifications-watcher");
+        worker.setDaemon(true);
+        worker.start();
+        LOGGER.info("Watching " + file + " for changes.");
+    }
+
+    public synchronized void stop() {
+        if (worker == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            LOGGER.debug("Couldn't close watch service.", ex);
+        }
+        worker.interrupt();
+        worker = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return worker != null;
+    }
+
+    private void watch() {
+        WatchService service = watchService;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!isChanged(service.take())) {
+                    continue;
+                }
+                //wait until the file is written completely
+                WatchKey key;
+                while ((key = service.poll(debounce.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+                    isChanged(key);
+                }
+                reload();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ex) {
+            LOGGER.trace("Watch service closed.", ex);
+        }
+        LOGGER.debug("Stopped watching " + file);
+    }
+
+    private boolean isChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || isNotificationsFile(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * @return the watched directory, the file itself if it is a directory of
+     * notification files
+     */
+    private Path directory() {
+        return Files.isDirectory(file) ? file : file.getParent();
+    }
+
+    private boolean isNotificationsFile(Object context) {
+        if (Files.isDirectory(file)) {
+            return context instanceof Path && context.toString().endsWith(MessageFileDatabase.XML_SUFFIX);
+        }
+        return file.getFileName().equals(context);
+    }
+
+    /**
+     * Loads the file and updates the changed triggers. If the file is invalid
+     * the current schedule is kept.
+     */
+    public void reload() {
+        try {
+            ScheduleUpdate update;
+            synchronized (messageDatabase) {
+                messageDatabase.loadEntities();
+                update = ScheduleManager.getInstance().updateMessagesJob(messageDatabase.getEntities(), client);
+            }
+            if (update.hasChanges()) {
+                LOGGER.info("Reloaded " + file.getFileName() + ": " + update);
+            }
+        } catch (Exception ex) {
+            LOGGER.error("Couldn't reload " + file + ", the current schedule is kept.", ex);
+        }
+    }
+}
@@ -27,13 +27,22 @@ import de.kswmd.whatsapptool.WhatsAppWebClient;
 import de.kswmd.whatsapptool.contacts.Entity;
 import de.kswmd.whatsapptool.contacts.Message;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import static org.quartz.CronScheduleBuilder.cronSchedule;
 import static org.quartz.JobBuilder.newJob;
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
 import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
 import org.quartz.JobKey;
@@ -41,8 +50,10 @@ import org.quartz.ScheduleBuilder;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
 import org.quartz.Trigger;
+import org.quartz.TriggerKey;
 import static org.quartz.TriggerBuilder.newTrigger;
 import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.impl.matchers.GroupMatcher;
 
 /**
  *
@@ -52,7 +63,23 @@ public class ScheduleManager {
 
     private Logger LOGGER = LogManager.getLogger();
 
+    public static final JobKey MESSAGES_JOB_KEY = JobKey.jobKey("messagesJob", "contactPersons");
+    public static final String MESSAGES_TRIGGER_GROUP = "messagesTrigger";
+    public static final JobKey WHEEL_JOB_KEY = JobKey.jobKey("messagesWheelJob", "contactPersons");
+    private static final TriggerKey WHEEL_TRIGGER_KEY = TriggerKey.triggerKey("messagesWheelTrigger", "contactPersons");
+    /**
+     * The group of the one-shot triggers which send a spread message.
+     */
+    public static final String SPREAD_TRIGGER_GROUP = "spreadTrigger";
+    /**
+     * Messages are sent at their fire time unless they have a window.
+     */
+    public static final Duration DEFAULT_SPREAD_WINDOW = Duration.ZERO;
+
     private Scheduler scheduler = null;
+    private volatile Duration spreadWindow = DEFAULT_SPREAD_WINDOW;
+    private volatile SchedulerBackend backend = SchedulerBackend.TRIGGERS;
+    private volatile MessageWheel wheel;
     private static ScheduleManager instance;
 
     private ScheduleManager() {
@@ -120,45 +147,302 @@ public class ScheduleManager {
     }
 
     public void scheduleMessagesJob(List<Entity> entities, final WhatsAppWebClient client) {
+        if (backend == SchedulerBackend.WHEEL) {
+            scheduleMessagesWheel(entities, client);
+            return;
+        }
+        //durable, the job must outlive its triggers while they are replaced
+        //and the one-shot triggers of spread messages
         JobDetail handleCronMessagesJob = newJob(HandleCronMessageJob.class)
-                .withIdentity("messagesJob", "contactPersons")
+                .withIdentity(MESSAGES_JOB_KEY)
+                .storeDurably()
                 .build();
         handleCronMessagesJob.getJobDataMap().put(HandleCronMessageJob.KEY_WHATSAPP_CLIENT, client);
         try {
             Set<Trigger> triggers = new HashSet<>();
             for (Entity e : entities) {
                 for (Message m : e.getMessages()) {
-                    JobDataMap jdm = new JobDataMap();
-                    jdm.put(HandleCronMessageJob.KEY_MESSAGE, m);
-                    Trigger trigger = newTrigger()
-                            .withIdentity("messagesTrigger_" + e.getIdentifier() + "_" + e.getMessages().indexOf(m), "messagesTrigger")
-                            .withSchedule(cronSchedule(m.getCronExpression()))
-                            .forJob(handleCronMessagesJob)
-                            .usingJobData(jdm)
-                            .build();
-                    triggers.add(trigger);
+                    triggers.add(createMessageTrigger(m));
                 }
             }
-            scheduler.scheduleJob(handleCronMessagesJob, triggers, true);
+            synchronized (this) {
+                scheduler.scheduleJob(handleCronMessagesJob, triggers, true);
+            }
         } catch (SchedulerException ex) {
             LOGGER.error("Couldn't schedule Job.", ex);
             unscheduleMessagesJob();
         }
     }
 
+    /**
+     * Brings the triggers of the messages job in line with the entities.
+     * Triggers are matched by the key of their message, only triggers of
+     * added, changed or removed messages are touched, so unchanged triggers
+     * keep their state and misfire information. If the messages job doesn't
+     * exist yet it is scheduled with all messages. With the wheel backend the
+     * wheel is updated the same way.
+     *
+     * @param entities the new entities
+     * @param client
+     * @return the changes
+     * @throws SchedulerException if the triggers couldn't be read or changed
+     */
+    public synchronized ScheduleUpdate updateMessagesJob(List<Entity> entities, final WhatsAppWebClient client) throws SchedulerException {
+        if (backend == SchedulerBackend.WHEEL) {
+            MessageWheel w = wheel;
+            if (w == null || !scheduler.checkExists(WHEEL_JOB_KEY)) {
+                return scheduleMessagesWheel(entities, client);
+            }
+            ScheduleUpdate update = w.update(entities);
+            LOGGER.info("Updated message wheel: " + update);
+            return update;
+        }
+        Map<TriggerKey, Message> wanted = new LinkedHashMap<>();
+        for (Entity e : entities) {
+            for (Message m : e.getMessages()) {
+                wanted.put(messageTriggerKey(m), m);
+            }
+        }
+        if (!scheduler.checkExists(MESSAGES_JOB_KEY)) {
+            scheduleMessagesJob(entities, client);
+            return new ScheduleUpdate(wanted.size(), 0, 0, 0);
+        }
+        //compute the whole difference before changing anything
+        Map<TriggerKey, Trigger> existing = new HashMap<>();
+        boolean paused = false;
+        for (Trigger trigger : scheduler.getTriggersOfJob(MESSAGES_JOB_KEY)) {
+            if (!MESSAGES_TRIGGER_GROUP.equals(trigger.getKey().getGroup())) {
+                //pending spread messages are sent as they were fired
+                continue;
+            }
+            existing.put(trigger.getKey(), trigger);
+            paused |= scheduler.getTriggerState(trigger.getKey()) == Trigger.TriggerState.PAUSED;
+        }
+        List<Trigger> added = new ArrayList<>();
+        List<Trigger> updated = new ArrayList<>();
+        int unchanged = 0;
+        for (Map.Entry<TriggerKey, Message> entry : wanted.entrySet()) {
+            Trigger old = existing.remove(entry.getKey());
+            if (old == null) {
+                added.add(createMessageTrigger(entry.getValue()));
+            } else if (entry.getValue().isSameAs((Message) old.getJobDataMap().get(HandleCronMessageJob.KEY_MESSAGE))) {
+                unchanged++;
+            } else {
+                updated.add(createMessageTrigger(entry.getValue()));
+            }
+        }
+        List<TriggerKey> removed = new ArrayList<>(existing.keySet());
+        if (!removed.isEmpty()) {
+            scheduler.unscheduleJobs(removed);
+        }
+        for (Trigger trigger : updated) {
+            scheduler.rescheduleJob(trigger.getKey(), trigger);
+        }
+        for (Trigger trigger : added) {
+            scheduler.scheduleJob(trigger);
+        }
+        if (paused) {
+            //new triggers of a paused job would fire otherwise
+            for (Trigger trigger : updated) {
+                scheduler.pauseTrigger(trigger.getKey());
+            }
+            for (Trigger trigger : added) {
+                scheduler.pauseTrigger(trigger.getKey());
+            }
+        }
+        ScheduleUpdate update = new ScheduleUpdate(added.size(), updated.size(), removed.size(), unchanged);
+        LOGGER.info("Updated message triggers: " + update);
+        return update;
+    }
+
+    /**
+     * Schedules the messages on a new wheel and the job which drives it.
+     */
+    private synchronized ScheduleUpdate scheduleMessagesWheel(List<Entity> entities, final WhatsAppWebClient client) {
+        MessageWheel w = new MessageWheel(MessageWheel.DEFAULT_TICK, spreadWindow, System.currentTimeMillis(),
+                batch -> batch.forEach(firing -> HandleCronMessageJob.queue(client, firing.getMessage(),
+                firing.getFireTime(), new Date(firing.getSendTime()))));
+        ScheduleUpdate update = w.update(entities);
+        JobDetail wheelJob = newJob(MessageWheelJob.class)
+                .withIdentity(WHEEL_JOB_KEY)
+                .build();
+        wheelJob.getJobDataMap().put(MessageWheelJob.KEY_WHEEL, w);
+        Trigger trigger = newTrigger()
+                .withIdentity(WHEEL_TRIGGER_KEY)
+                .withSchedule(simpleSchedule()
+                        .withIntervalInMilliseconds(w.getTick().toMillis())
+                        .repeatForever()
+                        //the wheel catches up by itself
+                        .withMisfireHandlingInstructionNextWithRemainingCount())
+                .forJob(wheelJob)
+                .build();
+        try {
+            scheduler.scheduleJob(wheelJob, Set.of(trigger), true);
+            wheel = w;
+            LOGGER.info("Scheduled " + w.size() + " messages on the wheel.");
+        } catch (SchedulerException ex) {
+            LOGGER.error("Couldn't schedule the message wheel.", ex);
+            unscheduleMessagesJob();
+        }
+        return update;
+    }
+
+    private static TriggerKey messageTriggerKey(Message m) {
+        return TriggerKey.triggerKey("messagesTrigger_" + m.getKey(), MESSAGES_TRIGGER_GROUP);
+    }
+
+    private static Trigger createMessageTrigger(Message m) {
+        JobDataMap jdm = new JobDataMap();
+        jdm.put(HandleCronMessageJob.KEY_MESSAGE, m);
+        return newTrigger()
+                .withIdentity(messageTriggerKey(m))
+                .withSchedule(cronSchedule(m.getCronExpression()))
+                .forJob(MESSAGES_JOB_KEY)
+                .usingJobData(jdm)
+                .build();
+    }
+
+    /**
+     * Creates the one-shot trigger which sends a spread message at its send
+     * time. The key contains the original fire time, so the same firing is
+     * spread only once.
+     *
+     * @param m the message
+     * @param fireTime the fire time of the cron trigger
+     * @param sendTime the fire time plus the spread offset
+     * @return the trigger
+     */
+    static Trigger createSpreadTrigger(Message m, Date fireTime, Date sendTime) {
+        JobDataMap jdm = new JobDataMap();
+        jdm.put(HandleCronMessageJob.KEY_MESSAGE, m);
+        jdm.put(HandleCronMessageJob.KEY_FIRE_TIME, fireTime.getTime());
+        return newTrigger()
+                .withIdentity(TriggerKey.triggerKey("spreadTrigger_" + m.getKey() + "@" + fireTime.getTime(), SPREAD_TRIGGER_GROUP))
+                .startAt(sendTime)
+                .forJob(MESSAGES_JOB_KEY)
+                .usingJobData(jdm)
+                .build();
+    }
+
+    /**
+     * The offset of the message within its spread window. It is derived from
+     * the key only, so the message is sent at the same offset after every
+     * firing and in every run, and messages with the same cron expression are
+     * spread evenly over the window.
+     *
+     * @param m the message
+     * @param defaultWindow the window of messages without an own window
+     * @return the offset, zero if there is no window
+     */
+    public static Duration getSpreadOffset(Message m, Duration defaultWindow) {
+        Duration window = m.getSpreadWindow() != null ? m.getSpreadWindow() : defaultWindow;
+        if (window == null || window.toMillis() <= 0 || m.getKey() == null) {
+            return Duration.ZERO;
+        }
+        //similar keys differ in their last characters only, mix all bits
+        long hash = m.getKey().hashCode() * 0x9E3779B97F4A7C15L;
+        return Duration.ofMillis(Math.floorMod(hash ^ (hash >>> 32), window.toMillis()));
+    }
+
+    /**
+     * @return the spread window of messages without an own window
+     */
+    public Duration getSpreadWindow() {
+        return spreadWindow;
+    }
+
+    public void setSpreadWindow(Duration spreadWindow) {
+        this.spreadWindow = spreadWindow;
+    }
+
+    /**
+     * @return the message wheel, null unless the messages are scheduled with
+     * the wheel backend
+     */
+    public MessageWheel getMessageWheel() {
+        return wheel;
+    }
+
+    public SchedulerBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Takes effect when the messages are scheduled the next time, the
+     * messages of the former backend should be unscheduled before.
+     *
+     * @param backend
+     */
+    public void setBackend(SchedulerBackend backend) {
+        this.backend = backend;
+    }
+
     public boolean unscheduleMessagesJob() {
         try {
-            return scheduler.deleteJob(JobKey.jobKey("messagesJob", "contactPersons"));
+            wheel = null;
+            boolean wheelJob = scheduler.deleteJob(WHEEL_JOB_KEY);
+            return scheduler.deleteJob(MESSAGES_JOB_KEY) || wheelJob;
         } catch (SchedulerException ex) {
             LOGGER.error("Couldn't unschedule messages job.", ex);
         }
         return false;
     }
 
+    /**
+     * Returns the recipients of the message triggers that fire within the
+     * horizon. Paused triggers are ignored.
+     *
+     * @param horizon
+     * @return the identifiers ordered by their next fire time
+     */
+    public Set<String> getUpcomingRecipients(Duration horizon) {
+        Set<String> recipients = new LinkedHashSet<>();
+        if (scheduler == null) {
+            return recipients;
+        }
+        Date now = new Date();
+        Date end = Date.from(now.toInstant().plus(horizon));
+        try {
+            MessageWheel w = wheel;
+            if (w != null) {
+                if (scheduler.getTriggerState(WHEEL_TRIGGER_KEY) == Trigger.TriggerState.NORMAL) {
+                    recipients.addAll(w.getUpcomingRecipients(now.getTime(), horizon));
+                }
+                return recipients;
+            }
+            List<Trigger> upcoming = new ArrayList<>();
+            for (TriggerKey key : scheduler.getTriggerKeys(GroupMatcher.triggerGroupEquals(MESSAGES_TRIGGER_GROUP))) {
+                Trigger trigger = scheduler.getTrigger(key);
+                if (trigger == null || scheduler.getTriggerState(key) != Trigger.TriggerState.NORMAL) {
+                    continue;
+                }
+                Date next = trigger.getFireTimeAfter(now);
+                if (next != null && !next.after(end)) {
+                    upcoming.add(trigger);
+                }
+            }
+            upcoming.sort(Comparator.comparing(t -> t.getFireTimeAfter(now)));
+            for (Trigger trigger : upcoming) {
+                Message m = (Message) trigger.getJobDataMap().get(HandleCronMessageJob.KEY_MESSAGE);
+                if (m != null && m.getEntity() != null) {
+                    recipients.add(m.getEntity().getIdentifier());
+                }
+            }
+        } catch (SchedulerException ex) {
+            LOGGER.error("Couldn't read the message triggers.", ex);
+        }
+        return recipients;
+    }
+
+    Scheduler getScheduler() {
+        return scheduler;
+    }
+
     public void pauseAllJobs() {
         try {
             scheduler.pauseJob(JobKey.jobKey("statusReportJob", "maintenance"));
-            scheduler.pauseJob(JobKey.jobKey("messagesJob", "contactPersons"));
+            scheduler.pauseJob(MESSAGES_JOB_KEY);
+            scheduler.pauseJob(WHEEL_JOB_KEY);
         } catch (SchedulerException ex) {
             LOGGER.error("Couldn't pause Jobs", ex);
         }
@@ -167,7 +451,8 @@ public class ScheduleManager {
     public void resumeAllJobs() {
         try {
             scheduler.resumeJob(JobKey.jobKey("statusReportJob", "maintenance"));
-            scheduler.resumeJob(JobKey.jobKey("messagesJob", "contactPersons"));
+            scheduler.resumeJob(MESSAGES_JOB_KEY);
+            scheduler.resumeJob(WHEEL_JOB_KEY);
         } catch (SchedulerException ex) {
             LOGGER.error("Couldn't resume Jobs", ex);
         }
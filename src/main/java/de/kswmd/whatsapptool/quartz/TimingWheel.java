@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.quartz;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A hierarchical timing wheel. Every level has 64 slots, a slot of the first
+ * level spans one tick and a slot of the next level spans all slots of the
+ * level below. An entry is put into the lowest level whose span contains its
+ * deadline and moves down a level whenever the wheel reaches its slot, so
+ * adding an entry and advancing by a tick take constant time independent of
+ * the number of entries. Deadlines beyond the highest level wait in an
+ * overflow queue until the wheel gets there.
+ *
+ * <p>
+ * The wheel isn't thread-safe.
+ *
+ * @author Kai Denzel
+ * @param <T> the type of the entries
+ */
+public final class TimingWheel<T> {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+
+    private final long tickMillis;
+    private final int levels;
+    private final List<List<Entry<T>>> slots;
+    private final PriorityQueue<Entry<T>> overflow = new PriorityQueue<>(Comparator.comparingLong(e -> e.tick));
+    private List<Entry<T>> due = new ArrayList<>();
+    /**
+     * The last tick the wheel advanced to.
+     */
+    private long current;
+    private int size;
+
+    /**
+     * @param tick the resolution of the wheel
+     * @param levels the number of levels, the wheel spans 64^levels ticks
+     * @param start the current time in milliseconds
+     */
+    public TimingWheel(Duration tick, int levels, long start) {
+        if (tick.toMillis() <= 0 || levels < 1 || levels * BITS >= Long.SIZE - 1) {
+            throw new IllegalArgumentException("Invalid tick " + tick + " or levels " + levels);
+        }
+        this.tickMillis = tick.toMillis();
+        this.levels = levels;
+        this.slots = new ArrayList<>(levels * SLOTS);
+        for (int i = 0; i < levels * SLOTS; i++) {
+            slots.add(null);
+        }
+        this.current = Math.floorDiv(start, tickMillis);
+    }
+
+    /**
+     * Adds the entry. An entry whose deadline already passed is returned by
+     * the next {@link #advance(long)}.
+     *
+     * @param deadline the time in milliseconds
+     * @param value the entry
+     */
+    public void add(long deadline, T value) {
+        insert(new Entry<>(Math.floorDiv(deadline, tickMillis), value));
+        size++;
+    }
+
+    private void insert(Entry<T> entry) {
+        if (entry.tick <= current) {
+            due.add(entry);
+            return;
+        }
+        for (int level = 0; level < levels; level++) {
+            int shift = BITS * (level + 1);
+            //within the span of the current slot of the level above
+            if ((entry.tick >> shift) == (current >> shift)) {
+                int index = level * SLOTS + (int) ((entry.tick >> (BITS * level)) & MASK);
+                List<Entry<T>> slot = slots.get(index);
+                if (slot == null) {
+                    slot = new ArrayList<>();
+                    slots.set(index, slot);
+                }
+                slot.add(entry);
+                return;
+            }
+        }
+        overflow.add(entry);
+    }
+
+    /**
+     * Advances the wheel tick by tick to the time.
+     *
+     * @param now the current time in milliseconds
+     * @return the entries whose deadline passed, in the order of their ticks
+     */
+    public List<T> advance(long now) {
+        long target = Math.floorDiv(now, tickMillis);
+        int shift = BITS * levels;
+        while (current < target) {
+            if (size == due.size() + overflow.size()) {
+                //the levels are empty, skip to the next span of the overflow
+                long next = ((current >> shift) + 1) << shift;
+                if (next > target) {
+                    current = target;
+                    break;
+                }
+                current = next - 1;
+            }
+            current++;
+            if ((current & ((1L << shift) - 1)) == 0) {
+                while (!overflow.isEmpty() && (overflow.peek().tick >> shift) <= (current >> shift)) {
+                    insert(overflow.poll());
+                }
+            }
+            //the higher levels first, their entries may be due in this tick
+            for (int level = levels - 1; level >= 0; level--) {
+                if ((current & ((1L << (BITS * level)) - 1)) == 0) {
+                    int index = level * SLOTS + (int) ((current >> (BITS * level)) & MASK);
+                    List<Entry<T>> slot = slots.get(index);
+                    if (slot != null) {
+                        slots.set(index, null);
+                        slot.forEach(this::insert);
+                    }
+                }
+            }
+        }
+        List<T> result = new ArrayList<>(due.size());
+        due.forEach(entry -> result.add(entry.value));
+        size -= due.size();
+        due = new ArrayList<>();
+        return result;
+    }
+
+    /**
+     * @return the time in milliseconds the wheel advanced to
+     */
+    public long getTime() {
+        return current * tickMillis;
+    }
+
+    public Duration getTick() {
+        return Duration.ofMillis(tickMillis);
+    }
+
+    /**
+     * @return the number of entries, including the due ones
+     */
+    public int size() {
+        return size;
+    }
+
+    private static final class Entry<T> {
+
+        private final long tick;
+        private final T value;
+
+        private Entry(long tick, T value) {
+            this.tick = tick;
+            this.value = value;
+        }
+    }
+}
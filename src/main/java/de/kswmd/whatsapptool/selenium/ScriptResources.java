@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.selenium;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads the javascript files from the classpath folder /js that are executed
+ * in the browser via the JavascriptExecutor. The files are read only once.
+ *
+ * @author Kai Denzel
+ */
+public final class ScriptResources {
+
+    public static final String CHATLIST_SNAPSHOT = "chatlist-snapshot.js";
+    public static final String INSERT_TEXT = "insert-text.js";
+    public static final String UNREAD_OBSERVER = "unread-observer.js";
+    public static final String UNREAD_DRAIN = "unread-drain.js";
+
+    private static final Map<String, String> SCRIPTS = new ConcurrentHashMap<>();
+
+    private ScriptResources() {
+    }
+
+    /**
+     * Returns the content of the script with the given file name.
+     *
+     * @param name the file name inside the /js folder
+     * @return the script
+     * @throws UncheckedIOException if the script is missing or not readable
+     */
+    public static String get(String name) {
+        return SCRIPTS.computeIfAbsent(name, ScriptResources::load);
+    }
+
+    private static String load(String name) {
+        try (InputStream is = ScriptResources.class.getResourceAsStream("/js/" + name)) {
+            if (is == null) {
+                throw new IOException("Script /js/" + name + " not found.");
+            }
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import java.time.Duration;
+import java.time.Instant;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Stops sending when WhatsApp Web itself seems to be broken. After the
+ * threshold of consecutive transient failures the breaker opens and no
+ * message is tried for the open duration. Then a single message is tried,
+ * if it succeeds the breaker closes, otherwise it opens again for twice the
+ * time up to the maximum. A permanent failure like a popup closes the
+ * breaker as well, because the browser answered.
+ *
+ * @author Kai Denzel
+ */
+public final class CircuitBreaker {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final Duration DEFAULT_OPEN_DURATION = Duration.ofMinutes(1);
+    public static final Duration DEFAULT_MAX_OPEN_DURATION = Duration.ofMinutes(15);
+
+    public enum State {
+        /**
+         * Messages are sent.
+         */
+        CLOSED,
+        /**
+         * No message is sent until the open duration is over.
+         */
+        OPEN,
+        /**
+         * The next message decides whether the breaker closes or opens again.
+         */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Duration maxOpenDuration;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private Duration currentOpenDuration;
+    private Instant openUntil;
+    private long opened;
+
+    /**
+     * @param failureThreshold the consecutive transient failures which open
+     * the breaker
+     * @param openDuration the pause after the breaker opened the first time
+     * @param maxOpenDuration the longest pause
+     */
+    public CircuitBreaker(int failureThreshold, Duration openDuration, Duration maxOpenDuration) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be at least 1 but was " + failureThreshold);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.maxOpenDuration = maxOpenDuration.compareTo(openDuration) < 0 ? openDuration : maxOpenDuration;
+        this.currentOpenDuration = openDuration;
+    }
+
+    /**
+     * Moves an open breaker to half open once the open duration is over.
+     *
+     * @return how long to wait before the next message may be tried, zero if
+     * it may be tried now
+     */
+    public synchronized Duration getWaitTime() {
+        if (state != State.OPEN) {
+            return Duration.ZERO;
+        }
+        Duration wait = Duration.between(Instant.now(), openUntil);
+        if (wait.isNegative() || wait.isZero()) {
+            state = State.HALF_OPEN;
+            LOGGER.info("Circuit breaker is half open, trying the next message.");
+            return Duration.ZERO;
+        }
+        return wait;
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        currentOpenDuration = openDuration;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            LOGGER.info("Circuit breaker closed, sending is resumed.");
+        }
+    }
+
+    /**
+     * @param failure the class of the failure
+     */
+    public synchronized void onFailure(RetryPolicy.Failure failure) {
+        if (failure == RetryPolicy.Failure.PERMANENT) {
+            onSuccess();
+            return;
+        }
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            long doubled = Math.min(currentOpenDuration.toMillis() * 2, maxOpenDuration.toMillis());
+            currentOpenDuration = Duration.ofMillis(doubled);
+            open();
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = Instant.now().plus(currentOpenDuration);
+        opened++;
+        LOGGER.warn("Circuit breaker opened after " + consecutiveFailures
+                + " failures in a row, sending is paused for " + currentOpenDuration.toSeconds() + "s.");
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return how often the breaker opened
+     */
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{" + "state=" + state + ", consecutiveFailures=" + consecutiveFailures
+                + "/" + failureThreshold + ", opened=" + opened
+                + (state == State.OPEN ? ", openUntil=" + openUntil : "") + '}';
+    }
+
+}
@@ -0,0 +1,420 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import de.kswmd.whatsapptool.text.MessageParser;
+import de.kswmd.whatsapptool.text.RenderContext;
+import de.kswmd.whatsapptool.text.TextSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Messages which failed permanently or ran out of attempts. They are kept
+ * with the content and the last error until they are sent again or cleared
+ * with the CLI, and are stored in a properties file if a file is given. The
+ * oldest letters are removed once the store is full.
+ * <p>
+ * Like the {@link OutboxJournal} a message that is rendered when it is sent
+ * is kept as template and render context, rendered content only up to
+ * {@link #MAX_CONTENT_LENGTH}. Added and removed letters are appended to the
+ * file, it is rewritten with the current letters once as many records were
+ * appended as the store holds.
+ *
+ * @author Kai Denzel
+ */
+public final class DeadLetterStore {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    /**
+     * Rendered content up to this length is kept, longer content is dropped
+     * and the letter can't be sent again.
+     */
+    public static final int MAX_CONTENT_LENGTH = 64 * 1024;
+
+    private static final String IDENTIFIER = "identifier";
+    private static final String CONTENT = "content";
+    private static final String TEMPLATE = "template";
+    private static final String RENDER_TIME = "renderTime";
+    private static final String RENDER_IDENTIFIER = "renderIdentifier";
+    private static final String RENDER_CRON = "renderCron";
+    private static final String ATTEMPTS = "attempts";
+    private static final String FAILURE = "failure";
+    private static final String ERROR = "error";
+    private static final String FAILED = "failed";
+    private static final String REMOVED = "removed";
+
+    /**
+     * A message that won't be sent again by itself.
+     */
+    public static final class DeadLetter {
+
+        private final String key;
+        private final String identifier;
+        private final String content;
+        private final String template;
+        private final RenderContext context;
+        private final int attempts;
+        private final RetryPolicy.Failure failure;
+        private final String error;
+        private final Instant failed;
+
+        DeadLetter(String key, String identifier, String content, String template, RenderContext context,
+                int attempts, RetryPolicy.Failure failure, String error, Instant failed) {
+            this.key = key;
+            this.identifier = identifier;
+            this.content = content;
+            this.template = template;
+            this.context = context;
+            this.attempts = attempts;
+            this.failure = failure;
+            this.error = error;
+            this.failed = failed;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        /**
+         * Creates the letter without rendering the content, see
+         * {@link DeadLetterStore}.
+         */
+        static DeadLetter of(String key, String identifier, TextSource content,
+                int attempts, RetryPolicy.Failure failure, String error, Instant failed) {
+            if (content.getTemplate() != null && content.getContext() != null) {
+                return new DeadLetter(key, identifier, null, content.getTemplate(), content.getContext(),
+                        attempts, failure, error, failed);
+            }
+            String text = content.lengthHint() <= MAX_CONTENT_LENGTH ? content.asString() : null;
+            return new DeadLetter(key, identifier, text, null, null, attempts, failure, error, failed);
+        }
+
+        /**
+         * @return the rendered content, null if the letter has a template or
+         * the content was too large
+         */
+        public String getContent() {
+            return content;
+        }
+
+        /**
+         * @return the unrendered text, null if the letter has rendered
+         * content
+         */
+        public String getTemplate() {
+            return template;
+        }
+
+        /**
+         * @return the context the template is rendered with, null if there is
+         * no template
+         */
+        public RenderContext getContext() {
+            return context;
+        }
+
+        /**
+         * @return the content to send the letter again, empty if the content
+         * was too large to be kept
+         */
+        public Optional<TextSource> toSource() {
+            if (template != null) {
+                return Optional.of(MessageParser.DEFAULT_PARSER.source(template, context));
+            }
+            return Optional.ofNullable(content).map(TextSource::of);
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public RetryPolicy.Failure getFailure() {
+            return failure;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public Instant getFailed() {
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return "DeadLetter{" + "key=" + key + ", identifier=" + identifier + ", attempts=" + attempts
+                    + ", failure=" + failure + ", failed=" + failed + ", error=" + error + '}';
+        }
+    }
+
+    private final Map<String, DeadLetter> letters = new LinkedHashMap<>();
+    private final Path file;
+    private final int maxSize;
+    /**
+     * Records appended since the file was written.
+     */
+    private int appended;
+
+    /**
+     * Creates a store which is only kept in memory.
+     */
+    public DeadLetterStore() {
+        this(null, DEFAULT_MAX_SIZE);
+    }
+
+    private DeadLetterStore(Path file, int maxSize) {
+        this.file = file;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Loads the store from the file. A missing file results in an empty store
+     * which creates the file on the first change.
+     *
+     * @param file the properties file
+     * @param maxSize the number of letters kept
+     * @return the store
+     */
+    public static DeadLetterStore load(Path file, int maxSize) {
+        DeadLetterStore store = new DeadLetterStore(file, maxSize);
+        if (!Files.isRegularFile(file)) {
+            return store;
+        }
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(file)) {
+            properties.load(input);
+        } catch (IOException ex) {
+            LOGGER.warn("Could not load dead letters from " + file);
+            LOGGER.trace("Error loading dead letters", ex);
+            return store;
+        }
+        //the key of a message may contain dots, the field name doesn't
+        Map<String, Map<String, String>> fields = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            int dot = name.lastIndexOf('.');
+            if (dot > 0) {
+                fields.computeIfAbsent(name.substring(0, dot), k -> new HashMap<>())
+                        .put(name.substring(dot + 1), properties.getProperty(name));
+            }
+        }
+        List<DeadLetter> loaded = new ArrayList<>();
+        fields.forEach((key, values) -> {
+            try {
+                long failed = Long.parseLong(values.get(FAILED));
+                //the letter was removed after it failed, it may fail again later
+                if (Long.parseLong(values.getOrDefault(REMOVED, "-1")) >= failed) {
+                    return;
+                }
+                String renderTime = emptyToNull(values.get(RENDER_TIME));
+                RenderContext context = renderTime == null ? null : RenderContext.of(LocalDateTime.parse(renderTime),
+                        emptyToNull(values.get(RENDER_IDENTIFIER)), emptyToNull(values.get(RENDER_CRON)));
+                loaded.add(new DeadLetter(key, values.get(IDENTIFIER), emptyToNull(values.get(CONTENT)),
+                        emptyToNull(values.get(TEMPLATE)), context,
+                        Integer.parseInt(values.get(ATTEMPTS)),
+                        RetryPolicy.Failure.valueOf(values.get(FAILURE)),
+                        values.getOrDefault(ERROR, ""),
+                        Instant.ofEpochMilli(failed)));
+            } catch (RuntimeException ex) {
+                LOGGER.trace("Invalid dead letter " + key, ex);
+            }
+        });
+        loaded.sort(Comparator.comparing(DeadLetter::getFailed));
+        loaded.subList(0, Math.max(0, loaded.size() - maxSize)).clear();
+        loaded.forEach(letter -> store.letters.put(letter.key, letter));
+        LOGGER.debug("Loaded " + store.size() + " dead letters from " + file);
+        return store;
+    }
+
+    /**
+     * Adds the letter, replacing an older one with the same key.
+     *
+     * @param letter the letter
+     */
+    public synchronized void add(DeadLetter letter) {
+        letters.remove(letter.key);
+        letters.put(letter.key, letter);
+        Iterator<DeadLetter> it = letters.values().iterator();
+        while (letters.size() > maxSize) {
+            DeadLetter oldest = it.next();
+            it.remove();
+            LOGGER.warn("Dead letter store is full, removed " + oldest.key + " to " + oldest.identifier + ".");
+        }
+        Properties properties = new Properties();
+        put(properties, letter);
+        append(properties);
+    }
+
+    /**
+     * @return the letters, the oldest first
+     */
+    public synchronized List<DeadLetter> getLetters() {
+        return new ArrayList<>(letters.values());
+    }
+
+    public synchronized Optional<DeadLetter> get(String key) {
+        return Optional.ofNullable(letters.get(key));
+    }
+
+    /**
+     * @param key the idempotency key of the message
+     * @return the removed letter
+     */
+    public synchronized Optional<DeadLetter> remove(String key) {
+        DeadLetter letter = letters.remove(key);
+        if (letter != null) {
+            Properties properties = new Properties();
+            properties.setProperty(key + "." + REMOVED, Long.toString(System.currentTimeMillis()));
+            append(properties);
+        }
+        return Optional.ofNullable(letter);
+    }
+
+    /**
+     * @return the removed letters, the oldest first
+     */
+    public synchronized List<DeadLetter> clear() {
+        List<DeadLetter> removed = new ArrayList<>(letters.values());
+        if (!removed.isEmpty()) {
+            letters.clear();
+            save();
+        }
+        return removed;
+    }
+
+    /**
+     * Sets every field, so the fields of an older letter with the same key
+     * are overwritten when the appended records are loaded.
+     */
+    private static void put(Properties properties, DeadLetter letter) {
+        properties.setProperty(letter.key + "." + IDENTIFIER, letter.identifier);
+        properties.setProperty(letter.key + "." + CONTENT, nullToEmpty(letter.content));
+        properties.setProperty(letter.key + "." + TEMPLATE, nullToEmpty(letter.template));
+        properties.setProperty(letter.key + "." + RENDER_TIME, letter.context == null ? "" : letter.context.getNow().toString());
+        properties.setProperty(letter.key + "." + RENDER_IDENTIFIER, letter.context == null ? "" : nullToEmpty(letter.context.getIdentifier()));
+        properties.setProperty(letter.key + "." + RENDER_CRON, letter.context == null ? "" : nullToEmpty(letter.context.getCronExpression()));
+        properties.setProperty(letter.key + "." + ATTEMPTS, Integer.toString(letter.attempts));
+        properties.setProperty(letter.key + "." + FAILURE, letter.failure.name());
+        properties.setProperty(letter.key + "." + ERROR, nullToEmpty(letter.error));
+        properties.setProperty(letter.key + "." + FAILED, Long.toString(letter.failed.toEpochMilli()));
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+    /**
+     * Appends the records to the file, or rewrites it if enough records were
+     * appended.
+     */
+    private void append(Properties properties) {
+        if (file == null) {
+            return;
+        }
+        if (++appended > maxSize) {
+            save();
+            return;
+        }
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (OutputStream output = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                properties.store(output, null);
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Failed to write dead letters to " + file, ex);
+        }
+    }
+
+    private void save() {
+        if (file == null) {
+            return;
+        }
+        appended = 0;
+        Properties properties = new Properties();
+        for (DeadLetter letter : letters.values()) {
+            put(properties, letter);
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (OutputStream output = Files.newOutputStream(tmp)) {
+                properties.store(output, "Messages which weren't sent. key.field=value");
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Failed to write dead letters to " + file, ex);
+        }
+    }
+
+    public synchronized int size() {
+        return letters.size();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "DeadLetterStore{" + "size=" + size() + "/" + maxSize
+                + (file != null ? ", file=" + file : "") + '}';
+    }
+
+}
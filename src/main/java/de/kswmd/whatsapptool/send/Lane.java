@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * The priority of a message in the {@link OutboundQueue}. A ready message of
+ * a lane is always sent before the messages of the lanes below it. Within a
+ * lane the message with the earliest deadline is sent first, the deadline is
+ * the expiry of the message or the time it was queued plus the slack of the
+ * lane.
+ *
+ * @author Kai Denzel
+ */
+public enum Lane {
+    /**
+     * Messages somebody waits for, like the send_message command.
+     */
+    INTERACTIVE(Duration.ZERO),
+    /**
+     * Messages of the notifications and reports of the application.
+     */
+    SCHEDULED(Duration.ofMinutes(5)),
+    /**
+     * Campaigns with many recipients.
+     */
+    BULK(Duration.ofHours(1));
+
+    private final Duration slack;
+
+    Lane(Duration slack) {
+        this.slack = slack;
+    }
+
+    /**
+     * @return the time a message without expiry may wait, used as its
+     * deadline
+     */
+    public Duration getSlack() {
+        return slack;
+    }
+
+    /**
+     * @param name the name of the lane, case insensitive
+     * @return the lane
+     * @throws IllegalArgumentException if there is no such lane
+     */
+    public static Lane of(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+}
@@ -0,0 +1,1175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import de.kswmd.whatsapptool.WhatsAppHelper;
+import de.kswmd.whatsapptool.WhatsAppWebClient;
+import de.kswmd.whatsapptool.send.SendResult.Status;
+import de.kswmd.whatsapptool.text.MessageParser;
+import de.kswmd.whatsapptool.text.TextSource;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded queue for outgoing messages. A single consumer thread owns the
+ * browser and sends the messages, so the CLI and the quartz jobs don't block
+ * each other while a message is typed. What happens if the queue is full is
+ * defined by the {@link Backpressure}.
+ * <p>
+ * Every message belongs to a {@link Lane} and each lane has its own
+ * capacity, so a large campaign doesn't block a message sent with the CLI. A
+ * ready message of a higher lane is always sent first, within a lane the
+ * message with the earliest deadline. A message may expire, it is dropped
+ * from the queue once the expiry has passed instead of being sent late.
+ * <p>
+ * The consumer takes all waiting messages for the recipient of the most
+ * urgent message at once, opens the chat once and sends them back to back.
+ * If there are messages in the same lane for the chat that is still open,
+ * they are sent first. Only messages submitted within the fairness window
+ * after the most urgent one may be taken ahead of it, so no recipient waits
+ * longer than the window plus one batch.
+ * <p>
+ * With an {@link OutboxJournal} every message is recorded with its
+ * idempotency key, so a message that was already sent is not queued again
+ * and the queued messages can be replayed after a restart.
+ * <p>
+ * A failed message is queued again after a backoff if the
+ * {@link RetryPolicy} considers the failure transient, otherwise or once its
+ * attempts are used up it fails and goes to the {@link DeadLetterStore}. A
+ * {@link CircuitBreaker} pauses sending while WhatsApp Web keeps failing, the
+ * messages wait in the queue meanwhile.
+ * <p>
+ * The {@link RateLimiter} paces the messages. A message whose recipient has
+ * no token left waits in the queue while the messages of other recipients
+ * are sent, and a batch takes only as many messages as there are tokens.
+ *
+ * @author Kai Denzel
+ */
+public class OutboundQueue {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final int DEFAULT_CAPACITY = 100;
+    public static final Duration DEFAULT_FAIRNESS_WINDOW = Duration.ofSeconds(30);
+    /**
+     * Rendered content up to this length is journaled, longer content only
+     * with its key, it isn't replayed after a restart.
+     */
+    public static final int MAX_JOURNAL_CONTENT_LENGTH = 1024 * 1024;
+
+    /**
+     * Sends the messages with the browser. Only called from the consumer
+     * thread.
+     */
+    public interface Sender {
+
+        /**
+         * Opens the chat of the recipient.
+         *
+         * @param identifier the contact name or phone number
+         * @throws Exception if the chat couldn't be opened
+         */
+        void openChat(String identifier) throws Exception;
+
+        /**
+         * Sends the message to the chat opened last.
+         *
+         * @param content the parsed content
+         * @throws Exception if the message couldn't be sent
+         */
+        void sendToOpenChat(String content) throws Exception;
+
+        /**
+         * Sends the message to the chat opened last. Joins the segments to one
+         * String unless the sender can consume the segments directly.
+         *
+         * @param content the content
+         * @throws Exception if the message couldn't be sent
+         */
+        default void sendToOpenChat(TextSource content) throws Exception {
+            sendToOpenChat(content.asString());
+        }
+
+        /**
+         * @return a count that changes if someone else may have opened
+         * another chat
+         */
+        default long getNavigationCount() {
+            return 0;
+        }
+    }
+
+    private final Sender sender;
+    private final int capacity;
+    private final Backpressure backpressure;
+    private final Duration fairnessWindow;
+
+    /**
+     * The waiting messages of each lane, iterated from the highest lane.
+     */
+    private final EnumMap<Lane, ArrayDeque<SendTask>> lanes = new EnumMap<>(Lane.class);
+    /**
+     * Other work with the browser, run before the next message.
+     */
+    private final ArrayDeque<BrowserTask<?>> browserTasks = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong chatSwitches = new AtomicLong();
+
+    private Thread consumer;
+    private volatile Runnable idleTask;
+    private volatile Duration idleDelay = Duration.ofSeconds(10);
+    private volatile SendTask current;
+    private volatile OutboxJournal journal;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.NONE;
+    private volatile CircuitBreaker circuitBreaker;
+    private volatile DeadLetterStore deadLetters;
+    private volatile RateLimiter rateLimiter;
+    /**
+     * True if the last computed send delay is caused by the rate limiter.
+     * Only used by the consumer with the lock held.
+     */
+    private boolean rateLimited;
+    private boolean replayed;
+    private volatile boolean shutdown;
+
+    public OutboundQueue(WhatsAppWebClient client) {
+        this(client, DEFAULT_CAPACITY, Backpressure.BLOCK, DEFAULT_FAIRNESS_WINDOW);
+    }
+
+    public OutboundQueue(WhatsAppWebClient client, int capacity, Backpressure backpressure, Duration fairnessWindow) {
+        this(new Sender() {
+            @Override
+            public void openChat(String identifier) throws Exception {
+                WhatsAppHelper.openChat(identifier, client);
+            }
+
+            @Override
+            public void sendToOpenChat(String content) throws Exception {
+                WhatsAppHelper.sendToOpenChat(content, client);
+            }
+
+            @Override
+            public void sendToOpenChat(TextSource content) throws Exception {
+                WhatsAppHelper.sendToOpenChat(content, client);
+            }
+
+            @Override
+            public long getNavigationCount() {
+                return client.getNavigationCount();
+            }
+        }, capacity, backpressure, fairnessWindow);
+    }
+
+    public OutboundQueue(Sender sender, int capacity, Backpressure backpressure) {
+        this(sender, capacity, backpressure, DEFAULT_FAIRNESS_WINDOW);
+    }
+
+    public OutboundQueue(Sender sender, int capacity, Backpressure backpressure, Duration fairnessWindow) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1 but was " + capacity);
+        }
+        this.sender = sender;
+        this.capacity = capacity;
+        this.backpressure = backpressure;
+        this.fairnessWindow = fairnessWindow;
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Puts the message into the queue. Returns immediately unless the queue is
+     * full and the backpressure is {@link Backpressure#BLOCK}.
+     *
+     * @param identifier the contact name or phone number
+     * @param content the parsed content of the message
+     * @return completes with the outcome when the message was sent, dropped or
+     * rejected, never exceptionally
+     */
+    public CompletableFuture<SendResult> submit(String identifier, String content) {
+        return submit(identifier, TextSource.of(content));
+    }
+
+    /**
+     * Puts the message into the queue, see
+     * {@link #submit(String, String)}. The content is emitted in segments
+     * when the message is sent.
+     *
+     * @param identifier the contact name or phone number
+     * @param content the content of the message
+     * @return completes with the outcome when the message was sent, dropped or
+     * rejected, never exceptionally
+     */
+    public CompletableFuture<SendResult> submit(String identifier, TextSource content) {
+        return submit(null, identifier, content);
+    }
+
+    /**
+     * Puts the message into the queue, see {@link #submit(String, String)}.
+     * If there is a journal and a message with the same key was already sent
+     * or is still queued, the message completes as
+     * {@link Status#DUPLICATE}.
+     *
+     * @param key the idempotency key, a random key if null
+     * @param identifier the contact name or phone number
+     * @param content the content of the message
+     * @return completes with the outcome when the message was sent, dropped or
+     * rejected, never exceptionally
+     */
+    public CompletableFuture<SendResult> submit(String key, String identifier, TextSource content) {
+        return submit(key, identifier, content, Lane.SCHEDULED, null);
+    }
+
+    /**
+     * Puts the message into the lane, see
+     * {@link #submit(String, String, TextSource)}. A message that expired
+     * before it was sent completes as {@link Status#EXPIRED}.
+     *
+     * @param key the idempotency key, a random key if null
+     * @param identifier the contact name or phone number
+     * @param content the content of the message
+     * @param lane the priority of the message
+     * @param expires the time after which the message isn't sent anymore, or
+     * null
+     * @return completes with the outcome when the message was sent, dropped,
+     * rejected or expired, never exceptionally
+     */
+    public CompletableFuture<SendResult> submit(String key, String identifier, TextSource content, Lane lane, Instant expires) {
+        SendTask task = new SendTask(key != null ? key : UUID.randomUUID().toString(), identifier, content, lane, expires);
+        OutboxJournal j = journal;
+        if (j != null) {
+            try {
+                //the template is journaled instead of the rendered text, the
+                //content is only rendered when it is typed
+                boolean queued;
+                if (content.getTemplate() != null && content.getContext() != null) {
+                    queued = j.enqueued(task.key, identifier, content.getTemplate(), content.getContext(), lane, expires);
+                } else {
+                    queued = j.enqueued(task.key, identifier,
+                            content.lengthHint() <= MAX_JOURNAL_CONTENT_LENGTH ? content.asString() : null, lane, expires);
+                }
+                if (!queued) {
+                    LOGGER.info("Skipped message to " + identifier + ", " + task.key + " was already sent or is queued.");
+                    task.complete(Status.DUPLICATE, null);
+                    return task.future;
+                }
+            } catch (IOException ex) {
+                LOGGER.error("Couldn't write message to " + identifier + " to the journal.", ex);
+            }
+        }
+        return enqueue(task);
+    }
+
+    /**
+     * Queues the messages the journal recorded as queued but never tried,
+     * in their lane, and finishes the ones whose sending started but never
+     * finished as in doubt without sending them again. Messages that expired
+     * meanwhile are finished as expired. Only the first call replays.
+     *
+     * @return the number of queued messages
+     */
+    public int replayJournal() {
+        OutboxJournal j = journal;
+        lock.lock();
+        try {
+            if (j == null || replayed) {
+                return 0;
+            }
+            replayed = true;
+        } finally {
+            lock.unlock();
+        }
+        for (OutboxJournal.Entry entry : j.getAttempted()) {
+            LOGGER.warn("Message " + entry.getKey() + " to " + entry.getIdentifier()
+                    + " was interrupted while sending, it isn't sent again. Please check the chat.");
+            journal(entry.getKey(), OutboxJournal.State.IN_DOUBT, "interrupted");
+        }
+        int count = 0;
+        for (OutboxJournal.Entry entry : j.getPending()) {
+            TextSource content;
+            if (entry.getTemplate() != null) {
+                content = MessageParser.DEFAULT_PARSER.source(entry.getTemplate(), entry.getContext());
+            } else if (entry.getContent() != null) {
+                content = TextSource.of(entry.getContent());
+            } else {
+                LOGGER.warn("Message " + entry.getKey() + " to " + entry.getIdentifier()
+                        + " was too large for the journal, it isn't sent again.");
+                journal(entry.getKey(), OutboxJournal.State.FAILED, "not journaled");
+                continue;
+            }
+            SendTask task = new SendTask(entry.getKey(), entry.getIdentifier(), content, entry.getLane(), entry.getExpires());
+            if (task.isExpired(Instant.now())) {
+                expire(task);
+                continue;
+            }
+            enqueue(task).thenAccept(r -> LOGGER.info("Replayed message " + entry.getKey() + ": " + r));
+            count++;
+        }
+        if (count > 0) {
+            LOGGER.info("Replayed " + count + " queued messages of " + j.getFile());
+        }
+        return count;
+    }
+
+    private CompletableFuture<SendResult> enqueue(SendTask task) {
+        String identifier = task.identifier;
+        if (task.isExpired(Instant.now())) {
+            expire(task);
+            return task.future;
+        }
+        ArrayDeque<SendTask> lane = lanes.get(task.lane);
+        SendTask droppedTask = null;
+        lock.lock();
+        try {
+            if (shutdown) {
+                return reject(task, "Queue is shut down.");
+            }
+            while (lane.size() >= capacity) {
+                if (backpressure == Backpressure.REJECT) {
+                    return reject(task, "Queue is full.");
+                } else if (backpressure == Backpressure.DROP_OLDEST) {
+                    droppedTask = lane.pollFirst();
+                } else {
+                    try {
+                        notFull.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return reject(task, "Interrupted while waiting for space in the queue.");
+                    }
+                    if (shutdown) {
+                        return reject(task, "Queue is shut down.");
+                    }
+                }
+            }
+            lane.addLast(task);
+            submitted.incrementAndGet();
+            ensureConsumer();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (droppedTask != null) {
+            dropped.incrementAndGet();
+            LOGGER.warn("Queue is full, dropped message to " + droppedTask.identifier + ".");
+            journal(droppedTask.key, OutboxJournal.State.FAILED, Status.DROPPED.name());
+            droppedTask.complete(Status.DROPPED, null);
+        }
+        LOGGER.debug("Queued message to " + identifier + ", queue size " + size() + ".");
+        return task.future;
+    }
+
+    private CompletableFuture<SendResult> reject(SendTask task, String reason) {
+        rejected.incrementAndGet();
+        LOGGER.warn("Rejected message to " + task.identifier + ". " + reason);
+        //a message rejected at the shutdown is replayed at the next start
+        if (!shutdown) {
+            journal(task.key, OutboxJournal.State.FAILED, Status.REJECTED.name() + ": " + reason);
+        }
+        task.complete(Status.REJECTED, null);
+        return task.future;
+    }
+
+    private void ensureConsumer() {
+        //a consumer that died of an error is replaced
+        if (consumer == null || !consumer.isAlive()) {
+            consumer = new Thread(this::consume, "outbound-queue");
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+    }
+
+    private void consume() {
+        String openChat = null;
+        long openChatNavigationCount = 0;
+        while (true) {
+            try {
+                List<SendTask> batch = null;
+                BrowserTask<?> browserTask = null;
+                Runnable idle = null;
+                boolean chatOpen = false;
+                List<SendTask> expiredTasks;
+                lock.lock();
+                try {
+                    if (isQueueEmpty() && browserTasks.isEmpty() && !shutdown) {
+                        idle = awaitMessages();
+                    }
+                    expiredTasks = removeExpired(Instant.now());
+                    if (!browserTasks.isEmpty()) {
+                        browserTask = browserTasks.pollFirst();
+                    } else if (!isQueueEmpty()) {
+                        long delay = getSendDelayMillis();
+                        if (delay > 0) {
+                            long start = System.nanoTime();
+                            awaitSendDelay(delay);
+                            RateLimiter limiter = rateLimiter;
+                            if (rateLimited && limiter != null) {
+                                limiter.recordStall(System.nanoTime() - start);
+                            }
+                        } else {
+                            chatOpen = openChat != null && sender.getNavigationCount() == openChatNavigationCount;
+                            batch = takeBatch(chatOpen ? openChat : null);
+                            current = batch.get(0);
+                            notFull.signalAll();
+                        }
+                    } else if (shutdown) {
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                expiredTasks.forEach(this::expire);
+                if (browserTask != null) {
+                    browserTask.run();
+                    continue;
+                }
+                if (batch == null) {
+                    if (idle != null) {
+                        runIdleTask(idle);
+                    }
+                    continue;
+                }
+                String identifier = batch.get(0).identifier;
+                chatOpen = chatOpen && identifier.equals(openChat);
+                LOGGER.debug("Sending " + batch.size() + " messages to " + identifier
+                        + (chatOpen ? " in the open chat." : "."));
+                openChat = send(identifier, batch, chatOpen) ? identifier : null;
+                openChatNavigationCount = sender.getNavigationCount();
+                current = null;
+            } catch (RuntimeException ex) {
+                //the consumer must not die, it is the only one
+                LOGGER.error("Outbound queue consumer failed, continue with the next message.", ex);
+                openChat = null;
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Waits for new messages. Must be called with the lock held.
+     *
+     * @return the idle task if no message arrived within the idle delay
+     */
+    private Runnable awaitMessages() {
+        Runnable task = idleTask;
+        if (task == null) {
+            notEmpty.awaitUninterruptibly();
+            return null;
+        }
+        try {
+            if (notEmpty.await(idleDelay.toMillis(), TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.trace("Interrupted while waiting for messages.", ex);
+            return null;
+        }
+        return isQueueEmpty() && browserTasks.isEmpty() && !shutdown ? task : null;
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private boolean isQueueEmpty() {
+        for (ArrayDeque<SendTask> lane : lanes.values()) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the expired messages. Must be called with the lock held.
+     *
+     * @return the removed messages, to be completed without the lock
+     */
+    private List<SendTask> removeExpired(Instant now) {
+        List<SendTask> result = null;
+        for (ArrayDeque<SendTask> lane : lanes.values()) {
+            for (Iterator<SendTask> it = lane.iterator(); it.hasNext();) {
+                SendTask task = it.next();
+                if (task.isExpired(now)) {
+                    it.remove();
+                    if (result == null) {
+                        result = new ArrayList<>();
+                    }
+                    result.add(task);
+                }
+            }
+        }
+        if (result == null) {
+            return List.of();
+        }
+        notFull.signalAll();
+        return result;
+    }
+
+    private void expire(SendTask task) {
+        expired.incrementAndGet();
+        LOGGER.info("Message to " + task.identifier + " expired at " + task.expires + ", it isn't sent.");
+        journal(task.key, OutboxJournal.State.EXPIRED, null);
+        task.complete(Status.EXPIRED, null);
+    }
+
+    /**
+     * Must be called with the lock held.
+     *
+     * @return the time until the circuit breaker lets messages through and
+     * the first message is due and has a token, zero if a message can be sent
+     * now
+     */
+    private long getSendDelayMillis() {
+        rateLimited = false;
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null) {
+            long wait = breaker.getWaitTime().toMillis();
+            if (wait > 0) {
+                return wait;
+            }
+        }
+        RateLimiter limiter = rateLimiter;
+        Instant now = Instant.now();
+        long next = Long.MAX_VALUE;
+        for (ArrayDeque<SendTask> lane : lanes.values()) {
+            for (SendTask task : lane) {
+                long wait = getSendDelayMillis(task, now, limiter);
+                if (wait == 0) {
+                    rateLimited = false;
+                    return 0;
+                }
+                next = Math.min(next, wait);
+            }
+        }
+        return next;
+    }
+
+    private long getSendDelayMillis(SendTask task, Instant now, RateLimiter limiter) {
+        long wait;
+        if (task.notBefore.isAfter(now)) {
+            wait = Math.max(1, Duration.between(now, task.notBefore).toMillis());
+        } else if (limiter != null) {
+            //rounded up, so the token is there when the consumer wakes up
+            wait = (limiter.getDelay(task.identifier).toNanos() + 999_999) / 1_000_000;
+            rateLimited |= wait > 0;
+        } else {
+            wait = 0;
+        }
+        return wait;
+    }
+
+    private static boolean isReady(SendTask task, Instant now, RateLimiter limiter) {
+        return !task.notBefore.isAfter(now) && (limiter == null || limiter.getDelay(task.identifier).isZero());
+    }
+
+    /**
+     * Waits for the delay or a new message. Must be called with the lock
+     * held.
+     */
+    private void awaitSendDelay(long millis) {
+        try {
+            notEmpty.await(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            LOGGER.trace("Interrupted while waiting for the next message to be due.", ex);
+        }
+    }
+
+    private void runIdleTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException ex) {
+            LOGGER.error("Idle task of the outbound queue failed.", ex);
+        }
+    }
+
+    /**
+     * Runs the task with the consumer thread before the next message is sent,
+     * so it doesn't interfere with sending. Used for other work with the
+     * browser like verifying phone numbers.
+     *
+     * @param <T> the result type
+     * @param task the task
+     * @return the result of the task, completes exceptionally if the task
+     * failed or the queue is shut down
+     */
+    public <T> CompletableFuture<T> runInBrowser(Callable<T> task) {
+        BrowserTask<T> browserTask = new BrowserTask<>(task);
+        lock.lock();
+        try {
+            if (shutdown) {
+                browserTask.future.completeExceptionally(new RejectedExecutionException("Queue is shut down."));
+                return browserTask.future;
+            }
+            browserTasks.addLast(browserTask);
+            ensureConsumer();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return browserTask.future;
+    }
+
+    /**
+     * Sets a task the consumer runs when no message arrived for the idle
+     * delay, e.g. to prepare upcoming messages with the browser. The task
+     * should return quickly because new messages wait until it is finished.
+     *
+     * @param task the task or null to remove it
+     * @param idleDelay the time without messages before the task runs, and
+     * between two runs
+     */
+    public void setIdleTask(Runnable task, Duration idleDelay) {
+        lock.lock();
+        try {
+            this.idleDelay = idleDelay;
+            this.idleTask = task;
+            if (task != null && !shutdown) {
+                ensureConsumer();
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the due messages for one recipient from the queue, at most as
+     * many as the rate limiter has tokens for. Takes the recipient of the most
+     * urgent ready message of the highest lane, or the preferred one if it has
+     * ready messages in that lane within the fairness window. Due messages of
+     * the recipient in other lanes are taken along. At least one message must
+     * be ready.
+     *
+     * @param preferred the recipient of the open chat or null
+     * @return the messages, the most urgent first
+     */
+    private List<SendTask> takeBatch(String preferred) {
+        Instant now = Instant.now();
+        RateLimiter limiter = rateLimiter;
+        SendTask urgent = null;
+        ArrayDeque<SendTask> urgentLane = null;
+        for (ArrayDeque<SendTask> lane : lanes.values()) {
+            for (SendTask task : lane) {
+                if (isReady(task, now, limiter) && (urgent == null || URGENCY.compare(task, urgent) < 0)) {
+                    urgent = task;
+                }
+            }
+            if (urgent != null) {
+                urgentLane = lane;
+                break;
+            }
+        }
+        Instant limit = urgent.enqueued.plus(fairnessWindow);
+        String identifier = urgent.identifier;
+        if (preferred != null && !preferred.equals(identifier)) {
+            for (SendTask task : urgentLane) {
+                if (preferred.equals(task.identifier) && !task.enqueued.isAfter(limit) && isReady(task, now, limiter)) {
+                    identifier = preferred;
+                    break;
+                }
+            }
+        }
+        List<SendTask> batch = new ArrayList<>();
+        for (ArrayDeque<SendTask> lane : lanes.values()) {
+            for (SendTask task : lane) {
+                if (identifier.equals(task.identifier) && !task.enqueued.isAfter(limit) && !task.notBefore.isAfter(now)) {
+                    batch.add(task);
+                }
+            }
+        }
+        batch.sort(URGENCY);
+        long max = limiter == null ? Long.MAX_VALUE : Math.max(1, limiter.getAvailable(identifier));
+        if (batch.size() > max) {
+            batch.subList((int) max, batch.size()).clear();
+        }
+        for (SendTask task : batch) {
+            lanes.get(task.lane).remove(task);
+        }
+        return batch;
+    }
+
+    /**
+     * Sends the messages to the recipient one after another. The chat is
+     * opened again after a message failed, if the chat itself can't be opened
+     * the remaining messages fail with the same error. If the circuit breaker
+     * opens, the remaining messages go back to the queue without an attempt.
+     *
+     * @return true if the chat of the recipient is still open
+     */
+    private boolean send(String identifier, List<SendTask> batch, boolean chatOpen) {
+        CircuitBreaker breaker = circuitBreaker;
+        RateLimiter limiter = rateLimiter;
+        Exception openChatError = null;
+        List<SendTask> deferred = new ArrayList<>();
+        for (SendTask task : batch) {
+            try {
+                if (breaker != null && breaker.getState() == CircuitBreaker.State.OPEN) {
+                    deferred.add(task);
+                    continue;
+                }
+                if (task.isExpired(Instant.now())) {
+                    expire(task);
+                    continue;
+                }
+                task.started = Instant.now();
+                task.attempts++;
+                if (openChatError != null) {
+                    fail(task, openChatError);
+                    continue;
+                }
+                if (!chatOpen) {
+                    try {
+                        chatSwitches.incrementAndGet();
+                        sender.openChat(identifier);
+                        chatOpen = true;
+                    } catch (Exception ex) {
+                        openChatError = ex;
+                        if (breaker != null) {
+                            breaker.onFailure(RetryPolicy.classify(ex));
+                        }
+                        fail(task, ex);
+                        continue;
+                    }
+                }
+                if (limiter != null) {
+                    pause(limiter.reserve(identifier));
+                }
+                OutboxJournal j = journal;
+                if (j != null) {
+                    try {
+                        j.attempted(task.key);
+                    } catch (IOException ex) {
+                        LOGGER.error("Couldn't write the start of sending " + task.key + " to the journal.", ex);
+                    }
+                }
+                try {
+                    sender.sendToOpenChat(task.content);
+                    sent.incrementAndGet();
+                    if (breaker != null) {
+                        breaker.onSuccess();
+                    }
+                    journal(task.key, OutboxJournal.State.SENT, null);
+                    task.complete(Status.SENT, null);
+                } catch (Exception ex) {
+                    chatOpen = false;
+                    if (breaker != null) {
+                        breaker.onFailure(RetryPolicy.classify(ex));
+                    }
+                    fail(task, ex);
+                }
+            } catch (RuntimeException ex) {
+                LOGGER.error("Unexpected error while sending " + task.key + " to " + identifier + ".", ex);
+                chatOpen = false;
+                if (!task.future.isDone()) {
+                    journal(task.key, OutboxJournal.State.FAILED, String.valueOf(ex));
+                    task.complete(Status.FAILED, ex);
+                }
+            }
+        }
+        if (!deferred.isEmpty()) {
+            LOGGER.debug("Circuit breaker is open, put back " + deferred.size() + " messages to " + identifier + ".");
+            requeue(deferred);
+        }
+        return chatOpen;
+    }
+
+    /**
+     * Waits for the token of a message, usually it is already there.
+     */
+    private static void pause(Duration delay) {
+        if (delay.isZero()) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay.toNanos());
+        } catch (InterruptedException ex) {
+            LOGGER.trace("Interrupted while waiting for a token.", ex);
+        }
+    }
+
+    /**
+     * Queues the message again after a transient failure, or fails it and
+     * puts it into the dead letter store.
+     */
+    private void fail(SendTask task, Exception ex) {
+        RetryPolicy policy = retryPolicy;
+        if (policy.isRetryable(ex, task.attempts)) {
+            Duration backoff = policy.getBackoff(task.attempts);
+            retried.incrementAndGet();
+            LOGGER.info("Sending message to " + task.identifier + " failed (attempt " + task.attempts + "/"
+                    + policy.getMaxAttempts() + "), trying again in " + backoff.toSeconds() + "s: " + ex);
+            OutboxJournal j = journal;
+            if (j != null) {
+                try {
+                    j.retrying(task.key, String.valueOf(ex));
+                } catch (IOException ioe) {
+                    LOGGER.error("Couldn't write the retry of " + task.key + " to the journal.", ioe);
+                }
+            }
+            task.notBefore = Instant.now().plus(backoff);
+            requeue(List.of(task));
+            return;
+        }
+        failed.incrementAndGet();
+        RetryPolicy.Failure failure = RetryPolicy.classify(ex);
+        LOGGER.debug("Sending message to " + task.identifier + " failed " + failure
+                + " after " + task.attempts + " attempts.", ex);
+        journal(task.key, OutboxJournal.State.FAILED, String.valueOf(ex));
+        DeadLetterStore store = deadLetters;
+        if (store != null) {
+            store.add(DeadLetterStore.DeadLetter.of(task.key, task.identifier, task.content,
+                    task.attempts, failure, String.valueOf(ex), Instant.now()));
+        }
+        task.complete(Status.FAILED, ex);
+    }
+
+    /**
+     * Puts the messages back in front of the queue, regardless of the
+     * capacity. They are cancelled if the queue was shut down meanwhile.
+     */
+    private void requeue(List<SendTask> tasks) {
+        lock.lock();
+        try {
+            if (!shutdown) {
+                for (int i = tasks.size() - 1; i >= 0; i--) {
+                    lanes.get(tasks.get(i).lane).addFirst(tasks.get(i));
+                }
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        tasks.forEach(task -> task.complete(Status.CANCELLED, null));
+    }
+
+    private void journal(String key, OutboxJournal.State state, String detail) {
+        OutboxJournal j = journal;
+        if (j != null) {
+            try {
+                j.finished(key, state, detail);
+            } catch (IOException ex) {
+                LOGGER.error("Couldn't write the outcome of " + key + " to the journal.", ex);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting messages. The message currently sent is finished, the
+     * waiting ones are cancelled.
+     *
+     * @param timeout how long to wait for the current message
+     * @return true if the consumer finished within the timeout
+     */
+    public boolean shutdown(Duration timeout) {
+        List<SendTask> cancelled;
+        List<BrowserTask<?>> cancelledBrowserTasks;
+        Thread t;
+        lock.lock();
+        try {
+            shutdown = true;
+            cancelled = new ArrayList<>();
+            for (ArrayDeque<SendTask> lane : lanes.values()) {
+                cancelled.addAll(lane);
+                lane.clear();
+            }
+            cancelledBrowserTasks = new ArrayList<>(browserTasks);
+            browserTasks.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+            t = consumer;
+        } finally {
+            lock.unlock();
+        }
+        cancelled.forEach(task -> task.complete(Status.CANCELLED, null));
+        cancelledBrowserTasks.forEach(task -> task.future.cancel(false));
+        if (!cancelled.isEmpty()) {
+            LOGGER.warn("Cancelled " + cancelled.size() + " queued messages.");
+        }
+        if (t == null) {
+            return true;
+        }
+        try {
+            t.join(timeout.toMillis());
+        } catch (InterruptedException ex) {
+            LOGGER.trace("Interrupted while waiting for the outbound queue.", ex);
+            Thread.currentThread().interrupt();
+        }
+        return !t.isAlive();
+    }
+
+    /**
+     * @return the number of waiting messages without the one currently sent
+     */
+    public int size() {
+        lock.lock();
+        try {
+            int size = 0;
+            for (ArrayDeque<SendTask> lane : lanes.values()) {
+                size += lane.size();
+            }
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param lane the lane
+     * @return the number of waiting messages in the lane
+     */
+    public int size(Lane lane) {
+        lock.lock();
+        try {
+            return lanes.get(lane).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public OutboxJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @param journal the journal of the messages or null, must be set before
+     * the first message is submitted
+     */
+    public void setJournal(OutboxJournal journal) {
+        this.journal = journal;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy decides which failed messages are sent again,
+     * {@link RetryPolicy#NONE} by default
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @param circuitBreaker pauses sending while WhatsApp Web fails, or null
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public DeadLetterStore getDeadLetters() {
+        return deadLetters;
+    }
+
+    /**
+     * @param deadLetters keeps the messages that failed for good, or null
+     */
+    public void setDeadLetters(DeadLetterStore deadLetters) {
+        this.deadLetters = deadLetters;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @param rateLimiter paces the messages, or null
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * @return the capacity of each lane
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    /**
+     * @return true while the consumer sends a message
+     */
+    public boolean isSending() {
+        return current != null;
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return how often a failed message was queued again
+     */
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * @return how often a chat was opened
+     */
+    public long getChatSwitches() {
+        return chatSwitches.get();
+    }
+
+    public Duration getFairnessWindow() {
+        return fairnessWindow;
+    }
+
+    @Override
+    public String toString() {
+        SendTask task = current;
+        return "OutboundQueue{" + "size=" + size()
+                + ", lanes=" + size(Lane.INTERACTIVE) + "/" + size(Lane.SCHEDULED) + "/" + size(Lane.BULK) + " of " + capacity
+                + ", backpressure=" + backpressure
+                + ", sending=" + (task != null ? task.identifier : "-")
+                + ", submitted=" + submitted
+                + ", sent=" + sent
+                + ", failed=" + failed
+                + ", retried=" + retried
+                + ", rejected=" + rejected
+                + ", dropped=" + dropped
+                + ", expired=" + expired
+                + ", chatSwitches=" + chatSwitches
+                + (circuitBreaker != null ? ", circuitBreaker=" + circuitBreaker.getState() : "") + '}';
+    }
+
+    private static final class BrowserTask<T> {
+
+        private final Callable<T> task;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private BrowserTask(Callable<T> task) {
+            this.task = task;
+        }
+
+        private void run() {
+            try {
+                future.complete(task.call());
+            } catch (Exception ex) {
+                future.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * The most urgent message first: by lane, deadline and submission.
+     */
+    private static final Comparator<SendTask> URGENCY = Comparator.<SendTask, Lane>comparing(t -> t.lane)
+            .thenComparing(t -> t.deadline)
+            .thenComparingLong(t -> t.sequence);
+
+    private static final class SendTask {
+
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        private final String key;
+        private final String identifier;
+        private final TextSource content;
+        private final Lane lane;
+        private final Instant expires;
+        private final Instant enqueued = Instant.now();
+        private final Instant deadline;
+        private final long sequence = SEQUENCE.incrementAndGet();
+        private final CompletableFuture<SendResult> future = new CompletableFuture<>();
+        private Instant started;
+        /**
+         * When the message may be sent, later than enqueued after a failure.
+         */
+        private Instant notBefore = enqueued;
+        private int attempts;
+
+        private SendTask(String key, String identifier, TextSource content, Lane lane, Instant expires) {
+            this.key = key;
+            this.identifier = identifier;
+            this.content = content;
+            this.lane = lane;
+            this.expires = expires;
+            this.deadline = expires != null ? expires : enqueued.plus(lane.getSlack());
+        }
+
+        private boolean isExpired(Instant now) {
+            return expires != null && !expires.isAfter(now);
+        }
+
+        private void complete(Status status, Throwable error) {
+            Instant finished = Instant.now();
+            future.complete(new SendResult(identifier, status, enqueued,
+                    started != null ? started : finished, finished, attempts, error));
+        }
+    }
+}
@@ -0,0 +1,683 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import de.kswmd.whatsapptool.text.RenderContext;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Append only journal of the messages of the {@link OutboundQueue}, so the
+ * queued messages survive a restart and a message that was already sent
+ * isn't sent again. Every message has an idempotency key, the journal records
+ * when it was queued, when sending started and the outcome.
+ * <p>
+ * A message is journaled as the unrendered text and the render context if
+ * it is rendered when it is sent, so large includes are read again on a
+ * replay instead of being copied into the journal. The lane and the expiry
+ * are journaled with the message, so a replayed message keeps its priority
+ * and an expired one isn't sent anymore.
+ * <p>
+ * A record is int length, int CRC32C and the payload. A torn record at the
+ * end, from a crash while writing, is cut off when the journal is opened.
+ * The records of queued messages and outcomes are forced to the disk in
+ * batches every sync interval, the start of sending is forced immediately:
+ * a message that may have been typed must never look like it was only
+ * queued. Messages whose sending started but never finished are in doubt,
+ * they are not sent again. The journal is rewritten with only the
+ * unfinished messages and the recently sent keys once it grows beyond the
+ * compaction threshold.
+ *
+ * @author Kai Denzel
+ */
+public final class OutboxJournal implements Closeable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofMillis(200);
+    public static final Duration DEFAULT_RETENTION = Duration.ofDays(1);
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 4L * 1024 * 1024;
+
+    private static final byte RECORD_ENQUEUED = 1;
+    private static final byte RECORD_ATTEMPTED = 2;
+    private static final byte RECORD_FINISHED = 3;
+    private static final byte RECORD_RETRY = 4;
+    private static final byte RECORD_ENQUEUED_TEMPLATE = 5;
+    static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    public enum State {
+        /**
+         * Queued, not tried yet.
+         */
+        PENDING,
+        /**
+         * Sending started.
+         */
+        ATTEMPTED,
+        SENT,
+        /**
+         * Failed, rejected or dropped, the detail tells which.
+         */
+        FAILED,
+        /**
+         * Sending started but never finished, it is unknown if the message
+         * was sent.
+         */
+        IN_DOUBT,
+        /**
+         * Expired before it was sent.
+         */
+        EXPIRED
+    }
+
+    /**
+     * A message of the journal.
+     */
+    public static final class Entry {
+
+        private final String key;
+        private final String identifier;
+        private String content;
+        private String template;
+        private RenderContext context;
+        private Lane lane = Lane.SCHEDULED;
+        private Instant expires;
+        private final Instant enqueued;
+        private Instant finished;
+        private State state = State.PENDING;
+        private String detail;
+
+        private Entry(String key, String identifier, String content, Instant enqueued) {
+            this.key = key;
+            this.identifier = identifier;
+            this.content = content;
+            this.enqueued = enqueued;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        /**
+         * @return the rendered content, null if the message was journaled as
+         * template or once the message is finished
+         */
+        public String getContent() {
+            return content;
+        }
+
+        /**
+         * @return the unrendered text, null if the message was journaled as
+         * rendered content or once the message is finished
+         */
+        public String getTemplate() {
+            return template;
+        }
+
+        /**
+         * @return the context the template is rendered with, null if there is
+         * no template
+         */
+        public RenderContext getContext() {
+            return context;
+        }
+
+        public Instant getEnqueued() {
+            return enqueued;
+        }
+
+        /**
+         * @return the lane, {@link Lane#SCHEDULED} for records written
+         * before the lane was journaled
+         */
+        public Lane getLane() {
+            return lane;
+        }
+
+        /**
+         * @return the time after which the message isn't sent anymore, or
+         * null
+         */
+        public Instant getExpires() {
+            return expires;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+
+        private boolean isFinished() {
+            return state == State.SENT || state == State.FAILED || state == State.IN_DOUBT || state == State.EXPIRED;
+        }
+    }
+
+    private final Path file;
+    private final Duration retention;
+    private final long compactionThreshold;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final ScheduledExecutorService syncer;
+    private FileChannel channel;
+    private boolean dirty;
+    private long finishedSinceCompaction;
+
+    private OutboxJournal(Path file, Duration retention, long compactionThreshold) {
+        this.file = file;
+        this.retention = retention;
+        this.compactionThreshold = compactionThreshold;
+        this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "outbox-journal");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static OutboxJournal open(Path file) throws IOException {
+        return open(file, DEFAULT_SYNC_INTERVAL, DEFAULT_RETENTION, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens the journal and reads the entries.
+     *
+     * @param file the journal, created if it doesn't exist
+     * @param syncInterval the time between two forces of the batched records
+     * @param retention how long the keys of sent messages are kept
+     * @param compactionThreshold the size of the file that triggers a
+     * compaction
+     * @return the journal
+     * @throws IOException if the journal can't be read
+     */
+    public static OutboxJournal open(Path file, Duration syncInterval, Duration retention, long compactionThreshold) throws IOException {
+        OutboxJournal journal = new OutboxJournal(file, retention, compactionThreshold);
+        journal.read();
+        long interval = Math.max(1, syncInterval.toMillis());
+        journal.syncer.scheduleWithFixedDelay(journal::maintain, interval, interval, TimeUnit.MILLISECONDS);
+        return journal;
+    }
+
+    private synchronized void read() throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        long valid = 0;
+        if (size > 0) {
+            //not mapped, a mapped file can't be truncated on every platform
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, Integer.MAX_VALUE - 8));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            size = buffer.limit();
+            CRC32C crc = new CRC32C();
+            while (buffer.remaining() >= 8) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                try {
+                    apply(payload);
+                } catch (BufferUnderflowException | IllegalArgumentException ex) {
+                    LOGGER.warn("Invalid record at " + start + " of " + file, ex);
+                    break;
+                }
+                buffer.position(start + 8 + length);
+                valid = buffer.position();
+            }
+        }
+        if (valid < size) {
+            LOGGER.warn("Cut off " + (size - valid) + " bytes of an incomplete record at the end of " + file);
+            channel.truncate(valid);
+            channel.force(true);
+        }
+        channel.position(valid);
+        LOGGER.debug("Opened " + file + " with " + entries.size() + " entries, " + getPending().size() + " pending.");
+    }
+
+    private void apply(ByteBuffer payload) {
+        byte type = payload.get();
+        Instant time = Instant.ofEpochMilli(payload.getLong());
+        String key = readString(payload);
+        switch (type) {
+            case RECORD_ENQUEUED: {
+                String identifier = readString(payload);
+                String content = readString(payload);
+                Entry entry = new Entry(key, identifier, content, time);
+                readDelivery(payload, entry);
+                entries.put(key, entry);
+                break;
+            }
+            case RECORD_ENQUEUED_TEMPLATE: {
+                String identifier = readString(payload);
+                Entry entry = new Entry(key, identifier, null, time);
+                entry.template = readString(payload);
+                entry.context = RenderContext.of(LocalDateTime.parse(readString(payload)),
+                        readString(payload), readString(payload));
+                readDelivery(payload, entry);
+                entries.put(key, entry);
+                break;
+            }
+            case RECORD_ATTEMPTED: {
+                Entry entry = entries.get(key);
+                if (entry != null && !entry.isFinished()) {
+                    entry.state = State.ATTEMPTED;
+                }
+                break;
+            }
+            case RECORD_RETRY: {
+                Entry entry = entries.get(key);
+                if (entry != null && !entry.isFinished()) {
+                    entry.state = State.PENDING;
+                    entry.detail = readString(payload);
+                }
+                break;
+            }
+            case RECORD_FINISHED: {
+                State state = State.valueOf(readString(payload));
+                String detail = readString(payload);
+                Entry entry = entries.computeIfAbsent(key, k -> new Entry(k, null, null, time));
+                finish(entry, state, detail, time);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Reads the lane and the expiry, which are missing in older records.
+     */
+    private static void readDelivery(ByteBuffer payload, Entry entry) {
+        if (!payload.hasRemaining()) {
+            return;
+        }
+        entry.lane = Lane.valueOf(readString(payload));
+        String expires = readString(payload);
+        entry.expires = expires == null ? null : Instant.ofEpochMilli(Long.parseLong(expires));
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param key the idempotency key
+     * @return the state or null if the key is unknown
+     */
+    public synchronized State getState(String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.state;
+    }
+
+    /**
+     * @param key the idempotency key
+     * @return true if the message was sent, is queued or is being sent, so
+     * it must not be queued again
+     */
+    public synchronized boolean isDuplicate(String key) {
+        Entry entry = entries.get(key);
+        return entry != null && (entry.state == State.SENT || !entry.isFinished());
+    }
+
+    /**
+     * @return the messages that were queued but never tried
+     */
+    public synchronized List<Entry> getPending() {
+        return filter(State.PENDING);
+    }
+
+    /**
+     * @return the messages whose sending started but never finished
+     */
+    public synchronized List<Entry> getAttempted() {
+        return filter(State.ATTEMPTED);
+    }
+
+    private List<Entry> filter(State state) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.state == state) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Records the queued message unless it is a duplicate.
+     *
+     * @return false if the key was already sent or is still unfinished
+     */
+    synchronized boolean enqueued(String key, String identifier, String content) throws IOException {
+        return enqueued(key, identifier, content, Lane.SCHEDULED, null);
+    }
+
+    /**
+     * Records the queued message with its lane and expiry unless it is a
+     * duplicate.
+     *
+     * @return false if the key was already sent or is still unfinished
+     */
+    synchronized boolean enqueued(String key, String identifier, String content, Lane lane, Instant expires) throws IOException {
+        if (isDuplicate(key)) {
+            return false;
+        }
+        Instant now = Instant.now();
+        Entry entry = new Entry(key, identifier, content, now);
+        entry.lane = lane;
+        entry.expires = expires;
+        append(enqueuedRecord(entry), false);
+        entries.put(key, entry);
+        return true;
+    }
+
+    /**
+     * Records the queued message as template unless it is a duplicate, see
+     * {@link #enqueued(String, String, String, Lane, Instant)}.
+     *
+     * @return false if the key was already sent or is still unfinished
+     */
+    synchronized boolean enqueued(String key, String identifier, String template, RenderContext context, Lane lane, Instant expires) throws IOException {
+        if (isDuplicate(key)) {
+            return false;
+        }
+        Instant now = Instant.now();
+        Entry entry = new Entry(key, identifier, null, now);
+        entry.template = template;
+        entry.context = context;
+        entry.lane = lane;
+        entry.expires = expires;
+        append(enqueuedRecord(entry), false);
+        entries.put(key, entry);
+        return true;
+    }
+
+    /**
+     * Records and forces the start of sending before the message is typed.
+     */
+    synchronized void attempted(String key) throws IOException {
+        append(record(RECORD_ATTEMPTED, Instant.now(), key), true);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            entry.state = State.ATTEMPTED;
+        }
+    }
+
+    /**
+     * Records that the attempt failed and the message is queued again, so it
+     * is replayed instead of being in doubt after a restart.
+     */
+    synchronized void retrying(String key, String detail) throws IOException {
+        append(record(RECORD_RETRY, Instant.now(), key, detail), false);
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.isFinished()) {
+            entry.state = State.PENDING;
+            entry.detail = detail;
+        }
+    }
+
+    synchronized void finished(String key, State state, String detail) throws IOException {
+        Instant now = Instant.now();
+        append(record(RECORD_FINISHED, now, key, state.name(), detail), false);
+        Entry entry = entries.computeIfAbsent(key, k -> new Entry(k, null, null, now));
+        finish(entry, state, detail, now);
+        finishedSinceCompaction++;
+    }
+
+    private static void finish(Entry entry, State state, String detail, Instant time) {
+        entry.state = state;
+        entry.detail = detail;
+        entry.content = null;
+        entry.template = null;
+        entry.context = null;
+        entry.finished = time;
+    }
+
+    private static byte[] record(byte type, Instant time, String key, String... strings) throws IOException {
+        long chars = key.length();
+        for (String s : strings) {
+            chars += s == null ? 0 : s.length();
+        }
+        if (chars > MAX_RECORD_LENGTH) {
+            //UTF-8 has at least one byte per char, it isn't encoded at all
+            throw new IOException("Record of " + key + " has more than " + MAX_RECORD_LENGTH + " bytes.");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(type);
+        out.writeLong(time.toEpochMilli());
+        writeString(out, key);
+        for (String s : strings) {
+            writeString(out, s);
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        CRC32C crc = new CRC32C();
+        crc.update(record.duplicate().position(8));
+        if (record.capacity() - 8 > MAX_RECORD_LENGTH) {
+            //never written, the rest of the journal couldn't be read anymore
+            throw new IOException("Record of " + key + " has " + (record.capacity() - 8)
+                    + " bytes, more than " + MAX_RECORD_LENGTH + ".");
+        }
+        record.putInt(0, record.capacity() - 8);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    private static byte[] enqueuedRecord(Entry entry) throws IOException {
+        String lane = entry.lane.name();
+        String expires = entry.expires == null ? null : Long.toString(entry.expires.toEpochMilli());
+        if (entry.template != null) {
+            RenderContext context = entry.context;
+            return record(RECORD_ENQUEUED_TEMPLATE, entry.enqueued, entry.key, entry.identifier, entry.template,
+                    context.getNow().toString(), context.getIdentifier(), context.getCronExpression(), lane, expires);
+        }
+        return record(RECORD_ENQUEUED, entry.enqueued, entry.key, entry.identifier, entry.content, lane, expires);
+    }
+
+    private void append(byte[] record, boolean force) throws IOException {
+        if (channel == null) {
+            throw new IOException("Journal " + file + " is closed.");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (force) {
+            channel.force(false);
+            dirty = false;
+        } else {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Forces the batched records to the disk and compacts the journal if it
+     * is too big.
+     */
+    private synchronized void maintain() {
+        try {
+            sync();
+            if (channel != null && channel.size() > compactionThreshold && finishedSinceCompaction > 0) {
+                compact();
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Maintenance of " + file + " failed.", ex);
+        }
+    }
+
+    /**
+     * Forces the written records to the disk.
+     *
+     * @throws IOException if forcing fails
+     */
+    public synchronized void sync() throws IOException {
+        if (dirty && channel != null) {
+            channel.force(false);
+            dirty = false;
+        }
+    }
+
+    /**
+     * Rewrites the journal with the unfinished messages and the keys of the
+     * messages sent within the retention.
+     *
+     * @throws IOException if the journal can't be written
+     */
+    public synchronized void compact() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        long before = channel.size();
+        Instant oldest = Instant.now().minus(retention);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+                Entry entry = it.next();
+                List<byte[]> records = new ArrayList<>(2);
+                if (!entry.isFinished()) {
+                    records.add(enqueuedRecord(entry));
+                    if (entry.state == State.ATTEMPTED) {
+                        records.add(record(RECORD_ATTEMPTED, entry.enqueued, entry.key));
+                    }
+                } else if (entry.state == State.SENT && entry.finished.isAfter(oldest)) {
+                    records.add(record(RECORD_FINISHED, entry.finished, entry.key, entry.state.name(), entry.detail));
+                } else {
+                    it.remove();
+                    continue;
+                }
+                for (byte[] record : records) {
+                    ByteBuffer buffer = ByteBuffer.wrap(record);
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+            }
+            out.force(true);
+        }
+        channel.close();
+        channel = null;
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+        dirty = false;
+        finishedSinceCompaction = 0;
+        LOGGER.debug("Compacted " + file + " from " + before + " to " + channel.size() + " bytes, " + entries.size() + " entries.");
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Forces the records to the disk and closes the journal.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        syncer.shutdownNow();
+        if (channel != null) {
+            sync();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "OutboxJournal{" + "file=" + file
+                + ", entries=" + entries.size()
+                + ", pending=" + filter(State.PENDING).size()
+                + ", attempted=" + filter(State.ATTEMPTED).size() + '}';
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets for the messages of the {@link OutboundQueue}, one for all
+ * messages and one per recipient. A bucket allows a burst of messages and
+ * then one message per interval. The buckets are implemented as generic cell
+ * rate algorithm: a bucket only stores the theoretical arrival time of the
+ * next message and is updated with compare and set, so no lock is needed.
+ * <p>
+ * Instead of sleeping fixed amounts the queue asks how long a message has to
+ * wait and sends messages of other recipients meanwhile. The time messages
+ * waited for a token is counted as stall, to tune the limits.
+ *
+ * @author Kai Denzel
+ */
+public final class RateLimiter {
+
+    public static final long DEFAULT_GLOBAL_PER_MINUTE = 20;
+    public static final int DEFAULT_GLOBAL_BURST = 5;
+    public static final long DEFAULT_RECIPIENT_PER_MINUTE = 6;
+    public static final int DEFAULT_RECIPIENT_BURST = 3;
+
+    /**
+     * Removes the full recipient buckets after this many reservations.
+     */
+    private static final int CLEANUP_INTERVAL = 256;
+
+    private static final class Bucket {
+
+        private final long interval;
+        private final long tolerance;
+        /**
+         * The theoretical arrival time in nanos, the bucket is full if it is
+         * in the past.
+         */
+        private final AtomicLong tat;
+
+        private Bucket(long interval, int burst, long now) {
+            this.interval = interval;
+            this.tolerance = interval * (burst - 1);
+            this.tat = new AtomicLong(now);
+        }
+
+        private long getDelay(long now) {
+            return Math.max(0, tat.get() - tolerance - now);
+        }
+
+        /**
+         * @return the free tokens, at most the burst
+         */
+        private long getAvailable(long now) {
+            long free = now - (Math.max(tat.get(), now) - tolerance);
+            return free < 0 ? 0 : 1 + free / interval;
+        }
+
+        /**
+         * Takes a token, which becomes available after the returned delay.
+         */
+        private long reserve(long now) {
+            while (true) {
+                long current = tat.get();
+                long arrival = Math.max(current, now);
+                if (tat.compareAndSet(current, arrival + interval)) {
+                    return Math.max(0, arrival - tolerance - now);
+                }
+            }
+        }
+
+        private boolean isFull(long now) {
+            return tat.get() - now <= 0;
+        }
+    }
+
+    private final long recipientInterval;
+    private final int recipientBurst;
+    private final Bucket global;
+    private final Map<String, Bucket> recipients = new ConcurrentHashMap<>();
+
+    private final AtomicLong permits = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong stallNanos = new AtomicLong();
+    private final AtomicLong maxStallNanos = new AtomicLong();
+
+    /**
+     * @param globalInterval the time between two messages, zero for no
+     * global limit
+     * @param globalBurst the messages that may be sent back to back
+     * @param recipientInterval the time between two messages to the same
+     * recipient, zero for no limit per recipient
+     * @param recipientBurst the messages to the same recipient that may be
+     * sent back to back
+     */
+    public RateLimiter(Duration globalInterval, int globalBurst, Duration recipientInterval, int recipientBurst) {
+        if (globalBurst < 1 || recipientBurst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1 but was " + globalBurst + " and " + recipientBurst);
+        }
+        long now = System.nanoTime();
+        this.global = globalInterval.isZero() ? null : new Bucket(globalInterval.toNanos(), globalBurst, now);
+        this.recipientInterval = recipientInterval.toNanos();
+        this.recipientBurst = recipientBurst;
+    }
+
+    /**
+     * @param perMinute the messages per minute, zero for no limit
+     * @return the interval between two messages
+     */
+    public static Duration interval(long perMinute) {
+        return perMinute <= 0 ? Duration.ZERO : Duration.ofNanos(TimeUnit.MINUTES.toNanos(1) / perMinute);
+    }
+
+    /**
+     * @param identifier the recipient
+     * @return how long a message to the recipient has to wait for a token
+     */
+    public Duration getDelay(String identifier) {
+        long now = System.nanoTime();
+        long delay = global == null ? 0 : global.getDelay(now);
+        Bucket bucket = recipients.get(identifier);
+        if (bucket != null) {
+            delay = Math.max(delay, bucket.getDelay(now));
+        }
+        return Duration.ofNanos(delay);
+    }
+
+    /**
+     * @param identifier the recipient
+     * @return the messages to the recipient that may be sent without waiting
+     */
+    public long getAvailable(String identifier) {
+        long now = System.nanoTime();
+        long available = global == null ? Long.MAX_VALUE : global.getAvailable(now);
+        Bucket bucket = recipients.get(identifier);
+        if (bucket != null) {
+            available = Math.min(available, bucket.getAvailable(now));
+        } else if (recipientInterval > 0) {
+            available = Math.min(available, recipientBurst);
+        }
+        return available;
+    }
+
+    /**
+     * Takes a token of the global bucket and the bucket of the recipient.
+     *
+     * @param identifier the recipient
+     * @return how long to wait until the message may be sent, zero in most
+     * cases because the queue waits for {@link #getDelay(String)} first
+     */
+    public Duration reserve(String identifier) {
+        long now = System.nanoTime();
+        long delay = global == null ? 0 : global.reserve(now);
+        if (recipientInterval > 0) {
+            Bucket bucket = recipients.computeIfAbsent(identifier, k -> new Bucket(recipientInterval, recipientBurst, now));
+            delay = Math.max(delay, bucket.reserve(now));
+        }
+        if (permits.incrementAndGet() % CLEANUP_INTERVAL == 0) {
+            cleanUp(now);
+        }
+        if (delay > 0) {
+            recordStall(delay);
+        }
+        return Duration.ofNanos(delay);
+    }
+
+    /**
+     * Counts the time a message waited for a token.
+     *
+     * @param nanos the waiting time
+     */
+    public void recordStall(long nanos) {
+        stalls.incrementAndGet();
+        stallNanos.addAndGet(nanos);
+        maxStallNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * A full bucket is the same as no bucket.
+     */
+    private void cleanUp(long now) {
+        for (Iterator<Map.Entry<String, Bucket>> it = recipients.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Bucket> entry = it.next();
+            if (entry.getValue().isFull(now)) {
+                recipients.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the number of reserved tokens
+     */
+    public long getPermits() {
+        return permits.get();
+    }
+
+    /**
+     * @return how often a message waited for a token
+     */
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    public Duration getStallTime() {
+        return Duration.ofNanos(stallNanos.get());
+    }
+
+    public Duration getMaxStallTime() {
+        return Duration.ofNanos(maxStallNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter{" + "global=" + (global == null ? "-" : Duration.ofNanos(global.interval).toMillis() + "ms")
+                + ", recipient=" + (recipientInterval == 0 ? "-" : Duration.ofNanos(recipientInterval).toMillis() + "ms")
+                + ", recipients=" + recipients.size()
+                + ", permits=" + permits
+                + ", stalls=" + stalls
+                + ", stallTime=" + getStallTime().toMillis() + "ms"
+                + ", maxStallTime=" + getMaxStallTime().toMillis() + "ms" + '}';
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import de.kswmd.whatsapptool.NotAPhoneNumberException;
+import de.kswmd.whatsapptool.TimeoutWhatsAppWebException;
+import de.kswmd.whatsapptool.WhatsAppHelper;
+import de.kswmd.whatsapptool.WhatsAppWebClient;
+import de.kswmd.whatsapptool.contacts.ContactResolutionCache;
+import de.kswmd.whatsapptool.quartz.ScheduleManager;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * Idle task of the {@link OutboundQueue} that resolves the recipients of the
+ * messages due within the horizon and puts them into the
+ * {@link ContactResolutionCache}, so the chats can be opened without a search
+ * when the messages are sent. Resolves one recipient per run to keep the
+ * browser available for new messages.
+ *
+ * @author Kai Denzel
+ */
+public class RecipientPrefetcher implements Runnable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final Duration DEFAULT_HORIZON = Duration.ofHours(1);
+    public static final Duration DEFAULT_IDLE_DELAY = Duration.ofSeconds(10);
+
+    private final WhatsAppWebClient client;
+    private final Supplier<Set<String>> upcomingRecipients;
+    private final Duration horizon;
+    /**
+     * Recipients which couldn't be resolved are tried again after the
+     * horizon.
+     */
+    private final Map<String, Instant> attempts = new ConcurrentHashMap<>();
+
+    public RecipientPrefetcher(WhatsAppWebClient client, Duration horizon) {
+        this(client, () -> ScheduleManager.getInstance().getUpcomingRecipients(horizon), horizon);
+    }
+
+    public RecipientPrefetcher(WhatsAppWebClient client, Supplier<Set<String>> upcomingRecipients, Duration horizon) {
+        this.client = client;
+        this.upcomingRecipients = upcomingRecipients;
+        this.horizon = horizon;
+    }
+
+    @Override
+    public void run() {
+        ContactResolutionCache cache = client.getContactResolutionCache();
+        Instant now = Instant.now();
+        attempts.values().removeIf(attempt -> attempt.plus(horizon).isBefore(now));
+        for (String identifier : upcomingRecipients.get()) {
+            if (cache.isResolved(identifier, horizon) || attempts.containsKey(identifier)) {
+                continue;
+            }
+            if (!isChatListAvailable()) {
+                return;
+            }
+            attempts.put(identifier, now);
+            prefetch(identifier, cache);
+            return;
+        }
+    }
+
+    private void prefetch(String identifier, ContactResolutionCache cache) {
+        try {
+            LOGGER.debug("Prefetch resolution of " + identifier);
+            cache.put(WhatsAppHelper.resolveContact(identifier, client));
+            attempts.remove(identifier);
+        } catch (NotAPhoneNumberException ex) {
+            LOGGER.warn("Upcoming recipient " + identifier + " is neither a contact nor a phone number.");
+            LOGGER.trace("Prefetch failed", ex);
+        } catch (WebDriverException ex) {
+            LOGGER.debug("Prefetch of " + identifier + " failed.", ex);
+        } finally {
+            clearSearch();
+        }
+    }
+
+    /**
+     * @return false if WhatsApp Web isn't loaded or logged in
+     */
+    private boolean isChatListAvailable() {
+        try {
+            client.getSearchTextBox(Duration.ZERO);
+            return true;
+        } catch (TimeoutWhatsAppWebException | WebDriverException ex) {
+            LOGGER.trace("Search not available, skip prefetch.", ex);
+        }
+        return false;
+    }
+
+    private void clearSearch() {
+        try {
+            client.search("", Duration.ZERO);
+        } catch (TimeoutWhatsAppWebException | WebDriverException ex) {
+            LOGGER.trace("Couldn't clear the search.", ex);
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import de.kswmd.whatsapptool.NoSuchWhatsAppWebElementException;
+import de.kswmd.whatsapptool.NotAPhoneNumberException;
+import de.kswmd.whatsapptool.PopUpDialogAvailableException;
+import de.kswmd.whatsapptool.TimeoutWhatsAppWebException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * Decides whether a failed message is sent again and when. Timeouts and
+ * errors of the browser are retried with an exponential backoff, a popup or
+ * an identifier that isn't a phone number fails the message at once because
+ * the next attempt would end the same way. Unknown errors aren't retried
+ * either.
+ * <p>
+ * The delay before attempt n+1 is drawn from the upper half of
+ * {@code min(maxDelay, baseDelay * 2^(n-1))}, so messages that failed
+ * together don't retry in lockstep.
+ *
+ * @author Kai Denzel
+ */
+public final class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    public static final Duration DEFAULT_BASE_DELAY = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_MAX_DELAY = Duration.ofMinutes(5);
+
+    /**
+     * Tries every message once.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, Duration.ZERO, Duration.ZERO);
+
+    public enum Failure {
+        /**
+         * WhatsApp Web didn't respond in time or the browser failed, the
+         * next attempt may succeed.
+         */
+        TRANSIENT,
+        /**
+         * The recipient can't receive the message, or the error is unknown.
+         */
+        PERMANENT
+    }
+
+    private final int maxAttempts;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+
+    /**
+     * @param maxAttempts the attempts per message including the first one
+     * @param baseDelay the delay before the first retry
+     * @param maxDelay the upper bound of the delay
+     */
+    public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be at least 1 but was " + maxAttempts);
+        }
+        if (baseDelay.isNegative() || maxDelay.compareTo(baseDelay) < 0) {
+            throw new IllegalArgumentException("Invalid delays " + baseDelay + " and " + maxDelay);
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Looks at the error and its causes, the first known type decides.
+     *
+     * @param error the error of the failed attempt
+     * @return the class of the failure
+     */
+    public static Failure classify(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof NotAPhoneNumberException || t instanceof PopUpDialogAvailableException) {
+                return Failure.PERMANENT;
+            }
+            if (t instanceof TimeoutWhatsAppWebException
+                    || t instanceof NoSuchWhatsAppWebElementException
+                    || t instanceof WebDriverException
+                    || t instanceof IOException) {
+                return Failure.TRANSIENT;
+            }
+        }
+        return Failure.PERMANENT;
+    }
+
+    /**
+     * @param error the error of the failed attempt
+     * @param attempts the attempts made so far
+     * @return true if the message should be sent again
+     */
+    public boolean isRetryable(Throwable error, int attempts) {
+        return attempts < maxAttempts && classify(error) == Failure.TRANSIENT;
+    }
+
+    /**
+     * @param attempts the attempts made so far, at least 1
+     * @return the jittered delay before the next attempt
+     */
+    public Duration getBackoff(int attempts) {
+        long base = baseDelay.toMillis();
+        long cap = maxDelay.toMillis();
+        int shift = Math.min(Math.max(attempts - 1, 0), 30);
+        long delay = base > (cap >> shift) ? cap : Math.min(cap, base << shift);
+        long half = delay / 2;
+        return Duration.ofMillis(half + ThreadLocalRandom.current().nextLong(delay - half + 1));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Duration getBaseDelay() {
+        return baseDelay;
+    }
+
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" + "maxAttempts=" + maxAttempts + ", baseDelay=" + baseDelay + ", maxDelay=" + maxDelay + '}';
+    }
+
+}
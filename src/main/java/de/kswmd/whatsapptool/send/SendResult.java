@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * The outcome of a message submitted to the {@link OutboundQueue} with the
+ * time it waited in the queue and the time it took to send it.
+ *
+ * @author Kai Denzel
+ */
+public final class SendResult {
+
+    public enum Status {
+        /**
+         * The message was typed into the chat and sent.
+         */
+        SENT,
+        /**
+         * Sending the message failed, see {@link #getError()}.
+         */
+        FAILED,
+        /**
+         * The message wasn't accepted because the queue was full or shut
+         * down.
+         */
+        REJECTED,
+        /**
+         * The message was removed from a full queue in favour of a newer one.
+         */
+        DROPPED,
+        /**
+         * The queue was shut down before the message was sent.
+         */
+        CANCELLED,
+        /**
+         * A message with the same idempotency key was already sent or is
+         * still queued, see {@link OutboxJournal}.
+         */
+        DUPLICATE,
+        /**
+         * The message expired before it was sent.
+         */
+        EXPIRED
+    }
+
+    private final String identifier;
+    private final Status status;
+    private final Instant enqueued;
+    private final Instant started;
+    private final Instant finished;
+    private final int attempts;
+    private final Throwable error;
+
+    SendResult(String identifier, Status status, Instant enqueued, Instant started, Instant finished, int attempts, Throwable error) {
+        this.identifier = identifier;
+        this.status = status;
+        this.enqueued = enqueued;
+        this.started = started;
+        this.finished = finished;
+        this.attempts = attempts;
+        this.error = error;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isSent() {
+        return status == Status.SENT;
+    }
+
+    public Instant getEnqueued() {
+        return enqueued;
+    }
+
+    /**
+     * @return the start of sending, the time of completion if it was never
+     * sent
+     */
+    public Instant getStarted() {
+        return started;
+    }
+
+    public Instant getFinished() {
+        return finished;
+    }
+
+    /**
+     * @return how often sending was tried
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return the time the message waited in the queue
+     */
+    public Duration getQueueTime() {
+        return Duration.between(enqueued, started);
+    }
+
+    /**
+     * @return the time the browser needed to send the message
+     */
+    public Duration getSendTime() {
+        return Duration.between(started, finished);
+    }
+
+    public Optional<Throwable> getError() {
+        return Optional.ofNullable(error);
+    }
+
+    @Override
+    public String toString() {
+        return "SendResult{" + "identifier=" + identifier + ", status=" + status
+                + ", queueTime=" + getQueueTime().toMillis() + "ms"
+                + ", sendTime=" + getSendTime().toMillis() + "ms"
+                + (attempts > 1 ? ", attempts=" + attempts : "")
+                + (error != null ? ", error=" + error : "") + '}';
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.text;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Lookup of emojis by their unicode name, e.g. FACE_WITH_TEARS_OF_JOY, or
+ * their CLDR name, e.g. RED_HEART or FLAG_GERMANY. The table is read once from
+ * the classpath resource /emoji/emoji-table.bin. It is checked in and
+ * generated by src/build/java/.../EmojiTableGenerator.java from
+ * src/build/resources/emoji/emoji-names.txt with the maven profile
+ * emoji-table: the Unicode 14.0 emojis, keycaps, flags, some ZWJ sequences and
+ * CLDR short names. People, family and skin tone sequences are not covered.
+ * <p>
+ * Format of the table (big endian):
+ * <pre>
+ * int    magic 'EMJ2'
+ * int    number of entries
+ * entry* sorted by name:
+ *   byte   length of the prefix shared with the previous name
+ *   byte   length of the suffix
+ *   byte[] suffix (ASCII)
+ *   byte   number of code points
+ *   3 byte per code point
+ * </pre>
+ *
+ * @author Kai Denzel
+ */
+public final class EmojiTable {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final String RESOURCE = "/emoji/emoji-table.bin";
+
+    private static final int MAGIC = 0x454D4A32;
+
+    private static final EmojiTable INSTANCE = load();
+
+    private final String[] names;
+    private final String[] values;
+
+    private EmojiTable(String[] names, String[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    /**
+     * Returns the emoji for the name. The name is case insensitive and spaces
+     * or hyphens can be used instead of underscores.
+     *
+     * @param name the unicode name of the emoji
+     * @return the emoji as String
+     */
+    public static Optional<String> lookup(String name) {
+        if (name == null) {
+            return Optional.empty();
+        }
+        int index = Arrays.binarySearch(INSTANCE.names, normalize(name));
+        if (index < 0) {
+            return Optional.empty();
+        }
+        return Optional.of(INSTANCE.values[index]);
+    }
+
+    /**
+     * Normalizes the name to the format of the table, upper case with
+     * underscores and without accents.
+     *
+     * @param name
+     * @return
+     */
+    public static String normalize(String name) {
+        String stripped = Normalizer.normalize(name.trim(), Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+        return stripped.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]+", "_");
+    }
+
+    /**
+     * @return the number of emojis in the table
+     */
+    public static int size() {
+        return INSTANCE.names.length;
+    }
+
+    private static EmojiTable load() {
+        try (InputStream is = EmojiTable.class.getResourceAsStream(RESOURCE)) {
+            if (is == null) {
+                LOGGER.warn("Emoji table " + RESOURCE + " not found, only the predefined emojis are available.");
+                return new EmojiTable(new String[0], new String[0]);
+            }
+            return read(is);
+        } catch (IOException ex) {
+            LOGGER.error("Couldn't read emoji table " + RESOURCE + "...", ex);
+        }
+        return new EmojiTable(new String[0], new String[0]);
+    }
+
+    static EmojiTable read(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Invalid emoji table.");
+        }
+        int size = in.readInt();
+        String[] names = new String[size];
+        String[] values = new String[size];
+        byte[] name = new byte[512];
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            int shared = in.readUnsignedByte();
+            int suffix = in.readUnsignedByte();
+            in.readFully(name, shared, suffix);
+            names[i] = new String(name, 0, shared + suffix, StandardCharsets.US_ASCII);
+            value.setLength(0);
+            for (int codePoints = in.readUnsignedByte(); codePoints > 0; codePoints--) {
+                value.appendCodePoint((in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte());
+            }
+            values[i] = value.toString();
+        }
+        return new EmojiTable(names, values);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.text;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Cache for the files of [file:...] and [attach:...] keyed by path, size and
+ * modification time. Large files are read through memory mapped buffers and
+ * files bigger than the maximum are truncated to their last lines, because
+ * included files are mostly logs. If a cached file only grew, e.g. a log
+ * that is still written, only the appended bytes are read.
+ *
+ * @author Kai Denzel
+ */
+public class IncludeCache {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    public static final int DEFAULT_MAX_INCLUDE_BYTES = 1024 * 1024;
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    public static final String TRUNCATION_MARKER = "[...]\n";
+
+    static final int MMAP_THRESHOLD = 256 * 1024;
+    private static final int TAIL_CHECK_BYTES = 64;
+
+    private final int maxIncludeBytes;
+    private final Map<Path, CachedFile> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong appends = new AtomicLong();
+
+    public IncludeCache() {
+        this(DEFAULT_MAX_INCLUDE_BYTES, DEFAULT_MAX_ENTRIES);
+    }
+
+    public IncludeCache(int maxIncludeBytes, int maxEntries) {
+        if (maxIncludeBytes < 1 || maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum must be positive.");
+        }
+        this.maxIncludeBytes = maxIncludeBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, CachedFile> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the text of the file, read as UTF-8.
+     *
+     * @param path the file
+     * @return the text, at most about the maximum include size
+     * @throws IOException if the file can't be read
+     */
+    public String read(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        CachedFile entry;
+        synchronized (entries) {
+            entry = entries.get(path);
+        }
+        if (entry != null && entry.size == size && entry.modified == modified) {
+            hits.incrementAndGet();
+            return entry.text;
+        }
+        CachedFile next;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (entry != null && size > entry.size && size - entry.decodedEnd <= maxIncludeBytes && entry.isPrefixOf(channel)) {
+                appends.incrementAndGet();
+                LOGGER.debug("Read " + (size - entry.decodedEnd) + " appended bytes of " + path);
+                next = append(channel, entry, size, modified);
+            } else {
+                misses.incrementAndGet();
+                next = load(channel, size, modified);
+            }
+        }
+        synchronized (entries) {
+            entries.put(path, next);
+        }
+        return next.text;
+    }
+
+    private CachedFile load(FileChannel channel, long size, long modified) throws IOException {
+        long from = Math.max(0, size - maxIncludeBytes);
+        ByteBuffer buffer = map(channel, from, size);
+        boolean truncated = from > 0;
+        if (truncated) {
+            skipLine(buffer);
+        }
+        StringBuilder text = new StringBuilder((int) (size - from) + TRUNCATION_MARKER.length());
+        if (truncated) {
+            text.append(TRUNCATION_MARKER);
+        }
+        long decodedEnd = decode(buffer, from, text);
+        return new CachedFile(size, modified, decodedEnd, text.toString(), tail(channel, decodedEnd));
+    }
+
+    private CachedFile append(FileChannel channel, CachedFile entry, long size, long modified) throws IOException {
+        ByteBuffer buffer = map(channel, entry.decodedEnd, size);
+        StringBuilder text = new StringBuilder(entry.text.length() + buffer.remaining());
+        text.append(entry.text);
+        long decodedEnd = decode(buffer, entry.decodedEnd, text);
+        if (text.length() > maxIncludeBytes + TRUNCATION_MARKER.length()) {
+            int cut = text.indexOf("\n", text.length() - maxIncludeBytes);
+            cut = cut < 0 ? text.length() - maxIncludeBytes : cut + 1;
+            text.replace(0, cut, TRUNCATION_MARKER);
+        }
+        return new CachedFile(size, modified, decodedEnd, text.toString(), tail(channel, decodedEnd));
+    }
+
+    private static ByteBuffer map(FileChannel channel, long from, long to) throws IOException {
+        int length = (int) (to - from);
+        if (length >= MMAP_THRESHOLD) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, from);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long p = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, p);
+            if (read < 0) {
+                break;
+            }
+            p += read;
+        }
+    }
+
+    private static void skipLine(ByteBuffer buffer) {
+        int start = buffer.position();
+        for (int i = start; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                buffer.position(i + 1);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Decodes the buffer into the text. Incomplete characters at the end, e.g.
+     * of a log line that is still written, are left for the next read.
+     *
+     * @return the file position after the last decoded byte
+     */
+    private static long decode(ByteBuffer buffer, long from, StringBuilder text) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(Math.max(16, Math.min(buffer.remaining(), 64 * 1024)));
+        CoderResult result;
+        do {
+            result = decoder.decode(buffer, chars, false);
+            chars.flip();
+            text.append(chars);
+            chars.clear();
+        } while (result.isOverflow());
+        return from + buffer.position();
+    }
+
+    private static byte[] tail(FileChannel channel, long end) throws IOException {
+        int length = (int) Math.min(TAIL_CHECK_BYTES, end);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, end - length);
+        return buffer.array();
+    }
+
+    public void invalidate(Path path) {
+        synchronized (entries) {
+            entries.remove(path);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int getMaxIncludeBytes() {
+        return maxIncludeBytes;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getAppends() {
+        return appends.get();
+    }
+
+    @Override
+    public String toString() {
+        return "IncludeCache{" + "size=" + size() + ", hits=" + hits + ", misses=" + misses + ", appends=" + appends
+                + ", maxIncludeBytes=" + maxIncludeBytes + '}';
+    }
+
+    private static final class CachedFile {
+
+        private final long size;
+        private final long modified;
+        private final long decodedEnd;
+        private final String text;
+        private final byte[] tail;
+
+        private CachedFile(long size, long modified, long decodedEnd, String text, byte[] tail) {
+            this.size = size;
+            this.modified = modified;
+            this.decodedEnd = decodedEnd;
+            this.text = text;
+            this.tail = tail;
+        }
+
+        /**
+         * @return true if the bytes before the decoded end are unchanged, so
+         * the file was only appended
+         */
+        private boolean isPrefixOf(FileChannel channel) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(tail.length);
+            readFully(channel, buffer, decodedEnd - tail.length);
+            return Arrays.equals(buffer.array(), tail);
+        }
+    }
+}
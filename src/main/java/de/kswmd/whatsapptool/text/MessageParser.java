@@ -23,29 +23,23 @@
  */
 package de.kswmd.whatsapptool.text;
 
-import static de.kswmd.whatsapptool.WhatsAppHelper.EMOJI_END_SEQUENCE;
-import static de.kswmd.whatsapptool.WhatsAppHelper.EMOJI_START_SEQUENCE;
-import de.kswmd.whatsapptool.WhatsAppHelper.Emoji;
 import de.kswmd.whatsapptool.contacts.Message;
-import de.kswmd.whatsapptool.utils.PathResolver;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Class that interprets text and replaces variables like [date] for the current
- * date
+ * date. Texts are compiled once into a Template and cached by their content,
+ * so each call only evaluates the dynamic parts. The parser holds no state
+ * per call, the values are passed as RenderContext, so it can be used from
+ * many threads at once.
  *
  * @author Kai Denzel
  */
@@ -62,42 +56,36 @@ public class MessageParser {
     }
     private static final Logger LOGGER = LogManager.getLogger();
 
-    private final Pattern parsingPattern;
-    private final Pattern matchBlocksInsideQuotesPattern;
-    private final Pattern matchEscapedQuotesPattern;
-    private final Map<KeyWord, Object> keywords = new HashMap<>();
+    public static final int DEFAULT_TEMPLATE_CACHE_SIZE = 512;
+    /**
+     * Longer texts, e.g. attached log files, change with nearly every call and
+     * are compiled without being cached.
+     */
+    public static final int MAX_CACHED_TEXT_LENGTH = 64 * 1024;
 
-    public static final MessageParser DEFAULT_PARSER = new MessageParser("\\[((\\w+):(.+?)|(\\w+))\\]");
+    private static final int RENDER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final AtomicInteger RENDER_THREAD_NUMBER = new AtomicInteger();
+    private static volatile ExecutorService renderExecutor;
 
-    private MessageParser(final String regex) {
-        this.parsingPattern = Pattern.compile(regex, Pattern.MULTILINE);
-        this.matchBlocksInsideQuotesPattern = Pattern.compile("\\\"(.*?)\\\"", Pattern.MULTILINE | Pattern.DOTALL);
-        this.matchEscapedQuotesPattern = Pattern.compile("\\\\(.)", Pattern.MULTILINE | Pattern.DOTALL);
+    public static final int DEFAULT_MAX_ATTACH_DEPTH = 8;
 
-    }
+    private final Map<String, Template> templates;
+    private volatile IncludeCache includeCache = new IncludeCache();
+    private volatile int maxAttachDepth = DEFAULT_MAX_ATTACH_DEPTH;
 
-    private String replaceSpecialCharactersWithPlaceHolders(final String origText, final Pattern pattern, final Map<String, String> placeholders) {
-        Matcher matcher = pattern.matcher(origText);
-        StringBuilder newText = new StringBuilder(origText.length());
-        int i = 0;
-        while (matcher.find()) {
-            UUID uuid = UUID.randomUUID();
-            String before = origText.substring(i, matcher.start());
-            String key = uuid.toString() + placeholders.size();
-            placeholders.put(key, matcher.group(1));
-            newText.append(before).append(key);
-            i = matcher.end();
-        }
-        newText.append(origText.substring(i, origText.length()));
-        return newText.toString();
+    public static final MessageParser DEFAULT_PARSER = new MessageParser(DEFAULT_TEMPLATE_CACHE_SIZE);
+
+    private MessageParser(final int templateCacheSize) {
+        this.templates = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+                return size() > templateCacheSize;
+            }
+        };
     }
 
     public String format(Message m) {
-        keywords.put(KeyWord.IDENTIFIER, m.getEntity().getIdentifier());
-        keywords.put(KeyWord.CRONEXPRESSION, m.getCronExpressionString());
-        String result = format(m.getContent());
-        keywords.clear();
-        return result;
+        return format(m.getContent(), RenderContext.of(m));
     }
 
     /**
@@ -107,119 +95,183 @@ public class MessageParser {
      * @return
      */
     public String format(final String origText) {
-        final Map<String, String> placeholders = new LinkedHashMap<>();
-        String newText = replaceSpecialCharactersWithPlaceHolders(origText, matchEscapedQuotesPattern, placeholders);
-        newText = replaceSpecialCharactersWithPlaceHolders(newText, matchBlocksInsideQuotesPattern, placeholders);
-        StringBuilder builder = new StringBuilder(newText.length());
-        LocalDateTime now = LocalDateTime.now();
-        keywords.put(KeyWord.DATE, now);
-        keywords.put(KeyWord.TIME, now);
-        Matcher matcher = parsingPattern.matcher(newText);
-        int i = 0;
-        while (matcher.find()) {
-            String itemId = matcher.group(4);
-            if (itemId == null) {
-                itemId = matcher.group(2);
+        return format(origText, RenderContext.now());
+    }
+
+    /**
+     * Searches the text for replacement variables and takes the values from
+     * the context.
+     *
+     * @param origText
+     * @param context
+     * @return
+     */
+    public String format(final String origText, final RenderContext context) {
+        return compile(origText).render(this, context);
+    }
+
+    /**
+     * Returns the message as source that renders the text in segments when it
+     * is emitted. The whole message never exists as one String, see
+     * {@link TextSource}.
+     *
+     * @param origText
+     * @param context
+     * @return
+     */
+    public TextSource source(final String origText, final RenderContext context) {
+        final MessageParser parser = this;
+        return new TextSource() {
+            @Override
+            public void emit(int segmentSize, String lineBreak, Consumer<CharSequence> consumer) {
+                SegmentWriter writer = new SegmentWriter(segmentSize, lineBreak, consumer);
+                renderTo(origText, context, writer);
+                writer.flush();
             }
-            Object replacement = null;
-            try {
-                KeyWord kw = KeyWord.valueOf(itemId.toUpperCase());
-                String itemAttach = matcher.group(3);
-                switch (kw) {
-                    case TIME:
-                        DateTimeFormatter dtf;
-                        LocalDateTime date = (LocalDateTime) keywords.get(kw);
-                        if (itemAttach != null) {
-                            dtf = DateTimeFormatter.ofPattern(itemAttach);
-                        } else {
-                            dtf = DateTimeFormatter.ISO_TIME;
-                        }
-                        replacement = date.format(dtf);
-                        break;
-                    case DATE:
-                        date = (LocalDateTime) keywords.get(kw);
-                        if (itemAttach != null) {
-                            dtf = DateTimeFormatter.ofPattern(itemAttach);
-                        } else {
-                            dtf = DateTimeFormatter.ISO_DATE;
-                        }
-                        replacement = date.format(dtf);
-                        break;
-                    case EMOJI:
-                        if (itemAttach != null) {
-                            try {
-                                Emoji emoji = Emoji.valueOf(itemAttach.toUpperCase());
-                                replacement = EMOJI_START_SEQUENCE + emoji.toString() + EMOJI_END_SEQUENCE;
-                            } catch (IllegalArgumentException ex) {
-                                LOGGER.debug("No emoji found with value " + itemAttach, ex);
-                            }
-                        }
-                        break;
-                    case IDENTIFIER:
-                        replacement = keywords.get(kw);
-                        break;
-                    case CRONEXPRESSION:
-                        replacement = keywords.get(kw);
-                        break;
-                    case FILE:
-                        if (itemAttach != null) {
-                            try {
-                                Path p;
-                                if (!itemAttach.startsWith("/")) {
-                                    Path root = PathResolver.getJarFilePathOrWorkingDirectory();
-                                    p = Paths.get(root.toString(), itemAttach);
-                                } else {
-                                    p = Path.of(itemAttach);
-                                }
-                                LOGGER.debug("Append file: " + p.toAbsolutePath());
-                                String fileText = Files.readString(p);
-                                replacement = fileText;
-                            } catch (Exception ex) {
-                                LOGGER.debug("Problem with appended file " + itemAttach, ex);
-                            }
-                        }
-                        break;
-                    case ATTACH:
-                        if (itemAttach != null) {
-                            try {
-                                Path p;
-                                if (!itemAttach.startsWith("/")) {
-                                    Path root = PathResolver.getJarFilePathOrWorkingDirectory();
-                                    p = Paths.get(root.toString(), itemAttach);
-                                } else {
-                                    p = Path.of(itemAttach);
-                                }
-                                LOGGER.debug("Attach file: " + p.toAbsolutePath());
-                                String fileText = Files.readString(p);
-                                replacement = format(fileText);
-                            } catch (Exception ex) {
-                                LOGGER.debug("Problem with attached file " + itemAttach, ex);
-                            }
-                        }
-                        break;
-                }
-            } catch (Exception ex) {
-                LOGGER.trace("Error in parsing " + matcher.group(), ex);
+
+            @Override
+            public int lengthHint() {
+                return compile(origText).getLiteralLength();
+            }
+
+            @Override
+            public String getTemplate() {
+                return origText;
+            }
+
+            @Override
+            public RenderContext getContext() {
+                return context;
+            }
+
+            @Override
+            public String asString() {
+                return parser.format(origText, context);
+            }
+        };
+    }
+
+    /**
+     * Returns the message as source right away and compiles it and reads its
+     * included files on the render pool meanwhile, so the message can be
+     * queued in order without waiting for the disk. Emitting the source waits
+     * for the render pool. The context is created immediately.
+     *
+     * @param m the message
+     * @return the source of the message
+     */
+    public TextSource prepare(Message m) {
+        final String text = m.getContent();
+        final RenderContext context = RenderContext.of(m);
+        final CompletableFuture<Void> prefetched = CompletableFuture.runAsync(() -> compile(text).prefetch(this), getRenderExecutor());
+        final TextSource source = source(text, context);
+        return new TextSource() {
+            @Override
+            public void emit(int segmentSize, String lineBreak, Consumer<CharSequence> consumer) {
+                prefetched.join();
+                source.emit(segmentSize, lineBreak, consumer);
+            }
+
+            @Override
+            public int lengthHint() {
+                return source.lengthHint();
             }
-            builder.append(newText.substring(i, matcher.start(0)));
-            if (replacement == null) {
-                builder.append(matcher.group());
-            } else {
-                builder.append(replacement);
+
+            @Override
+            public String getTemplate() {
+                return text;
+            }
+
+            @Override
+            public RenderContext getContext() {
+                return context;
+            }
+
+            @Override
+            public String asString() {
+                prefetched.join();
+                return source.asString();
+            }
+        };
+    }
+
+    void renderTo(final String text, final RenderContext context, final SegmentWriter writer) {
+        compile(text).renderTo(writer, this, context);
+    }
+
+    /**
+     * Renders the message on the render pool, e.g. while the browser is still
+     * busy with the previous message. The context is created immediately, so
+     * [date] and [time] are the time of this call.
+     *
+     * @param m the message
+     * @return completes with the rendered text
+     */
+    public CompletableFuture<String> formatAsync(Message m) {
+        return formatAsync(m.getContent(), RenderContext.of(m));
+    }
+
+    public CompletableFuture<String> formatAsync(final String origText, final RenderContext context) {
+        return CompletableFuture.supplyAsync(() -> format(origText, context), getRenderExecutor());
+    }
+
+    private static ExecutorService getRenderExecutor() {
+        ExecutorService executor = renderExecutor;
+        if (executor == null) {
+            synchronized (MessageParser.class) {
+                executor = renderExecutor;
+                if (executor == null) {
+                    executor = Executors.newFixedThreadPool(RENDER_THREADS, r -> {
+                        Thread t = new Thread(r, "message-render-" + RENDER_THREAD_NUMBER.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    renderExecutor = executor;
+                }
             }
-            i = matcher.end();
         }
+        return executor;
+    }
 
-        builder.append(newText.substring(i, newText.length()));
-        Entry[] entries = placeholders.entrySet().toArray(Entry[]::new);
-        for (i = entries.length - 1; i >= 0; i--) {
-            Entry e = entries[i];
-            String key = String.valueOf(e.getKey());
-            String value = String.valueOf(e.getValue());
-            int startIndex = builder.indexOf(key);
-            builder.replace(startIndex, startIndex + key.length(), value);
+    /**
+     * Returns the compiled template for the text from the cache or compiles
+     * it.
+     *
+     * @param text
+     * @return
+     */
+    Template compile(final String text) {
+        synchronized (templates) {
+            Template template = templates.get(text);
+            if (template != null) {
+                return template;
+            }
+        }
+        Template template = TemplateCompiler.compile(text);
+        LOGGER.trace("Compiled template with " + template.size() + " instructions");
+        if (text.length() > MAX_CACHED_TEXT_LENGTH) {
+            return template;
+        }
+        synchronized (templates) {
+            templates.putIfAbsent(text, template);
         }
-        return builder.toString();
+        return template;
+    }
+
+    public IncludeCache getIncludeCache() {
+        return includeCache;
+    }
+
+    public void setIncludeCache(IncludeCache includeCache) {
+        this.includeCache = includeCache;
+    }
+
+    public int getMaxAttachDepth() {
+        return maxAttachDepth;
+    }
+
+    public void setMaxAttachDepth(int maxAttachDepth) {
+        this.maxAttachDepth = maxAttachDepth;
     }
 
 }
@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.text;
+
+import de.kswmd.whatsapptool.contacts.Message;
+import de.kswmd.whatsapptool.text.MessageParser.KeyWord;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The values for one call of the MessageParser. A context is immutable, so
+ * the same parser can render many messages in parallel.
+ *
+ * @author Kai Denzel
+ */
+public final class RenderContext {
+
+    private final LocalDateTime now;
+    private final String identifier;
+    private final String cronExpression;
+    private final List<Path> attachChain;
+
+    private RenderContext(LocalDateTime now, String identifier, String cronExpression, List<Path> attachChain) {
+        this.now = now;
+        this.identifier = identifier;
+        this.cronExpression = cronExpression;
+        this.attachChain = attachChain;
+    }
+
+    /**
+     * @return a context with the current time and without a message
+     */
+    public static RenderContext now() {
+        return new RenderContext(LocalDateTime.now(), null, null, Collections.emptyList());
+    }
+
+    /**
+     * @param now the time for [date] and [time]
+     * @return a context without a message
+     */
+    public static RenderContext of(LocalDateTime now) {
+        return new RenderContext(now, null, null, Collections.emptyList());
+    }
+
+    /**
+     * @param m the message
+     * @return a context with the current time, identifier and cron expression
+     * of the message
+     */
+    public static RenderContext of(Message m) {
+        return of(m, LocalDateTime.now());
+    }
+
+    public static RenderContext of(Message m, LocalDateTime now) {
+        return of(now, m.getEntity().getIdentifier(), m.getCronExpressionString());
+    }
+
+    /**
+     * @param now the time for [date] and [time]
+     * @param identifier the identifier of the message or null
+     * @param cronExpression the cron expression of the message or null
+     * @return the context, e.g. of a message replayed from the journal
+     */
+    public static RenderContext of(LocalDateTime now, String identifier, String cronExpression) {
+        return new RenderContext(now, identifier, cronExpression, Collections.emptyList());
+    }
+
+    public LocalDateTime getNow() {
+        return now;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public String getCronExpression() {
+        return cronExpression;
+    }
+
+    /**
+     * @param path the attached file
+     * @return a copy of this context for rendering the attached file
+     */
+    RenderContext withAttachment(Path path) {
+        List<Path> chain = new ArrayList<>(attachChain.size() + 1);
+        chain.addAll(attachChain);
+        chain.add(path);
+        return new RenderContext(now, identifier, cronExpression, Collections.unmodifiableList(chain));
+    }
+
+    /**
+     * @return the number of attached files that are rendered at the moment
+     */
+    int getAttachDepth() {
+        return attachChain.size();
+    }
+
+    boolean isAttached(Path path) {
+        return attachChain.contains(path);
+    }
+
+    /**
+     * @param path the next file
+     * @return the chain of attached files, e.g. a.txt -> b.txt -> a.txt
+     */
+    String describeAttachChain(Path path) {
+        return attachChain.stream().map(Path::toString).collect(Collectors.joining(" -> ", "", " -> " + path));
+    }
+
+    /**
+     * @param kw the keyword
+     * @return the value of the keyword or null if there is no value
+     */
+    Object get(KeyWord kw) {
+        switch (kw) {
+            case DATE:
+            case TIME:
+                return now;
+            case IDENTIFIER:
+                return identifier;
+            case CRONEXPRESSION:
+                return cronExpression;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RenderContext{" + "now=" + now + ", identifier=" + identifier + ", cronExpression=" + cronExpression + '}';
+    }
+}
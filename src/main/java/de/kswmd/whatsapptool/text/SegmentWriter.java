@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.text;
+
+import java.util.function.Consumer;
+
+/**
+ * Collects rendered text into segments of a bounded size and passes each full
+ * segment to a consumer. Line breaks can be translated on the way, e.g. to
+ * shift enter for the textbox. A segment never ends inside a translated line
+ * break or between the two chars of a surrogate pair.
+ *
+ * @author Kai Denzel
+ */
+public final class SegmentWriter {
+
+    private final int segmentSize;
+    private final String lineBreak;
+    private final Consumer<CharSequence> consumer;
+    private final StringBuilder buffer;
+
+    /**
+     * @param segmentSize the maximum size of a segment
+     * @param lineBreak the replacement for \n or null to keep it
+     * @param consumer gets the segments, a segment is only valid during the
+     * call
+     */
+    public SegmentWriter(int segmentSize, String lineBreak, Consumer<CharSequence> consumer) {
+        if (segmentSize < 2 || lineBreak != null && lineBreak.length() > segmentSize) {
+            throw new IllegalArgumentException("Segment size " + segmentSize + " is too small.");
+        }
+        this.segmentSize = segmentSize;
+        this.lineBreak = lineBreak;
+        this.consumer = consumer;
+        this.buffer = new StringBuilder(segmentSize);
+    }
+
+    private SegmentWriter(int capacity) {
+        this.segmentSize = Integer.MAX_VALUE;
+        this.lineBreak = null;
+        this.consumer = null;
+        this.buffer = new StringBuilder(capacity);
+    }
+
+    /**
+     * @param capacity the expected length
+     * @return a writer that collects everything into one String, see
+     * {@link #toString()}
+     */
+    static SegmentWriter unbounded(int capacity) {
+        return new SegmentWriter(capacity);
+    }
+
+    public SegmentWriter append(CharSequence text) {
+        return append(text, 0, text.length());
+    }
+
+    public SegmentWriter append(CharSequence text, int start, int end) {
+        if (consumer == null) {
+            buffer.append(text, start, end);
+            return this;
+        }
+        int i = start;
+        while (i < end) {
+            if (lineBreak == null) {
+                int count = Math.min(end - i, segmentSize - buffer.length());
+                if (count < end - i && Character.isHighSurrogate(text.charAt(i + count - 1))) {
+                    count--;
+                }
+                if (count == 0) {
+                    flush();
+                    continue;
+                }
+                buffer.append(text, i, i + count);
+                i += count;
+            } else {
+                char c = text.charAt(i);
+                int length = c == '\n' ? lineBreak.length() : Character.isHighSurrogate(c) && i + 1 < end ? 2 : 1;
+                if (buffer.length() + length > segmentSize) {
+                    flush();
+                }
+                if (c == '\n') {
+                    buffer.append(lineBreak);
+                    i++;
+                } else {
+                    buffer.append(text, i, i + length);
+                    i += length;
+                }
+            }
+            if (buffer.length() >= segmentSize) {
+                flush();
+            }
+        }
+        return this;
+    }
+
+    public SegmentWriter append(Object value) {
+        return append(String.valueOf(value));
+    }
+
+    /**
+     * Passes the buffered text to the consumer.
+     */
+    public void flush() {
+        if (consumer != null && buffer.length() > 0) {
+            consumer.accept(buffer);
+            buffer.setLength(0);
+        }
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @return the collected text of an unbounded writer, or the text not yet
+     * flushed
+     */
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+}
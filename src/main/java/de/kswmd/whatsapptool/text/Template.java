@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.text;
+
+import de.kswmd.whatsapptool.text.MessageParser.KeyWord;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A message text compiled by the TemplateCompiler. The template is an
+ * immutable list of instructions: literal text is resolved once at compile
+ * time and only the dynamic parts (date, time, identifier, cron expression,
+ * files) are evaluated when the template is rendered.
+ *
+ * @author Kai Denzel
+ */
+final class Template {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    /**
+     * A single part of a compiled template.
+     */
+    interface Instruction {
+
+        void appendTo(SegmentWriter builder, MessageParser parser, RenderContext context);
+    }
+
+    private final List<Instruction> instructions;
+    private final String staticText;
+    private final int literalLength;
+
+    Template(List<Instruction> instructions, int literalLength) {
+        this.instructions = List.copyOf(instructions);
+        this.literalLength = literalLength;
+        if (this.instructions.isEmpty()) {
+            this.staticText = "";
+        } else if (this.instructions.size() == 1 && this.instructions.get(0) instanceof Literal) {
+            this.staticText = ((Literal) this.instructions.get(0)).text;
+        } else {
+            this.staticText = null;
+        }
+    }
+
+    /**
+     * @return true if the template contains no dynamic parts
+     */
+    boolean isStatic() {
+        return staticText != null;
+    }
+
+    int size() {
+        return instructions.size();
+    }
+
+    String render(MessageParser parser, RenderContext context) {
+        if (staticText != null) {
+            return staticText;
+        }
+        SegmentWriter writer = SegmentWriter.unbounded(literalLength + 16 * instructions.size());
+        renderTo(writer, parser, context);
+        return writer.toString();
+    }
+
+    void renderTo(SegmentWriter writer, MessageParser parser, RenderContext context) {
+        for (Instruction instruction : instructions) {
+            instruction.appendTo(writer, parser, context);
+        }
+    }
+
+    /**
+     * @return the length of the literal text, includes and values are not
+     * known before rendering
+     */
+    int getLiteralLength() {
+        return literalLength;
+    }
+
+    /**
+     * Reads the included files into the include cache of the parser, so
+     * rendering later doesn't need to wait for the disk.
+     *
+     * @param parser
+     */
+    void prefetch(MessageParser parser) {
+        for (Instruction instruction : instructions) {
+            if (instruction instanceof Include) {
+                ((Include) instruction).prefetch(parser);
+            }
+        }
+    }
+
+    /**
+     * Text that is copied as it is.
+     */
+    static final class Literal implements Instruction {
+
+        private final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        @Override
+        public void appendTo(SegmentWriter builder, MessageParser parser, RenderContext context) {
+            builder.append(text);
+        }
+    }
+
+    /**
+     * [date] or [time] with an already created formatter.
+     */
+    static final class Temporal implements Instruction {
+
+        private final KeyWord keyWord;
+        private final DateTimeFormatter formatter;
+        private final String original;
+
+        Temporal(KeyWord keyWord, DateTimeFormatter formatter, String original) {
+            this.keyWord = keyWord;
+            this.formatter = formatter;
+            this.original = original;
+        }
+
+        @Override
+        public void appendTo(SegmentWriter builder, MessageParser parser, RenderContext context) {
+            String text;
+            try {
+                LocalDateTime date = (LocalDateTime) context.get(keyWord);
+                text = formatter.format(date);
+            } catch (Exception ex) {
+                LOGGER.trace("Error in parsing " + original, ex);
+                text = original;
+            }
+            //outside the try, errors of the consumer must reach the sender
+            builder.append(text);
+        }
+    }
+
+    /**
+     * A value like [identifier] that is set for each formatted message.
+     */
+    static final class Variable implements Instruction {
+
+        private final KeyWord keyWord;
+        private final String original;
+
+        Variable(KeyWord keyWord, String original) {
+            this.keyWord = keyWord;
+            this.original = original;
+        }
+
+        @Override
+        public void appendTo(SegmentWriter builder, MessageParser parser, RenderContext context) {
+            Object value = context.get(keyWord);
+            builder.append(value == null ? original : value);
+        }
+    }
+
+    /**
+     * [file:...] which is appended raw or [attach:...] which is formatted
+     * itself. The text is taken from the include cache of the parser, which
+     * checks the file each time the template is rendered because its content
+     * may change.
+     */
+    static final class Include implements Instruction {
+
+        private final Path path;
+        private final boolean format;
+        private final String original;
+
+        Include(Path path, boolean format, String original) {
+            this.path = path;
+            this.format = format;
+            this.original = original;
+        }
+
+        @Override
+        public void appendTo(SegmentWriter builder, MessageParser parser, RenderContext context) {
+            if (format) {
+                if (context.isAttached(path)) {
+                    LOGGER.error("Cyclic attach, file is not attached again: " + context.describeAttachChain(path));
+                    builder.append(original);
+                    return;
+                }
+                if (context.getAttachDepth() >= parser.getMaxAttachDepth()) {
+                    LOGGER.error("Maximum attach depth of " + parser.getMaxAttachDepth() + " exceeded, file is not attached: "
+                            + context.describeAttachChain(path));
+                    builder.append(original);
+                    return;
+                }
+            }
+            String fileText;
+            try {
+                LOGGER.debug((format ? "Attach file: " : "Append file: ") + path);
+                fileText = parser.getIncludeCache().read(path);
+            } catch (Exception ex) {
+                LOGGER.debug("Problem with " + (format ? "attached" : "appended") + " file " + path, ex);
+                builder.append(original);
+                return;
+            }
+            //outside the try, errors of the consumer must reach the sender
+            if (format) {
+                parser.renderTo(fileText, context.withAttachment(path), builder);
+            } else {
+                builder.append(fileText);
+            }
+        }
+
+        private void prefetch(MessageParser parser) {
+            try {
+                parser.getIncludeCache().read(path);
+            } catch (Exception ex) {
+                LOGGER.trace("Couldn't prefetch " + path, ex);
+            }
+        }
+    }
+}
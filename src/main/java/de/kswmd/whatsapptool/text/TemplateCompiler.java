@@ -0,0 +1,312 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.text;
+
+import static de.kswmd.whatsapptool.WhatsAppHelper.EMOJI_END_SEQUENCE;
+import static de.kswmd.whatsapptool.WhatsAppHelper.EMOJI_START_SEQUENCE;
+import de.kswmd.whatsapptool.WhatsAppHelper;
+import de.kswmd.whatsapptool.text.MessageParser.KeyWord;
+import de.kswmd.whatsapptool.utils.PathResolver;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Single pass lexer that compiles a message text into a Template.
+ * <ul>
+ * <li>\x is the literal character x</li>
+ * <li>"..." is literal text without the quotes</li>
+ * <li>[keyword] and [keyword:attachment] are keywords, the attachment ends at
+ * the first ] on the same line</li>
+ * </ul>
+ * Unknown or invalid keywords are kept as they are written.
+ *
+ * @author Kai Denzel
+ */
+final class TemplateCompiler {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final int MAX_FORMATTERS = 256;
+    private static final Map<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+    private final String text;
+    private final List<Template.Instruction> instructions = new ArrayList<>();
+    private final StringBuilder literal;
+    private int literalLength;
+
+    private TemplateCompiler(String text) {
+        this.text = text;
+        this.literal = new StringBuilder(text.length());
+    }
+
+    static Template compile(String text) {
+        TemplateCompiler compiler = new TemplateCompiler(text);
+        compiler.run();
+        return new Template(compiler.instructions, compiler.literalLength);
+    }
+
+    private void run() {
+        final int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < length) {
+                int codePoint = text.codePointAt(i + 1);
+                literal.appendCodePoint(codePoint);
+                i += 1 + Character.charCount(codePoint);
+            } else if (c == '"') {
+                int end = closingQuote(i + 1, length);
+                if (end < 0) {
+                    literal.append(c);
+                    i++;
+                } else {
+                    appendResolved(literal, i + 1, end);
+                    i = end + 1;
+                }
+            } else if (c == '[') {
+                int end = keyWord(i, length);
+                if (end < 0) {
+                    literal.append(c);
+                    i++;
+                } else {
+                    i = end;
+                }
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        flushLiteral();
+    }
+
+    /**
+     * Lexes the keyword starting at the bracket.
+     *
+     * @return the index after the keyword or -1 if there is no keyword
+     */
+    private int keyWord(int start, int length) {
+        int i = start + 1;
+        while (i < length && isWordCharacter(text.charAt(i))) {
+            i++;
+        }
+        if (i == start + 1 || i == length) {
+            return -1;
+        }
+        String name = text.substring(start + 1, i);
+        String attachment = null;
+        int end;
+        if (text.charAt(i) == ']') {
+            end = i + 1;
+        } else if (text.charAt(i) == ':') {
+            int close = closingBracket(i + 1, length);
+            if (close < 0) {
+                return -1;
+            }
+            StringBuilder sb = new StringBuilder(close - i);
+            appendResolved(sb, i + 1, close);
+            attachment = sb.toString();
+            end = close + 1;
+        } else {
+            return -1;
+        }
+        StringBuilder original = new StringBuilder(end - start);
+        appendResolved(original, start, end);
+        addKeyWord(name, attachment, original.toString());
+        return end;
+    }
+
+    private void addKeyWord(String name, String attachment, String original) {
+        KeyWord kw;
+        try {
+            kw = KeyWord.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOGGER.trace("Unknown keyword " + original);
+            literal.append(original);
+            return;
+        }
+        switch (kw) {
+            case TIME:
+            case DATE:
+                DateTimeFormatter dtf;
+                if (attachment == null) {
+                    dtf = kw == KeyWord.TIME ? DateTimeFormatter.ISO_TIME : DateTimeFormatter.ISO_DATE;
+                } else {
+                    dtf = formatter(attachment);
+                }
+                if (dtf == null) {
+                    literal.append(original);
+                } else {
+                    add(new Template.Temporal(kw, dtf, original));
+                }
+                break;
+            case EMOJI:
+                if (attachment != null) {
+                    String emojiName = EmojiTable.normalize(attachment);
+                    if (WhatsAppHelper.getEmojiStringRepresentation(emojiName).isPresent()) {
+                        literal.append(EMOJI_START_SEQUENCE).append(emojiName).append(EMOJI_END_SEQUENCE);
+                        break;
+                    }
+                    LOGGER.debug("No emoji found with value " + attachment);
+                }
+                literal.append(original);
+                break;
+            case IDENTIFIER:
+            case CRONEXPRESSION:
+                add(new Template.Variable(kw, original));
+                break;
+            case FILE:
+            case ATTACH:
+                if (attachment == null) {
+                    literal.append(original);
+                } else {
+                    add(new Template.Include(resolvePath(attachment), kw == KeyWord.ATTACH, original));
+                }
+                break;
+            default:
+                literal.append(original);
+        }
+    }
+
+    private void add(Template.Instruction instruction) {
+        flushLiteral();
+        instructions.add(instruction);
+    }
+
+    private void flushLiteral() {
+        if (literal.length() > 0) {
+            literalLength += literal.length();
+            instructions.add(new Template.Literal(literal.toString()));
+            literal.setLength(0);
+        }
+    }
+
+    /**
+     * Appends the text between from and to without escape characters and
+     * quotes.
+     */
+    private void appendResolved(StringBuilder sb, int from, int to) {
+        int i = from;
+        while (i < to) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < to) {
+                int codePoint = text.codePointAt(i + 1);
+                sb.appendCodePoint(codePoint);
+                i += 1 + Character.charCount(codePoint);
+            } else if (c == '"') {
+                int end = closingQuote(i + 1, to);
+                if (end < 0) {
+                    sb.append(c);
+                    i++;
+                } else {
+                    appendResolved(sb, i + 1, end);
+                    i = end + 1;
+                }
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+    }
+
+    private int closingQuote(int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < to) {
+                i += Character.charCount(text.codePointAt(i + 1));
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Searches the end of an attachment. The attachment has at least one
+     * character and must not contain a line break outside of quotes.
+     */
+    private int closingBracket(int from, int length) {
+        int i = from;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isLineTerminator(c)) {
+                return -1;
+            }
+            if (c == '\\' && i + 1 < length) {
+                i += 1 + Character.charCount(text.codePointAt(i + 1));
+                continue;
+            }
+            if (c == '"') {
+                int end = closingQuote(i + 1, length);
+                if (end >= 0) {
+                    i = end + 1;
+                    continue;
+                }
+            }
+            if (c == ']' && i > from) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static DateTimeFormatter formatter(String pattern) {
+        DateTimeFormatter dtf = FORMATTERS.get(pattern);
+        if (dtf == null) {
+            try {
+                dtf = DateTimeFormatter.ofPattern(pattern);
+            } catch (IllegalArgumentException ex) {
+                LOGGER.trace("Invalid date time pattern " + pattern, ex);
+                return null;
+            }
+            if (FORMATTERS.size() < MAX_FORMATTERS) {
+                FORMATTERS.putIfAbsent(pattern, dtf);
+            }
+        }
+        return dtf;
+    }
+
+    private static Path resolvePath(String attachment) {
+        if (!attachment.startsWith("/")) {
+            Path root = PathResolver.getJarFilePathOrWorkingDirectory();
+            return Paths.get(root.toString(), attachment).toAbsolutePath().normalize();
+        }
+        return Path.of(attachment).toAbsolutePath().normalize();
+    }
+
+    private static boolean isWordCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == 0x85 || c == 0x2028 || c == 0x2029;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.text;
+
+import java.util.function.Consumer;
+
+/**
+ * The content of a message that is emitted in segments instead of one
+ * String, so a message with large includes doesn't need to be copied as a
+ * whole. See {@link MessageParser#source(String, RenderContext)}.
+ *
+ * @author Kai Denzel
+ */
+public interface TextSource {
+
+    int DEFAULT_SEGMENT_SIZE = 8192;
+
+    /**
+     * Emits the text.
+     *
+     * @param segmentSize the maximum size of a segment
+     * @param lineBreak the replacement for \n or null to keep it
+     * @param consumer gets the segments, a segment is only valid during the
+     * call
+     */
+    void emit(int segmentSize, String lineBreak, Consumer<CharSequence> consumer);
+
+    /**
+     * @return the expected length of the text, only used for progress
+     */
+    int lengthHint();
+
+    /**
+     * @return the unrendered text, null if the source is already rendered
+     */
+    default String getTemplate() {
+        return null;
+    }
+
+    /**
+     * @return the context the template is rendered with, null if the source
+     * is already rendered
+     */
+    default RenderContext getContext() {
+        return null;
+    }
+
+    /**
+     * @return the whole text
+     */
+    default String asString() {
+        StringBuilder sb = new StringBuilder(lengthHint());
+        emit(DEFAULT_SEGMENT_SIZE, null, sb::append);
+        return sb.toString();
+    }
+
+    /**
+     * @param text an already rendered text
+     * @return the text as source
+     */
+    static TextSource of(String text) {
+        return new TextSource() {
+            @Override
+            public void emit(int segmentSize, String lineBreak, Consumer<CharSequence> consumer) {
+                SegmentWriter writer = new SegmentWriter(segmentSize, lineBreak, consumer);
+                writer.append(text);
+                writer.flush();
+            }
+
+            @Override
+            public int lengthHint() {
+                return text.length();
+            }
+
+            @Override
+            public String asString() {
+                return text;
+            }
+
+            @Override
+            public String toString() {
+                return text;
+            }
+        };
+    }
+}
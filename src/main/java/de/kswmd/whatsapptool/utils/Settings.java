@@ -23,12 +23,29 @@
  */
 package de.kswmd.whatsapptool.utils;
 
+import de.kswmd.whatsapptool.WhatsAppWebClient.TextInputMode;
+import de.kswmd.whatsapptool.contacts.ContactResolutionCache;
+import de.kswmd.whatsapptool.contacts.InvalidNumberCache;
+import de.kswmd.whatsapptool.quartz.ScheduleManager;
+import de.kswmd.whatsapptool.quartz.SchedulerBackend;
+import de.kswmd.whatsapptool.send.Backpressure;
+import de.kswmd.whatsapptool.send.OutboundQueue;
+import de.kswmd.whatsapptool.send.CircuitBreaker;
+import de.kswmd.whatsapptool.send.OutboxJournal;
+import de.kswmd.whatsapptool.send.RateLimiter;
+import de.kswmd.whatsapptool.send.RetryPolicy;
+import de.kswmd.whatsapptool.send.RecipientPrefetcher;
+import de.kswmd.whatsapptool.text.IncludeCache;
+import de.kswmd.whatsapptool.text.MessageParser;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Properties;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -45,6 +62,33 @@ public final class Settings {
     public static final String KEY_PROFILE_PATH_FIREFOX = "profile_path_firefox";
     public static final String KEY_NOTIFICATION_FILE = "notification_file";
     public static final String KEY_ADMIN_PHONE = "admin_phone";
+    public static final String KEY_TEXT_INPUT_MODE = "text_input_mode";
+    public static final String KEY_UNREAD_DRAIN_INTERVAL = "unread_drain_interval_millis";
+    public static final String KEY_OUTBOUND_QUEUE_CAPACITY = "outbound_queue_capacity";
+    public static final String KEY_OUTBOUND_QUEUE_BACKPRESSURE = "outbound_queue_backpressure";
+    public static final String KEY_OUTBOUND_QUEUE_FAIRNESS_WINDOW = "outbound_queue_fairness_window_millis";
+    public static final String KEY_CONTACT_CACHE_TTL = "contact_cache_ttl_minutes";
+    public static final String KEY_PREFETCH_HORIZON = "prefetch_horizon_minutes";
+    public static final String KEY_INVALID_NUMBER_TTL = "invalid_number_ttl_hours";
+    public static final String KEY_INCLUDE_MAX_KILOBYTES = "include_max_kilobytes";
+    public static final String KEY_ATTACH_MAX_DEPTH = "attach_max_depth";
+    public static final String KEY_NOTIFICATIONS_AUTO_RELOAD = "notifications_auto_reload";
+    public static final String KEY_NOTIFICATIONS_SNAPSHOT = "notifications_snapshot";
+    public static final String KEY_OUTBOX_JOURNAL = "outbox_journal";
+    public static final String KEY_OUTBOX_SYNC_INTERVAL = "outbox_sync_interval_millis";
+    public static final String KEY_RETRY_MAX_ATTEMPTS = "retry_max_attempts";
+    public static final String KEY_RETRY_BASE_DELAY = "retry_base_delay_millis";
+    public static final String KEY_RETRY_MAX_DELAY = "retry_max_delay_millis";
+    public static final String KEY_CIRCUIT_BREAKER_THRESHOLD = "circuit_breaker_threshold";
+    public static final String KEY_CIRCUIT_BREAKER_OPEN = "circuit_breaker_open_millis";
+    public static final String KEY_RATE_LIMIT_GLOBAL = "rate_limit_global_per_minute";
+    public static final String KEY_RATE_LIMIT_GLOBAL_BURST = "rate_limit_global_burst";
+    public static final String KEY_RATE_LIMIT_RECIPIENT = "rate_limit_recipient_per_minute";
+    public static final String KEY_RATE_LIMIT_RECIPIENT_BURST = "rate_limit_recipient_burst";
+    public static final String KEY_SCHEDULE_SPREAD_WINDOW = "schedule_spread_window_millis";
+    public static final String KEY_SCHEDULER_BACKEND = "scheduler_backend";
+
+    private static final long DEFAULT_UNREAD_DRAIN_INTERVAL_MILLIS = 250;
 
     private static Settings instance;
 
@@ -79,6 +123,31 @@ public final class Settings {
         writeDefaultValueIfNotPresent(KEY_PROFILE_PATH_FIREFOX, PathResolver.getDefaultFirefoxBrowserProfileDir().toString());
         writeDefaultValueIfNotPresent(KEY_ADMIN_PHONE, "+49...");
         writeDefaultValueIfNotPresent(KEY_NOTIFICATION_FILE, PathResolver.getConfigDir() + "/notifications.xml");
+        writeDefaultValueIfNotPresent(KEY_TEXT_INPUT_MODE, TextInputMode.INJECT.toString());
+        writeDefaultValueIfNotPresent(KEY_UNREAD_DRAIN_INTERVAL, String.valueOf(DEFAULT_UNREAD_DRAIN_INTERVAL_MILLIS));
+        writeDefaultValueIfNotPresent(KEY_OUTBOUND_QUEUE_CAPACITY, String.valueOf(OutboundQueue.DEFAULT_CAPACITY));
+        writeDefaultValueIfNotPresent(KEY_OUTBOUND_QUEUE_BACKPRESSURE, Backpressure.BLOCK.toString());
+        writeDefaultValueIfNotPresent(KEY_OUTBOUND_QUEUE_FAIRNESS_WINDOW, String.valueOf(OutboundQueue.DEFAULT_FAIRNESS_WINDOW.toMillis()));
+        writeDefaultValueIfNotPresent(KEY_CONTACT_CACHE_TTL, String.valueOf(ContactResolutionCache.DEFAULT_TIME_TO_LIVE.toMinutes()));
+        writeDefaultValueIfNotPresent(KEY_PREFETCH_HORIZON, String.valueOf(RecipientPrefetcher.DEFAULT_HORIZON.toMinutes()));
+        writeDefaultValueIfNotPresent(KEY_INVALID_NUMBER_TTL, String.valueOf(InvalidNumberCache.DEFAULT_TIME_TO_LIVE.toHours()));
+        writeDefaultValueIfNotPresent(KEY_INCLUDE_MAX_KILOBYTES, String.valueOf(IncludeCache.DEFAULT_MAX_INCLUDE_BYTES / 1024));
+        writeDefaultValueIfNotPresent(KEY_ATTACH_MAX_DEPTH, String.valueOf(MessageParser.DEFAULT_MAX_ATTACH_DEPTH));
+        writeDefaultValueIfNotPresent(KEY_NOTIFICATIONS_AUTO_RELOAD, String.valueOf(true));
+        writeDefaultValueIfNotPresent(KEY_NOTIFICATIONS_SNAPSHOT, String.valueOf(true));
+        writeDefaultValueIfNotPresent(KEY_OUTBOX_JOURNAL, String.valueOf(true));
+        writeDefaultValueIfNotPresent(KEY_OUTBOX_SYNC_INTERVAL, String.valueOf(OutboxJournal.DEFAULT_SYNC_INTERVAL.toMillis()));
+        writeDefaultValueIfNotPresent(KEY_RETRY_MAX_ATTEMPTS, String.valueOf(RetryPolicy.DEFAULT_MAX_ATTEMPTS));
+        writeDefaultValueIfNotPresent(KEY_RETRY_BASE_DELAY, String.valueOf(RetryPolicy.DEFAULT_BASE_DELAY.toMillis()));
+        writeDefaultValueIfNotPresent(KEY_RETRY_MAX_DELAY, String.valueOf(RetryPolicy.DEFAULT_MAX_DELAY.toMillis()));
+        writeDefaultValueIfNotPresent(KEY_CIRCUIT_BREAKER_THRESHOLD, String.valueOf(CircuitBreaker.DEFAULT_FAILURE_THRESHOLD));
+        writeDefaultValueIfNotPresent(KEY_CIRCUIT_BREAKER_OPEN, String.valueOf(CircuitBreaker.DEFAULT_OPEN_DURATION.toMillis()));
+        writeDefaultValueIfNotPresent(KEY_RATE_LIMIT_GLOBAL, String.valueOf(RateLimiter.DEFAULT_GLOBAL_PER_MINUTE));
+        writeDefaultValueIfNotPresent(KEY_RATE_LIMIT_GLOBAL_BURST, String.valueOf(RateLimiter.DEFAULT_GLOBAL_BURST));
+        writeDefaultValueIfNotPresent(KEY_RATE_LIMIT_RECIPIENT, String.valueOf(RateLimiter.DEFAULT_RECIPIENT_PER_MINUTE));
+        writeDefaultValueIfNotPresent(KEY_RATE_LIMIT_RECIPIENT_BURST, String.valueOf(RateLimiter.DEFAULT_RECIPIENT_BURST));
+        writeDefaultValueIfNotPresent(KEY_SCHEDULE_SPREAD_WINDOW, String.valueOf(ScheduleManager.DEFAULT_SPREAD_WINDOW.toMillis()));
+        writeDefaultValueIfNotPresent(KEY_SCHEDULER_BACKEND, SchedulerBackend.TRIGGERS.toString());
     }
 
     private void writeDefaultValueIfNotPresent(String key, String value) {
@@ -107,6 +176,188 @@ public final class Settings {
         return properties.getProperty(KEY_ADMIN_PHONE);
     }
 
+    public TextInputMode getTextInputMode() {
+        return getEnum(KEY_TEXT_INPUT_MODE, TextInputMode.class, TextInputMode.INJECT);
+    }
+
+    public Duration getUnreadDrainInterval() {
+        return Duration.ofMillis(getLong(KEY_UNREAD_DRAIN_INTERVAL, DEFAULT_UNREAD_DRAIN_INTERVAL_MILLIS, 10));
+    }
+
+    public int getOutboundQueueCapacity() {
+        return (int) Math.min(Integer.MAX_VALUE, getLong(KEY_OUTBOUND_QUEUE_CAPACITY, OutboundQueue.DEFAULT_CAPACITY, 1));
+    }
+
+    public Backpressure getOutboundQueueBackpressure() {
+        return getEnum(KEY_OUTBOUND_QUEUE_BACKPRESSURE, Backpressure.class, Backpressure.BLOCK);
+    }
+
+    public Duration getOutboundQueueFairnessWindow() {
+        return Duration.ofMillis(getLong(KEY_OUTBOUND_QUEUE_FAIRNESS_WINDOW, OutboundQueue.DEFAULT_FAIRNESS_WINDOW.toMillis(), 0));
+    }
+
+    public Duration getContactCacheTimeToLive() {
+        return Duration.ofMinutes(getLong(KEY_CONTACT_CACHE_TTL, ContactResolutionCache.DEFAULT_TIME_TO_LIVE.toMinutes(), 0));
+    }
+
+    /**
+     * @return the horizon for prefetching recipients, zero if disabled
+     */
+    public Duration getPrefetchHorizon() {
+        return Duration.ofMinutes(getLong(KEY_PREFETCH_HORIZON, RecipientPrefetcher.DEFAULT_HORIZON.toMinutes(), 0));
+    }
+
+    public Duration getInvalidNumberTimeToLive() {
+        return Duration.ofHours(getLong(KEY_INVALID_NUMBER_TTL, InvalidNumberCache.DEFAULT_TIME_TO_LIVE.toHours(), 0));
+    }
+
+    /**
+     * @return the file for the phone numbers which are not on WhatsApp
+     */
+    public Path getInvalidNumbersFile() {
+        return Paths.get(configFilePath, "invalid-numbers.properties");
+    }
+
+    /**
+     * @return true if the outgoing messages are recorded in the outbox
+     * journal
+     */
+    public boolean isOutboxJournal() {
+        return Boolean.parseBoolean(properties.getProperty(KEY_OUTBOX_JOURNAL, "true").trim());
+    }
+
+    /**
+     * @return the file of the outbox journal
+     */
+    public Path getOutboxJournalFile() {
+        return Paths.get(configFilePath, "outbox.journal");
+    }
+
+    public Duration getOutboxSyncInterval() {
+        return Duration.ofMillis(getLong(KEY_OUTBOX_SYNC_INTERVAL, OutboxJournal.DEFAULT_SYNC_INTERVAL.toMillis(), 1));
+    }
+
+    /**
+     * @return the retry policy for failed messages
+     */
+    public RetryPolicy getRetryPolicy() {
+        long baseDelay = getLong(KEY_RETRY_BASE_DELAY, RetryPolicy.DEFAULT_BASE_DELAY.toMillis(), 0);
+        long maxDelay = getLong(KEY_RETRY_MAX_DELAY, RetryPolicy.DEFAULT_MAX_DELAY.toMillis(), 0);
+        return new RetryPolicy((int) Math.min(Integer.MAX_VALUE, getLong(KEY_RETRY_MAX_ATTEMPTS, RetryPolicy.DEFAULT_MAX_ATTEMPTS, 1)),
+                Duration.ofMillis(baseDelay), Duration.ofMillis(Math.max(baseDelay, maxDelay)));
+    }
+
+    /**
+     * @return the consecutive failures which pause sending, zero if the
+     * circuit breaker is disabled
+     */
+    public int getCircuitBreakerThreshold() {
+        return (int) Math.min(Integer.MAX_VALUE, getLong(KEY_CIRCUIT_BREAKER_THRESHOLD, CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, 0));
+    }
+
+    public Duration getCircuitBreakerOpenDuration() {
+        return Duration.ofMillis(getLong(KEY_CIRCUIT_BREAKER_OPEN, CircuitBreaker.DEFAULT_OPEN_DURATION.toMillis(), 1));
+    }
+
+    /**
+     * @return the rate limiter for the outgoing messages, null if neither a
+     * global nor a per recipient rate is set
+     */
+    public RateLimiter getRateLimiter() {
+        long global = getLong(KEY_RATE_LIMIT_GLOBAL, RateLimiter.DEFAULT_GLOBAL_PER_MINUTE, 0);
+        long recipient = getLong(KEY_RATE_LIMIT_RECIPIENT, RateLimiter.DEFAULT_RECIPIENT_PER_MINUTE, 0);
+        if (global == 0 && recipient == 0) {
+            return null;
+        }
+        return new RateLimiter(
+                RateLimiter.interval(global),
+                (int) Math.min(Integer.MAX_VALUE, getLong(KEY_RATE_LIMIT_GLOBAL_BURST, RateLimiter.DEFAULT_GLOBAL_BURST, 1)),
+                RateLimiter.interval(recipient),
+                (int) Math.min(Integer.MAX_VALUE, getLong(KEY_RATE_LIMIT_RECIPIENT_BURST, RateLimiter.DEFAULT_RECIPIENT_BURST, 1)));
+    }
+
+    /**
+     * @return the messages the queue sends per minute at most, zero if there
+     * is no global rate
+     */
+    public int getGlobalRatePerMinute() {
+        return (int) Math.min(Integer.MAX_VALUE, getLong(KEY_RATE_LIMIT_GLOBAL, RateLimiter.DEFAULT_GLOBAL_PER_MINUTE, 0));
+    }
+
+    /**
+     * @return the window over which the messages of a cron expression are
+     * spread unless they have an own window, zero to send them at their fire
+     * time
+     */
+    public Duration getScheduleSpreadWindow() {
+        return Duration.ofMillis(getLong(KEY_SCHEDULE_SPREAD_WINDOW, ScheduleManager.DEFAULT_SPREAD_WINDOW.toMillis(), 0));
+    }
+
+    /**
+     * @return one trigger per message or the timing wheel for very many
+     * messages
+     */
+    public SchedulerBackend getSchedulerBackend() {
+        return getEnum(KEY_SCHEDULER_BACKEND, SchedulerBackend.class, SchedulerBackend.TRIGGERS);
+    }
+
+    /**
+     * @return the file for the messages which failed for good
+     */
+    public Path getDeadLettersFile() {
+        return Paths.get(configFilePath, "dead-letters.properties");
+    }
+
+    /**
+     * @return the maximum size of a [file:] or [attach:] include, larger
+     * files are truncated
+     */
+    public int getIncludeMaxBytes() {
+        return (int) Math.min(Integer.MAX_VALUE / 2, 1024 * getLong(KEY_INCLUDE_MAX_KILOBYTES, IncludeCache.DEFAULT_MAX_INCLUDE_BYTES / 1024, 1));
+    }
+
+    public int getAttachMaxDepth() {
+        return (int) Math.min(Integer.MAX_VALUE, getLong(KEY_ATTACH_MAX_DEPTH, MessageParser.DEFAULT_MAX_ATTACH_DEPTH, 0));
+    }
+
+    /**
+     * @return true if the notifications file is reloaded when it changes,
+     * after it was loaded once with the reload command
+     */
+    public boolean isNotificationsAutoReload() {
+        return Boolean.parseBoolean(properties.getProperty(KEY_NOTIFICATIONS_AUTO_RELOAD, "true").trim());
+    }
+
+    /**
+     * @return true if a binary snapshot of the notifications is kept for a
+     * fast startup
+     */
+    public boolean isNotificationsSnapshot() {
+        return Boolean.parseBoolean(properties.getProperty(KEY_NOTIFICATIONS_SNAPSHOT, "true").trim());
+    }
+
+    private long getLong(String key, long defaultValue, long min) {
+        String value = properties.getProperty(key);
+        try {
+            return Math.max(min, Long.parseLong(value.trim()));
+        } catch (NumberFormatException | NullPointerException ex) {
+            LOGGER.warn("Invalid value '" + value + "' for " + key + ", use " + defaultValue + " instead...");
+            LOGGER.trace("Error parsing setting", ex);
+        }
+        return defaultValue;
+    }
+
+    private <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue) {
+        String value = properties.getProperty(key);
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            LOGGER.warn("Invalid value '" + value + "' for " + key + ", use " + defaultValue + " instead...");
+            LOGGER.trace("Error parsing setting", ex);
+        }
+        return defaultValue;
+    }
+
     public boolean isEmpty() {
         return properties.isEmpty();
     }
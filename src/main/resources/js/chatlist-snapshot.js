@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 Kai Denzel
+ *
+ * Reads every rendered list item of the chat list in one round trip and
+ * returns them as a JSON array. The selectors mirror the ones used by
+ * WhatsAppHelper for the per-element fallback, the raw values are parsed on
+ * the java side so both paths produce the same ChatListBeans.
+ *
+ * arguments[0] = the chat list element
+ */
+var chatList = arguments[0];
+var text = function (element) {
+    return element ? element.innerText : null;
+};
+var items = [];
+var listItems = chatList.querySelectorAll("div[data-testid*='list-item-']");
+for (var i = 0; i < listItems.length; i++) {
+    var listItem = listItems[i];
+    var item = {
+        testId: listItem.getAttribute("data-testid"),
+        style: listItem.getAttribute("style")
+    };
+    var header = listItem.querySelector("div[data-testid='section-header']");
+    if (header) {
+        item.type = "HEADER";
+        item.title = text(header);
+    } else {
+        var title = listItem.querySelector("span[dir='auto'][title]");
+        if (!title) {
+            continue;
+        }
+        item.type = title.closest("div[data-testid*='chatlist-message']") ? "MESSAGE" : "CONTACT";
+        item.title = text(title);
+        item.time = text(listItem.querySelector("div.Dvjym"));
+        item.lastMessage = text(listItem.querySelector("span[data-testid='last-msg-status']"));
+        item.unread = text(listItem.querySelector("span[data-testid='icon-unread-count']"));
+    }
+    items.push(item);
+}
+return JSON.stringify(items);
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2023 Kai Denzel
+ *
+ * Appends text to a contenteditable element in one round trip. The text is
+ * inserted with the same input events the browser fires for typing, so the
+ * editor of WhatsApp Web updates its state like for real key strokes. Line
+ * breaks ('\n') are inserted like Shift+Enter.
+ *
+ * arguments[0] = the contenteditable element
+ * arguments[1] = the text
+ */
+var element = arguments[0];
+var parts = arguments[1].split("\n");
+if (!document.queryCommandSupported("insertText")) {
+    throw new Error("insertText is not supported.");
+}
+element.focus();
+var selection = window.getSelection();
+var range = document.createRange();
+range.selectNodeContents(element);
+range.collapse(false);
+selection.removeAllRanges();
+selection.addRange(range);
+for (var i = 0; i < parts.length; i++) {
+    if (i > 0) {
+        document.execCommand("insertLineBreak");
+    }
+    if (parts[i].length > 0) {
+        document.execCommand("insertText", false, parts[i]);
+    }
+}
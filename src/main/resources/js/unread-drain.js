@@ -0,0 +1,14 @@
+/*
+ * Copyright (C) 2023 Kai Denzel
+ *
+ * Takes all events recorded by unread-observer.js out of the page side buffer
+ * and returns them as a JSON array. Returns null if the observer is missing,
+ * e.g. after a reload of the page, so it can be installed again.
+ */
+var state = window.__whatsAppToolUnread;
+if (!state || !state.target.isConnected) {
+    return null;
+}
+var events = state.buffer;
+state.buffer = [];
+return JSON.stringify(events);
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 Kai Denzel
+ *
+ * Installs a MutationObserver on the chat list that records every change of
+ * the unread counter into a page side buffer. The buffer is drained by
+ * unread-drain.js, so the chat list doesn't have to be scanned again.
+ * Chats are tracked by title because the data-testid of a list item is only
+ * its position in the virtual list.
+ *
+ * Returns true if the observer is installed, false if the chat list isn't
+ * rendered yet.
+ */
+var chatList = document.querySelector("div[data-testid='chat-list']");
+if (!chatList) {
+    return false;
+}
+var state = window.__whatsAppToolUnread;
+if (state && state.target === chatList) {
+    return true;
+}
+if (state) {
+    state.observer.disconnect();
+}
+var MAX_BUFFER_SIZE = 1000;
+state = {
+    target: chatList,
+    counts: {},
+    buffer: [],
+    observer: null
+};
+var record = function (listItem) {
+    var title = listItem.querySelector("span[dir='auto'][title]");
+    if (!title) {
+        return;
+    }
+    var name = title.innerText;
+    var span = listItem.querySelector("span[data-testid='icon-unread-count']");
+    var unread = span ? (parseInt(span.innerText, 10) || 1) : 0;
+    var last = state.counts[name] || 0;
+    if (unread === last) {
+        return;
+    }
+    state.counts[name] = unread;
+    state.buffer.push({
+        title: name,
+        testId: listItem.getAttribute("data-testid"),
+        unread: unread,
+        delta: unread - last,
+        timestamp: Date.now()
+    });
+    if (state.buffer.length > MAX_BUFFER_SIZE) {
+        state.buffer.shift();
+    }
+};
+var listItemOf = function (node) {
+    var element = node.nodeType === Node.ELEMENT_NODE ? node : node.parentElement;
+    return element ? element.closest("div[data-testid*='list-item-']") : null;
+};
+state.observer = new MutationObserver(function (mutations) {
+    var changed = new Set();
+    for (var i = 0; i < mutations.length; i++) {
+        var listItem = listItemOf(mutations[i].target);
+        if (listItem) {
+            changed.add(listItem);
+        }
+        var added = mutations[i].addedNodes;
+        for (var j = 0; j < added.length; j++) {
+            if (added[j].nodeType !== Node.ELEMENT_NODE) {
+                continue;
+            }
+            var addedItem = listItemOf(added[j]);
+            if (addedItem) {
+                changed.add(addedItem);
+            } else {
+                added[j].querySelectorAll("div[data-testid*='list-item-']").forEach(function (item) {
+                    changed.add(item);
+                });
+            }
+        }
+    }
+    changed.forEach(record);
+});
+chatList.querySelectorAll("div[data-testid*='list-item-']").forEach(record);
+state.observer.observe(chatList, {childList: true, subtree: true, characterData: true});
+window.__whatsAppToolUnread = state;
+return true;
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool;
+
+import de.kswmd.whatsapptool.contacts.UnreadEvent;
+import de.kswmd.whatsapptool.selenium.ScriptResources;
+import de.kswmd.whatsapptool.send.Backpressure;
+import de.kswmd.whatsapptool.send.OutboundQueue;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.JavascriptExecutor;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class UnreadMessageStreamTest {
+
+    /**
+     * Buffer of unread-observer.js as returned by unread-drain.js.
+     */
+    private static final String PAYLOAD = "["
+            + "{\"title\":\"Bob\",\"testId\":\"list-item-2\",\"unread\":3,\"delta\":3,\"timestamp\":1700000000000},"
+            + "{\"title\":\"Alice\",\"testId\":\"list-item-0\",\"unread\":1,\"delta\":1,\"timestamp\":1700000000250},"
+            + "{\"title\":\"Bob\",\"testId\":\"list-item-2\",\"unread\":0,\"delta\":-3,\"timestamp\":1700000000500}"
+            + "]";
+
+    public UnreadMessageStreamTest() {
+    }
+
+    /**
+     * Test of parseEvents method, of class UnreadMessageStream.
+     */
+    @Test
+    public void testParseEvents() {
+        List<UnreadEvent> events = UnreadMessageStream.parseEvents(PAYLOAD);
+        assertEquals(List.of(
+                new UnreadEvent("Bob", "list-item-2", 3, 3, 1700000000000L),
+                new UnreadEvent("Alice", "list-item-0", 1, 1, 1700000000250L),
+                new UnreadEvent("Bob", "list-item-2", 0, -3, 1700000000500L)), events);
+        assertTrue(events.get(0).isIncoming());
+        assertFalse(events.get(2).isIncoming());
+        assertTrue(UnreadMessageStream.parseEvents("[]").isEmpty());
+        //missing numbers are 0
+        assertEquals(new UnreadEvent("Carol", null, 0, 0, 0L),
+                UnreadMessageStream.parseEvents("[{\"title\":\"Carol\"}]").get(0));
+    }
+
+    /**
+     * Test of publish method, of class UnreadMessageStream.
+     */
+    @Test
+    public void testPublish() {
+        UnreadMessageStream stream = new UnreadMessageStream(null, () -> null, Duration.ZERO);
+        List<UnreadEvent> received = new ArrayList<>();
+        stream.subscribe(event -> {
+            throw new IllegalStateException("a failing subscriber doesn't stop the others");
+        });
+        stream.subscribe(received::add);
+        List<UnreadEvent> events = UnreadMessageStream.parseEvents(PAYLOAD);
+        stream.publish(events);
+        assertEquals(events, received);
+        //Bob was read, only Alice is still unread
+        assertEquals(List.of(events.get(1)), new ArrayList<>(stream.getUnreadChats()));
+    }
+
+    /**
+     * Test of drain method, of class UnreadMessageStream.
+     */
+    @Test
+    public void testDrain() {
+        List<String> scripts = new ArrayList<>();
+        JavascriptExecutor executor = new JavascriptExecutor() {
+            @Override
+            public Object executeScript(String script, Object... args) {
+                scripts.add(script);
+                return script.equals(ScriptResources.get(ScriptResources.UNREAD_OBSERVER)) ? Boolean.TRUE : PAYLOAD;
+            }
+
+            @Override
+            public Object executeAsyncScript(String script, Object... args) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        UnreadMessageStream stream = new UnreadMessageStream(executor, () -> null, Duration.ZERO);
+        List<UnreadEvent> received = new ArrayList<>();
+        stream.subscribe(received::add);
+        stream.drain();
+        stream.drain();
+        //the observer is installed once, every drain takes the buffer
+        assertEquals(List.of(ScriptResources.get(ScriptResources.UNREAD_OBSERVER),
+                ScriptResources.get(ScriptResources.UNREAD_DRAIN),
+                ScriptResources.get(ScriptResources.UNREAD_DRAIN)), scripts);
+        assertEquals(6, received.size());
+        assertEquals(UnreadMessageStream.parseEvents(PAYLOAD), received.subList(3, 6));
+    }
+
+    /**
+     * Test of start method, of class UnreadMessageStream.
+     */
+    @Test
+    public void testStart() throws Exception {
+        List<String> threads = new CopyOnWriteArrayList<>();
+        JavascriptExecutor executor = new JavascriptExecutor() {
+            @Override
+            public Object executeScript(String script, Object... args) {
+                threads.add(Thread.currentThread().getName());
+                return script.equals(ScriptResources.get(ScriptResources.UNREAD_OBSERVER)) ? Boolean.TRUE : PAYLOAD;
+            }
+
+            @Override
+            public Object executeAsyncScript(String script, Object... args) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        OutboundQueue queue = new OutboundQueue(new OutboundQueue.Sender() {
+            @Override
+            public void openChat(String identifier) {
+            }
+
+            @Override
+            public void sendToOpenChat(String content) {
+            }
+        }, 10, Backpressure.BLOCK);
+        UnreadMessageStream stream = new UnreadMessageStream(executor, () -> queue, Duration.ofMillis(10));
+        CountDownLatch received = new CountDownLatch(6);
+        stream.subscribe(event -> received.countDown());
+        stream.start();
+        try {
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+        } finally {
+            stream.stop();
+            queue.shutdown(Duration.ofSeconds(1));
+        }
+        //the scripts run with the consumer of the queue, not the thread of the stream
+        assertEquals(Set.of("outbound-queue"), new HashSet<>(threads));
+    }
+}
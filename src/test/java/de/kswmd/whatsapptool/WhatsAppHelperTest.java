@@ -71,4 +71,52 @@ public class WhatsAppHelperTest {
         //assertEquals(":middle"+Keys.ENTER, mf);
     }
     
+    /**
+     * Test of generateFromSnapshotJson method, of class WhatsAppHelper.
+     */
+    @Test
+    public void testGenerateFromSnapshotJson() {
+        String json = "["
+                + "{\"testId\":\"list-item-2\",\"style\":\"z-index: 1; transform: translateY(144px);\",\"type\":\"MESSAGE\","
+                + "\"title\":\"Bob\",\"time\":\"12:00\",\"lastMessage\":\"Hello\\nWorld\",\"unread\":\"3\"},"
+                + "{\"testId\":\"list-item-0\",\"style\":\"transform: translateY(0px);\",\"type\":\"HEADER\",\"title\":\"Chats\"},"
+                + "{\"testId\":\"list-item-1\",\"style\":\"transform: translateY(72px);\",\"type\":\"CONTACT\","
+                + "\"title\":\"Alice\",\"time\":null,\"lastMessage\":null,\"unread\":\"x\"}"
+                + "]";
+        List<ChatListBean> list = WhatsAppHelper.generateFromSnapshotJson(json);
+        assertEquals(3, list.size());
+        assertEquals(ChatListBean.Type.HEADER, list.get(0).getType());
+        assertEquals("Chats", list.get(0).getTitle());
+        ChatListBean alice = list.get(1);
+        assertEquals(ChatListBean.Type.CONTACT, alice.getType());
+        assertEquals(72, alice.getSort());
+        assertEquals(0, alice.getUnreadMessages());
+        ChatListBean bob = list.get(2);
+        assertEquals(ChatListBean.Type.MESSAGE, bob.getType());
+        assertEquals("HelloWorld", bob.getLastMessage());
+        assertEquals(3, bob.getUnreadMessages());
+        assertEquals("list-item-2", bob.getListItemTestId());
+    }
+
+    /**
+     * Test of getEmojiStringRepresentation method, of class WhatsAppHelper.
+     */
+    @Test
+    public void testGetEmojiStringRepresentation() {
+        assertEquals(WhatsAppHelper.Emoji.ROFL.getEmojiStringRepresentation(),
+                WhatsAppHelper.getEmojiStringRepresentation("rofl").get());
+        assertEquals("\uD83D\uDE02", WhatsAppHelper.getEmojiStringRepresentation("face with tears of joy").get());
+        assertEquals("\uD83D\uDE80", WhatsAppHelper.getEmojiStringRepresentation("ROCKET").get());
+        assertFalse(WhatsAppHelper.getEmojiStringRepresentation("NOT_AN_EMOJI").isPresent());
+        assertFalse(WhatsAppHelper.getEmojiStringRepresentation(null).isPresent());
+    }
+
+    @Test
+    public void testIsInvalidNumberPopUp() {
+        assertTrue(WhatsAppHelper.isInvalidNumberPopUp("Phone number shared via url is invalid."));
+        assertTrue(WhatsAppHelper.isInvalidNumberPopUp("Die über die URL geteilte Telefonnummer ist ungültig."));
+        assertFalse(WhatsAppHelper.isInvalidNumberPopUp("Couldn't connect to the phone."));
+        assertFalse(WhatsAppHelper.isInvalidNumberPopUp(null));
+    }
+
 }
@@ -44,7 +44,7 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathExpressionException;
+import javax.xml.stream.XMLStreamException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.config.Configurator;
@@ -215,7 +215,7 @@ public class WhatsAppWebClientTest {
         } catch (ParserConfigurationException ex) {
             LOGGER.error("Error", ex);
             assertTrue(false);
-        } catch (XPathExpressionException ex) {
+        } catch (XMLStreamException ex) {
             LOGGER.error("Error", ex);
             assertTrue(false);
         } catch (ParseException ex) {
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.contacts;
+
+import de.kswmd.whatsapptool.MiscConstants;
+import de.kswmd.whatsapptool.text.MessageParser;
+import de.kswmd.whatsapptool.text.RenderContext;
+import de.kswmd.whatsapptool.utils.PathResolver;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class CampaignImporterTest {
+
+    static {
+        System.setProperty(MiscConstants.KEY_LOG_FILE_PATH, PathResolver.getJarFilePathOrWorkingDirectory().toString() + "/logs");
+    }
+
+    private Path directory;
+
+    public CampaignImporterTest() {
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("campaign");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        for (String name : new String[]{"campaign.csv", "campaign.ndjson", "campaign.xml", "rejects.csv", "team.xml"}) {
+            Files.deleteIfExists(directory.resolve(name));
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void testImportCsv() throws Exception {
+        Path input = directory.resolve("campaign.csv");
+        Files.writeString(input, "identifier;cron;template;name\n"
+                + "+49 170 1234567;0 0 12 * * ?;Hello [var:name];Anna [admin]\n"
+                + "+49 170 1234567;0 0 13 * * ?;\"Two\n\"\"lines\"\"\";\n"
+                + "Team;no cron;Hi;\n"
+                + "+49 12;0 0 12 * * ?;Hi;\n"
+                + "Team;0 0 12 * * ?;Hello [var:other];\n"
+                + "Team;0 0 12 * * ?;Hello team;\n"
+                + "+491701234567;0 0 14 * * ?;Again;\n");
+        Path output = directory.resolve("campaign.xml");
+        Path rejects = directory.resolve("rejects.csv");
+        CampaignImporter.Result result = new CampaignImporter().importFile(input, output, rejects);
+        assertEquals(3, result.getImported());
+        assertEquals(2, result.getEntities());
+        assertEquals(4, result.getRejected());
+
+        List<String> rejected = Files.readAllLines(rejects);
+        assertEquals(5, rejected.size());
+        assertTrue(rejected.get(1).startsWith("5;invalid cron expression"));
+        assertTrue(rejected.get(2).startsWith("6;'+49 12' is not a phone number"));
+        assertTrue(rejected.get(3).startsWith("7;missing variable 'other'"));
+        assertTrue(rejected.get(4).startsWith("9;identifier already imported in line 2"));
+
+        MessageFileDatabase db = MessageFileDatabase.create(output.toString());
+        db.loadEntities();
+        List<Message> messages = db.getMessages("+491701234567");
+        assertEquals(2, messages.size());
+        assertEquals("Hello Anna [admin]", MessageParser.DEFAULT_PARSER.format(messages.get(0).getContent(), RenderContext.now()));
+        assertEquals("Two\n\"lines\"", messages.get(1).getContent());
+        assertEquals("Hello team", db.getMessages("Team").get(0).getContent());
+    }
+
+    @Test
+    public void testImportNdjson() throws Exception {
+        Path input = directory.resolve("campaign.ndjson");
+        Files.writeString(input, "{\"identifier\": \"+491701234567\", \"cron\": \"0 0 12 * * ?\", \"template\": \"Hi [var:name]\\n\\u00e4\\ud83d\\ude00\", \"variables\": {\"name\": [\"Bob\", 2]}}\n"
+                + "\n"
+                + "{\"identifier\": \"Team\", \"cron\": \"0 0 12 * * ?\"\n"
+                + "{\"identifier\": \"Team\", \"cron\": \"0 0 12 * * ?\", \"template\": \"Hello\", \"variables\": [1]}\n"
+                + "[{\"identifier\": \"Team\"}]\n");
+        Path output = directory.resolve("campaign.xml");
+        Path rejects = directory.resolve("rejects.csv");
+        CampaignImporter.Result result = new CampaignImporter().importFile(input, output, rejects);
+        assertEquals(1, result.getImported());
+        assertEquals(3, result.getRejected());
+        List<String> rejected = Files.readAllLines(rejects);
+        assertTrue(rejected.get(1).startsWith("3;invalid json"));
+        assertTrue(rejected.get(2).startsWith("4;variables is not an object"));
+        assertTrue(rejected.get(3).startsWith("5;invalid json"));
+
+        MessageFileDatabase db = MessageFileDatabase.create(output.toString());
+        db.loadEntities();
+        assertEquals("Hi Bob, 2\nä\uD83D\uDE00", db.getMessages("+491701234567").get(0).getContent());
+    }
+
+    @Test
+    public void testImportIntoDirectory() throws Exception {
+        Path shard = directory.resolve("team.xml");
+        Files.writeString(shard, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<contacts>\n"
+                + "    <entity>\n"
+                + "        <identifier>Team</identifier>\n"
+                + "        <message>\n"
+                + "            <cronExpression>0 0 12 * * ?</cronExpression>\n"
+                + "            <content>Hello team</content>\n"
+                + "        </message>\n"
+                + "    </entity>\n"
+                + "</contacts>\n");
+        Path input = directory.resolve("campaign.csv");
+        Files.writeString(input, "identifier;cron;template\n"
+                + "Team;0 0 12 * * ?;Hello again\n"
+                + "+491701234567;0 0 12 * * ?;Hello\n");
+        Path output = directory.resolve("campaign.xml");
+        Path rejects = directory.resolve("rejects.csv");
+        Map<String, Path> existing = CampaignImporter.identifiersOfShards(directory, output);
+        assertEquals(Map.of("Team", shard), existing);
+
+        CampaignImporter.Result result = new CampaignImporter().importFile(input, output, rejects, existing);
+        assertEquals(1, result.getImported());
+        assertEquals(1, result.getRejected());
+        assertTrue(Files.readAllLines(rejects).get(1).startsWith("2;identifier already defined in team.xml"));
+
+        MessageFileDatabase db = MessageFileDatabase.create(directory.toString());
+        db.loadEntities();
+        assertEquals("Hello team", db.getMessages("Team").get(0).getContent());
+        assertEquals("Hello", db.getMessages("+491701234567").get(0).getContent());
+    }
+}
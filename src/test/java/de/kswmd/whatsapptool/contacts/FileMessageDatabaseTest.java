@@ -24,11 +24,30 @@
 package de.kswmd.whatsapptool.contacts;
 
 import de.kswmd.whatsapptool.MiscConstants;
+import de.kswmd.whatsapptool.send.Lane;
 import de.kswmd.whatsapptool.utils.PathResolver;
 import de.kswmd.whatsapptool.utils.Settings;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
+import java.util.stream.Stream;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.AfterEach;
@@ -37,6 +56,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 /**
@@ -102,6 +124,329 @@ public class FileMessageDatabaseTest {
         assertTrue(true);
     }
 
+    /**
+     * Compares the streaming loader with the former DOM and XPath loader on a
+     * generated file. The number of messages can be raised with
+     * -Dbenchmark.messages=100000, the DOM loader needs minutes for that.
+     */
+    @Test
+    public void testLoadMatchesDom() throws Exception {
+        int count = Integer.getInteger("benchmark.messages", 2000);
+        Path file = Files.createTempFile("notifications", ".xml");
+        try {
+            writeNotifications(file, count);
+            MessageFileDatabase db = MessageFileDatabase.create(file.toString());
+            long start = System.nanoTime();
+            db.loadEntities();
+            long stax = System.nanoTime() - start;
+            start = System.nanoTime();
+            List<Entity> dom = loadWithDom(file);
+            long domTime = System.nanoTime() - start;
+            LOGGER.info(count + " messages: StAX " + stax / 1_000_000 + "ms, DOM " + domTime / 1_000_000 + "ms");
+
+            List<Entity> entities = db.getEntities();
+            assertEquals(dom.size(), entities.size());
+            int messages = 0;
+            for (int i = 0; i < dom.size(); i++) {
+                assertEquals(dom.get(i).getIdentifier(), entities.get(i).getIdentifier());
+                List<Message> expected = dom.get(i).getMessages();
+                List<Message> actual = entities.get(i).getMessages();
+                assertEquals(expected.size(), actual.size());
+                for (int j = 0; j < expected.size(); j++) {
+                    assertEquals(expected.get(j).getCronExpressionString(), actual.get(j).getCronExpressionString());
+                    assertEquals(expected.get(j).getContent(), actual.get(j).getContent());
+                    assertSame(entities.get(i), actual.get(j).getEntity());
+                }
+                messages += actual.size();
+            }
+            assertEquals(count, messages);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Compares the snapshot with the xml, the size can be changed with
+     * -Dbenchmark.messages.
+     */
+    @Test
+    public void testSnapshot() throws Exception {
+        int count = Integer.getInteger("benchmark.messages", 2000);
+        Path file = Files.createTempFile("notifications", ".xml");
+        Path snapshot = MessageSnapshot.pathOf(file);
+        try {
+            writeNotifications(file, count);
+            MessageFileDatabase db = MessageFileDatabase.create(file.toString());
+            db.setSnapshotEnabled(true);
+            long start = System.nanoTime();
+            db.loadEntities();
+            long xml = System.nanoTime() - start;
+            assertTrue(Files.isRegularFile(snapshot));
+
+            MessageFileDatabase fromSnapshot = MessageFileDatabase.create(file.toString());
+            fromSnapshot.setSnapshotEnabled(true);
+            start = System.nanoTime();
+            fromSnapshot.loadEntities();
+            long binary = System.nanoTime() - start;
+            LOGGER.info(count + " messages: XML " + xml / 1_000_000 + "ms, snapshot " + binary / 1_000_000 + "ms");
+
+            List<Entity> expected = db.getEntities();
+            List<Entity> actual = fromSnapshot.getEntities();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getIdentifier(), actual.get(i).getIdentifier());
+                for (int j = 0; j < expected.get(i).getMessages().size(); j++) {
+                    Message m = actual.get(i).getMessages().get(j);
+                    assertEquals(expected.get(i).getMessages().get(j).getCronExpressionString(), m.getCronExpressionString());
+                    assertEquals(expected.get(i).getMessages().get(j).getContent(), m.getContent());
+                    assertEquals(expected.get(i).getMessages().get(j).getKey(), m.getKey());
+                    assertSame(actual.get(i), m.getEntity());
+                }
+            }
+            //the same schedule shares the parsed expression
+            assertSame(actual.get(0).getMessages().get(0).getCronExpression(), actual.get(24).getMessages().get(0).getCronExpression());
+
+            Files.writeString(file, "<contacts><entity><identifier>a</identifier><message lane=\"bulk\" expiresAfter=\"PT2H\" spreadWindow=\"PT15M\">"
+                    + "<cronExpression>0 0 12 * * ?</cronExpression><content>x</content></message></entity></contacts>");
+            fromSnapshot.loadEntities();
+            assertEquals(1, fromSnapshot.getEntities().size());
+            //the lane, the expiry and the spread window are kept in the snapshot
+            MessageFileDatabase reloaded = MessageFileDatabase.create(file.toString());
+            reloaded.setSnapshotEnabled(true);
+            reloaded.loadEntities();
+            Message withLane = reloaded.getMessage("a#0 0 12 * * ?#0");
+            assertEquals(Lane.BULK, withLane.getLane());
+            assertEquals(Duration.ofHours(2), withLane.getExpiresAfter());
+            assertEquals(Duration.ofMinutes(15), withLane.getSpreadWindow());
+            assertTrue(withLane.isSameAs(fromSnapshot.getMessage("a#0 0 12 * * ?#0")));
+            //a corrupt snapshot is ignored
+            Files.write(snapshot, new byte[]{1, 2, 3}, StandardOpenOption.TRUNCATE_EXISTING);
+            fromSnapshot.loadEntities();
+            assertEquals("x", fromSnapshot.getMessage("a#0 0 12 * * ?#0").getContent());
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    @Test
+    public void testLoadDirectory() throws Exception {
+        Path directory = Files.createTempDirectory("notifications.d");
+        try {
+            writeNotifications(directory.resolve("a.xml"), 50);
+            Files.writeString(directory.resolve("b.xml"), "<contacts><entity><identifier>b</identifier><message>"
+                    + "<cronExpression>0 0 12 * * ?</cronExpression><content>x</content></message></entity></contacts>");
+            Files.writeString(directory.resolve("ignored.txt"), "no xml");
+            MessageFileDatabase db = MessageFileDatabase.create(directory.toString());
+            db.loadEntities();
+            assertEquals(6, db.getEntities().size());
+            Entity a = db.getEntity("+491700");
+            assertNotNull(a);
+            assertEquals("b", db.getEntities().get(5).getIdentifier());
+
+            //only the changed shard is parsed again
+            Files.writeString(directory.resolve("b.xml"), "<contacts><entity><identifier>b</identifier><message>"
+                    + "<cronExpression>0 0 13 * * ?</cronExpression><content>changed</content></message></entity></contacts>");
+            db.loadEntities();
+            assertSame(a, db.getEntity("+491700"));
+            assertEquals("changed", db.getMessages("b").get(0).getContent());
+
+            Files.writeString(directory.resolve("c.xml"), "<contacts><entity><identifier>+491700</identifier><message>"
+                    + "<cronExpression>0 0 12 * * ?</cronExpression><content>x</content></message></entity></contacts>");
+            assertThrows(ParseException.class, () -> db.loadEntities());
+            Files.writeString(directory.resolve("c.xml"), "<contacts><entity><identifier>c</identifier></entity></contacts>");
+            assertThrows(SAXException.class, () -> db.loadEntities());
+            assertEquals(6, db.getEntities().size());
+
+            Files.delete(directory.resolve("c.xml"));
+            Files.delete(directory.resolve("b.xml"));
+            db.loadEntities();
+            assertEquals(5, db.getEntities().size());
+            assertNull(db.getEntity("b"));
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Measures the heap of a campaign with the same content and schedule for
+     * every entity, the size can be changed with -Dbenchmark.messages.
+     */
+    @Test
+    public void testLoadShared() throws Exception {
+        int count = Integer.getInteger("benchmark.messages", 2000);
+        Path file = Files.createTempFile("notifications", ".xml");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+                writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<contacts>\n");
+                for (int i = 0; i < count; i++) {
+                    writer.write("    <entity>\n        <identifier>+49170" + i + "</identifier>\n"
+                            + "        <message>\n            <cronExpression>0 0 9 ? * MON-FRI</cronExpression>\n"
+                            + "            <content>Good morning, this is the reminder of the weekly campaign [date]</content>\n"
+                            + "        </message>\n    </entity>\n");
+                }
+                writer.write("</contacts>\n");
+            }
+            //warm up, so the heap only grows by the loaded model
+            MessageFileDatabase.create(file.toString()).loadEntities();
+            MessageFileDatabase db = MessageFileDatabase.create(file.toString());
+            long before = usedMemory();
+            long start = System.nanoTime();
+            db.loadEntities();
+            long sharedTime = System.nanoTime() - start;
+            long sharedHeap = usedMemory() - before;
+
+            //the model as it was loaded before, every message with its own content and cron expression
+            before = usedMemory();
+            start = System.nanoTime();
+            List<Entity> unshared = new ArrayList<>();
+            for (Entity e : db.getEntities()) {
+                Entity copy = new Entity(new String(e.getIdentifier()));
+                for (Message m : e.getMessages()) {
+                    Message message = new Message(m.getCronExpressionString(), new String(m.getContent()));
+                    message.setEntity(copy);
+                    copy.addMessage(message);
+                }
+                unshared.add(copy);
+            }
+            long unsharedTime = System.nanoTime() - start;
+            long unsharedHeap = usedMemory() - before;
+            LOGGER.info(count + " messages: unshared " + unsharedHeap / 1024 + "KiB, built in " + unsharedTime / 1_000_000
+                    + "ms, shared " + sharedHeap / 1024 + "KiB, loaded in " + sharedTime / 1_000_000 + "ms");
+
+            List<Entity> entities = db.getEntities();
+            assertEquals(unshared.size(), entities.size());
+            Message first = entities.get(0).getMessages().get(0);
+            Message last = entities.get(count - 1).getMessages().get(0);
+            assertSame(first.getContent(), last.getContent());
+            assertSame(first.getCronExpression(), last.getCronExpression());
+
+            //a reload shares the instances of the last load
+            db.loadEntities();
+            assertSame(first.getContent(), db.getEntities().get(1).getMessages().get(0).getContent());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        //a single collection doesn't free everything
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 8; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void testLoadInvalid() throws Exception {
+        Path file = Files.createTempFile("notifications", ".xml");
+        try {
+            MessageFileDatabase db = MessageFileDatabase.create(file.toString());
+            Files.writeString(file, "<contacts><entity><identifier>a</identifier><message>"
+                    + "<cronExpression>0 0 12 * * ?</cronExpression><content>x</content></message></entity></contacts>");
+            db.loadEntities();
+            assertEquals(1, db.getEntities().size());
+
+            Files.writeString(file, "<contacts><entity><identifier>a</identifier><message>"
+                    + "<cronExpression>no cron</cronExpression><content>x</content></message></entity></contacts>");
+            assertThrows(ParseException.class, () -> db.loadEntities());
+            Files.writeString(file, "<contacts><entity><identifier>a</identifier><message>"
+                    + "<cronExpression>0 0 12 * * ?</cronExpression></message></entity></contacts>");
+            assertThrows(SAXException.class, () -> db.loadEntities());
+            assertEquals("a", db.getEntities().get(0).getIdentifier());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        Path file = Files.createTempFile("notifications", ".xml");
+        try {
+            writeNotifications(file, 100);
+            MessageFileDatabase db = MessageFileDatabase.create(file.toString());
+            db.loadEntities();
+            assertEquals(10, db.getMessages("+491703").size());
+            assertNull(db.getEntity("+49999"));
+            assertTrue(db.getMessages("+49999").isEmpty());
+            Message m = db.getMessage("+491703#0 4 3 * * ?#0");
+            assertEquals("+491703", m.getEntity().getIdentifier());
+
+            Calendar calendar = Calendar.getInstance();
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            calendar.set(Calendar.HOUR_OF_DAY, 3);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            Date from = calendar.getTime();
+            Date to = new Date(from.getTime() + 5 * 60_000);
+            List<Message> firing = db.getMessagesFiringBetween(from, to);
+            assertEquals(5, firing.size());
+            assertEquals("Message 0 & [date] \"quoted\"", firing.get(0).getContent());
+            assertSame(m, firing.get(4));
+            //the day after, the index was advanced
+            List<Message> nextDay = db.getMessagesFiringBetween(new Date(from.getTime() + 86_400_000), new Date(to.getTime() + 86_400_000));
+            assertEquals(firing, nextDay);
+            //the past is computed
+            assertEquals(firing, db.getMessagesFiringBetween(from, to));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void writeNotifications(Path file, int messages) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<contacts>\n");
+            int perEntity = 10;
+            for (int i = 0; i * perEntity < messages; i++) {
+                writer.write("    <entity>\n        <identifier>+49170" + i + "</identifier>\n");
+                for (int j = 0; j < perEntity && i * perEntity + j < messages; j++) {
+                    writer.write("        <message>\n            <cronExpression>0 " + j + " " + (i % 24)
+                            + " * * ?</cronExpression>\n            <content>Message " + j
+                            + " &amp; [date] \"quoted\"</content>\n        </message>\n");
+                }
+                writer.write("    </entity>\n");
+            }
+            writer.write("</contacts>\n");
+        }
+    }
+
+    /**
+     * The former loader, only for comparison.
+     */
+    private static List<Entity> loadWithDom(Path file) throws Exception {
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        Schema schema = factory.newSchema(FileMessageDatabaseTest.class.getResource("/notifications.xsd"));
+        schema.newValidator().validate(new StreamSource(file.toFile()));
+        Document xmlDocument = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file.toFile());
+        XPath xPath = XPathFactory.newInstance().newXPath();
+        List<Entity> entities = new ArrayList<>();
+        NodeList entityNodes = (NodeList) xPath.compile("/contacts/entity").evaluate(xmlDocument, XPathConstants.NODESET);
+        for (int i = 0; i < entityNodes.getLength(); i++) {
+            Entity entity = new Entity();
+            Node entityNode = entityNodes.item(i);
+            entity.setIdentifier((String) xPath.compile("./identifier").evaluate(entityNode, XPathConstants.STRING));
+            NodeList messageNodes = (NodeList) xPath.compile("./message").evaluate(entityNode, XPathConstants.NODESET);
+            for (int j = 0; j < messageNodes.getLength(); j++) {
+                Node messageNode = messageNodes.item(j);
+                Message message = new Message();
+                message.setCronExpression((String) xPath.compile("./cronExpression").evaluate(messageNode, XPathConstants.STRING));
+                message.setContent((String) xPath.compile("./content").evaluate(messageNode, XPathConstants.STRING));
+                message.setEntity(entity);
+                entity.addMessage(message);
+            }
+            entities.add(entity);
+        }
+        return entities;
+    }
+
     @Test
     public void getEntities() {
         List<Entity> entities = fileMessageDatabase.getEntities();
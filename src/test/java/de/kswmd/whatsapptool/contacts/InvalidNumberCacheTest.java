@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.contacts;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class InvalidNumberCacheTest {
+
+    public InvalidNumberCacheTest() {
+    }
+
+    /**
+     * Test of add and load method, of class InvalidNumberCache.
+     */
+    @Test
+    public void testPersistence() throws IOException {
+        Path file = Files.createTempFile("invalid-numbers", ".properties");
+        try {
+            InvalidNumberCache cache = InvalidNumberCache.load(file, Duration.ofDays(1));
+            cache.add("+49 170 / 123-456", "Phone number shared via url is invalid.");
+            assertTrue(cache.isInvalid("+49170123456"));
+            assertFalse(cache.isInvalid("49170123456"));
+
+            InvalidNumberCache loaded = InvalidNumberCache.load(file, Duration.ofDays(1));
+            assertEquals("Phone number shared via url is invalid.", loaded.getReason("+49170123456").get());
+            loaded.remove("+49170123456");
+            assertEquals(0, InvalidNumberCache.load(file, Duration.ofDays(1)).size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testExpiry() {
+        InvalidNumberCache cache = new InvalidNumberCache();
+        cache.add("+49170123456", "invalid");
+        cache.setTimeToLive(Duration.ofMillis(-1));
+        assertFalse(cache.isInvalid("+49170123456"));
+        assertEquals(0, cache.size());
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.quartz;
+
+import de.kswmd.whatsapptool.contacts.Entity;
+import de.kswmd.whatsapptool.contacts.Message;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class LoadPlanTest {
+
+    private static final String MORNING = "0 0 8 * * ?";
+
+    public LoadPlanTest() {
+    }
+
+    /**
+     * Test of compute method, of class LoadPlan.
+     */
+    @Test
+    public void testCompute() throws Exception {
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            Entity e = new Entity("+49" + i);
+            Message m = new Message(MORNING, "Good morning");
+            m.setEntity(e);
+            e.addMessage(m);
+            entities.add(e);
+        }
+        Date from = Date.from(LocalDateTime.of(2099, 1, 1, 0, 0).atZone(ZoneId.systemDefault()).toInstant());
+        LoadPlan burst = LoadPlan.compute(entities, from, Duration.ofDays(2), Duration.ZERO, 20);
+        assertEquals(1200, burst.getMessages());
+        assertEquals(2, burst.getLoad().size());
+        assertEquals(600, burst.getPeakLoad());
+        //600 messages at 20 per minute
+        assertEquals(Duration.ofMinutes(30), burst.getMaxLateness());
+
+        LoadPlan spread = LoadPlan.compute(entities, from, Duration.ofDays(2), Duration.ofMinutes(60), 20);
+        assertEquals(1200, spread.getMessages());
+        assertTrue(spread.getPeakLoad() < 30, spread.toString());
+        assertTrue(spread.getMaxLateness().compareTo(Duration.ofMinutes(5)) < 0, spread.toString());
+        assertEquals(spread.getPeakLoad(), (int) spread.getBusiestMinutes(1).get(0).getValue());
+
+        assertEquals(Duration.ZERO, LoadPlan.compute(entities, from, Duration.ofDays(1), Duration.ZERO, 0).getMaxLateness());
+    }
+}
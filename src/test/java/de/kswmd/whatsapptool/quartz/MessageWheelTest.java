@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.quartz;
+
+import de.kswmd.whatsapptool.contacts.Entity;
+import de.kswmd.whatsapptool.contacts.Message;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import static org.quartz.CronScheduleBuilder.cronSchedule;
+import static org.quartz.JobBuilder.newJob;
+import org.quartz.Job;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.Scheduler;
+import org.quartz.Trigger;
+import static org.quartz.TriggerBuilder.newTrigger;
+import org.quartz.impl.StdSchedulerFactory;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class MessageWheelTest {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final String EVERY_MINUTE = "0 * * * * ?";
+    private static final long START = 1_700_000_000_000L - 1_700_000_000_000L % 60_000;
+
+    private static CountDownLatch fired;
+
+    public MessageWheelTest() {
+    }
+
+    /**
+     * Test of update method, of class MessageWheel.
+     */
+    @Test
+    public void testUpdate() throws Exception {
+        List<List<MessageWheel.Firing>> batches = new ArrayList<>();
+        MessageWheel wheel = new MessageWheel(MessageWheel.DEFAULT_TICK, Duration.ZERO, START, batches::add);
+        List<Entity> entities = entities(3, EVERY_MINUTE);
+        ScheduleUpdate update = wheel.update(entities);
+        assertEquals(3, update.getAdded());
+        assertEquals(0, wheel.advance(START + 59_999));
+        assertEquals(3, wheel.advance(START + 60_000));
+        assertEquals(START + 60_000, batches.get(0).get(0).getFireTime());
+
+        List<Entity> changed = entities(2, EVERY_MINUTE);
+        changed.get(1).getMessages().get(0).setContent("changed");
+        update = wheel.update(changed);
+        assertEquals(1, update.getUpdated());
+        assertEquals(1, update.getRemoved());
+        assertEquals(1, update.getUnchanged());
+        //the stale entries of the changed and the removed message are skipped
+        assertEquals(2, wheel.advance(START + 120_000));
+        Set<String> contents = batches.get(1).stream().map(f -> f.getMessage().getContent()).collect(Collectors.toSet());
+        assertEquals(Set.of("message 0", "changed"), contents);
+        //missed firings are sent once
+        assertEquals(2, wheel.advance(START + 3_600_000));
+        assertEquals(Set.of("+490", "+491"), wheel.getUpcomingRecipients(START + 3_600_000, Duration.ofMinutes(1)));
+        assertTrue(wheel.getUpcomingRecipients(START + 3_600_000, Duration.ofSeconds(1)).isEmpty());
+    }
+
+    @Test
+    public void testSpread() throws Exception {
+        List<MessageWheel.Firing> firings = new ArrayList<>();
+        MessageWheel wheel = new MessageWheel(MessageWheel.DEFAULT_TICK, Duration.ofSeconds(30), START, firings::addAll);
+        wheel.update(entities(100, EVERY_MINUTE));
+        assertEquals(0, wheel.advance(START + 59_999));
+        Set<Long> sendTimes = new HashSet<>();
+        for (long now = START + 60_000; now < START + 90_000; now += 1_000) {
+            wheel.advance(now);
+        }
+        for (MessageWheel.Firing firing : firings) {
+            assertEquals(START + 60_000, firing.getFireTime());
+            assertEquals(firing.getFireTime() + ScheduleManager.getSpreadOffset(firing.getMessage(), Duration.ofSeconds(30)).toMillis(), firing.getSendTime());
+            sendTimes.add(firing.getSendTime() / 1000);
+        }
+        assertEquals(100, firings.size());
+        assertTrue(sendTimes.size() > 20);
+    }
+
+    /**
+     * Compares one trigger per message with the wheel for messages firing at
+     * the same second. The number of messages can be raised with
+     * -Dbenchmark.messages=100000.
+     */
+    @Test
+    public void testBenchmark() throws Exception {
+        int count = Integer.getInteger("benchmark.messages", 2000);
+        Date fireAt = new Date((System.currentTimeMillis() / 1000 + 2) * 1000);
+        String cron = new SimpleDateFormat("s m H d M ? yyyy").format(fireAt);
+        List<Entity> entities = entities(count, cron);
+
+        Properties properties = new Properties();
+        properties.setProperty("org.quartz.scheduler.instanceName", "MessageWheelTest");
+        properties.setProperty("org.quartz.threadPool.threadCount", "1");
+        properties.setProperty("org.quartz.jobStore.class", "org.quartz.simpl.RAMJobStore");
+        Scheduler scheduler = new StdSchedulerFactory(properties).getScheduler();
+        try {
+            fired = new CountDownLatch(count);
+            long start = System.nanoTime();
+            JobDetail job = newJob(CountingJob.class).withIdentity("countingJob").storeDurably().build();
+            Set<Trigger> triggers = new HashSet<>();
+            for (Entity e : entities) {
+                for (Message m : e.getMessages()) {
+                    triggers.add(newTrigger().withIdentity(m.getKey()).withSchedule(cronSchedule(m.getCronExpression())).forJob(job).build());
+                }
+            }
+            scheduler.scheduleJob(job, triggers, true);
+            long triggersScheduled = System.nanoTime() - start;
+            scheduler.start();
+            assertTrue(fired.await(2, TimeUnit.MINUTES));
+            long triggersFired = System.currentTimeMillis() - fireAt.getTime();
+
+            List<MessageWheel.Firing> dispatched = new ArrayList<>();
+            start = System.nanoTime();
+            MessageWheel wheel = new MessageWheel(MessageWheel.DEFAULT_TICK, Duration.ZERO, fireAt.getTime() - 2_000, dispatched::addAll);
+            wheel.update(entities);
+            long wheelScheduled = System.nanoTime() - start;
+            start = System.nanoTime();
+            assertEquals(0, wheel.advance(fireAt.getTime() - 1));
+            assertEquals(count, wheel.advance(fireAt.getTime()));
+            long wheelFired = System.nanoTime() - start;
+            assertEquals(count, dispatched.size());
+            assertEquals(0, wheel.size());
+
+            LOGGER.info(count + " messages: triggers scheduled in " + triggersScheduled / 1_000_000 + "ms, fired within "
+                    + Math.max(0, triggersFired) + "ms, wheel scheduled in " + wheelScheduled / 1_000_000 + "ms, fired in "
+                    + wheelFired / 1_000_000 + "ms");
+        } finally {
+            scheduler.shutdown(true);
+        }
+    }
+
+    private static List<Entity> entities(int count, String cron) throws Exception {
+        List<Entity> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Entity e = new Entity("+49" + i);
+            Message m = new Message(cron, "message " + i);
+            m.setEntity(e);
+            e.addMessage(m);
+            entities.add(e);
+        }
+        return entities;
+    }
+
+    public static class CountingJob implements Job {
+
+        @Override
+        public void execute(JobExecutionContext jec) {
+            fired.countDown();
+        }
+    }
+}
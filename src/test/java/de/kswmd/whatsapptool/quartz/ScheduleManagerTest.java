@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.quartz;
+
+import de.kswmd.whatsapptool.contacts.Entity;
+import de.kswmd.whatsapptool.contacts.Message;
+import java.time.Duration;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.quartz.Scheduler;
+import org.quartz.Trigger;
+import org.quartz.TriggerKey;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class ScheduleManagerTest {
+
+    private static final String NEW_YEAR = "0 0 0 1 JAN ? 2099";
+    private static final String CHRISTMAS = "0 0 20 24 DEC ? 2099";
+
+    public ScheduleManagerTest() {
+    }
+
+    @BeforeAll
+    public static void setUpClass() {
+        ScheduleManager.getInstance().start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        //every test starts without triggers, whatever ran before
+        ScheduleManager.getInstance().unscheduleMessagesJob();
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+        ScheduleManager.getInstance().unscheduleMessagesJob();
+        ScheduleManager.getInstance().stop();
+    }
+
+    /**
+     * Test of updateMessagesJob method, of class ScheduleManager.
+     */
+    @Test
+    public void testUpdateMessagesJob() throws Exception {
+        ScheduleManager manager = ScheduleManager.getInstance();
+        Entity a = entity("a", NEW_YEAR, "Happy new year", CHRISTMAS, "Merry Christmas");
+        Entity b = entity("b", NEW_YEAR, "Happy new year");
+        ScheduleUpdate update = manager.updateMessagesJob(List.of(a, b), null);
+        assertEquals(3, update.getAdded());
+        manager.pauseAllJobs();
+
+        Entity changedA = entity("a", NEW_YEAR, "Happy new year", NEW_YEAR, "Second", CHRISTMAS, "Merry X-Mas");
+        update = manager.updateMessagesJob(List.of(changedA), null);
+        assertEquals(1, update.getAdded());
+        assertEquals(1, update.getUpdated());
+        assertEquals(1, update.getRemoved());
+        assertEquals(1, update.getUnchanged());
+
+        Scheduler scheduler = manager.getScheduler();
+        List<? extends Trigger> triggers = scheduler.getTriggersOfJob(ScheduleManager.MESSAGES_JOB_KEY);
+        assertEquals(3, triggers.size());
+        for (Trigger trigger : triggers) {
+            assertEquals(Trigger.TriggerState.PAUSED, scheduler.getTriggerState(trigger.getKey()));
+        }
+        TriggerKey christmas = TriggerKey.triggerKey("messagesTrigger_" + changedA.getMessages().get(2).getKey(), ScheduleManager.MESSAGES_TRIGGER_GROUP);
+        Message m = (Message) scheduler.getTrigger(christmas).getJobDataMap().get(HandleCronMessageJob.KEY_MESSAGE);
+        assertEquals("Merry X-Mas", m.getContent());
+
+        update = manager.updateMessagesJob(List.of(changedA), null);
+        assertFalse(update.hasChanges());
+    }
+
+    @Test
+    public void testSpreadOffset() throws Exception {
+        Duration window = Duration.ofMinutes(30);
+        Set<Long> minutes = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            Message m = entity("+49" + i, NEW_YEAR, "Happy new year").getMessages().get(0);
+            Duration offset = ScheduleManager.getSpreadOffset(m, window);
+            assertFalse(offset.isNegative());
+            assertTrue(offset.compareTo(window) < 0);
+            assertEquals(offset, ScheduleManager.getSpreadOffset(m, window));
+            minutes.add(offset.toMinutes());
+        }
+        //similar keys are spread over the whole window
+        assertEquals(30, minutes.size());
+        Message m = entity("a", NEW_YEAR, "Happy new year").getMessages().get(0);
+        assertEquals(Duration.ZERO, ScheduleManager.getSpreadOffset(m, Duration.ZERO));
+        m.setSpreadWindow(Duration.ofSeconds(10));
+        assertTrue(ScheduleManager.getSpreadOffset(m, window).getSeconds() < 10);
+    }
+
+    @Test
+    public void testUpdateKeepsSpreadTriggers() throws Exception {
+        ScheduleManager manager = ScheduleManager.getInstance();
+        Entity a = entity("spread", NEW_YEAR, "Happy new year");
+        manager.updateMessagesJob(List.of(a), null);
+        Message m = a.getMessages().get(0);
+        Date fireTime = m.getCronExpression().getNextValidTimeAfter(new Date());
+        Trigger spread = ScheduleManager.createSpreadTrigger(m, fireTime, new Date(fireTime.getTime() + 60_000));
+        manager.getScheduler().scheduleJob(spread);
+
+        ScheduleUpdate update = manager.updateMessagesJob(List.of(a), null);
+        assertFalse(update.hasChanges());
+        assertTrue(manager.getScheduler().checkExists(spread.getKey()));
+        assertEquals(fireTime.getTime(), manager.getScheduler().getTrigger(spread.getKey()).getJobDataMap().getLong(HandleCronMessageJob.KEY_FIRE_TIME));
+    }
+
+    @Test
+    public void testWheelBackend() throws Exception {
+        ScheduleManager manager = ScheduleManager.getInstance();
+        manager.unscheduleMessagesJob();
+        manager.setBackend(SchedulerBackend.WHEEL);
+        try {
+            Entity a = entity("wheel", NEW_YEAR, "Happy new year", CHRISTMAS, "Merry Christmas");
+            assertEquals(2, manager.updateMessagesJob(List.of(a), null).getAdded());
+            assertEquals(2, manager.getMessageWheel().size());
+            //one job drives the wheel instead of a trigger per message
+            assertFalse(manager.getScheduler().checkExists(ScheduleManager.MESSAGES_JOB_KEY));
+            assertEquals(1, manager.getScheduler().getTriggersOfJob(ScheduleManager.WHEEL_JOB_KEY).size());
+            assertFalse(manager.updateMessagesJob(List.of(a), null).hasChanges());
+            assertTrue(manager.unscheduleMessagesJob());
+            assertNull(manager.getMessageWheel());
+        } finally {
+            manager.setBackend(SchedulerBackend.TRIGGERS);
+        }
+    }
+
+    private static Entity entity(String identifier, String... cronAndContent) throws Exception {
+        Entity e = new Entity(identifier);
+        for (int i = 0; i < cronAndContent.length; i += 2) {
+            Message m = new Message(cronAndContent[i], cronAndContent[i + 1]);
+            m.setEntity(e);
+            e.addMessage(m);
+        }
+        return e;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.quartz;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class TimingWheelTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    public TimingWheelTest() {
+    }
+
+    /**
+     * Test of advance method, of class TimingWheel.
+     */
+    @Test
+    public void testAdvance() {
+        //two levels span 4096 ticks, the rest waits in the overflow
+        TimingWheel<Long> wheel = new TimingWheel<>(Duration.ofSeconds(1), 2, START);
+        Random random = new Random(42);
+        Set<Long> deadlines = new LinkedHashSet<>(List.of(START - 5_000, START + 1_000, START + 63_999, START + 64_000,
+                START + 4_095_000, START + 4_096_000, START + 20_000_000));
+        for (int i = 0; i < 2000; i++) {
+            deadlines.add(START + random.nextInt(30_000_000));
+        }
+        deadlines.forEach(deadline -> wheel.add(deadline, deadline));
+        assertEquals(deadlines.size(), wheel.size());
+
+        Map<Long, Long> returned = new HashMap<>();
+        long now = START;
+        while (wheel.size() > 0) {
+            for (Long deadline : wheel.advance(now)) {
+                assertNull(returned.put(deadline, now));
+            }
+            now += 1 + random.nextInt(3_000);
+        }
+        assertEquals(deadlines.size(), returned.size());
+        for (Map.Entry<Long, Long> entry : returned.entrySet()) {
+            long deadline = entry.getKey();
+            long at = entry.getValue();
+            //returned by the first advance after the tick of the deadline
+            assertTrue(at >= deadline / 1000 * 1000, deadline + " returned too early at " + at);
+            assertTrue(deadline < START || at - deadline < 4_000, deadline + " returned too late at " + at);
+        }
+        assertTrue(wheel.advance(now + 100_000_000).isEmpty());
+    }
+}
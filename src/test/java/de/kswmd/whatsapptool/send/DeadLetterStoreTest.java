@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import de.kswmd.whatsapptool.text.MessageParser;
+import de.kswmd.whatsapptool.text.RenderContext;
+import de.kswmd.whatsapptool.text.TextSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class DeadLetterStoreTest {
+
+    private Path file;
+
+    public DeadLetterStoreTest() {
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        file = Files.createTempFile("dead-letters", ".properties");
+        Files.delete(file);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".tmp"));
+    }
+
+    private static DeadLetterStore.DeadLetter letter(String key, TextSource content, long failed) {
+        return DeadLetterStore.DeadLetter.of(key, "a", content, 1, RetryPolicy.Failure.PERMANENT, "error", Instant.ofEpochMilli(failed));
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        RenderContext context = RenderContext.of(LocalDateTime.of(2024, 5, 1, 8, 0), "a", null);
+        DeadLetterStore store = DeadLetterStore.load(file, 10);
+        store.add(letter("template", MessageParser.DEFAULT_PARSER.source("Hello", context), 1000));
+        store.add(letter("rendered", TextSource.of("Hi"), 2000));
+        store.add(letter("large", TextSource.of("x".repeat(DeadLetterStore.MAX_CONTENT_LENGTH + 1)), 3000));
+        store.add(letter("removed", TextSource.of("1"), 4000));
+        assertTrue(store.remove("removed").isPresent());
+
+        store = DeadLetterStore.load(file, 10);
+        assertEquals(3, store.size());
+        DeadLetterStore.DeadLetter template = store.get("template").get();
+        assertNull(template.getContent());
+        assertEquals("Hello", template.getTemplate());
+        assertEquals(context.getNow(), template.getContext().getNow());
+        assertEquals("Hello", template.toSource().get().asString());
+        assertEquals("Hi", store.get("rendered").get().toSource().get().asString());
+        assertFalse(store.get("large").get().toSource().isPresent());
+        assertFalse(store.get("removed").isPresent());
+
+        //failed again after it was removed
+        store.add(letter("removed", TextSource.of("2"), System.currentTimeMillis() + 1000));
+        assertEquals("2", DeadLetterStore.load(file, 10).get("removed").get().getContent());
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        DeadLetterStore store = DeadLetterStore.load(file, 3);
+        for (int i = 0; i < 20; i++) {
+            store.add(letter(Integer.toString(i), TextSource.of("content " + i), i));
+        }
+        //rewritten from time to time, not all 20 letters are in the file
+        assertTrue(Files.readAllLines(file).stream().filter(line -> line.contains(".content=")).count() <= 6);
+        store = DeadLetterStore.load(file, 3);
+        assertEquals(3, store.size());
+        assertEquals("17", store.getLetters().get(0).getKey());
+        assertEquals("content 19", store.get("19").get().getContent());
+        store.clear();
+        assertEquals(0, DeadLetterStore.load(file, 3).size());
+    }
+}
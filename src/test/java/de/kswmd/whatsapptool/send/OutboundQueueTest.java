@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import de.kswmd.whatsapptool.NotAPhoneNumberException;
+import de.kswmd.whatsapptool.TimeoutWhatsAppWebException;
+import de.kswmd.whatsapptool.send.SendResult.Status;
+import de.kswmd.whatsapptool.text.TextSource;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class OutboundQueueTest {
+
+    public OutboundQueueTest() {
+    }
+
+    /**
+     * Records the calls and blocks every send until released.
+     */
+    private static class RecordingSender implements OutboundQueue.Sender {
+
+        private final List<String> calls = new CopyOnWriteArrayList<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        private RecordingSender(boolean blocking) {
+            release = new CountDownLatch(blocking ? 1 : 0);
+        }
+
+        @Override
+        public void openChat(String identifier) throws Exception {
+            calls.add("open " + identifier);
+        }
+
+        @Override
+        public void sendToOpenChat(String content) throws Exception {
+            started.countDown();
+            release.await();
+            if (content == null) {
+                throw new IllegalStateException("offline");
+            }
+            calls.add(content);
+        }
+    }
+
+    /**
+     * Throws the scripted errors one after another, then sends.
+     */
+    private static class FailingSender implements OutboundQueue.Sender {
+
+        private final Deque<Exception> errors = new ArrayDeque<>();
+        private final List<String> calls = new CopyOnWriteArrayList<>();
+
+        private FailingSender(Exception... errors) {
+            this.errors.addAll(List.of(errors));
+        }
+
+        @Override
+        public void openChat(String identifier) throws Exception {
+        }
+
+        @Override
+        public synchronized void sendToOpenChat(String content) throws Exception {
+            calls.add(content);
+            Exception ex = errors.pollFirst();
+            if (ex != null) {
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Test of submit method, of class OutboundQueue.
+     */
+    @Test
+    public void testSubmitKeepsOrder() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        OutboundQueue queue = new OutboundQueue(sender, 10, Backpressure.BLOCK, Duration.ZERO);
+        CompletableFuture<SendResult> first = queue.submit("a", "1");
+        assertEquals(Status.SENT, first.get(5, TimeUnit.SECONDS).getStatus());
+        CompletableFuture<SendResult> second = queue.submit("b", "2");
+        assertEquals(Status.SENT, second.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(List.of("open a", "1", "open b", "2"), sender.calls);
+        assertEquals(2, queue.getSent());
+        assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+        assertEquals(Status.REJECTED, queue.submit("c", "3").get().getStatus());
+    }
+
+    @Test
+    public void testFailedSend() throws Exception {
+        OutboundQueue queue = new OutboundQueue(new RecordingSender(false), 10, Backpressure.BLOCK);
+        SendResult result = queue.submit("a", (String) null).get(5, TimeUnit.SECONDS);
+        assertEquals(Status.FAILED, result.getStatus());
+        assertEquals("offline", result.getError().get().getMessage());
+        assertEquals(1, queue.getFailed());
+        queue.shutdown(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void testReject() throws Exception {
+        RecordingSender sender = new RecordingSender(true);
+        OutboundQueue queue = new OutboundQueue(sender, 1, Backpressure.REJECT);
+        CompletableFuture<SendResult> running = queue.submit("a", "1");
+        assertTrue(sender.started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<SendResult> waiting = queue.submit("b", "2");
+        assertEquals(Status.REJECTED, queue.submit("c", "3").get().getStatus());
+        assertEquals(1, queue.getRejected());
+        sender.release.countDown();
+        assertEquals(Status.SENT, running.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(Status.SENT, waiting.get(5, TimeUnit.SECONDS).getStatus());
+        assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        RecordingSender sender = new RecordingSender(true);
+        OutboundQueue queue = new OutboundQueue(sender, 1, Backpressure.DROP_OLDEST);
+        CompletableFuture<SendResult> running = queue.submit("a", "1");
+        assertTrue(sender.started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<SendResult> oldest = queue.submit("b", "2");
+        CompletableFuture<SendResult> newest = queue.submit("c", "3");
+        assertEquals(Status.DROPPED, oldest.get(5, TimeUnit.SECONDS).getStatus());
+        sender.release.countDown();
+        assertEquals(Status.SENT, running.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(Status.SENT, newest.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(1, queue.getDropped());
+        assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testCoalesceRecipients() throws Exception {
+        RecordingSender sender = new RecordingSender(true);
+        OutboundQueue queue = new OutboundQueue(sender, 10, Backpressure.BLOCK, Duration.ofMinutes(1));
+        queue.submit("a", "a1");
+        assertTrue(sender.started.await(5, TimeUnit.SECONDS));
+        queue.submit("b", "b1");
+        queue.submit("c", "c1");
+        queue.submit("b", "b2");
+        queue.submit("a", "a2");
+        CompletableFuture<SendResult> last = queue.submit("c", "c2");
+        sender.release.countDown();
+        assertEquals(Status.SENT, last.get(5, TimeUnit.SECONDS).getStatus());
+        //a is still open, so a2 is sent before the older messages of b and c.
+        assertEquals(List.of("open a", "a1", "a2", "open b", "b1", "b2", "open c", "c1", "c2"), sender.calls);
+        assertEquals(3, queue.getChatSwitches());
+        assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        TimeoutWhatsAppWebException timeout = new TimeoutWhatsAppWebException("timeout", null);
+        FailingSender sender = new FailingSender(new NotAPhoneNumberException("not a number"), timeout, timeout);
+        OutboundQueue queue = new OutboundQueue(sender, 10, Backpressure.BLOCK);
+        queue.setRetryPolicy(new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(50)));
+        DeadLetterStore deadLetters = new DeadLetterStore();
+        queue.setDeadLetters(deadLetters);
+        //a permanent failure isn't retried
+        SendResult result = queue.submit("a", "1").get(5, TimeUnit.SECONDS);
+        assertEquals(Status.FAILED, result.getStatus());
+        assertEquals(1, result.getAttempts());
+        assertEquals(1, deadLetters.size());
+        DeadLetterStore.DeadLetter letter = deadLetters.getLetters().get(0);
+        assertEquals("a", letter.getIdentifier());
+        assertEquals("1", letter.getContent());
+        assertEquals(RetryPolicy.Failure.PERMANENT, letter.getFailure());
+        result = queue.submit("b", "2").get(5, TimeUnit.SECONDS);
+        assertEquals(Status.SENT, result.getStatus());
+        assertEquals(3, result.getAttempts());
+        assertEquals(2, queue.getRetried());
+        assertEquals(List.of("1", "2", "2", "2"), sender.calls);
+        assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testUnexpectedError() throws Exception {
+        FailingSender sender = new FailingSender(new NotAPhoneNumberException("not a number"));
+        OutboundQueue queue = new OutboundQueue(sender, 10, Backpressure.BLOCK);
+        queue.setDeadLetters(new DeadLetterStore());
+        //fails again while the dead letter is created
+        TextSource broken = new TextSource() {
+            @Override
+            public void emit(int segmentSize, String lineBreak, Consumer<CharSequence> consumer) {
+                consumer.accept("1");
+            }
+
+            @Override
+            public int lengthHint() {
+                throw new IllegalStateException("broken");
+            }
+
+            @Override
+            public String asString() {
+                return "1";
+            }
+        };
+        SendResult result = queue.submit(null, "a", broken).get(5, TimeUnit.SECONDS);
+        assertEquals(Status.FAILED, result.getStatus());
+        assertTrue(result.getError().get() instanceof IllegalStateException);
+        //the consumer is still alive
+        assertEquals(Status.SENT, queue.submit("a", "2").get(5, TimeUnit.SECONDS).getStatus());
+        assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        TimeoutWhatsAppWebException timeout = new TimeoutWhatsAppWebException("timeout", null);
+        FailingSender sender = new FailingSender(timeout, timeout, timeout);
+        OutboundQueue queue = new OutboundQueue(sender, 10, Backpressure.BLOCK);
+        CircuitBreaker breaker = new CircuitBreaker(2, Duration.ofMillis(300), Duration.ofSeconds(1));
+        queue.setCircuitBreaker(breaker);
+        assertEquals(Status.FAILED, queue.submit("a", "1").get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(Status.FAILED, queue.submit("a", "2").get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        //waits in the queue while the breaker is open, then the trial fails
+        //and the breaker opens again for twice the time
+        long start = System.nanoTime();
+        assertEquals(Status.FAILED, queue.submit("a", "3").get(5, TimeUnit.SECONDS).getStatus());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpened());
+        SendResult result = queue.submit("a", "4").get(5, TimeUnit.SECONDS);
+        assertEquals(Status.SENT, result.getStatus());
+        assertTrue(result.getQueueTime().toMillis() >= 400, result.toString());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(List.of("1", "2", "3", "4"), sender.calls);
+        assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        RecordingSender sender = new RecordingSender(false);
+        OutboundQueue queue = new OutboundQueue(sender, 10, Backpressure.BLOCK, Duration.ofMinutes(1));
+        RateLimiter limiter = new RateLimiter(Duration.ZERO, 1, Duration.ofMillis(300), 1);
+        queue.setRateLimiter(limiter);
+        queue.submit("a", "a1");
+        CompletableFuture<SendResult> limited = queue.submit("a", "a2");
+        CompletableFuture<SendResult> other = queue.submit("b", "b1");
+        assertEquals(Status.SENT, limited.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(Status.SENT, other.get(5, TimeUnit.SECONDS).getStatus());
+        //b is sent while a waits for its token
+        assertEquals(List.of("open a", "a1", "open b", "b1", "open a", "a2"), sender.calls);
+        assertTrue(limited.get().getQueueTime().toMillis() >= 250, limited.get().toString());
+        assertEquals(3, limiter.getPermits());
+        assertTrue(limiter.getStalls() > 0);
+        assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testLanes() throws Exception {
+        RecordingSender sender = new RecordingSender(true);
+        OutboundQueue queue = new OutboundQueue(sender, 10, Backpressure.BLOCK);
+        queue.submit("a", "a1");
+        assertTrue(sender.started.await(5, TimeUnit.SECONDS));
+        Instant now = Instant.now();
+        CompletableFuture<SendResult> last = queue.submit(null, "b", TextSource.of("b1"), Lane.BULK, null);
+        queue.submit(null, "c", TextSource.of("c1"), Lane.SCHEDULED, now.plusSeconds(20));
+        queue.submit(null, "d", TextSource.of("d1"), Lane.SCHEDULED, now.plusSeconds(10));
+        CompletableFuture<SendResult> stale = queue.submit(null, "f", TextSource.of("f1"), Lane.SCHEDULED, now.plusMillis(50));
+        queue.submit(null, "e", TextSource.of("e1"), Lane.INTERACTIVE, null);
+        assertEquals(3, queue.size(Lane.SCHEDULED));
+        assertEquals(1, queue.size(Lane.BULK));
+        Thread.sleep(100);
+        sender.release.countDown();
+        assertEquals(Status.SENT, last.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(Status.EXPIRED, stale.get(5, TimeUnit.SECONDS).getStatus());
+        assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+        //interactive first, then the earliest deadline, bulk last
+        assertEquals(List.of("open a", "a1", "open e", "e1", "open d", "d1", "open c", "c1", "open b", "b1"), sender.calls);
+        assertEquals(1, queue.getExpired());
+    }
+
+    @Test
+    public void testLaneCapacity() throws Exception {
+        RecordingSender sender = new RecordingSender(true);
+        OutboundQueue queue = new OutboundQueue(sender, 1, Backpressure.REJECT);
+        queue.submit("a", "1");
+        assertTrue(sender.started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<SendResult> bulk = queue.submit(null, "b", TextSource.of("2"), Lane.BULK, null);
+        assertEquals(Status.REJECTED, queue.submit(null, "b", TextSource.of("3"), Lane.BULK, null).get().getStatus());
+        //a full bulk lane doesn't block an interactive message
+        CompletableFuture<SendResult> interactive = queue.submit(null, "c", TextSource.of("4"), Lane.INTERACTIVE, null);
+        assertEquals(Status.EXPIRED, queue.submit(null, "c", TextSource.of("5"), Lane.INTERACTIVE, Instant.now()).get().getStatus());
+        sender.release.countDown();
+        assertEquals(Status.SENT, bulk.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(Status.SENT, interactive.get(5, TimeUnit.SECONDS).getStatus());
+        assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testIdleTask() throws Exception {
+        CountDownLatch idle = new CountDownLatch(2);
+        OutboundQueue queue = new OutboundQueue(new RecordingSender(false), 10, Backpressure.BLOCK);
+        queue.setIdleTask(idle::countDown, Duration.ofMillis(10));
+        assertTrue(idle.await(5, TimeUnit.SECONDS));
+        assertEquals(Status.SENT, queue.submit("a", "1").get(5, TimeUnit.SECONDS).getStatus());
+        assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+    }
+
+}
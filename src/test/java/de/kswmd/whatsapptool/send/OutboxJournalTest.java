@@ -0,0 +1,271 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import de.kswmd.whatsapptool.send.OutboxJournal.State;
+import de.kswmd.whatsapptool.send.SendResult.Status;
+import de.kswmd.whatsapptool.text.MessageParser;
+import de.kswmd.whatsapptool.text.RenderContext;
+import de.kswmd.whatsapptool.text.TextSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class OutboxJournalTest {
+
+    private Path file;
+
+    public OutboxJournalTest() {
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        file = Files.createTempFile("outbox", ".journal");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    private static class RecordingSender implements OutboundQueue.Sender {
+
+        private final List<String> calls = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void openChat(String identifier) throws Exception {
+        }
+
+        @Override
+        public void sendToOpenChat(String content) throws Exception {
+            calls.add(content);
+        }
+    }
+
+    @Test
+    public void testDuplicate() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        OutboundQueue queue = new OutboundQueue(sender, 10, Backpressure.BLOCK);
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            queue.setJournal(journal);
+            assertEquals(Status.SENT, queue.submit("k1", "a", TextSource.of("1")).get(5, TimeUnit.SECONDS).getStatus());
+            assertEquals(Status.DUPLICATE, queue.submit("k1", "a", TextSource.of("1")).get(5, TimeUnit.SECONDS).getStatus());
+            assertEquals(State.SENT, journal.getState("k1"));
+            queue.shutdown(Duration.ofSeconds(5));
+        }
+        assertEquals(List.of("1"), sender.calls);
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertTrue(journal.isDuplicate("k1"));
+        }
+    }
+
+    @Test
+    public void testRetrying() throws Exception {
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertTrue(journal.enqueued("k", "a", "1"));
+            journal.attempted("k");
+            journal.retrying("k", "timeout");
+            assertEquals(State.PENDING, journal.getState("k"));
+        }
+        //a failed attempt that is retried is replayed, not in doubt
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertEquals(State.PENDING, journal.getState("k"));
+            assertEquals(1, journal.getPending().size());
+            assertEquals("timeout", journal.getPending().get(0).getDetail());
+            assertTrue(journal.getAttempted().isEmpty());
+        }
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertTrue(journal.enqueued("sent", "a", "0"));
+            journal.attempted("sent");
+            journal.finished("sent", State.SENT, null);
+            assertTrue(journal.enqueued("typing", "a", "1"));
+            journal.attempted("typing");
+            assertTrue(journal.enqueued("queued", "b", "2"));
+        }
+        //a record torn by a crash
+        Files.write(file, new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+        RecordingSender sender = new RecordingSender();
+        OutboundQueue queue = new OutboundQueue(sender, 10, Backpressure.BLOCK);
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertEquals(1, journal.getPending().size());
+            assertEquals(1, journal.getAttempted().size());
+            queue.setJournal(journal);
+            assertEquals(1, queue.replayJournal());
+            assertEquals(0, queue.replayJournal());
+            for (int i = 0; i < 500 && journal.getState("queued") != State.SENT; i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+            assertEquals(List.of("2"), sender.calls);
+            assertEquals(State.IN_DOUBT, journal.getState("typing"));
+            assertEquals(State.SENT, journal.getState("queued"));
+
+            long size = Files.size(file);
+            journal.compact();
+            assertTrue(Files.size(file) < size);
+            assertEquals(2, journal.size());
+        }
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertTrue(journal.isDuplicate("sent"));
+            assertTrue(journal.isDuplicate("queued"));
+            assertNull(journal.getState("typing"));
+            assertTrue(journal.getPending().isEmpty());
+        }
+    }
+
+    @Test
+    public void testTemplate() throws Exception {
+        CountDownLatch opened = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        OutboundQueue queue = new OutboundQueue(new RecordingSender() {
+            @Override
+            public void openChat(String identifier) throws Exception {
+                opened.countDown();
+                release.await();
+            }
+        }, 10, Backpressure.BLOCK);
+        RenderContext context = RenderContext.of(LocalDateTime.of(2024, 5, 1, 8, 0), "b", "0 0 8 * * ?");
+        TextSource source = MessageParser.DEFAULT_PARSER.source("Hello", context);
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            queue.setJournal(journal);
+            //holds up the queue, so the message stays queued
+            queue.submit("first", "a", TextSource.of("0"), Lane.SCHEDULED, null);
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+            //the template is journaled, the content isn't rendered for it
+            queue.submit("k", "b", new TextSource() {
+                @Override
+                public void emit(int segmentSize, String lineBreak, Consumer<CharSequence> consumer) {
+                    source.emit(segmentSize, lineBreak, consumer);
+                }
+
+                @Override
+                public int lengthHint() {
+                    return source.lengthHint();
+                }
+
+                @Override
+                public String getTemplate() {
+                    return source.getTemplate();
+                }
+
+                @Override
+                public RenderContext getContext() {
+                    return source.getContext();
+                }
+
+                @Override
+                public String asString() {
+                    throw new AssertionError("rendered for the journal");
+                }
+            }, Lane.SCHEDULED, null);
+            queue.shutdown(Duration.ofMillis(1));
+            release.countDown();
+            assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+        }
+        RecordingSender sender = new RecordingSender();
+        queue = new OutboundQueue(sender, 10, Backpressure.BLOCK);
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            OutboxJournal.Entry entry = journal.getPending().get(0);
+            assertNull(entry.getContent());
+            assertEquals("Hello", entry.getTemplate());
+            assertEquals(context.getNow(), entry.getContext().getNow());
+            assertEquals("b", entry.getContext().getIdentifier());
+            assertEquals("0 0 8 * * ?", entry.getContext().getCronExpression());
+            journal.compact();
+            assertEquals("Hello", journal.getPending().get(0).getTemplate());
+            queue.setJournal(journal);
+            assertEquals(1, queue.replayJournal());
+            for (int i = 0; i < 500 && journal.getState("k") != State.SENT; i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+            assertEquals(List.of("Hello"), sender.calls);
+        }
+    }
+
+    @Test
+    public void testRecordTooLarge() throws Exception {
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            String content = "x".repeat(OutboxJournal.MAX_RECORD_LENGTH);
+            assertThrows(IOException.class, () -> journal.enqueued("large", "a", content));
+            assertTrue(journal.enqueued("k", "a", "1"));
+        }
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertNull(journal.getState("large"));
+            assertEquals(1, journal.getPending().size());
+        }
+    }
+
+    @Test
+    public void testReplayLaneAndExpiry() throws Exception {
+        Instant later = Instant.now().plusSeconds(3600);
+        RenderContext context = RenderContext.of(LocalDateTime.of(2024, 5, 1, 8, 0), "c", null);
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertTrue(journal.enqueued("bulk", "a", "1", Lane.BULK, null));
+            assertTrue(journal.enqueued("expired", "b", "2", Lane.SCHEDULED, Instant.now().minusSeconds(1)));
+            assertTrue(journal.enqueued("template", "c", "Hi", context, Lane.INTERACTIVE, later));
+        }
+        RecordingSender sender = new RecordingSender();
+        OutboundQueue queue = new OutboundQueue(sender, 10, Backpressure.BLOCK);
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            List<OutboxJournal.Entry> pending = journal.getPending();
+            assertEquals(Lane.BULK, pending.get(0).getLane());
+            assertNull(pending.get(0).getExpires());
+            assertEquals(Lane.INTERACTIVE, pending.get(2).getLane());
+            assertEquals(later.toEpochMilli(), pending.get(2).getExpires().toEpochMilli());
+            queue.setJournal(journal);
+            assertEquals(2, queue.replayJournal());
+            assertEquals(State.EXPIRED, journal.getState("expired"));
+            for (int i = 0; i < 500 && journal.getPending().size() > 0; i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(queue.shutdown(Duration.ofSeconds(5)));
+            assertEquals(State.SENT, journal.getState("bulk"));
+            assertEquals(State.SENT, journal.getState("template"));
+            assertFalse(sender.calls.contains("2"));
+        }
+    }
+}
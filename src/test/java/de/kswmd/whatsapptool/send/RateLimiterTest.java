@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.send;
+
+import java.time.Duration;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class RateLimiterTest {
+
+    public RateLimiterTest() {
+    }
+
+    @Test
+    public void testRecipientBurst() {
+        RateLimiter limiter = new RateLimiter(Duration.ZERO, 1, Duration.ofSeconds(10), 2);
+        assertEquals(2, limiter.getAvailable("a"));
+        assertEquals(Duration.ZERO, limiter.reserve("a"));
+        assertEquals(Duration.ZERO, limiter.reserve("a"));
+        assertEquals(0, limiter.getAvailable("a"));
+        Duration delay = limiter.getDelay("a");
+        assertTrue(delay.compareTo(Duration.ofSeconds(9)) > 0 && delay.compareTo(Duration.ofSeconds(10)) <= 0, delay.toString());
+        //other recipients are not affected
+        assertEquals(Duration.ZERO, limiter.getDelay("b"));
+        assertEquals(2, limiter.getAvailable("b"));
+        assertEquals(0, limiter.getStalls());
+        //a reservation without token tells how long to wait
+        assertTrue(limiter.reserve("a").compareTo(Duration.ofSeconds(9)) > 0);
+        assertEquals(1, limiter.getStalls());
+        assertEquals(3, limiter.getPermits());
+    }
+
+    @Test
+    public void testGlobal() throws Exception {
+        RateLimiter limiter = new RateLimiter(Duration.ofMillis(100), 1, Duration.ZERO, 1);
+        assertEquals(Duration.ZERO, limiter.reserve("a"));
+        assertFalse(limiter.getDelay("b").isZero());
+        Thread.sleep(150);
+        assertEquals(Duration.ZERO, limiter.getDelay("b"));
+        assertEquals(1, limiter.getAvailable("b"));
+        assertEquals(Duration.ZERO, limiter.reserve("b"));
+    }
+
+    @Test
+    public void testInterval() {
+        assertEquals(Duration.ofSeconds(3), RateLimiter.interval(20));
+        assertEquals(Duration.ZERO, RateLimiter.interval(0));
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.text;
+
+import de.kswmd.whatsapptool.MiscConstants;
+import de.kswmd.whatsapptool.utils.PathResolver;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class EmojiTableTest {
+
+    static {
+        System.setProperty(MiscConstants.KEY_LOG_FILE_PATH, PathResolver.getJarFilePathOrWorkingDirectory().toString() + "/logs");
+    }
+
+    public EmojiTableTest() {
+    }
+
+    /**
+     * Test of lookup method, of class EmojiTable.
+     */
+    @Test
+    public void testLookup() {
+        assertEquals(Optional.of("😂"), EmojiTable.lookup("FACE_WITH_TEARS_OF_JOY"));
+        //without Emoji_Presentation the variation selector is appended
+        assertEquals(Optional.of("©️"), EmojiTable.lookup("copyright sign"));
+        //CLDR names
+        assertEquals(Optional.of("❤️"), EmojiTable.lookup("red heart"));
+        assertEquals(Optional.of("❤️"), EmojiTable.lookup("HEAVY_BLACK_HEART"));
+        assertEquals(Optional.of("👍"), EmojiTable.lookup("Thumbs-Up"));
+        //sequences
+        assertEquals(Optional.of("7️⃣"), EmojiTable.lookup("keycap: 7"));
+        assertEquals(Optional.of("🇩🇪"), EmojiTable.lookup("flag: Germany"));
+        assertEquals(Optional.of("🇨🇮"), EmojiTable.lookup("FLAG_COTE_D_IVOIRE"));
+        assertEquals(Optional.of("❤️‍🔥"), EmojiTable.lookup("heart on fire"));
+        assertEquals(Optional.empty(), EmojiTable.lookup("no such emoji"));
+        assertEquals(Optional.empty(), EmojiTable.lookup(null));
+    }
+
+    /**
+     * Test of normalize method, of class EmojiTable.
+     */
+    @Test
+    public void testNormalize() {
+        assertEquals("FLAG_COTE_D_IVOIRE", EmojiTable.normalize(" flag: Côte d’Ivoire "));
+        assertEquals("SMILING_FACE_WITH_HEART_EYES", EmojiTable.normalize("smiling face with heart-eyes"));
+    }
+}
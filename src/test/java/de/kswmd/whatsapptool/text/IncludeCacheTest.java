@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2023 Kai Denzel.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.whatsapptool.text;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Kai Denzel
+ */
+public class IncludeCacheTest {
+
+    public IncludeCacheTest() {
+    }
+
+    /**
+     * Test of read method for a growing file, of class IncludeCache.
+     */
+    @Test
+    public void testReadAppended() throws IOException {
+        Path file = Files.createTempFile("include", ".txt");
+        try {
+            IncludeCache cache = new IncludeCache(1024, 4);
+            Files.writeString(file, "line 1\n");
+            assertEquals("line 1\n", cache.read(file));
+            assertEquals("line 1\n", cache.read(file));
+            assertEquals(1, cache.getHits());
+
+            byte[] umlaut = "ü".getBytes(StandardCharsets.UTF_8);
+            Files.write(file, new byte[]{'l', 'i', 'n', 'e', ' ', umlaut[0]}, StandardOpenOption.APPEND);
+            assertEquals("line 1\nline ", cache.read(file));
+            Files.write(file, new byte[]{umlaut[1], '\n'}, StandardOpenOption.APPEND);
+            assertEquals("line 1\nline ü\n", cache.read(file));
+            assertEquals(2, cache.getAppends());
+
+            Files.writeString(file, "rewritten\n");
+            assertEquals("rewritten\n", cache.read(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Test of read method for files larger than the maximum, of class
+     * IncludeCache.
+     */
+    @Test
+    public void testReadTruncated() throws IOException {
+        Path file = Files.createTempFile("include", ".txt");
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; sb.length() < 2 * IncludeCache.MMAP_THRESHOLD; i++) {
+                sb.append("line ").append(i).append('\n');
+            }
+            Files.writeString(file, sb);
+            IncludeCache cache = new IncludeCache(IncludeCache.MMAP_THRESHOLD, 4);
+            String text = cache.read(file);
+            assertTrue(text.startsWith(IncludeCache.TRUNCATION_MARKER + "line "));
+            assertTrue(sb.toString().endsWith(text.substring(IncludeCache.TRUNCATION_MARKER.length())));
+            assertTrue(text.length() <= IncludeCache.MMAP_THRESHOLD + IncludeCache.TRUNCATION_MARKER.length());
+
+            Files.writeString(file, "last line\n", StandardOpenOption.APPEND);
+            text = cache.read(file);
+            assertTrue(text.startsWith(IncludeCache.TRUNCATION_MARKER + "line "));
+            assertTrue(text.endsWith("\nlast line\n"));
+            assertTrue(text.length() <= IncludeCache.MMAP_THRESHOLD + IncludeCache.TRUNCATION_MARKER.length());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Test of cyclic attachments, of class MessageParser.
+     */
+    @Test
+    public void testCyclicAttach() throws IOException {
+        Path a = Files.createTempFile("attach-a", ".txt");
+        Path b = Files.createTempFile("attach-b", ".txt");
+        try {
+            Files.writeString(a, "a [attach:" + b + "]");
+            Files.writeString(b, "b [attach:" + a + "]");
+            assertEquals("a b [attach:" + a + "]", MessageParser.DEFAULT_PARSER.format("[attach:" + a + "]"));
+        } finally {
+            Files.deleteIfExists(a);
+            Files.deleteIfExists(b);
+        }
+    }
+}
@@ -30,6 +30,11 @@ import de.kswmd.whatsapptool.contacts.Message;
 import de.kswmd.whatsapptool.utils.PathResolver;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -98,6 +103,97 @@ public class MessageParserTest {
 
     }
     
+    @Test
+    public void testFormatCompiledTemplate() throws Exception {
+        MessageParser instance = MessageParser.DEFAULT_PARSER;
+        Entity e = new Entity();
+        e.setIdentifier("Kai Denzel");
+        Message m = new Message();
+        m.setEntity(e);
+        m.setCronExpression("0 * * ? * * *");
+        m.setContent("Hi [identifier], \\[identifier\\] \"[identifier]\" [unknown:x] [date:yyyy");
+        String expected = "Hi Kai Denzel, [identifier] [identifier] [unknown:x] [date:yyyy";
+        assertEquals(expected, instance.format(m));
+        assertEquals(expected, instance.format(m));
+        assertEquals("[identifier]", instance.format("[identifier]"));
+        assertEquals(String.valueOf(LocalDate.now().getYear()), instance.format("[date:yyyy]"));
+        Template template = instance.compile("a \\\"b\" [emoji:grinning_face] [date] c");
+        assertEquals(3, template.size());
+        assertTrue(instance.compile("\"[date]\" \\[time]").isStatic());
+    }
+
+    @Test
+    public void testFormatParallel() throws Exception {
+        MessageParser instance = MessageParser.DEFAULT_PARSER;
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Entity e = new Entity();
+            e.setIdentifier("Contact " + i);
+            Message m = new Message();
+            m.setEntity(e);
+            m.setCronExpression("0 " + (i % 60) + " * ? * * *");
+            m.setContent("Hello [identifier] ([cronexpression]) [date:yyyy]");
+            messages.add(m);
+        }
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (Message m : messages) {
+            results.add(instance.formatAsync(m));
+        }
+        String year = String.valueOf(LocalDate.now().getYear());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals("Hello Contact " + i + " (0 " + (i % 60) + " * ? * * *) " + year, results.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals("[identifier]", instance.format("[identifier]", RenderContext.now()));
+    }
+
+    @Test
+    public void testSource() throws Exception {
+        Path file = Files.createTempFile("include", ".txt");
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                sb.append("line ").append(i).append(" \uD83D\uDE00\n");
+            }
+            Files.writeString(file, sb);
+            String text = "[identifier]:\n[file:" + file + "]\"[attach:x]\"";
+            Entity e = new Entity();
+            e.setIdentifier("Kai Denzel");
+            Message m = new Message();
+            m.setEntity(e);
+            m.setCronExpression("0 * * ? * * *");
+            m.setContent(text);
+            RenderContext context = RenderContext.of(m);
+            String expected = MessageParser.DEFAULT_PARSER.format(text, context);
+            assertEquals("Kai Denzel:\n" + sb + "[attach:x]", expected);
+
+            TextSource source = MessageParser.DEFAULT_PARSER.source(text, context);
+            StringBuilder result = new StringBuilder();
+            List<Integer> sizes = new ArrayList<>();
+            source.emit(100, WhatsAppHelper.SHIFT_ENTER, segment -> {
+                sizes.add(segment.length());
+                result.append(segment);
+            });
+            assertEquals(expected.replace("\n", WhatsAppHelper.SHIFT_ENTER), result.toString());
+            assertTrue(sizes.size() > 100);
+            assertTrue(sizes.stream().allMatch(size -> size <= 100));
+            assertEquals(expected, source.asString());
+            assertEquals(expected, MessageParser.DEFAULT_PARSER.prepare(m).asString());
+
+            //an error of the consumer while the include is emitted isn't
+            //replaced by the include text, the sender has to see it
+            List<CharSequence> typed = new ArrayList<>();
+            assertThrows(IllegalStateException.class, () -> source.emit(100, null, segment -> {
+                if (typed.size() == 5) {
+                    throw new IllegalStateException("browser gone");
+                }
+                typed.add(segment.toString());
+            }));
+            assertEquals(5, typed.size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
     @Test
     public void testKeys(){
         assertEquals(2,WhatsAppHelper.SHIFT_ENTER.length());